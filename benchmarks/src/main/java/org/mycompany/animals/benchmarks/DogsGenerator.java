@@ -0,0 +1,128 @@
+package org.mycompany.animals.benchmarks;
+
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+
+/**
+ * Generator of synthetic dogs XML files for the benchmarks. Dogs are spread across all the {@link DogBreed} values,
+ * with weights around a typical value per breed and dates of birth between 1995 and 2020. Names repeat as in a real
+ * registry: there is a distinct name per {@link #DOGS_PER_NAME} dogs, and a few of them are much more common than
+ * the rest, so name lookups return many dogs for the common names and a few for the others.
+ * Files are deterministic for a given number of dogs and are cached in the temporary directory, so they are only
+ * written once.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class DogsGenerator {
+
+    /**
+     * Seed of the random values, so the same file is generated for the same number of dogs.
+     */
+    private static final long SEED = 20191107L;
+
+    /**
+     * Average number of dogs sharing a name.
+     */
+    public static final int DOGS_PER_NAME = 20;
+
+    private static final String[] NAMES = {
+            "Ace", "Baldi", "Bella", "Corrie", "Dorie", "Etnya", "Fuji", "Hachi", "Havko", "Kuki", "Labbie", "Lassie",
+            "Luka", "Max", "Nikko", "Rex", "Riki", "Rocky", "Snowy", "Speedy", "Toby", "Zeus"
+    };
+
+    /**
+     * Typical weight of every breed, indexed by ordinal.
+     */
+    private static final double[] TYPICAL_WEIGHTS = {38, 45, 10, 22, 32, 30, 29, 8, 25};
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+    private static final long FIRST_DAY = LocalDate.of(1995, 1, 1).toEpochDay();
+
+    private static final long LAST_DAY = LocalDate.of(2020, 12, 31).toEpochDay();
+
+    private DogsGenerator() {
+    }
+
+    /**
+     * @param rank Rank of a name by number of dogs, from 0 for the most common one
+     * @return Name with that rank in every generated file
+     */
+    public static String name(int rank) {
+        String name = NAMES[rank % NAMES.length];
+        return rank < NAMES.length ? name : name + " " + (rank / NAMES.length + 1);
+    }
+
+    /**
+     * Returns a file with the number of dogs passed as argument, generating it if it is not cached yet.
+     * @param dogs Number of dogs in the file
+     * @return {@link Path} of the file
+     * @throws IOException in case the file can not be written
+     */
+    public static Path file(int dogs) throws IOException {
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "animals-registry-benchmarks");
+        Path file = directory.resolve("dogs-" + dogs + "-names.xml");
+        if (!Files.exists(file)) {
+            Files.createDirectories(directory);
+            Path tmpFile = Files.createTempFile(directory, "dogs-" + dogs, ".tmp");
+            write(tmpFile, dogs);
+            Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a file with the number of dogs passed as argument.
+     * @param file {@link Path} of the file to write
+     * @param dogs Number of dogs in the file
+     * @throws IOException in case the file can not be written
+     */
+    public static void write(Path file, int dogs) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        DogBreed[] breeds = DogBreed.values();
+        int names = Math.max(NAMES.length, dogs / DOGS_PER_NAME);
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<dogs>\n");
+            for (int i = 0; i < dogs; i++) {
+                int breed = random.nextInt(breeds.length);
+                double weight = Math.max(1, TYPICAL_WEIGHTS[breed] + random.nextInt(-100, 101) / 10.0);
+                LocalDate dateOfBirth = LocalDate.ofEpochDay(random.nextLong(FIRST_DAY, LAST_DAY + 1));
+                writer.write("  <dog name=\"");
+                // cubing a uniform value skews the ranks towards 0, so the first names are the most common ones
+                writer.write(name((int) (names * Math.pow(random.nextDouble(), 3))));
+                writer.write("\">\n    <dateOfBirth>");
+                writer.write(DATE_FORMAT.format(dateOfBirth));
+                writer.write("</dateOfBirth>\n    <weight>");
+                writer.write(Double.toString(weight));
+                writer.write("</weight>\n    <breed>");
+                writer.write(breeds[breed].value());
+                writer.write("</breed>\n  </dog>\n");
+            }
+            writer.write("</dogs>\n");
+        }
+    }
+
+    /**
+     * Writes a file from the command line.
+     * @param args Number of dogs and path of the file to write
+     * @throws IOException in case the file can not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: DogsGenerator <number of dogs> <file>");
+            System.exit(1);
+        }
+        write(Paths.get(args[1]), Integer.parseInt(args[0]));
+    }
+}
@@ -0,0 +1,64 @@
+package org.mycompany.animals.benchmarks;
+
+import org.mycompany.animals.dogs.DogRegistry;
+import org.mycompany.animals.dogs.DogRegistryFactory;
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.LoadMode;
+import org.mycompany.animals.dogs.config.StorageMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of {@link DogRegistryFactory#load(String)} for every load and storage mode.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"1000", "100000"})
+    private int dogs;
+
+    @Param({"JAXB", "STREAMING", "PARALLEL"})
+    private LoadMode loadMode;
+
+    @Param({"OBJECTS", "COLUMNAR"})
+    private StorageMode storageMode;
+
+    private String fileName;
+
+    private DogRegistryFactory factory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fileName = DogsGenerator.file(dogs).toString();
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(loadMode);
+        config.setStorageMode(storageMode);
+        factory = new DogRegistryFactory(config);
+    }
+
+    @Benchmark
+    public DogRegistry load() throws JAXBException {
+        return factory.load(fileName);
+    }
+}
@@ -0,0 +1,66 @@
+package org.mycompany.animals.benchmarks;
+
+import org.mycompany.animals.dogs.DogRegistryFactory;
+import org.mycompany.animals.dogs.MutableDogRegistry;
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.LoadMode;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the writes of a {@link MutableDogRegistry}. Every invocation registers a dog and deregisters it
+ * again, so the size of the registry does not change between iterations.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MutationBenchmark {
+
+    @Param({"1000", "100000"})
+    private int dogs;
+
+    private MutableDogRegistry<DogBreed> registry;
+
+    private Dog dog;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException, JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        registry = (MutableDogRegistry<DogBreed>) new DogRegistryFactory(config)
+                .load(DogsGenerator.file(dogs).toString());
+        dog = new Dog();
+        dog.setName("Benchmark");
+        dog.setDateOfBirth("15-06-2008");
+        dog.setWeight(30);
+        dog.setBreed(DogBreed.LABRADOR_RETRIEVER);
+    }
+
+    @Benchmark
+    public boolean registerAndDeregister() {
+        registry.register(dog);
+        return registry.deregister(dog.getName());
+    }
+}
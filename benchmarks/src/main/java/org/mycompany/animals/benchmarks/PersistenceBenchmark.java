@@ -0,0 +1,96 @@
+package org.mycompany.animals.benchmarks;
+
+import org.mycompany.animals.dogs.DogRegistryFactory;
+import org.mycompany.animals.dogs.PersistentDogRegistry;
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.FsyncPolicy;
+import org.mycompany.animals.dogs.config.LoadMode;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of the writes and checkpoints of a {@link PersistentDogRegistry} for every {@link FsyncPolicy}. The
+ * registry is imported once per trial out of a generated file into a new directory, deleted afterwards. Every
+ * invocation registers a dog and deregisters it again, so the size of the registry does not change between
+ * iterations, while the log grows.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000"})
+    private int dogs;
+
+    @Param({"ALWAYS", "INTERVAL", "NEVER"})
+    private FsyncPolicy fsyncPolicy;
+
+    private Path directory;
+
+    private PersistentDogRegistry registry;
+
+    private Dog dog;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JAXBException {
+        directory = Files.createTempDirectory("animals-registry-benchmarks");
+        Files.copy(DogsGenerator.file(dogs), directory.resolve("dogs.xml"));
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        config.setFsyncPolicy(fsyncPolicy);
+        registry = new DogRegistryFactory(config).openPersistent(directory.toString());
+        dog = new Dog();
+        dog.setName("Benchmark");
+        dog.setDateOfBirth("15-06-2008");
+        dog.setWeight(30);
+        dog.setBreed(DogBreed.LABRADOR_RETRIEVER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        registry.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public boolean registerAndDeregister() {
+        registry.register(dog);
+        return registry.deregister(dog.getName());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long checkpoint() throws IOException {
+        registry.checkpoint();
+        return registry.getCheckpoints();
+    }
+}
@@ -0,0 +1,177 @@
+package org.mycompany.animals.benchmarks;
+
+import org.mycompany.animals.dogs.DogBatch;
+import org.mycompany.animals.dogs.DogBatchResult;
+import org.mycompany.animals.dogs.DogOrder;
+import org.mycompany.animals.dogs.DogQuery;
+import org.mycompany.animals.dogs.DogRegistry;
+import org.mycompany.animals.dogs.DogRegistryFactory;
+import org.mycompany.animals.dogs.WeightStatistics;
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.LoadMode;
+import org.mycompany.animals.dogs.config.StorageMode;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmark of every {@link DogRegistry} query over a registry loaded once per trial. Conditions are benchmarked
+ * both as an opaque {@link Predicate} and as the equivalent {@link DogQuery}, so the gain of the query routing is
+ * visible. Names are looked up both for the most common name of the generated files and for a rare one.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final LocalDate FROM = LocalDate.of(2010, 1, 1);
+
+    private static final LocalDate TO = LocalDate.of(2010, 12, 31);
+
+    private static final Predicate<Dog> PREDICATE = dog -> dog.getBreed() == DogBreed.SHIBA_INU
+            && dog.getWeight() <= 10 && dog.getDateOfBirth().endsWith("2010");
+
+    private static final DogQuery QUERY = DogQuery.breed(DogBreed.SHIBA_INU)
+            .and(DogQuery.weightAtMost(10))
+            .and(DogQuery.bornBetween(FROM, TO));
+
+    private static final DogQuery HEAVY = DogQuery.weightAtLeast(30);
+
+    private static final String COMMON_NAME = DogsGenerator.name(0);
+
+    private static final String PREFIX = COMMON_NAME.substring(0, 2);
+
+    private DogBatch batch;
+
+    @Param({"1000", "100000"})
+    private int dogs;
+
+    @Param({"OBJECTS", "COLUMNAR", "MAPPED"})
+    private StorageMode storageMode;
+
+    private DogRegistry<DogBreed> registry;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException, JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        config.setStorageMode(storageMode);
+        registry = new DogRegistryFactory(config).load(DogsGenerator.file(dogs).toString());
+        batch = new DogBatch();
+        batch.dogsByCondition(QUERY);
+        batch.countByCondition(HEAVY);
+        batch.countByCondition(PREDICATE);
+        batch.averageWeightPerBreed(HEAVY);
+    }
+
+    @Benchmark
+    public double averageWeight() {
+        return registry.averageWeight(DogBreed.GERMAN_SHEPHERD);
+    }
+
+    @Benchmark
+    public Map<DogBreed, Double> averageWeightPerBreed() {
+        return registry.averageWeightPerBreed();
+    }
+
+    @Benchmark
+    public List<Dog> dogsByPredicate() {
+        return registry.dogsByCondition(PREDICATE);
+    }
+
+    @Benchmark
+    public List<Dog> dogsByQuery() {
+        return registry.dogsByCondition(QUERY);
+    }
+
+    @Benchmark
+    public Dog oldestDogAfterDate() {
+        return registry.oldestDogAfterDate(FROM);
+    }
+
+    @Benchmark
+    public List<Dog> dogsBornBetween() {
+        return registry.dogsBornBetween(FROM, TO);
+    }
+
+    @Benchmark
+    public List<Dog> streamFirstPage() {
+        return registry.streamByCondition(HEAVY).limit(20).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Dog> dogsByConditionPage() {
+        return registry.dogsByCondition(HEAVY, 1000, 20);
+    }
+
+    @Benchmark
+    public long countByQuery() {
+        return registry.countByCondition(HEAVY);
+    }
+
+    @Benchmark
+    public DogBatchResult queryBatch() {
+        return registry.query(batch);
+    }
+
+    @Benchmark
+    public Map<DogBreed, WeightStatistics> weightStatisticsPerBreed() {
+        return registry.weightStatisticsPerBreed();
+    }
+
+    @Benchmark
+    public List<Dog> topHeaviest() {
+        return registry.topDogs(HEAVY, DogOrder.HEAVIEST, 50);
+    }
+
+    @Benchmark
+    public List<Dog> topYoungest() {
+        return registry.topDogs(HEAVY, DogOrder.YOUNGEST, 50);
+    }
+
+    @Benchmark
+    public Map<DogBreed, List<Dog>> topOldestPerBreed() {
+        return registry.topDogsPerBreed(HEAVY, DogOrder.OLDEST, 10);
+    }
+
+    @Benchmark
+    public List<Dog> dogsByCommonName() {
+        return registry.dogsByName(COMMON_NAME);
+    }
+
+    @Benchmark
+    public List<Dog> dogsByRareName() {
+        return registry.dogsByName(DogsGenerator.name(dogs / DogsGenerator.DOGS_PER_NAME - 1));
+    }
+
+    @Benchmark
+    public List<Dog> dogsByNamePrefix() {
+        return registry.dogsByNamePrefix(PREFIX, 20);
+    }
+}
@@ -0,0 +1,39 @@
+package org.mycompany.animals;
+
+import javax.xml.bind.JAXBException;
+
+/**
+ * {@link AnimalFactory} returned by {@link FactoryProvider}, loading files through the shared {@link RegistryCache}
+ * and only asking the factory of the animal type to load the files not kept yet.
+ * @param <T> Type of the registries loaded
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class CachingAnimalFactory<T> implements AnimalFactory<T> {
+
+    private final AnimalType animalType;
+    private final AnimalFactory<T> factory;
+    private final RegistryCache cache;
+
+    /**
+     * @param animalType {@link AnimalType} of the registries loaded
+     * @param factory {@link AnimalFactory} loading the files not kept yet
+     * @param cache {@link RegistryCache} keeping the registries loaded
+     */
+    CachingAnimalFactory(AnimalType animalType, AnimalFactory<T> factory, RegistryCache cache) {
+        this.animalType = animalType;
+        this.factory = factory;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the registry kept for a file, or loads it if there is none or the file has changed since.
+     * @param fileName File name to read
+     * @return Registry loaded out of the file, shared with every other caller loading the same file
+     * @throws JAXBException in case the file can not be loaded
+     */
+    @Override
+    public T load(String fileName) throws JAXBException {
+        return cache.load(animalType, fileName, factory);
+    }
+}
@@ -9,6 +9,10 @@ import java.util.function.Supplier;
 /**
  * Factory provider to get a concrete animal factory {@link AnimalFactory}
  * based on the type of animal passed as an argument in the getFactory method.
+ * <p>The factories returned share a single {@link RegistryCache}, so loading a file which has not changed returns
+ * the registry loaded before instead of parsing the file again. Registries loaded this way are shared by all the
+ * callers: changes made to a mutable one are seen by every other caller of the same file. Callers needing a
+ * registry of their own should create the factory themselves.</p>
  *
  *  @author Antonio Fernandez Alhambra
  */
@@ -20,6 +24,11 @@ public class FactoryProvider {
      */
     private final static Map<AnimalType, Supplier<AnimalFactory>> factoryMap = new HashMap<>();
 
+    /**
+     * Cache of the registries loaded through the factories returned, shared by all of them.
+     */
+    private final static RegistryCache registryCache = new RegistryCache();
+
     static {
         factoryMap.put(AnimalType.DOG, DogRegistryFactory::new);
     }
@@ -27,18 +36,28 @@ public class FactoryProvider {
     /**
      * Returns an instance of a concrete animal factory based on the animal type passed as argument
      * @param animalType {@link AnimalType}
-     * @return A concrete instance of {@link AnimalFactory} available or null
-     * if not available
+     * @return A concrete instance of {@link AnimalFactory} available, loading files through the shared
+     * {@link RegistryCache}
      * @throws IllegalArgumentException Exception to be thrown in case the {@link AnimalType} object passed
      * is not implemented
      */
+    @SuppressWarnings("unchecked")
     public static AnimalFactory getFactory(AnimalType animalType){
 
         Supplier<AnimalFactory> animalFactory = factoryMap.get(animalType);
 
         if (animalFactory != null) {
-            return animalFactory.get();
+            return new CachingAnimalFactory<>(animalType, animalFactory.get(), registryCache);
         }
         throw new IllegalArgumentException("This animal is not available");
     }
+
+    /**
+     * Returns the cache shared by the factories returned by {@link #getFactory(AnimalType)}, to size it, look at
+     * its hits and misses or drop the registries it keeps.
+     * @return Shared {@link RegistryCache}
+     */
+    public static RegistryCache getRegistryCache() {
+        return registryCache;
+    }
 }
\ No newline at end of file
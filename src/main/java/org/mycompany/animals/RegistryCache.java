@@ -0,0 +1,231 @@
+package org.mycompany.animals;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache of the registries loaded through the factories of {@link FactoryProvider}, shared by all of them, so
+ * components loading the same file get the same registry instead of parsing it and holding a copy each.
+ * <p>Registries are kept by {@link AnimalType} and canonical path of the file, along with the size and last
+ * modification time the file had when it was loaded. A file whose size or modification time has changed is loaded
+ * again. Concurrent loads of the same file wait for a single parse, run by the first caller, and a load which fails
+ * is not kept, so the next call tries again. The least recently used registries are evicted once the cache keeps
+ * {@link #getMaxEntries()} of them.</p>
+ * <p>Only regular files are cached. Directories, globs and anything else are loaded on every call.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class RegistryCache {
+
+    /**
+     * Log instance used for logging purposes.
+     */
+    private static final Logger log = LoggerFactory.getLogger(RegistryCache.class);
+
+    /**
+     * Registries kept, from the least to the most recently used. Guarded by the monitor of the cache, as are the
+     * fields below.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int maxEntries = 16;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor only available for the classes in this package.
+     */
+    RegistryCache() {
+    }
+
+    /**
+     * Returns the registry kept for a file, loading it with the factory passed as argument if there is none or the
+     * file has changed since.
+     * @param animalType {@link AnimalType} of the registry
+     * @param fileName Name of the file to load
+     * @param factory {@link AnimalFactory} loading the file
+     * @param <T> Type of the registry
+     * @return Registry loaded out of the current content of the file, shared with every other caller
+     * @throws JAXBException in case the file can not be loaded
+     */
+    @SuppressWarnings("unchecked")
+    <T> T load(AnimalType animalType, String fileName, AnimalFactory<T> factory) throws JAXBException {
+        File file = new File(fileName);
+        Key key;
+        BasicFileAttributes attributes;
+        try {
+            if (!file.isFile()) {
+                return factory.load(fileName);
+            }
+            key = new Key(animalType, file.getCanonicalPath());
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return factory.load(fileName);
+        }
+
+        Entry entry;
+        boolean loader = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && entry.size == attributes.size()
+                    && entry.lastModified.equals(attributes.lastModifiedTime())) {
+                hits++;
+            } else {
+                misses++;
+                entry = new Entry(attributes.size(), attributes.lastModifiedTime(),
+                        new FutureTask<>(() -> factory.load(fileName)));
+                entries.put(key, entry);
+                evict();
+                loader = true;
+            }
+        }
+        if (loader) {
+            entry.registry.run();
+            log.debug("Registry of {} loaded into the cache", key.path);
+        }
+
+        try {
+            return (T) entry.registry.get();
+        } catch (ExecutionException e) {
+            remove(key, entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof JAXBException) {
+                throw (JAXBException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new JAXBException("Unable to load " + fileName, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JAXBException("Interrupted while waiting for " + fileName + " to be loaded", e);
+        }
+    }
+
+    /**
+     * @return Maximum number of registries kept
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of registries kept, evicting the least recently used ones if there are more.
+     * @param maxEntries Maximum number of registries to keep
+     * @throws IllegalArgumentException if the number is less than 1
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Registry cache must keep at least 1 entry: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * @return Number of registries kept
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of loads answered with a registry kept
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of loads which had to parse the file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Drops every registry kept, so the next loads parse their files again.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RegistryCache [entries=" + entries.size() + ", maxEntries=" + maxEntries + ", hits=" + hits
+                + ", misses=" + misses + "]";
+    }
+
+    /**
+     * Drops an entry whose load failed, unless it has already been replaced.
+     */
+    private synchronized void remove(Key key, Entry entry) {
+        entries.remove(key, entry);
+    }
+
+    /**
+     * Evicts the least recently used registries until the cache is within its size. Must be called holding the
+     * monitor of the cache.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries) {
+            log.debug("Registry of {} evicted from the cache", iterator.next().getKey().path);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Key of a registry kept: its animal type and the canonical path of its file.
+     */
+    private static final class Key {
+
+        private final AnimalType animalType;
+        private final String path;
+
+        private Key(AnimalType animalType, String path) {
+            this.animalType = animalType;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && animalType == ((Key) o).animalType && path.equals(((Key) o).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(animalType, path);
+        }
+    }
+
+    /**
+     * Registry kept, or being loaded, along with the size and modification time of the file it is loaded from.
+     */
+    private static final class Entry {
+
+        private final long size;
+        private final FileTime lastModified;
+        private final FutureTask<Object> registry;
+
+        private Entry(long size, FileTime lastModified, FutureTask<Object> registry) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.registry = registry;
+        }
+    }
+}
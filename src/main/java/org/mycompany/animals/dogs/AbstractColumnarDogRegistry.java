@@ -0,0 +1,902 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Base class of the registries storing the dogs in columns rather than as {@link Dog} objects: weights, dates of
+ * birth as days since the epoch, breed ordinals and name ids pointing to a table of distinct names, sorted by name
+ * ignoring case.
+ * Queries are answered here out of the values of every row, whatever the way the subclasses store the columns.
+ * {@link Dog} objects are only built for the dogs returned to the caller, with the date of birth written back with
+ * the configured date format.
+ * <p>Rows are sorted by date of birth, so date queries are answered by binary search.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+abstract class AbstractColumnarDogRegistry implements DogRegistry<DogBreed> {
+
+    /**
+     * Log instance used for logging purposes.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AbstractColumnarDogRegistry.class);
+
+    /**
+     * All the breeds indexed by ordinal, as stored in the breeds column.
+     */
+    private static final DogBreed[] BREEDS = DogBreed.values();
+
+    /**
+     * Value stored in the breeds and name ids columns for a dog without breed or name.
+     */
+    static final int NONE = -1;
+
+    /**
+     * Number of dogs in the registry.
+     */
+    final int size;
+
+    /**
+     * Config instance with the listener notified of every query.
+     */
+    final DogRegistryConfig config;
+
+    /**
+     * Date format used to write the date of birth of the {@link Dog} objects returned.
+     */
+    private final DateTimeFormatter dateFormat;
+
+    /**
+     * Weight aggregates per breed, worked out while the registry is built.
+     */
+    final WeightAggregates aggregates;
+
+    /**
+     * Index of the rows by name, built on the first name lookup. Null until then.
+     */
+    private volatile ColumnarNameIndex nameIndex;
+
+    /**
+     * Sketches of the weights of every breed indexed by ordinal, worked out on the first call to
+     * {@link #weightStatisticsPerBreed()}. Null until then.
+     */
+    private volatile WeightSketch[] sketches;
+
+    /**
+     * @param size Number of dogs in the registry
+     * @param config {@link DogRegistryConfig} with the date format used to write the dates of birth
+     * @param aggregates {@link WeightAggregates} of the weights column
+     */
+    AbstractColumnarDogRegistry(int size, DogRegistryConfig config, WeightAggregates aggregates) {
+        this.size = size;
+        this.config = config;
+        this.dateFormat = config.getDateFormat();
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * @param row Position of a dog
+     * @return Weight of the dog
+     */
+    abstract double weight(int row);
+
+    /**
+     * @param row Position of a dog
+     * @return Date of birth of the dog as days since the epoch
+     */
+    abstract int birthDay(int row);
+
+    /**
+     * @param row Position of a dog
+     * @return Breed ordinal of the dog or {@link #NONE}
+     */
+    abstract int breedOrdinal(int row);
+
+    /**
+     * @param row Position of a dog
+     * @return Position of the name of the dog in the names table or {@link #NONE}
+     */
+    abstract int nameId(int row);
+
+    /**
+     * @return Number of distinct names in the names table, sorted by {@link ColumnarNameIndex#BY_NAME}
+     */
+    abstract int nameCount();
+
+    /**
+     * @param nameId Position of a name in the names table
+     * @return Name at that position
+     */
+    abstract String nameOf(int nameId);
+
+    /**
+     * @param day Day since the epoch
+     * @return Position of the first dog born on or after that day, or size if there is none
+     */
+    abstract int lowerBound(long day);
+
+    /**
+     * @param day Day since the epoch
+     * @return Position of the first dog born after that day, or size if there is none
+     */
+    abstract int upperBound(long day);
+
+    /**
+     * Computes an average weight for a particular breed accepting breed as a parameter
+     * @param breed {@link DogBreed} object to computes the average.
+     * @return Weight average of this particular breed.
+     */
+    @Override
+    public double averageWeight(DogBreed breed) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        double averageWeight = aggregates.average(breed.ordinal());
+        if (log.isDebugEnabled()) {
+            log.debug("{} average weight is {}", breed.value(), averageWeight);
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.AVERAGE_WEIGHT, System.nanoTime() - start, 0, 0);
+        }
+        return averageWeight;
+    }
+
+    /**
+     * Returns average weight per breed for all breeds
+     * @return {@link EnumMap} Where {@link DogBreed} is the key used for this class and the value is a
+     * {@link Double} object as the average weight
+     */
+    @Override
+    public EnumMap<DogBreed, Double> averageWeightPerBreed() {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        EnumMap<DogBreed, Double> enumMap = aggregates.averages();
+        log.debug("Average Weight for all breeds: {}", enumMap);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.AVERAGE_WEIGHT_PER_BREED, System.nanoTime() - start, 0, 0);
+        }
+        return enumMap;
+    }
+
+    /**
+     * Returns weight statistics per breed for all breeds, out of sketches of the weights column worked out in a
+     * single pass on the first call and kept afterwards, as the registry never changes. Registries larger than
+     * {@link DogRegistryConfig#getParallelThreshold()} are split in a slice of rows per processor, whose sketches
+     * are merged.
+     * @return {@link EnumMap} with the {@link WeightStatistics} of every breed with at least one dog
+     */
+    @Override
+    public EnumMap<DogBreed, WeightStatistics> weightStatisticsPerBreed() {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        EnumMap<DogBreed, WeightStatistics> enumMap =
+                WeightSketch.statistics(sketches(config.getWeightSketchAccuracy()));
+        log.debug("Weight statistics for all breeds: {}", enumMap);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.WEIGHT_STATISTICS_PER_BREED, System.nanoTime() - start, 0, 0);
+        }
+        return enumMap;
+    }
+
+    /**
+     * @param accuracy Relative accuracy of the sketches
+     * @return {@link WeightSketch} of every breed indexed by ordinal, worked out if this is the first call or the
+     * accuracy has changed
+     */
+    private WeightSketch[] sketches(double accuracy) {
+        WeightSketch[] current = sketches;
+        if (current == null || current[0].accuracy() != accuracy) {
+            synchronized (this) {
+                current = sketches;
+                if (current == null || current[0].accuracy() != accuracy) {
+                    int slices = size >= config.getParallelThreshold()
+                            ? Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size)) : 1;
+                    IntStream stream = IntStream.range(0, slices);
+                    if (slices > 1) {
+                        stream = stream.parallel();
+                    }
+                    WeightSketch[][] sliceSketches = stream
+                            .mapToObj(slice -> sketches(accuracy, (int) ((long) size * slice / slices),
+                                    (int) ((long) size * (slice + 1) / slices)))
+                            .toArray(WeightSketch[][]::new);
+                    current = sliceSketches[0];
+                    for (int slice = 1; slice < slices; slice++) {
+                        for (int ordinal = 0; ordinal < current.length; ordinal++) {
+                            current[ordinal].add(sliceSketches[slice][ordinal]);
+                        }
+                    }
+                    sketches = current;
+                    log.debug("Weight sketches built");
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @param accuracy Relative accuracy of the sketches
+     * @param from First row of the slice
+     * @param to Row after the last one of the slice
+     * @return {@link WeightSketch} of every breed indexed by ordinal over the rows of the slice
+     */
+    private WeightSketch[] sketches(double accuracy, int from, int to) {
+        WeightSketch[] sliceSketches = new WeightSketch[BREEDS.length];
+        for (int ordinal = 0; ordinal < sliceSketches.length; ordinal++) {
+            sliceSketches[ordinal] = new WeightSketch(accuracy);
+        }
+        for (int row = from; row < to; row++) {
+            int ordinal = breedOrdinal(row);
+            if (ordinal != NONE) {
+                sliceSketches[ordinal].add(weight(row));
+            }
+        }
+        return sliceSketches;
+    }
+
+    /**
+     * Returns a list of all dogs based on some predicate, which is passed as a parameter.
+     * If the predicate is a {@link DogQuery}, it is evaluated straight against the columns of the rows born within
+     * the dates it allows, and {@link Dog} views are only built for the matching rows. Any other predicate needs a
+     * {@link Dog} view of every row.
+     * @param predicate {@link Predicate} containing the predicate to be queried against the list of dogs.
+     * @return {@link List} List of dog which satisfy the condition passed as argument
+     */
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<Dog> dogs = new ArrayList<>();
+        long scanned = size;
+        if (predicate instanceof DogQuery) {
+            DogQuery query = (DogQuery) predicate;
+            int first = lowerBound(query.minBirthDay());
+            int last = upperBound(query.maxBirthDay());
+            scanned = Math.max(0, last - first);
+            boolean[] breedMask = breedMask(query.breeds());
+            for (int i = first; i < last; i++) {
+                int ordinal = breedOrdinal(i);
+                if ((breedMask == null || (ordinal != NONE && breedMask[ordinal])) && matches(query, i)) {
+                    dogs.add(dog(i));
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                Dog dog = dog(i);
+                if (predicate.test(dog)) {
+                    dogs.add(dog);
+                }
+            }
+        }
+        log.debug("Dogs meeting condition: {}", DogsSummary.of(dogs));
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BY_CONDITION, System.nanoTime() - start, scanned, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Returns the dogs satisfying a condition as a lazy stream, in the order of the rows. Rows are only tested as
+     * the stream is consumed and {@link Dog} views are only built for the matching ones. The stream is reported to
+     * the listener once exhausted or closed.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return {@link Stream} of the dogs which satisfy the condition
+     */
+    @Override
+    public Stream<Dog> streamByCondition(Predicate<Dog> predicate) {
+        MatchIterator dogs = new MatchIterator(predicate);
+        return ReportingIterator.stream(dogs, config.getListener(), DogRegistryMethod.STREAM_BY_CONDITION,
+                () -> dogs.row - dogs.first);
+    }
+
+    /**
+     * Counts the dogs satisfying a condition. A {@link DogQuery} is tested straight against the columns, without
+     * building any {@link Dog} view.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return Number of dogs which satisfy the condition
+     */
+    @Override
+    public long countByCondition(Predicate<Dog> predicate) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        int first = first(predicate);
+        int end = end(predicate);
+        boolean[] breedMask = predicate instanceof DogQuery ? breedMask(((DogQuery) predicate).breeds()) : null;
+        long count = 0;
+        for (int i = first; i < end; i++) {
+            if (matches(predicate, breedMask, i)) {
+                count++;
+            }
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.COUNT_BY_CONDITION, System.nanoTime() - start, end - first,
+                    (int) Math.min(Integer.MAX_VALUE, count));
+        }
+        return count;
+    }
+
+    /**
+     * Passes the dogs satisfying a condition to a visitor, in the order of the rows, testing them one at a time
+     * until the visitor asks to stop.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param visitor {@link DogVisitor} called for every dog which satisfies the condition
+     * @return Number of dogs passed to the visitor
+     */
+    @Override
+    public long visitByCondition(Predicate<Dog> predicate, DogVisitor visitor) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        MatchIterator dogs = new MatchIterator(predicate);
+        long visited = 0;
+        while (dogs.hasNext()) {
+            visited++;
+            if (!visitor.visit(dogs.next())) {
+                break;
+            }
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.VISIT_BY_CONDITION, System.nanoTime() - start,
+                    dogs.row - dogs.first, (int) Math.min(Integer.MAX_VALUE, visited));
+        }
+        return visited;
+    }
+
+    /**
+     * Answers all the queries of a batch in a single pass over the rows, from the first row any query may match to
+     * the last one. {@link DogQuery} queries are tested straight against the columns, only between the rows born
+     * within their dates, and a single {@link Dog} view is built per row for the other queries and the dogs
+     * returned. Registries larger than {@link DogRegistryConfig#getParallelThreshold()} are split in a slice of
+     * rows per processor, scanned in parallel.
+     * @param batch {@link DogBatch} with the queries to answer
+     * @return {@link DogBatchResult} with the result of every query
+     */
+    @Override
+    public DogBatchResult query(DogBatch batch) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<DogBatch.Query<?>> queries = batch.queries();
+        int[] firsts = new int[queries.size()];
+        int[] ends = new int[queries.size()];
+        boolean[][] breedMasks = new boolean[queries.size()][];
+        int from = size;
+        int to = 0;
+        for (int q = 0; q < firsts.length; q++) {
+            Predicate<Dog> predicate = queries.get(q).predicate;
+            firsts[q] = first(predicate);
+            ends[q] = end(predicate);
+            breedMasks[q] = predicate instanceof DogQuery ? breedMask(((DogQuery) predicate).breeds()) : null;
+            if (firsts[q] < ends[q]) {
+                from = Math.min(from, firsts[q]);
+                to = Math.max(to, ends[q]);
+            }
+        }
+        int slices = 1;
+        if (size >= config.getParallelThreshold()) {
+            slices = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), to - from));
+        }
+        int first = from;
+        int length = Math.max(0, to - from);
+        IntStream stream = IntStream.range(0, slices);
+        if (slices > 1) {
+            stream = stream.parallel();
+        }
+        int sliceCount = slices;
+        DogBatchScan[] scans = stream
+                .mapToObj(slice -> scan(batch, firsts, ends, breedMasks,
+                        first + (int) ((long) length * slice / sliceCount),
+                        first + (int) ((long) length * (slice + 1) / sliceCount)))
+                .toArray(DogBatchScan[]::new);
+        DogBatchScan scan = new DogBatchScan(batch);
+        for (DogBatchScan sliceScan : scans) {
+            scan.add(sliceScan);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Batch of {} queries answered scanning {} dogs", batch.size(), scan.scanned());
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.QUERY_BATCH, System.nanoTime() - start, scan.scanned(),
+                    (int) Math.min(Integer.MAX_VALUE, scan.returned()));
+        }
+        return scan.result();
+    }
+
+    /**
+     * Tests a slice of the rows against the queries of a batch.
+     * @param batch {@link DogBatch} to answer
+     * @param firsts First row every query may match
+     * @param ends Row after the last one every query may match
+     * @param breedMasks Breeds allowed by every query, as returned by {@link #breedMask(Set)}
+     * @param from First row of the slice
+     * @param to Row after the last one of the slice
+     * @return {@link DogBatchScan} with the matches of the slice
+     */
+    private DogBatchScan scan(DogBatch batch, int[] firsts, int[] ends, boolean[][] breedMasks, int from, int to) {
+        DogBatchScan scan = new DogBatchScan(batch);
+        List<DogBatch.Query<?>> queries = scan.queries();
+        for (int row = from; row < to; row++) {
+            Dog view = null;
+            for (int q = 0; q < firsts.length; q++) {
+                if (row < firsts[q] || row >= ends[q]) {
+                    continue;
+                }
+                Predicate<Dog> predicate = queries.get(q).predicate;
+                boolean matches;
+                if (predicate instanceof DogQuery) {
+                    matches = matches(predicate, breedMasks[q], row);
+                } else {
+                    if (view == null) {
+                        view = dog(row);
+                    }
+                    matches = predicate.test(view);
+                }
+                if (matches) {
+                    scan.match(q, breedOrdinal(row), weight(row));
+                    if (scan.collects(q)) {
+                        if (view == null) {
+                            view = dog(row);
+                        }
+                        scan.add(q, view);
+                    }
+                }
+            }
+        }
+        scan.scanned(to - from);
+        return scan;
+    }
+
+    /**
+     * Returns the oldest dog born after a certain date passed as argument
+     * @param date {@link LocalDate}
+     * @return Oldest {@link Dog} object born after the date passed as argument.
+     */
+    @Override
+    public Dog oldestDogAfterDate(LocalDate date) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        int first = upperBound(date.toEpochDay());
+        Dog oldestDog = null;
+        if (first < size) {
+            // the last one born that day, as returned by the other registries
+            oldestDog = dog(upperBound(birthDay(first)) - 1);
+        }
+        log.debug("Oldest dog born after {} is {}", date, oldestDog);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.OLDEST_DOG_AFTER_DATE, System.nanoTime() - start, 0,
+                    oldestDog == null ? 0 : 1);
+        }
+        return oldestDog;
+    }
+
+    /**
+     * Returns all the dogs born between two dates passed as argument, both included
+     * @param from {@link LocalDate} first date of birth to include
+     * @param to {@link LocalDate} last date of birth to include
+     * @return {@link List} List of dogs born between both dates, from the oldest to the youngest
+     */
+    @Override
+    public List<Dog> dogsBornBetween(LocalDate from, LocalDate to) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        int first = lowerBound(from.toEpochDay());
+        int last = upperBound(to.toEpochDay());
+        List<Dog> dogs = new ArrayList<>(Math.max(0, last - first));
+        for (int i = first; i < last; i++) {
+            dogs.add(dog(i));
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Dogs born between {} and {}: {}", from, to, DogsSummary.of(dogs));
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BORN_BETWEEN, System.nanoTime() - start, 0, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Returns the first dogs satisfying a condition in an order, keeping the rows found so far in a heap of the
+     * size of the limit. Rows being sorted by date of birth, the oldest and youngest dogs are found scanning from
+     * either end and stopping as soon as the heap is full. Heaviest and lightest dogs of registries larger than
+     * {@link DogRegistryConfig#getParallelThreshold()} are picked in a slice of rows per processor in parallel.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return
+     * @return {@link List} List of at most limit dogs which satisfy the condition, in that order
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    @Override
+    public List<Dog> topDogs(Predicate<Dog> predicate, DogOrder order, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        long[] tested = new long[1];
+        List<Dog> dogs = dogs(top(predicate, order, limit, false, tested).get(0));
+        if (log.isDebugEnabled()) {
+            log.debug("Top {} {} dogs: {}", limit, order, DogsSummary.of(dogs));
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.TOP_DOGS, System.nanoTime() - start, tested[0], dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Returns the first dogs of every breed satisfying a condition in an order, keeping the rows found so far in a
+     * heap of the size of the limit per breed.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return per breed
+     * @return {@link EnumMap} with at most limit dogs in that order for every breed with at least one dog which
+     * satisfies the condition
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    @Override
+    public EnumMap<DogBreed, List<Dog>> topDogsPerBreed(Predicate<Dog> predicate, DogOrder order, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        long[] tested = new long[1];
+        List<TopK<Integer>> tops = top(predicate, order, limit, true, tested);
+        EnumMap<DogBreed, List<Dog>> enumMap = new EnumMap<>(DogBreed.class);
+        int returned = 0;
+        for (int ordinal = 0; ordinal < BREEDS.length; ordinal++) {
+            List<Dog> dogs = dogs(tops.get(ordinal));
+            if (!dogs.isEmpty()) {
+                enumMap.put(BREEDS[ordinal], dogs);
+                returned += dogs.size();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Top {} {} dogs per breed: {}", limit, order, enumMap.keySet());
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.TOP_DOGS_PER_BREED, System.nanoTime() - start, tested[0], returned);
+        }
+        return enumMap;
+    }
+
+    /**
+     * Picks the first rows matching a predicate in an order, in a slice of rows per processor in parallel for
+     * weight orders on large registries.
+     * @param predicate {@link Predicate} to match
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of rows to keep per {@link TopK}
+     * @param perBreed true to keep the first rows of every breed, false to keep the first rows of all of them
+     * @param tested Number of rows tested against the predicate, filled in by this method
+     * @return {@link TopK} of every breed indexed by ordinal, or a single one for all the breeds
+     */
+    private List<TopK<Integer>> top(Predicate<Dog> predicate, DogOrder order, int limit, boolean perBreed,
+                                    long[] tested) {
+        int first = first(predicate);
+        int length = end(predicate) - first;
+        boolean[] breedMask = predicate instanceof DogQuery ? breedMask(((DogQuery) predicate).breeds()) : null;
+        int slices = 1;
+        if (!order.byBirthDay() && size >= config.getParallelThreshold()) {
+            slices = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), length));
+        }
+        IntStream stream = IntStream.range(0, slices);
+        if (slices > 1) {
+            stream = stream.parallel();
+        }
+        int sliceCount = slices;
+        long[] sliceTested = new long[slices];
+        List<List<TopK<Integer>>> sliceTops = stream
+                .mapToObj(slice -> top(predicate, breedMask, order, limit, perBreed,
+                        first + (int) ((long) length * slice / sliceCount),
+                        first + (int) ((long) length * (slice + 1) / sliceCount), sliceTested, slice))
+                .collect(Collectors.toList());
+        List<TopK<Integer>> tops = sliceTops.get(0);
+        for (int slice = 1; slice < slices; slice++) {
+            for (int i = 0; i < tops.size(); i++) {
+                tops.get(i).offerAll(sliceTops.get(slice).get(i));
+            }
+        }
+        tested[0] = Arrays.stream(sliceTested).sum();
+        return tops;
+    }
+
+    /**
+     * Picks the first rows of a slice matching a predicate in an order. Rows are scanned from the youngest to the
+     * oldest for {@link DogOrder#YOUNGEST}, and from the oldest to the youngest for any other order, so scans by
+     * date of birth skip the rows of a full {@link TopK} as soon as none of them can make it.
+     * @param predicate {@link Predicate} to match
+     * @param breedMask Breeds allowed by a {@link DogQuery}, as returned by {@link #breedMask(Set)}
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of rows to keep per {@link TopK}
+     * @param perBreed true to keep the first rows of every breed, false to keep the first rows of all of them
+     * @param from First row of the slice
+     * @param to Row after the last one of the slice
+     * @param tested Number of rows tested against the predicate in every slice
+     * @param slice Position of the slice
+     * @return {@link TopK} of every breed indexed by ordinal, or a single one for all the breeds
+     */
+    private List<TopK<Integer>> top(Predicate<Dog> predicate, boolean[] breedMask, DogOrder order, int limit,
+                                    boolean perBreed, int from, int to, long[] tested, int slice) {
+        Comparator<Integer> comparator = (row, other) -> {
+            int comparison = order.compare(weight(row), birthDay(row), weight(other), birthDay(other));
+            return comparison != 0 ? comparison : Integer.compare(row, other);
+        };
+        List<TopK<Integer>> tops = new ArrayList<>();
+        for (int i = 0; i < (perBreed ? BREEDS.length : 1); i++) {
+            tops.add(new TopK<>(limit, comparator));
+        }
+        if (limit == 0) {
+            return tops;
+        }
+        boolean backwards = order == DogOrder.YOUNGEST;
+        for (int i = from; i < to; i++) {
+            int row = backwards ? to - 1 - (i - from) : i;
+            int ordinal = breedOrdinal(row);
+            if (perBreed && ordinal == NONE) {
+                continue;
+            }
+            TopK<Integer> top = tops.get(perBreed ? ordinal : 0);
+            if (top.isFull() && (order == DogOrder.OLDEST
+                    || (backwards && birthDay(row) < birthDay(top.worst())))) {
+                if (perBreed) {
+                    continue;
+                }
+                break;
+            }
+            tested[slice]++;
+            if (matches(predicate, breedMask, row)) {
+                top.offer(row);
+            }
+        }
+        return tops;
+    }
+
+    /**
+     * @param top {@link TopK} of rows
+     * @return {@link Dog} views of the rows kept, from the first to the last
+     */
+    private List<Dog> dogs(TopK<Integer> top) {
+        List<Dog> dogs = new ArrayList<>();
+        for (int row : top.sorted()) {
+            dogs.add(dog(row));
+        }
+        return dogs;
+    }
+
+    /**
+     * Looks up the dogs with a name through the name index, built on the first lookup.
+     * @param name Name of the dogs, case sensitive
+     * @return {@link List} List of the dogs with that name, from the oldest to the youngest
+     */
+    @Override
+    public List<Dog> dogsByName(String name) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<Dog> dogs = name == null ? new ArrayList<>() : dogs(nameIndex().rows(name));
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BY_NAME, System.nanoTime() - start, 0, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Looks up the dogs whose name starts with a prefix ignoring case through the name index, built on the first
+     * lookup.
+     * @param prefix Start of the names, case insensitive
+     * @param limit Maximum number of dogs to return
+     * @return {@link List} List of at most limit dogs, sorted by name ignoring case
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    @Override
+    public List<Dog> dogsByNamePrefix(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<Dog> dogs = dogs(nameIndex().rowsStartingWith(prefix, limit));
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BY_NAME_PREFIX, System.nanoTime() - start, 0, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * @return Name index of the registry, built if this is the first lookup
+     */
+    private ColumnarNameIndex nameIndex() {
+        ColumnarNameIndex index = nameIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nameIndex;
+                if (index == null) {
+                    index = new ColumnarNameIndex(this);
+                    nameIndex = index;
+                    log.debug("Name index built");
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param rows Positions of some dogs
+     * @return {@link Dog} views of the dogs at those positions
+     */
+    private List<Dog> dogs(int[] rows) {
+        List<Dog> dogs = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            dogs.add(dog(row));
+        }
+        return dogs;
+    }
+
+    /**
+     * @return Number of dogs in the registry
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param predicate {@link Predicate} to match
+     * @return First row which may match: the first dog born within the dates allowed by a {@link DogQuery}, or the
+     * first row for any other predicate
+     */
+    private int first(Predicate<Dog> predicate) {
+        return predicate instanceof DogQuery ? lowerBound(((DogQuery) predicate).minBirthDay()) : 0;
+    }
+
+    /**
+     * @param predicate {@link Predicate} to match
+     * @return Row after the last one which may match, never before {@link #first(Predicate)}
+     */
+    private int end(Predicate<Dog> predicate) {
+        return predicate instanceof DogQuery
+                ? Math.max(first(predicate), upperBound(((DogQuery) predicate).maxBirthDay()))
+                : size;
+    }
+
+    /**
+     * @param predicate {@link Predicate} to match. A {@link DogQuery} is tested straight against the columns.
+     * @param breedMask Breeds allowed by a {@link DogQuery}, as returned by {@link #breedMask(Set)}
+     * @param row Position of the dog in the columns
+     * @return true if the dog matches
+     */
+    private boolean matches(Predicate<Dog> predicate, boolean[] breedMask, int row) {
+        if (predicate instanceof DogQuery) {
+            int ordinal = breedOrdinal(row);
+            return (breedMask == null || (ordinal != NONE && breedMask[ordinal])) && matches((DogQuery) predicate, row);
+        }
+        return predicate.test(dog(row));
+    }
+
+    /**
+     * Tests a row against a query without building a {@link Dog} view. The name is only decoded for the queries
+     * which look at it.
+     * @param query {@link DogQuery} to match
+     * @param row Position of the dog in the columns
+     * @return true if the dog matches the query
+     */
+    private boolean matches(DogQuery query, int row) {
+        int ordinal = breedOrdinal(row);
+        return query.matches(ordinal == NONE ? null : BREEDS[ordinal], weight(row), birthDay(row),
+                query.usesName() ? name(row) : null);
+    }
+
+    /**
+     * @param breeds Breeds allowed by a query or null if any breed is allowed
+     * @return Array telling whether every breed ordinal is allowed or null if any breed is allowed
+     */
+    private static boolean[] breedMask(Set<DogBreed> breeds) {
+        if (breeds == null) {
+            return null;
+        }
+        boolean[] mask = new boolean[BREEDS.length];
+        for (DogBreed breed : breeds) {
+            mask[breed.ordinal()] = true;
+        }
+        return mask;
+    }
+
+    /**
+     * Iterator over the rows matching a predicate, only tested up to the next match.
+     */
+    private final class MatchIterator implements Iterator<Dog> {
+
+        private final Predicate<Dog> predicate;
+        private final boolean[] breedMask;
+        private final int first;
+        private final int end;
+
+        /**
+         * Next matching row, or end if there is none left.
+         */
+        private int row;
+
+        /**
+         * View of the next matching row, built to test it against a predicate other than a {@link DogQuery}.
+         */
+        private Dog tested;
+
+        private MatchIterator(Predicate<Dog> predicate) {
+            this.predicate = predicate;
+            this.breedMask = predicate instanceof DogQuery ? breedMask(((DogQuery) predicate).breeds()) : null;
+            this.first = first(predicate);
+            this.end = end(predicate);
+            this.row = first;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return row < end;
+        }
+
+        @Override
+        public Dog next() {
+            if (row >= end) {
+                throw new NoSuchElementException();
+            }
+            Dog dog = tested != null ? tested : dog(row);
+            row++;
+            advance();
+            return dog;
+        }
+
+        private void advance() {
+            tested = null;
+            if (predicate instanceof DogQuery) {
+                while (row < end && !matches(predicate, breedMask, row)) {
+                    row++;
+                }
+            } else {
+                for (; row < end; row++) {
+                    Dog dog = dog(row);
+                    if (predicate.test(dog)) {
+                        tested = dog;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param row Position of a dog
+     * @return Name of the dog or null
+     */
+    String name(int row) {
+        int nameId = nameId(row);
+        return nameId == NONE ? null : nameOf(nameId);
+    }
+
+    /**
+     * Builds a {@link Dog} view out of the columns for the dog at the position passed as argument.
+     * @param row Position of the dog in the columns
+     * @return New {@link Dog} object with the values of that dog
+     */
+    Dog dog(int row) {
+        Dog dog = new Dog();
+        dog.setName(name(row));
+        dog.setDateOfBirth(dateFormat.format(LocalDate.ofEpochDay(birthDay(row))));
+        dog.setWeight(weight(row));
+        int ordinal = breedOrdinal(row);
+        dog.setBreed(ordinal == NONE ? null : BREEDS[ordinal]);
+        return dog;
+    }
+}
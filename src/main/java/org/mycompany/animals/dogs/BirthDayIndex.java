@@ -0,0 +1,120 @@
+package org.mycompany.animals.dogs;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Helper methods for registries keeping their dogs sorted by date of birth, stored as days since the epoch,
+ * so date queries are answered by binary search instead of by scanning every dog.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class BirthDayIndex {
+
+    private BirthDayIndex() {
+    }
+
+    /**
+     * Returns the positions of the dogs sorted by date of birth. Dogs born on the same day are left in the
+     * order they were in.
+     * @param birthDays Dates of birth as days since the epoch
+     * @param size Number of dogs, which may be less than the length of the array
+     * @return Array with the positions of the dogs, from the oldest to the youngest
+     */
+    static int[] sortedPositions(int[] birthDays, int size) {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) birthDays[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] positions = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = (int) keys[i];
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the position of the first dog born on or after a day.
+     * @param birthDays Dates of birth as days since the epoch, sorted
+     * @param size Number of dogs, which may be less than the length of the array
+     * @param day Day since the epoch
+     * @return Position of the first dog born on or after that day, or size if there is none
+     */
+    static int lowerBound(int[] birthDays, int size, long day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (birthDays[middle] < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the first dog born after a day.
+     * @param birthDays Dates of birth as days since the epoch, sorted
+     * @param size Number of dogs, which may be less than the length of the array
+     * @param day Day since the epoch
+     * @return Position of the first dog born after that day, or size if there is none
+     */
+    static int upperBound(int[] birthDays, int size, long day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (birthDays[middle] <= day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the first dog born on or after a day.
+     * @param birthDays Dates of birth as days since the epoch, sorted
+     * @param size Number of dogs, which may be less than the limit of the buffer
+     * @param day Day since the epoch
+     * @return Position of the first dog born on or after that day, or size if there is none
+     */
+    static int lowerBound(IntBuffer birthDays, int size, long day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (birthDays.get(middle) < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the position of the first dog born after a day.
+     * @param birthDays Dates of birth as days since the epoch, sorted
+     * @param size Number of dogs, which may be less than the limit of the buffer
+     * @param day Day since the epoch
+     * @return Position of the first dog born after that day, or size if there is none
+     */
+    static int upperBound(IntBuffer birthDays, int size, long day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (birthDays.get(middle) <= day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,439 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the interface {@link DogRegistry} keeping the results of the queries run against another
+ * registry, so the same queries asked again are answered without scanning the dogs. Results are kept for
+ * {@link #dogsByCondition(Predicate)} called with a {@link DogQuery}, which compare equal by value, for
+ * {@link #oldestDogAfterDate(LocalDate)} and for {@link #dogsBornBetween(LocalDate, LocalDate)}. Any other
+ * predicate, and the weight averages, which are not computed by scanning, go straight to the registry.
+ * <p>The least recently used results are evicted once the cache keeps more results than
+ * {@link DogRegistryConfig#getQueryCacheMaxEntries()} or they hold more dogs between them than
+ * {@link DogRegistryConfig#getQueryCacheMaxDogs()}.</p>
+ * <p>Every result is kept along with the version of the registry it was computed on. The registries of this library
+ * replace that version on every write or reload, so the whole cache is dropped on the first query after the
+ * registry changes, without the writers ever knowing about the cache. Other registries are taken as never changing,
+ * and must be invalidated through {@link #invalidate()}.</p>
+ * <p>Lists returned are copies, so callers may change them without changing the results kept.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class CachingDogRegistry implements DogRegistry<DogBreed> {
+
+    /**
+     * Log instance used for logging purposes.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CachingDogRegistry.class);
+
+    private final DogRegistry<DogBreed> registry;
+    private final int maxEntries;
+    private final long maxDogs;
+
+    /**
+     * Results kept, from the least to the most recently used. Guarded by its own monitor, as are the fields below.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Version of the registry the results kept were computed on.
+     */
+    private Object version;
+
+    /**
+     * Number of dogs held by the results kept.
+     */
+    private long dogs;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Constructor only available for the classes in this package.
+     * @param registry {@link DogRegistry} to cache the queries of
+     * @param config {@link DogRegistryConfig} with the size of the cache
+     */
+    CachingDogRegistry(DogRegistry<DogBreed> registry, DogRegistryConfig config) {
+        this.registry = registry;
+        this.maxEntries = config.getQueryCacheMaxEntries();
+        this.maxDogs = config.getQueryCacheMaxDogs();
+        this.version = version(registry);
+    }
+
+    /**
+     * @return {@link DogRegistry} the queries are run against
+     */
+    public DogRegistry<DogBreed> getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @param breed {@link DogBreed} object to computes the average.
+     * @return Weight average of this particular breed, straight from the registry
+     */
+    @Override
+    public double averageWeight(DogBreed breed) {
+        return registry.averageWeight(breed);
+    }
+
+    /**
+     * @return {@link EnumMap} with the weight average of every breed, straight from the registry
+     */
+    @Override
+    public EnumMap<DogBreed, Double> averageWeightPerBreed() {
+        return registry.averageWeightPerBreed();
+    }
+
+    /**
+     * @return {@link EnumMap} with the weight statistics of every breed, straight from the registry
+     */
+    @Override
+    public EnumMap<DogBreed, WeightStatistics> weightStatisticsPerBreed() {
+        return registry.weightStatisticsPerBreed();
+    }
+
+    /**
+     * Returns a list of all dogs based on some predicate, kept for later calls if the predicate is a
+     * {@link DogQuery}.
+     * @param predicate {@link Predicate} containing the predicate to be queried against the list of dogs.
+     * @return {@link List} List of dog which satisfy the condition passed as argument
+     */
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate) {
+        if (!(predicate instanceof DogQuery)) {
+            return registry.dogsByCondition(predicate);
+        }
+        return copy(cached(new Key(DogRegistryMethod.DOGS_BY_CONDITION, predicate),
+                () -> registry.dogsByCondition(predicate)));
+    }
+
+    /**
+     * Returns the oldest dog born after a certain date passed as argument, kept for later calls with the same date.
+     * @param date {@link LocalDate}
+     * @return Oldest {@link Dog} object born after the date passed as argument.
+     */
+    @Override
+    public Dog oldestDogAfterDate(LocalDate date) {
+        return cached(new Key(DogRegistryMethod.OLDEST_DOG_AFTER_DATE, date),
+                () -> registry.oldestDogAfterDate(date));
+    }
+
+    /**
+     * Returns all the dogs born between two dates passed as argument, both included, kept for later calls with the
+     * same dates.
+     * @param from {@link LocalDate} first date of birth to include
+     * @param to {@link LocalDate} last date of birth to include
+     * @return {@link List} List of dogs born between both dates, from the oldest to the youngest
+     */
+    @Override
+    public List<Dog> dogsBornBetween(LocalDate from, LocalDate to) {
+        return copy(cached(new Key(DogRegistryMethod.DOGS_BORN_BETWEEN, from, to),
+                () -> registry.dogsBornBetween(from, to)));
+    }
+
+    /**
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return Lazy {@link Stream} of the dogs which satisfy the condition, straight from the registry
+     */
+    @Override
+    public Stream<Dog> streamByCondition(Predicate<Dog> predicate) {
+        return registry.streamByCondition(predicate);
+    }
+
+    /**
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param offset Number of matching dogs to skip
+     * @param limit Maximum number of dogs to return
+     * @return Page of the dogs which satisfy the condition, straight from the registry
+     */
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate, int offset, int limit) {
+        return registry.dogsByCondition(predicate, offset, limit);
+    }
+
+    /**
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return Number of dogs which satisfy the condition, straight from the registry
+     */
+    @Override
+    public long countByCondition(Predicate<Dog> predicate) {
+        return registry.countByCondition(predicate);
+    }
+
+    /**
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param visitor {@link DogVisitor} called for every dog which satisfies the condition
+     * @return Number of dogs passed to the visitor, straight from the registry
+     */
+    @Override
+    public long visitByCondition(Predicate<Dog> predicate, DogVisitor visitor) {
+        return registry.visitByCondition(predicate, visitor);
+    }
+
+    /**
+     * @param name Name of the dogs, case sensitive
+     * @return {@link List} List of the dogs with that name, straight from the name index of the registry
+     */
+    @Override
+    public List<Dog> dogsByName(String name) {
+        return registry.dogsByName(name);
+    }
+
+    /**
+     * @param prefix Start of the names, case insensitive
+     * @param limit Maximum number of dogs to return
+     * @return {@link List} List of at most limit dogs, straight from the name index of the registry
+     */
+    @Override
+    public List<Dog> dogsByNamePrefix(String prefix, int limit) {
+        return registry.dogsByNamePrefix(prefix, limit);
+    }
+
+    /**
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return
+     * @return {@link List} List of at most limit dogs in that order, straight from the registry
+     */
+    @Override
+    public List<Dog> topDogs(Predicate<Dog> predicate, DogOrder order, int limit) {
+        return registry.topDogs(predicate, order, limit);
+    }
+
+    /**
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return per breed
+     * @return {@link EnumMap} with at most limit dogs in that order per breed, straight from the registry
+     */
+    @Override
+    public EnumMap<DogBreed, List<Dog>> topDogsPerBreed(Predicate<Dog> predicate, DogOrder order, int limit) {
+        return registry.topDogsPerBreed(predicate, order, limit);
+    }
+
+    /**
+     * @param batch {@link DogBatch} with the queries to answer
+     * @return {@link DogBatchResult} with the result of every query, straight from the registry
+     */
+    @Override
+    public DogBatchResult query(DogBatch batch) {
+        return registry.query(batch);
+    }
+
+    /**
+     * Drops every result kept.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            clear();
+        }
+    }
+
+    /**
+     * @return Number of queries answered out of the cache
+     */
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return Number of cacheable queries run against the registry
+     */
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return Share of the cacheable queries answered out of the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        synchronized (entries) {
+            long total = hits + misses;
+            return total == 0 ? 0 : hits / (double) total;
+        }
+    }
+
+    /**
+     * @return Number of results evicted to keep the cache within its size
+     */
+    public long getEvictions() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return Number of times the whole cache was dropped, because the registry changed or on
+     * {@link #invalidate()}
+     */
+    public long getInvalidations() {
+        synchronized (entries) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * @return Number of results kept
+     */
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return Number of dogs held by the results kept
+     */
+    public long getDogs() {
+        synchronized (entries) {
+            return dogs;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (entries) {
+            return "CachingDogRegistry [entries=" + entries.size() + ", dogs=" + dogs + ", hits=" + hits
+                    + ", misses=" + misses + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+        }
+    }
+
+    /**
+     * Looks up the result of a query, running it against the registry if it is not kept. The query runs outside
+     * the lock, so concurrent misses of the same query may run it more than once.
+     * @param key {@link Key} of the query
+     * @param query {@link Supplier} running the query against the registry
+     * @param <T> Type of the result
+     * @return Result of the query
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(Key key, Supplier<T> query) {
+        // read before running the query, so a result computed while the registry changes is dropped afterwards
+        Object current = version(registry);
+        synchronized (entries) {
+            if (current != version) {
+                clear();
+                version = current;
+            }
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return (T) entry.result;
+            }
+            misses++;
+        }
+        T result = query.get();
+        long weight = result instanceof List ? ((List<?>) result).size() + 1 : 1;
+        synchronized (entries) {
+            if (current == version && weight <= maxDogs) {
+                Entry previous = entries.put(key, new Entry(result, weight));
+                dogs += weight - (previous == null ? 0 : previous.weight);
+                evict();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evicts the least recently used results until the cache is within its size. Must be called holding the lock.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || dogs > maxDogs) {
+            dogs -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops every result kept. Must be called holding the lock.
+     */
+    private void clear() {
+        if (!entries.isEmpty()) {
+            log.debug("Dropping {} cached results of {} dogs", entries.size(), dogs);
+            entries.clear();
+            dogs = 0;
+        }
+        invalidations++;
+    }
+
+    private static List<Dog> copy(List<Dog> dogs) {
+        return new ArrayList<>(dogs);
+    }
+
+    /**
+     * @param registry {@link DogRegistry} to look up
+     * @return Object standing for the current content of the registry, replaced whenever the registry changes
+     */
+    private static Object version(DogRegistry<?> registry) {
+        if (registry instanceof ReloadingDogRegistry) {
+            return version(((ReloadingDogRegistry) registry).current());
+        } else if (registry instanceof DogRegistryImpl) {
+            return ((DogRegistryImpl) registry).version();
+        } else if (registry instanceof PersistentDogRegistry) {
+            return ((PersistentDogRegistry) registry).version();
+        }
+        return registry;
+    }
+
+    /**
+     * Key of a query kept: the method called and its arguments.
+     */
+    private static final class Key {
+
+        private final DogRegistryMethod method;
+        private final Object[] arguments;
+
+        private Key(DogRegistryMethod method, Object... arguments) {
+            this.method = method;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && method == ((Key) o).method && Arrays.equals(arguments, ((Key) o).arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + Arrays.hashCode(arguments);
+        }
+    }
+
+    /**
+     * Result kept along with the number of dogs it holds, plus one for the entry itself.
+     */
+    private static final class Entry {
+
+        private final Object result;
+        private final long weight;
+
+        private Entry(Object result, long weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+}
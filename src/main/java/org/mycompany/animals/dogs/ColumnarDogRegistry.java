@@ -0,0 +1,197 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the interface {@link DogRegistry} storing the dogs in primitive columns rather than as
+ * {@link Dog} objects: one array for the weights, one for the dates of birth as days since the epoch, one for the
+ * breed ordinals and one for the names, which are dictionary encoded.
+ * Scans over these columns are cache friendly and the registry takes a fraction of the heap of
+ * {@link DogRegistryImpl}. {@link Dog} objects are only built for the dogs returned to the caller, with the date of
+ * birth written back with the configured date format.
+ * <p>Rows are sorted by date of birth, so date queries are answered by binary search.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public class ColumnarDogRegistry extends AbstractColumnarDogRegistry {
+
+    private final double[] weights;
+    private final int[] birthDays;
+    private final byte[] breeds;
+    private final int[] nameIds;
+
+    /**
+     * Dictionary with every distinct name, indexed by the values of the name ids column and sorted by name ignoring
+     * case, then by name.
+     */
+    private final String[] names;
+
+    /**
+     * Constructor only available for the classes in this package. Columns must all have at least size elements
+     * and rows must be sorted by date of birth.
+     * @param size Number of dogs in the registry
+     * @param weights Weight of every dog
+     * @param birthDays Date of birth of every dog as days since the epoch
+     * @param breeds Breed ordinal of every dog or {@link #NONE}
+     * @param nameIds Position of the name of every dog in the names dictionary or {@link #NONE}
+     * @param names Dictionary with every distinct name, sorted as {@link ColumnarNameIndex} expects
+     * @param config {@link DogRegistryConfig} with the date format used to write the dates of birth
+     * @param aggregates {@link WeightAggregates} of the weights column
+     */
+    ColumnarDogRegistry(int size, double[] weights, int[] birthDays, byte[] breeds, int[] nameIds, String[] names,
+                        DogRegistryConfig config, WeightAggregates aggregates) {
+        super(size, config, aggregates);
+        this.weights = weights;
+        this.birthDays = birthDays;
+        this.breeds = breeds;
+        this.nameIds = nameIds;
+        this.names = names;
+    }
+
+    @Override
+    double weight(int row) {
+        return weights[row];
+    }
+
+    @Override
+    int birthDay(int row) {
+        return birthDays[row];
+    }
+
+    @Override
+    int breedOrdinal(int row) {
+        return breeds[row];
+    }
+
+    @Override
+    int nameId(int row) {
+        return nameIds[row];
+    }
+
+    @Override
+    int nameCount() {
+        return names.length;
+    }
+
+    @Override
+    String nameOf(int nameId) {
+        return names[nameId];
+    }
+
+    @Override
+    int lowerBound(long day) {
+        return BirthDayIndex.lowerBound(birthDays, size, day);
+    }
+
+    @Override
+    int upperBound(long day) {
+        return BirthDayIndex.upperBound(birthDays, size, day);
+    }
+
+    /**
+     * {@link DogRegistryBuilder} appending every dog to growing columns. Rows are sorted by date of birth and the
+     * names dictionary by name when the registry is built, so name lookups need no other copy of the names.
+     */
+    static final class Builder implements DogRegistryBuilder {
+
+        private final DogRegistryConfig config;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final WeightAggregates aggregates = new WeightAggregates();
+        private int size;
+        private double[] weights = new double[16];
+        private int[] birthDays = new int[16];
+        private byte[] breeds = new byte[16];
+        private int[] nameIds = new int[16];
+
+        Builder(DogRegistryConfig config) {
+            this.config = config;
+        }
+
+        /**
+         * {@inheritDoc}
+         * @throws DateTimeException if the date of birth of the dog can not be parsed
+         */
+        @Override
+        public void add(Dog dog) {
+            add(dog, DogRegistryImpl.birthDay(dog, config.getDateFormat()));
+        }
+
+        @Override
+        public void add(Dog dog, int birthDay) {
+            if (size == weights.length) {
+                int capacity = size + (size >> 1);
+                weights = Arrays.copyOf(weights, capacity);
+                birthDays = Arrays.copyOf(birthDays, capacity);
+                breeds = Arrays.copyOf(breeds, capacity);
+                nameIds = Arrays.copyOf(nameIds, capacity);
+            }
+            weights[size] = dog.getWeight();
+            birthDays[size] = birthDay;
+            if (dog.getBreed() == null) {
+                breeds[size] = NONE;
+            } else {
+                breeds[size] = (byte) dog.getBreed().ordinal();
+                aggregates.add(dog.getBreed().ordinal(), dog.getWeight());
+            }
+            nameIds[size] = nameId(dog.getName());
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public ColumnarDogRegistry build() {
+            return build(aggregates);
+        }
+
+        @Override
+        public ColumnarDogRegistry build(WeightAggregates aggregates) {
+            int[] positions = BirthDayIndex.sortedPositions(birthDays, size);
+            String[] sortedNames = names.toArray(new String[0]);
+            Arrays.sort(sortedNames, ColumnarNameIndex.BY_NAME);
+            int[] newNameIds = new int[sortedNames.length];
+            for (int nameId = 0; nameId < sortedNames.length; nameId++) {
+                newNameIds[dictionary.get(sortedNames[nameId])] = nameId;
+            }
+            double[] sortedWeights = new double[size];
+            int[] sortedBirthDays = new int[size];
+            byte[] sortedBreeds = new byte[size];
+            int[] sortedNameIds = new int[size];
+            for (int i = 0; i < size; i++) {
+                int position = positions[i];
+                sortedWeights[i] = weights[position];
+                sortedBirthDays[i] = birthDays[position];
+                sortedBreeds[i] = breeds[position];
+                sortedNameIds[i] = nameIds[position] == NONE ? NONE : newNameIds[nameIds[position]];
+            }
+            return new ColumnarDogRegistry(size, sortedWeights, sortedBirthDays, sortedBreeds, sortedNameIds,
+                    sortedNames, config, aggregates);
+        }
+
+        private int nameId(String name) {
+            if (name == null) {
+                return NONE;
+            }
+            Integer nameId = dictionary.get(name);
+            if (nameId == null) {
+                nameId = names.size();
+                dictionary.put(name, nameId);
+                names.add(name);
+            }
+            return nameId;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.mycompany.animals.dogs;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Index of the rows of an {@link AbstractColumnarDogRegistry} by name, built once as the registry never changes.
+ * The names table of the registry is already sorted by name ignoring case, then by name, so exact and prefix
+ * lookups are binary searches straight over it and no other copy of the names is kept: mapped registries decode
+ * only the names compared by a lookup. The rows of every name are stored one name after the other in a single
+ * array, in the order of the rows, so the index takes an int per dog and per name.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class ColumnarNameIndex {
+
+    /**
+     * Order of the names table of every columnar registry: by name ignoring case, then by name.
+     */
+    static final Comparator<String> BY_NAME = Comparator.comparing(DogNameIndex::lowerCase)
+            .thenComparing(Comparator.naturalOrder());
+
+    private final AbstractColumnarDogRegistry registry;
+
+    /**
+     * Position in {@link #rows} of the first row of every name id, plus the number of rows at the end.
+     */
+    private final int[] offsets;
+
+    /**
+     * Rows grouped by name id.
+     */
+    private final int[] rows;
+
+    /**
+     * Builds the index of a registry in two passes over its name ids column.
+     * @param registry {@link AbstractColumnarDogRegistry} to index
+     */
+    ColumnarNameIndex(AbstractColumnarDogRegistry registry) {
+        this.registry = registry;
+        int nameCount = registry.nameCount();
+        offsets = new int[nameCount + 1];
+        for (int row = 0; row < registry.size; row++) {
+            int nameId = registry.nameId(row);
+            if (nameId != AbstractColumnarDogRegistry.NONE) {
+                offsets[nameId + 1]++;
+            }
+        }
+        for (int nameId = 0; nameId < nameCount; nameId++) {
+            offsets[nameId + 1] += offsets[nameId];
+        }
+        rows = new int[offsets[nameCount]];
+        int[] next = Arrays.copyOf(offsets, nameCount);
+        for (int row = 0; row < registry.size; row++) {
+            int nameId = registry.nameId(row);
+            if (nameId != AbstractColumnarDogRegistry.NONE) {
+                rows[next[nameId]++] = row;
+            }
+        }
+    }
+
+    /**
+     * @param name Name to look up, case sensitive
+     * @return Rows of the dogs with that name, in ascending order
+     */
+    int[] rows(String name) {
+        int low = 0;
+        int high = offsets.length - 2;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = BY_NAME.compare(registry.nameOf(middle), name);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return rowsOf(middle);
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * Looks up the rows of the dogs whose name starts with a prefix ignoring case.
+     * @param prefix Start of the names to look up
+     * @param limit Maximum number of rows to return
+     * @return Rows sorted by name ignoring case, then by row
+     */
+    int[] rowsStartingWith(String prefix, int limit) {
+        String lowerCasePrefix = DogNameIndex.lowerCase(prefix);
+        int nameCount = offsets.length - 1;
+        int low = 0;
+        int high = nameCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (DogNameIndex.lowerCase(registry.nameOf(middle)).compareTo(lowerCasePrefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int[] found = new int[Math.min(limit, 16)];
+        int count = 0;
+        for (int nameId = low; nameId < nameCount && count < limit
+                && DogNameIndex.lowerCase(registry.nameOf(nameId)).startsWith(lowerCasePrefix); nameId++) {
+            for (int r = offsets[nameId]; r < offsets[nameId + 1] && count < limit; r++) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, Math.min(limit, count * 2));
+                }
+                found[count++] = rows[r];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private int[] rowsOf(int nameId) {
+        return Arrays.copyOfRange(rows, offsets[nameId], offsets[nameId + 1]);
+    }
+}
@@ -0,0 +1,120 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Set of queries answered together by {@link DogRegistry#query(DogBatch)} in a single pass over the dogs, instead
+ * of a pass per query. Every query added returns a {@link Query} handle, used to get its result out of the
+ * {@link DogBatchResult}:
+ * <pre>
+ *     DogBatch batch = new DogBatch();
+ *     DogBatch.Query&lt;List&lt;Dog&gt;&gt; shibas = batch.dogsByCondition(DogQuery.breed(DogBreed.SHIBA_INU));
+ *     DogBatch.Query&lt;Long&gt; heavy = batch.countByCondition(DogQuery.weightAtLeast(40));
+ *     DogBatchResult result = dogRegistry.query(batch);
+ *     List&lt;Dog&gt; dogs = result.get(shibas);
+ * </pre>
+ * <p>Results are the same as the ones of the matching methods of {@link DogRegistry} called one after the other.
+ * A batch can be answered any number of times, by any registry, but it must not be changed while it is being
+ * answered.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class DogBatch {
+
+    private final List<Query<?>> queries = new ArrayList<>();
+
+    /**
+     * Adds a query returning the dogs satisfying a condition, as {@link DogRegistry#dogsByCondition(Predicate)}.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return {@link Query} handle of the list of dogs which satisfy the condition
+     */
+    public Query<List<Dog>> dogsByCondition(Predicate<Dog> predicate) {
+        return add(Kind.DOGS, predicate);
+    }
+
+    /**
+     * Adds a query counting the dogs satisfying a condition, as {@link DogRegistry#countByCondition(Predicate)}.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return {@link Query} handle of the number of dogs which satisfy the condition
+     */
+    public Query<Long> countByCondition(Predicate<Dog> predicate) {
+        return add(Kind.COUNT, predicate);
+    }
+
+    /**
+     * Adds a query computing the average weight per breed of the dogs satisfying a condition, as
+     * {@link DogRegistry#averageWeightPerBreed()} does for all of them. Dogs without breed are left out.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @return {@link Query} handle of the {@link EnumMap} with the average weight of every breed with at least one
+     * dog which satisfies the condition
+     */
+    public Query<EnumMap<DogBreed, Double>> averageWeightPerBreed(Predicate<Dog> predicate) {
+        return add(Kind.AVERAGE_WEIGHT_PER_BREED, predicate);
+    }
+
+    /**
+     * @return Number of queries in the batch
+     */
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * @return Unmodifiable list of the queries of the batch, in the order they were added
+     */
+    List<Query<?>> queries() {
+        return Collections.unmodifiableList(queries);
+    }
+
+    @Override
+    public String toString() {
+        return "DogBatch [queries=" + queries.size() + "]";
+    }
+
+    private <R> Query<R> add(Kind kind, Predicate<Dog> predicate) {
+        Query<R> query = new Query<>(this, queries.size(), kind, Objects.requireNonNull(predicate, "predicate"));
+        queries.add(query);
+        return query;
+    }
+
+    /**
+     * Kinds of queries a batch can hold.
+     */
+    enum Kind {
+        DOGS,
+        COUNT,
+        AVERAGE_WEIGHT_PER_BREED
+    }
+
+    /**
+     * Handle of a query added to a batch, typed after its result.
+     * @param <R> Type of the result of the query
+     */
+    public static final class Query<R> {
+
+        final DogBatch batch;
+        final int position;
+        final Kind kind;
+        final Predicate<Dog> predicate;
+
+        private Query(DogBatch batch, int position, Kind kind, Predicate<Dog> predicate) {
+            this.batch = batch;
+            this.position = position;
+            this.kind = kind;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public String toString() {
+            return "Query [kind=" + kind + ", predicate=" + predicate + "]";
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.mycompany.animals.dogs;
+
+/**
+ * Results of the queries of a {@link DogBatch}, as returned by {@link DogRegistry#query(DogBatch)}.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class DogBatchResult {
+
+    private final DogBatch batch;
+    private final Object[] results;
+
+    /**
+     * Constructor only available for the classes in this package.
+     * @param batch {@link DogBatch} answered
+     * @param results Result of every query, at the same positions as the queries
+     */
+    DogBatchResult(DogBatch batch, Object[] results) {
+        this.batch = batch;
+        this.results = results;
+    }
+
+    /**
+     * @param query {@link DogBatch.Query} handle returned when the query was added to the batch
+     * @param <R> Type of the result of the query
+     * @return Result of the query
+     * @throws IllegalArgumentException if the query belongs to another batch or was added after the batch was
+     * answered
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R get(DogBatch.Query<R> query) {
+        if (query.batch != batch || query.position >= results.length) {
+            throw new IllegalArgumentException("Query not answered by this result: " + query);
+        }
+        return (R) results[query.position];
+    }
+
+    /**
+     * @return Number of queries answered
+     */
+    public int size() {
+        return results.length;
+    }
+
+    @Override
+    public String toString() {
+        return "DogBatchResult [queries=" + results.length + "]";
+    }
+}
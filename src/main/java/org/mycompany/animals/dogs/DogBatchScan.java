@@ -0,0 +1,186 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Partial results of the queries of a {@link DogBatch} over a slice of the dogs of a registry. Registries scanning
+ * several slices at once give every slice its own scan and add them up in the order of the slices through
+ * {@link #add(DogBatchScan)}.
+ * <p>Instances are not thread-safe.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogBatchScan {
+
+    private final DogBatch batch;
+    private final List<DogBatch.Query<?>> queries;
+
+    /**
+     * Dogs matching every query returning dogs, null for the other queries.
+     */
+    private final List<List<Dog>> dogs;
+
+    /**
+     * Number of dogs matching every query.
+     */
+    private final long[] counts;
+
+    /**
+     * Weights of the dogs matching every query computing averages, null for the other queries.
+     */
+    private final WeightAggregates[] weights;
+
+    /**
+     * Number of dogs tested against any query.
+     */
+    private long scanned;
+
+    /**
+     * @param batch {@link DogBatch} to answer
+     */
+    DogBatchScan(DogBatch batch) {
+        this.batch = batch;
+        this.queries = batch.queries();
+        this.dogs = new ArrayList<>(queries.size());
+        this.counts = new long[queries.size()];
+        this.weights = new WeightAggregates[queries.size()];
+        for (DogBatch.Query<?> query : queries) {
+            dogs.add(query.kind == DogBatch.Kind.DOGS ? new ArrayList<>() : null);
+            if (query.kind == DogBatch.Kind.AVERAGE_WEIGHT_PER_BREED) {
+                weights[query.position] = new WeightAggregates();
+            }
+        }
+    }
+
+    /**
+     * @return Queries of the batch, in the order they were added
+     */
+    List<DogBatch.Query<?>> queries() {
+        return queries;
+    }
+
+    /**
+     * @param position Position of a query
+     * @return true if the query returns the dogs matching it, which must then be passed to
+     * {@link #add(int, Dog)} or {@link #setDogs(int, List)}
+     */
+    boolean collects(int position) {
+        return dogs.get(position) != null;
+    }
+
+    /**
+     * Tests a dog against every query.
+     * @param dog {@link Dog} to test
+     */
+    void test(Dog dog) {
+        scanned++;
+        for (int q = 0; q < queries.size(); q++) {
+            Predicate<Dog> predicate = queries.get(q).predicate;
+            if (predicate.test(dog)) {
+                match(q, dog.getBreed() == null ? AbstractColumnarDogRegistry.NONE : dog.getBreed().ordinal(),
+                        dog.getWeight());
+                if (collects(q)) {
+                    add(q, dog);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts a dog matching a query, without keeping it.
+     * @param position Position of the query
+     * @param breedOrdinal Ordinal of the breed of the dog or {@link AbstractColumnarDogRegistry#NONE}
+     * @param weight Weight of the dog
+     */
+    void match(int position, int breedOrdinal, double weight) {
+        counts[position]++;
+        if (weights[position] != null && breedOrdinal != AbstractColumnarDogRegistry.NONE) {
+            weights[position].add(breedOrdinal, weight);
+        }
+    }
+
+    /**
+     * Keeps a dog matching a query returning dogs, after the ones kept before.
+     * @param position Position of the query
+     * @param dog {@link Dog} matching the query
+     */
+    void add(int position, Dog dog) {
+        dogs.get(position).add(dog);
+    }
+
+    /**
+     * Replaces the dogs kept for a query returning dogs, for registries merging the matches of several slices in
+     * an order of their own.
+     * @param position Position of the query
+     * @param matches {@link List} of the dogs matching the query
+     */
+    void setDogs(int position, List<Dog> matches) {
+        dogs.set(position, matches);
+    }
+
+    /**
+     * @param rows Number of dogs tested against the queries by the registry
+     */
+    void scanned(long rows) {
+        scanned += rows;
+    }
+
+    /**
+     * @return Number of dogs tested against any query
+     */
+    long scanned() {
+        return scanned;
+    }
+
+    /**
+     * Adds the partial results of the next slice of the dogs.
+     * @param other {@link DogBatchScan} of the same batch over the next slice
+     */
+    void add(DogBatchScan other) {
+        scanned += other.scanned;
+        for (int q = 0; q < queries.size(); q++) {
+            counts[q] += other.counts[q];
+            if (collects(q)) {
+                dogs.get(q).addAll(other.dogs.get(q));
+            }
+            if (weights[q] != null) {
+                weights[q].add(other.weights[q]);
+            }
+        }
+    }
+
+    /**
+     * @return Number of dogs kept by the queries returning dogs
+     */
+    long returned() {
+        long returned = 0;
+        for (List<Dog> matches : dogs) {
+            returned += matches == null ? 0 : matches.size();
+        }
+        return returned;
+    }
+
+    /**
+     * @return {@link DogBatchResult} with the results of every query
+     */
+    DogBatchResult result() {
+        Object[] results = new Object[queries.size()];
+        for (int q = 0; q < results.length; q++) {
+            switch (queries.get(q).kind) {
+                case DOGS:
+                    results[q] = dogs.get(q);
+                    break;
+                case COUNT:
+                    results[q] = counts[q];
+                    break;
+                default:
+                    results[q] = weights[q].averages();
+            }
+        }
+        return new DogBatchResult(batch, results);
+    }
+}
@@ -0,0 +1,75 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable set of changes to apply to a {@link MutableDogRegistry} at once through
+ * {@link MutableDogRegistry#apply(DogChanges)}: dogs added, dogs modified and names of the dogs removed.
+ * <p>Change sets are usually read from change files by {@link DogRegistryFactory#readChanges(String)}, which look
+ * like dogs files with the dogs split in three sections:</p>
+ * <pre>
+ * &lt;dogChanges&gt;
+ *     &lt;added&gt;&lt;dog name="Rex"&gt;...&lt;/dog&gt;&lt;/added&gt;
+ *     &lt;modified&gt;&lt;dog name="Riki"&gt;...&lt;/dog&gt;&lt;/modified&gt;
+ *     &lt;removed&gt;&lt;dog name="Baldi"/&gt;&lt;/removed&gt;
+ * &lt;/dogChanges&gt;
+ * </pre>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class DogChanges {
+
+    private final List<Dog> added;
+    private final List<Dog> modified;
+    private final List<String> removed;
+
+    /**
+     * Creates a change set. The lists are copied.
+     * @param added {@link Dog} list to register
+     * @param modified {@link Dog} list with the new values of dogs already registered
+     * @param removed Names of the dogs to deregister
+     */
+    public DogChanges(List<Dog> added, List<Dog> modified, List<String> removed) {
+        this.added = Collections.unmodifiableList(new ArrayList<>(added));
+        this.modified = Collections.unmodifiableList(new ArrayList<>(modified));
+        this.removed = Collections.unmodifiableList(new ArrayList<>(removed));
+    }
+
+    /**
+     * @return Dogs to register, in the order they are registered
+     */
+    public List<Dog> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return Dogs with the new values of dogs already registered
+     */
+    public List<Dog> getModified() {
+        return modified;
+    }
+
+    /**
+     * @return Names of the dogs to deregister
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return Total number of changes
+     */
+    public int size() {
+        return added.size() + modified.size() + removed.size();
+    }
+
+    @Override
+    public String toString() {
+        return "DogChanges [added=" + added.size() + ", modified=" + modified.size() + ", removed=" + removed.size()
+                + "]";
+    }
+}
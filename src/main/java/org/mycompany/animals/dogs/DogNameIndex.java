@@ -0,0 +1,201 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Index of the dogs of a {@link DogRegistryImpl} by name: a hash map for exact lookups and a skip list sorted by
+ * name ignoring case for prefix lookups, both sharing the same immutable entries. Every entry also keeps the
+ * partition, the date of birth and the sequence number of its dogs as they were added, so writers find the rows of
+ * the dogs to remove without scanning the registry, even if callers changed the dogs handed out to them.
+ * <p>Lookups may run concurrently with a writer, and see every name changed by a write either with its old dogs or
+ * with its new ones. Writes must be serialized by the caller, which keeps the index in step with the snapshots it
+ * publishes.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogNameIndex {
+
+    /**
+     * Separates the lower case name from the name itself in the keys of the sorted map, so names differing only in
+     * case get their own keys and sort next to each other.
+     */
+    private static final char KEY_SEPARATOR = '\0';
+
+    /**
+     * Order of the dogs returned by prefix lookups: by name ignoring case, then by name.
+     */
+    static final Comparator<Dog> BY_NAME = Comparator.comparing((Dog dog) -> lowerCase(dog.getName()))
+            .thenComparing(Dog::getName);
+
+    private final Map<String, Entry> byName = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<String, Entry> sorted = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a dog to the index. Dogs without name are left out.
+     * @param dog {@link Dog} to add
+     * @param partition Position of the partition of the dog
+     * @param birthDay Date of birth of the dog as days since the epoch
+     * @param sequence Sequence number of the dog in its partition
+     */
+    void add(Dog dog, int partition, int birthDay, long sequence) {
+        String name = dog.getName();
+        if (name == null) {
+            return;
+        }
+        Entry entry = byName.get(name);
+        Entry newEntry = entry == null ? new Entry(dog, partition, birthDay, sequence)
+                : entry.with(dog, partition, birthDay, sequence);
+        byName.put(name, newEntry);
+        sorted.put(key(name), newEntry);
+    }
+
+    /**
+     * Replaces the dogs of some names at once: the new entry of every name changed is worked out first and then put
+     * in place of the old one, so a name kept by the changes, such as the one of a dog updated, never goes missing
+     * from the index. Only names left without dogs are removed. Dogs without name are left out.
+     * @param dropped Names of the dogs to remove
+     * @param added {@link Dog} array to add, not handed out to any caller yet
+     * @param addedBirthDays Dates of birth of the dogs to add as days since the epoch, at the same positions
+     * @param firstSequence Sequence number of the first dog to add, the next ones following it
+     */
+    void update(Set<String> dropped, Dog[] added, int[] addedBirthDays, long firstSequence) {
+        Map<String, Entry> changed = new HashMap<>();
+        for (String name : dropped) {
+            changed.put(name, null);
+        }
+        for (int i = 0; i < added.length; i++) {
+            String name = added[i].getName();
+            if (name != null) {
+                Entry entry = changed.containsKey(name) ? changed.get(name) : byName.get(name);
+                int partition = DogRegistryImpl.Snapshot.partition(added[i].getBreed());
+                changed.put(name, entry == null ? new Entry(added[i], partition, addedBirthDays[i], firstSequence + i)
+                        : entry.with(added[i], partition, addedBirthDays[i], firstSequence + i));
+            }
+        }
+        changed.forEach((name, entry) -> {
+            if (entry != null) {
+                byName.put(name, entry);
+                sorted.put(key(name), entry);
+            } else if (byName.remove(name) != null) {
+                sorted.remove(key(name));
+            }
+        });
+    }
+
+    /**
+     * @param name Name to look up
+     * @return true if there is any dog with that name
+     */
+    boolean contains(String name) {
+        return byName.containsKey(name);
+    }
+
+    /**
+     * @param name Name to look up, case sensitive
+     * @return Unmodifiable list of the dogs with that name, in the order they were added
+     */
+    List<Dog> get(String name) {
+        Entry entry = byName.get(name);
+        return entry == null ? Collections.emptyList() : entry.dogs;
+    }
+
+    /**
+     * @param name Name to look up, case sensitive
+     * @return {@link Entry} of the dogs with that name, or null if there is none
+     */
+    Entry entry(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * Looks up the dogs whose name starts with a prefix ignoring case, walking the sorted names from the prefix on
+     * and stopping as soon as the limit is reached.
+     * @param prefix Start of the names to look up
+     * @param limit Maximum number of dogs to return
+     * @return Dogs sorted by name ignoring case
+     */
+    List<Dog> startingWith(String prefix, int limit) {
+        String from = lowerCase(prefix);
+        List<Dog> dogs = new ArrayList<>(Math.min(limit, 16));
+        for (Map.Entry<String, Entry> entry : sorted.tailMap(from).entrySet()) {
+            if (dogs.size() >= limit || !entry.getKey().startsWith(from)) {
+                break;
+            }
+            for (Dog dog : entry.getValue().dogs) {
+                if (dogs.size() >= limit) {
+                    break;
+                }
+                dogs.add(dog);
+            }
+        }
+        return dogs;
+    }
+
+    /**
+     * @param name Name of a dog
+     * @return Key of the name in the sorted map
+     */
+    private static String key(String name) {
+        return lowerCase(name) + KEY_SEPARATOR + name;
+    }
+
+    /**
+     * @param text Name or prefix
+     * @return Text in lower case, as compared by the prefix lookups
+     */
+    static String lowerCase(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Immutable dogs with the same name, in the order they were added, with the positions of their partitions, their
+     * dates of birth as days since the epoch and their sequence numbers at the same positions.
+     */
+    static final class Entry {
+
+        final List<Dog> dogs;
+        final int[] partitions;
+        final int[] birthDays;
+        final long[] sequences;
+
+        private Entry(Dog dog, int partition, int birthDay, long sequence) {
+            this(Collections.singletonList(dog), new int[]{partition}, new int[]{birthDay}, new long[]{sequence});
+        }
+
+        private Entry(List<Dog> dogs, int[] partitions, int[] birthDays, long[] sequences) {
+            this.dogs = dogs;
+            this.partitions = partitions;
+            this.birthDays = birthDays;
+            this.sequences = sequences;
+        }
+
+        /**
+         * @return Copy of this entry with another dog at the end
+         */
+        private Entry with(Dog dog, int partition, int birthDay, long sequence) {
+            List<Dog> newDogs = new ArrayList<>(dogs.size() + 1);
+            newDogs.addAll(dogs);
+            newDogs.add(dog);
+            int[] newPartitions = Arrays.copyOf(partitions, partitions.length + 1);
+            newPartitions[partitions.length] = partition;
+            int[] newBirthDays = Arrays.copyOf(birthDays, birthDays.length + 1);
+            newBirthDays[birthDays.length] = birthDay;
+            long[] newSequences = Arrays.copyOf(sequences, sequences.length + 1);
+            newSequences[sequences.length] = sequence;
+            return new Entry(Collections.unmodifiableList(newDogs), newPartitions, newBirthDays, newSequences);
+        }
+    }
+}
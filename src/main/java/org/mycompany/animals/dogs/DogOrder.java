@@ -0,0 +1,59 @@
+package org.mycompany.animals.dogs;
+
+/**
+ * Orders of the dogs returned by {@link DogRegistry#topDogs(java.util.function.Predicate, DogOrder, int)} and
+ * {@link DogRegistry#topDogsPerBreed(java.util.function.Predicate, DogOrder, int)}. Dogs tied on weight or date
+ * of birth keep the order they are returned in by {@link DogRegistry#dogsByCondition(java.util.function.Predicate)}.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public enum DogOrder {
+
+    /**
+     * From the heaviest to the lightest.
+     */
+    HEAVIEST,
+
+    /**
+     * From the lightest to the heaviest.
+     */
+    LIGHTEST,
+
+    /**
+     * From the oldest to the youngest.
+     */
+    OLDEST,
+
+    /**
+     * From the youngest to the oldest.
+     */
+    YOUNGEST;
+
+    /**
+     * Compares two dogs by the value this order is about only, leaving ties to the caller.
+     * @param weight Weight of a dog
+     * @param birthDay Date of birth of the dog as days since the epoch
+     * @param otherWeight Weight of another dog
+     * @param otherBirthDay Date of birth of the other dog as days since the epoch
+     * @return Negative if the dog goes before the other one, positive if it goes after, 0 if they are tied
+     */
+    int compare(double weight, long birthDay, double otherWeight, long otherBirthDay) {
+        switch (this) {
+            case HEAVIEST:
+                return Double.compare(otherWeight, weight);
+            case LIGHTEST:
+                return Double.compare(weight, otherWeight);
+            case OLDEST:
+                return Long.compare(birthDay, otherBirthDay);
+            default:
+                return Long.compare(otherBirthDay, birthDay);
+        }
+    }
+
+    /**
+     * @return true if dogs are ordered by date of birth, false if they are ordered by weight
+     */
+    boolean byBirthDay() {
+        return this == OLDEST || this == YOUNGEST;
+    }
+}
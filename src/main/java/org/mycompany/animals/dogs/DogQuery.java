@@ -0,0 +1,644 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Composable condition on dogs to be passed to {@link DogRegistry#dogsByCondition(Predicate)}.
+ * Unlike an arbitrary {@link Predicate}, a query can be inspected by the registry, which uses the breeds and the
+ * dates of birth it allows to look only at the dogs that may match instead of scanning all of them.
+ * <p>Queries are built out of the static factory methods and combined with {@link #and(DogQuery)},
+ * {@link #or(DogQuery)} and {@link #negate()}. They are immutable and compare equal when they have the same
+ * structure and values, so they can be used as keys. For example:</p>
+ * <pre>
+ *     DogQuery query = DogQuery.breed(DogBreed.SHIBA_INU).and(DogQuery.weightBetween(0, 10));
+ *     List&lt;Dog&gt; dogs = dogRegistry.dogsByCondition(query);
+ * </pre>
+ * <p>Registries evaluate queries against the dates of birth they parsed with their own format. Dogs tested
+ * directly are parsed with the format passed to {@link #test(Dog, DateTimeFormatter)}, or with
+ * {@link DogRegistryConfig#DEFAULT_DATE_FORMAT} through {@link #test(Dog)}.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public abstract class DogQuery implements Predicate<Dog> {
+
+    /**
+     * Date format used to parse the date of birth of the dogs tested through {@link #test(Dog)}.
+     */
+    private static final DateTimeFormatter DEFAULT_DATE_FORMAT =
+            DateTimeFormatter.ofPattern(DogRegistryConfig.DEFAULT_DATE_FORMAT);
+
+    /**
+     * Constructor only available for the classes in this file, so the set of queries is closed and can be
+     * inspected by the registries.
+     */
+    private DogQuery() {
+    }
+
+    /**
+     * @param breed {@link DogBreed} to match
+     * @return Query matching the dogs of that breed
+     */
+    public static DogQuery breed(DogBreed breed) {
+        return new BreedIn(EnumSet.of(breed));
+    }
+
+    /**
+     * @param first {@link DogBreed} to match
+     * @param others Other {@link DogBreed} to match
+     * @return Query matching the dogs of any of those breeds
+     */
+    public static DogQuery breedIn(DogBreed first, DogBreed... others) {
+        return new BreedIn(EnumSet.of(first, others));
+    }
+
+    /**
+     * @param breeds {@link DogBreed} to match
+     * @return Query matching the dogs of any of those breeds
+     */
+    public static DogQuery breedIn(Collection<DogBreed> breeds) {
+        return new BreedIn(breeds.isEmpty() ? EnumSet.noneOf(DogBreed.class) : EnumSet.copyOf(breeds));
+    }
+
+    /**
+     * @param min Min weight, included
+     * @param max Max weight, included
+     * @return Query matching the dogs weighing between both values
+     */
+    public static DogQuery weightBetween(double min, double max) {
+        return new WeightBetween(min, max);
+    }
+
+    /**
+     * @param min Min weight, included
+     * @return Query matching the dogs weighing at least that value
+     */
+    public static DogQuery weightAtLeast(double min) {
+        return new WeightBetween(min, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param max Max weight, included
+     * @return Query matching the dogs weighing at most that value
+     */
+    public static DogQuery weightAtMost(double max) {
+        return new WeightBetween(Double.NEGATIVE_INFINITY, max);
+    }
+
+    /**
+     * @param from First date of birth, included
+     * @param to Last date of birth, included
+     * @return Query matching the dogs born between both dates
+     */
+    public static DogQuery bornBetween(LocalDate from, LocalDate to) {
+        return new BornBetween(from.toEpochDay(), to.toEpochDay());
+    }
+
+    /**
+     * @param date Date of birth, not included
+     * @return Query matching the dogs born after that date
+     */
+    public static DogQuery bornAfter(LocalDate date) {
+        return new BornBetween(date.toEpochDay() + 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param date Date of birth, not included
+     * @return Query matching the dogs born before that date
+     */
+    public static DogQuery bornBefore(LocalDate date) {
+        return new BornBetween(Long.MIN_VALUE, date.toEpochDay() - 1);
+    }
+
+    /**
+     * @param prefix Start of the name, case sensitive
+     * @return Query matching the dogs whose name starts with the prefix
+     */
+    public static DogQuery nameStartsWith(String prefix) {
+        return new NameStartsWith(Objects.requireNonNull(prefix));
+    }
+
+    /**
+     * @param query {@link DogQuery} to negate
+     * @return Query matching the dogs not matched by the query passed as argument
+     */
+    public static DogQuery not(DogQuery query) {
+        return query.negate();
+    }
+
+    /**
+     * @param other {@link DogQuery} to combine with this one
+     * @return Query matching the dogs matched by both queries
+     */
+    public DogQuery and(DogQuery other) {
+        return new And(this, Objects.requireNonNull(other));
+    }
+
+    /**
+     * @param other {@link DogQuery} to combine with this one
+     * @return Query matching the dogs matched by any of both queries
+     */
+    public DogQuery or(DogQuery other) {
+        return new Or(this, Objects.requireNonNull(other));
+    }
+
+    /**
+     * @return Query matching the dogs not matched by this one
+     */
+    @Override
+    public DogQuery negate() {
+        return new Not(this);
+    }
+
+    /**
+     * Tests the dog passed as argument, parsing its date of birth with {@link DogRegistryConfig#DEFAULT_DATE_FORMAT}
+     * if needed. Dogs written with another format must be tested through {@link #test(Dog, DateTimeFormatter)}.
+     * @param dog {@link Dog} to test
+     * @return true if the dog matches this query
+     */
+    @Override
+    public boolean test(Dog dog) {
+        return test(dog, DEFAULT_DATE_FORMAT);
+    }
+
+    /**
+     * Tests the dog passed as argument, parsing its date of birth with a date format if needed.
+     * @param dog {@link Dog} to test
+     * @param dateFormat {@link DateTimeFormatter} the date of birth of the dog is written with
+     * @return true if the dog matches this query
+     */
+    public boolean test(Dog dog, DateTimeFormatter dateFormat) {
+        long birthDay = usesBirthDay()
+                ? LocalDate.parse(dog.getDateOfBirth(), dateFormat).toEpochDay()
+                : 0;
+        return matches(dog.getBreed(), dog.getWeight(), birthDay, dog.getName());
+    }
+
+    /**
+     * Tests the values of a dog. Used by the registries, which already hold the dates of birth as days since
+     * the epoch.
+     * @param breed Breed of the dog, which may be null
+     * @param weight Weight of the dog
+     * @param birthDay Date of birth of the dog as days since the epoch
+     * @param name Name of the dog, which may be null. Registries may pass null when {@link #usesName()} is false
+     * @return true if the dog matches this query
+     */
+    abstract boolean matches(DogBreed breed, double weight, long birthDay, String name);
+
+    /**
+     * @return true if the date of birth is needed to evaluate this query
+     */
+    abstract boolean usesBirthDay();
+
+    /**
+     * @return true if the name is needed to evaluate this query, so registries only decode names when it is
+     */
+    abstract boolean usesName();
+
+    /**
+     * @return Breeds of all the dogs this query may match, or null if it may match dogs of any breed or
+     * without breed
+     */
+    abstract Set<DogBreed> breeds();
+
+    /**
+     * @return First day since the epoch any dog matched by this query may have been born
+     */
+    abstract long minBirthDay();
+
+    /**
+     * @return Last day since the epoch any dog matched by this query may have been born
+     */
+    abstract long maxBirthDay();
+
+    private static final class BreedIn extends DogQuery {
+
+        private final EnumSet<DogBreed> breeds;
+
+        private BreedIn(EnumSet<DogBreed> breeds) {
+            this.breeds = breeds;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return breed != null && breeds.contains(breed);
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return false;
+        }
+
+        @Override
+        boolean usesName() {
+            return false;
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            return breeds;
+        }
+
+        @Override
+        long minBirthDay() {
+            return Long.MIN_VALUE;
+        }
+
+        @Override
+        long maxBirthDay() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BreedIn && breeds.equals(((BreedIn) o).breeds);
+        }
+
+        @Override
+        public int hashCode() {
+            return breeds.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "breed in " + breeds;
+        }
+    }
+
+    private static final class WeightBetween extends DogQuery {
+
+        private final double min;
+        private final double max;
+
+        private WeightBetween(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return weight >= min && weight <= max;
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return false;
+        }
+
+        @Override
+        boolean usesName() {
+            return false;
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            return null;
+        }
+
+        @Override
+        long minBirthDay() {
+            return Long.MIN_VALUE;
+        }
+
+        @Override
+        long maxBirthDay() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof WeightBetween)) {
+                return false;
+            }
+            WeightBetween other = (WeightBetween) o;
+            return Double.compare(min, other.min) == 0 && Double.compare(max, other.max) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Double.hashCode(min) + Double.hashCode(max);
+        }
+
+        @Override
+        public String toString() {
+            return "weight between " + min + " and " + max;
+        }
+    }
+
+    private static final class BornBetween extends DogQuery {
+
+        private final long from;
+        private final long to;
+
+        private BornBetween(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return birthDay >= from && birthDay <= to;
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return true;
+        }
+
+        @Override
+        boolean usesName() {
+            return false;
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            return null;
+        }
+
+        @Override
+        long minBirthDay() {
+            return from;
+        }
+
+        @Override
+        long maxBirthDay() {
+            return to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BornBetween)) {
+                return false;
+            }
+            BornBetween other = (BornBetween) o;
+            return from == other.from && to == other.to;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(from) + Long.hashCode(to);
+        }
+
+        @Override
+        public String toString() {
+            return "born between " + day(from) + " and " + day(to);
+        }
+
+        private static String day(long epochDay) {
+            return epochDay < LocalDate.MIN.toEpochDay() || epochDay > LocalDate.MAX.toEpochDay()
+                    ? "-" : LocalDate.ofEpochDay(epochDay).toString();
+        }
+    }
+
+    private static final class NameStartsWith extends DogQuery {
+
+        private final String prefix;
+
+        private NameStartsWith(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return name != null && name.startsWith(prefix);
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return false;
+        }
+
+        @Override
+        boolean usesName() {
+            return true;
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            return null;
+        }
+
+        @Override
+        long minBirthDay() {
+            return Long.MIN_VALUE;
+        }
+
+        @Override
+        long maxBirthDay() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof NameStartsWith && prefix.equals(((NameStartsWith) o).prefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return prefix.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "name starts with '" + prefix + "'";
+        }
+    }
+
+    private static final class And extends DogQuery {
+
+        private final DogQuery left;
+        private final DogQuery right;
+
+        private And(DogQuery left, DogQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return left.matches(breed, weight, birthDay, name) && right.matches(breed, weight, birthDay, name);
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return left.usesBirthDay() || right.usesBirthDay();
+        }
+
+        @Override
+        boolean usesName() {
+            return left.usesName() || right.usesName();
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            Set<DogBreed> leftBreeds = left.breeds();
+            Set<DogBreed> rightBreeds = right.breeds();
+            if (leftBreeds == null) {
+                return rightBreeds;
+            }
+            if (rightBreeds == null) {
+                return leftBreeds;
+            }
+            EnumSet<DogBreed> breeds = EnumSet.copyOf(leftBreeds);
+            breeds.retainAll(rightBreeds);
+            return breeds;
+        }
+
+        @Override
+        long minBirthDay() {
+            return Math.max(left.minBirthDay(), right.minBirthDay());
+        }
+
+        @Override
+        long maxBirthDay() {
+            return Math.min(left.maxBirthDay(), right.maxBirthDay());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof And && left.equals(((And) o).left) && right.equals(((And) o).right);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{"and", left, right});
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " and " + right + ")";
+        }
+    }
+
+    private static final class Or extends DogQuery {
+
+        private final DogQuery left;
+        private final DogQuery right;
+
+        private Or(DogQuery left, DogQuery right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return left.matches(breed, weight, birthDay, name) || right.matches(breed, weight, birthDay, name);
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return left.usesBirthDay() || right.usesBirthDay();
+        }
+
+        @Override
+        boolean usesName() {
+            return left.usesName() || right.usesName();
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            Set<DogBreed> leftBreeds = left.breeds();
+            Set<DogBreed> rightBreeds = right.breeds();
+            if (leftBreeds == null || rightBreeds == null) {
+                return null;
+            }
+            EnumSet<DogBreed> breeds = EnumSet.copyOf(leftBreeds);
+            breeds.addAll(rightBreeds);
+            return breeds;
+        }
+
+        @Override
+        long minBirthDay() {
+            return Math.min(left.minBirthDay(), right.minBirthDay());
+        }
+
+        @Override
+        long maxBirthDay() {
+            return Math.max(left.maxBirthDay(), right.maxBirthDay());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Or && left.equals(((Or) o).left) && right.equals(((Or) o).right);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[]{"or", left, right});
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " or " + right + ")";
+        }
+    }
+
+    private static final class Not extends DogQuery {
+
+        private final DogQuery query;
+
+        private Not(DogQuery query) {
+            this.query = query;
+        }
+
+        @Override
+        boolean matches(DogBreed breed, double weight, long birthDay, String name) {
+            return !query.matches(breed, weight, birthDay, name);
+        }
+
+        @Override
+        boolean usesBirthDay() {
+            return query.usesBirthDay();
+        }
+
+        @Override
+        boolean usesName() {
+            return query.usesName();
+        }
+
+        @Override
+        Set<DogBreed> breeds() {
+            return null;
+        }
+
+        @Override
+        long minBirthDay() {
+            return Long.MIN_VALUE;
+        }
+
+        @Override
+        long maxBirthDay() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public DogQuery negate() {
+            return query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Not && query.equals(((Not) o).query);
+        }
+
+        @Override
+        public int hashCode() {
+            return ~query.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "not " + query;
+        }
+    }
+}
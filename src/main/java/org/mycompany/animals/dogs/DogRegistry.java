@@ -1,11 +1,15 @@
 package org.mycompany.animals.dogs;
 
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
 import org.mycompany.animals.dogs.domain.Dog;
 
 import java.time.LocalDate;
 import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Public interface with all the methods required for querying and registering a particular animal.
@@ -28,13 +32,24 @@ public interface DogRegistry<T extends Enum<T>> {
      */
     EnumMap<T, Double> averageWeightPerBreed();
 
+    /**
+     * Returns weight statistics per breed for all breeds: count, min, max, mean, variance and percentiles, taking
+     * the same memory per breed whatever the number of dogs. Percentiles come from a quantile sketch, within
+     * {@link DogRegistryConfig#getWeightSketchAccuracy()} of the actual weights. Registries of this library keep
+     * the sketches of every breed and only work them out again for the breeds changed since.
+     * @return {@link java.util.EnumMap} Where T is the key used for this class and the value is the
+     * {@link WeightStatistics} of every breed with at least one dog
+     */
+    EnumMap<T, WeightStatistics> weightStatisticsPerBreed();
+
     /**
      * Returns a list of all dogs based on some predicate, which
-     * is passed as a parameter
+     * is passed as a parameter. Dogs are returned sorted by date of birth, from the oldest to the youngest, and dogs
+     * born on the same day in the order they were loaded, or registered or last updated in a mutable registry.
      * @param predicate {@link java.util.function.Predicate}
      * containing the predicate to be queried against the list of dogs.
      * @return {@link java.util.List} List of dog which satisfy
-     * the condition passed as argument
+     * the condition passed as argument, from the oldest to the youngest
      */
     List<Dog> dogsByCondition(Predicate<Dog> predicate);
 
@@ -45,4 +60,141 @@ public interface DogRegistry<T extends Enum<T>> {
      * argument.
      */
     Dog oldestDogAfterDate(LocalDate date);
+
+    /**
+     * Returns all the dogs born between two dates passed as argument, both included
+     * @param from {@link java.time.LocalDate} first date of birth to include
+     * @param to {@link java.time.LocalDate} last date of birth to include
+     * @return {@link java.util.List} List of dogs born between both dates, from the oldest to the youngest
+     */
+    List<Dog> dogsBornBetween(LocalDate from, LocalDate to);
+
+    /**
+     * Returns the first dogs satisfying a condition in an order, such as the 50 heaviest dogs, without sorting all
+     * of them: only the first ones found so far are kept, in a heap of the size of the limit. Dates and weights to
+     * look at can be bounded with a {@link DogQuery}, which registries of this library use to only scan the dogs
+     * which may match. They also stop scanning dates of birth as soon as no dog left can make it and scan large
+     * registries in parallel.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return
+     * @return {@link java.util.List} List of at most limit dogs which satisfy the condition, in that order
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    List<Dog> topDogs(Predicate<Dog> predicate, DogOrder order, int limit);
+
+    /**
+     * Returns the first dogs of every breed satisfying a condition in an order, such as the 50 oldest dogs of every
+     * breed, keeping only a heap of the size of the limit per breed. Dogs without breed are left out.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return per breed
+     * @return {@link java.util.EnumMap} Where T is the key used for this class and the value is the list of at most
+     * limit dogs in that order of every breed with at least one dog which satisfies the condition
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    EnumMap<T, List<Dog>> topDogsPerBreed(Predicate<Dog> predicate, DogOrder order, int limit);
+
+    /**
+     * Returns the dogs with a name. Registries of this library look the name up in an index instead of scanning the
+     * dogs. By default every dog is tested.
+     * @param name Name of the dogs, case sensitive
+     * @return {@link java.util.List} List of the dogs with that name
+     */
+    default List<Dog> dogsByName(String name) {
+        return dogsByCondition(dog -> name != null && name.equals(dog.getName()));
+    }
+
+    /**
+     * Returns the dogs whose name starts with a prefix ignoring case, sorted by name ignoring case, for instance
+     * to complete names as they are typed. Registries of this library look the prefix up in a sorted index instead
+     * of scanning the dogs. By default every dog is tested.
+     * @param prefix Start of the names, case insensitive
+     * @param limit Maximum number of dogs to return
+     * @return {@link java.util.List} List of at most limit dogs whose name starts with the prefix
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    default List<Dog> dogsByNamePrefix(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        String lowerCasePrefix = DogNameIndex.lowerCase(prefix);
+        return dogsByCondition(dog -> dog.getName() != null
+                && DogNameIndex.lowerCase(dog.getName()).startsWith(lowerCasePrefix)).stream()
+                .sorted(DogNameIndex.BY_NAME)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the dogs satisfying a condition as a lazy stream, in the same order as
+     * {@link #dogsByCondition(Predicate)}. Registries of this library only test the dogs as the stream is consumed,
+     * so matches can be processed with bounded memory and short-circuiting operations stop the scan early.
+     * By default the whole list is built first.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @return {@link java.util.stream.Stream} of the dogs which satisfy the condition
+     */
+    default Stream<Dog> streamByCondition(Predicate<Dog> predicate) {
+        return dogsByCondition(predicate).stream();
+    }
+
+    /**
+     * Returns a page of the dogs satisfying a condition, in the same order as {@link #dogsByCondition(Predicate)}.
+     * Only the dogs of the page are kept, although the ones before it are still tested.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @param offset Number of matching dogs to skip
+     * @param limit Maximum number of dogs to return
+     * @return {@link java.util.List} List of at most limit dogs which satisfy the condition
+     * @throws IllegalArgumentException if the offset or the limit are negative
+     */
+    default List<Dog> dogsByCondition(Predicate<Dog> predicate, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative: " + offset + ", " + limit);
+        }
+        return streamByCondition(predicate).skip(offset).limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * Counts the dogs satisfying a condition without returning them.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @return Number of dogs which satisfy the condition
+     */
+    default long countByCondition(Predicate<Dog> predicate) {
+        return streamByCondition(predicate).count();
+    }
+
+    /**
+     * Passes the dogs satisfying a condition to a visitor one at a time, in the same order as
+     * {@link #dogsByCondition(Predicate)}, until the visitor asks to stop.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @param visitor {@link DogVisitor} called for every dog which satisfies the condition
+     * @return Number of dogs passed to the visitor
+     */
+    default long visitByCondition(Predicate<Dog> predicate, DogVisitor visitor) {
+        long visited = 0;
+        Iterator<Dog> dogs = streamByCondition(predicate).iterator();
+        while (dogs.hasNext()) {
+            visited++;
+            if (!visitor.visit(dogs.next())) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Answers all the queries of a batch in a single pass over the dogs, so many queries cost a single scan
+     * instead of one each. Registries of this library only test every dog against the queries which may match it
+     * and scan large registries in parallel. By default every dog is tested against every query.
+     * @param batch {@link DogBatch} with the queries to answer
+     * @return {@link DogBatchResult} with the result of every query, the same as the one of the matching method
+     */
+    default DogBatchResult query(DogBatch batch) {
+        DogBatchScan scan = new DogBatchScan(batch);
+        Iterator<Dog> dogs = streamByCondition(dog -> true).iterator();
+        while (dogs.hasNext()) {
+            scan.test(dogs.next());
+        }
+        return scan.result();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.time.DateTimeException;
+
+/**
+ * Builder used by {@link DogRegistryFactory} to fill in a registry one dog at a time while a file is read,
+ * regardless of the way the registry stores its dogs.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+interface DogRegistryBuilder {
+
+    /**
+     * Adds a single dog to the registry being built.
+     * @param dog {@link Dog} read from the file
+     * @throws DateTimeException if the date of birth of the dog can not be parsed
+     */
+    void add(Dog dog);
+
+    /**
+     * Adds a single dog whose date of birth has already been parsed, such as a dog read from a snapshot.
+     * @param dog {@link Dog} to add
+     * @param birthDay Date of birth of the dog as days since the epoch
+     */
+    void add(Dog dog, int birthDay);
+
+    /**
+     * @return Number of dogs added so far
+     */
+    int size();
+
+    /**
+     * Builds the registry with all the dogs added so far. The builder must not be used afterwards.
+     * @return {@link DogRegistry} with all the dogs added
+     */
+    DogRegistry<DogBreed> build();
+
+    /**
+     * Builds the registry with all the dogs added so far and the weight aggregates passed as argument rather than
+     * the ones worked out from the dogs added, so the averages are exactly the ones of the registry the dogs
+     * were copied from. The builder must not be used afterwards.
+     * @param aggregates {@link WeightAggregates} of all the dogs added
+     * @return {@link DogRegistry} with all the dogs added
+     */
+    DogRegistry<DogBreed> build(WeightAggregates aggregates);
+
+    /**
+     * Returns a builder for the storage mode set in the configuration passed as argument.
+     * @param config {@link DogRegistryConfig} with the storage mode and the date format
+     * @return {@link DogRegistryBuilder} for a new, empty registry
+     */
+    static DogRegistryBuilder newBuilder(DogRegistryConfig config) {
+        switch (config.getStorageMode()) {
+            case COLUMNAR:
+                return new ColumnarDogRegistry.Builder(config);
+            case MAPPED:
+                return new MappedDogRegistry.Builder(config);
+            case OBJECTS:
+            default:
+                return new DogRegistryImpl.Builder(config);
+        }
+    }
+}
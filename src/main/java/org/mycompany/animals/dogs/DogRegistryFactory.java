@@ -1,16 +1,32 @@
 package org.mycompany.animals.dogs;
 
 import org.mycompany.animals.AnimalFactory;
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.StorageMode;
 import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
 import org.mycompany.animals.dogs.domain.Dogs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Concrete implementation of the {@link AnimalFactory} class for the Dogs
@@ -25,12 +41,49 @@ public class DogRegistryFactory implements AnimalFactory<DogRegistry> {
      */
     private static final Logger log = LoggerFactory.getLogger(DogRegistryFactory.class);
 
+    /**
+     * Characters telling a file name is a glob.
+     */
+    private static final Pattern GLOB = Pattern.compile("[*?\\[{]");
+
+    /**
+     * Config instance used to decide how the dogs file is read.
+     */
+    private final DogRegistryConfig config;
+
+    /**
+     * Timings of the last file loaded by this factory.
+     */
+    private volatile LoadStatistics lastLoadStatistics;
+
+    /**
+     * Creates a factory with the default {@link DogRegistryConfig} configuration.
+     */
+    public DogRegistryFactory() {
+        this(new DogRegistryConfig());
+    }
+
+    /**
+     * Creates a factory with the configuration passed as argument.
+     * @param config {@link DogRegistryConfig} to be used when loading files
+     */
+    public DogRegistryFactory(DogRegistryConfig config) {
+        this.config = config;
+    }
+
     /**
      * Return a concrete implementation of the {@link DogRegistry} class
      * for the Dog type and read and parse the file to be loaded in memory.
+     * The file is read as configured by {@link DogRegistryConfig#getLoadMode()}, the dogs are stored as configured by
+     * {@link DogRegistryConfig#getStorageMode()} and every date of birth is parsed
+     * with {@link DogRegistryConfig#getDateFormat()}, so invalid dates are reported here rather than when querying.
+     * <p>Binary snapshots written by {@link #writeSnapshot(DogRegistry, String)} are told apart from XML files by
+     * their first bytes and loaded straight into the configured storage mode, without any parsing.</p>
+     * <p>The name may also be a directory or a glob in its last part, such as {@code data/dogs-*.xml}, in which case
+     * all the XML files matching it are loaded in parallel into a single registry, in the order of their names.
+     * Directories of persistent registries, written by {@link #openPersistent(String)}, are opened again instead.</p>
      * @param fileName Name of the file to read the Dogs information from.
-     * @return {@link DogRegistryImpl} Concrete implementation of
-     * the {@link DogRegistry} class containing the list of dogs laded in memory
+     * @return Concrete implementation of the {@link DogRegistry} class containing the list of dogs laded in memory
      * @throws JAXBException in case any exception when dealing with the marshal/unmarshal of the XML file.
      */
     @Override
@@ -38,17 +91,344 @@ public class DogRegistryFactory implements AnimalFactory<DogRegistry> {
 
         File xmlFile = new File(fileName);
 
-        JAXBContext jaxbContext;
+        if (xmlFile.isDirectory() && PersistentDogRegistry.isPersistent(xmlFile)) {
+            return PersistentDogRegistry.open(config, xmlFile);
+        }
+
+        List<File> shards = shards(xmlFile);
+        if (shards != null) {
+            return loadParallel(shards);
+        }
+
+        if (!xmlFile.isFile()) {
+            throw new JAXBException("File " + fileName + " does not exist or is not a regular file");
+        }
+
+        if (isSnapshot(xmlFile)) {
+            return loadSnapshot(xmlFile);
+        }
+
+        switch (config.getLoadMode()) {
+            case STREAMING:
+                return loadStreaming(xmlFile);
+            case PARALLEL:
+                return loadParallel(Collections.singletonList(xmlFile));
+            case JAXB:
+            default:
+                return loadJaxb(xmlFile);
+        }
+    }
+
+    /**
+     * Loads a file as {@link #load(String)} does and keeps watching it, reloading it in the background whenever it
+     * changes. The registry returned always answers with the last version of the file which could be loaded.
+     * @param fileName Name of the file to read the Dogs information from.
+     * @return {@link ReloadingDogRegistry} over the file, to be closed once it is no longer needed
+     * @throws JAXBException in case the file can not be loaded
+     * @throws IOException in case the file can not be watched
+     */
+    public ReloadingDogRegistry loadReloading(String fileName) throws JAXBException, IOException {
+        return new ReloadingDogRegistry(config, fileName);
+    }
+
+    /**
+     * Opens a {@link PersistentDogRegistry} in a directory, which records every change in a write-ahead log before
+     * it returns, as configured by {@link DogRegistryConfig#getFsyncPolicy()}. The changes written before the
+     * registry was last closed are recovered. A new directory is loaded out of the dogs XML files in it, if any.
+     * Once opened, {@link #load(String)} opens the directory again as a persistent registry.
+     * @param directory Name of the directory of the registry, created if it does not exist
+     * @return {@link PersistentDogRegistry} open, to be closed once it is no longer needed
+     * @throws JAXBException in case the directory can not be read, its files are corrupted or it is already open
+     */
+    public PersistentDogRegistry openPersistent(String directory) throws JAXBException {
+        return PersistentDogRegistry.open(config, new File(directory));
+    }
+
+    /**
+     * Reads a change file with dogs added, modified and removed, as described in {@link DogChanges}.
+     * @param fileName Name of the change file
+     * @return {@link DogChanges} read from the file
+     * @throws JAXBException in case the file does not exist or it is not a valid change file
+     */
+    public DogChanges readChanges(String fileName) throws JAXBException {
+        File changesFile = new File(fileName);
+        if (!changesFile.isFile()) {
+            throw new JAXBException("File " + fileName + " does not exist or is not a regular file");
+        }
+        DogChanges changes = StaxDogReader.readChanges(changesFile);
+        log.debug("Changes read from {}: {}", fileName, changes);
+        return changes;
+    }
+
+    /**
+     * Puts a query cache in front of a registry, sized as set in the config of this factory. Writes and reloads of
+     * the registry invalidate the cache on their own.
+     * @param registry {@link DogRegistry} to cache the queries of
+     * @return {@link CachingDogRegistry} answering the same queries asked again out of the cache
+     */
+    public CachingDogRegistry cache(DogRegistry<DogBreed> registry) {
+        return new CachingDogRegistry(registry, config);
+    }
+
+    /**
+     * Applies a change file to a registry already loaded, instead of loading the whole registry again.
+     * All the changes are applied at once through {@link MutableDogRegistry#apply(DogChanges)}, which updates the
+     * weight aggregates with the dogs changed only and copies only the breeds changed.
+     * @param registry {@link MutableDogRegistry} to change
+     * @param fileName Name of the change file
+     * @return Number of changes applied, leaving out the dogs modified or removed which were not registered
+     * @throws JAXBException in case the file is not a valid change file or its changes can not be applied, in which
+     * case the registry is left as it was
+     * @throws IllegalArgumentException if the registry can not be changed
+     */
+    public int applyChanges(DogRegistry registry, String fileName) throws JAXBException {
+        if (registry instanceof CachingDogRegistry) {
+            registry = ((CachingDogRegistry) registry).getRegistry();
+        }
+        if (!(registry instanceof MutableDogRegistry)) {
+            throw new IllegalArgumentException("Registry " + registry.getClass().getName() + " can not be changed");
+        }
+        DogChanges changes = readChanges(fileName);
+        try {
+            return ((MutableDogRegistry<?>) registry).apply(changes);
+        } catch (IllegalArgumentException e) {
+            throw new UnmarshalException("Unable to apply the changes of file " + fileName + ": " + e.getMessage(),
+                    e);
+        }
+    }
+
+    /**
+     * Writes a registry loaded by this library to a binary snapshot file, which is loaded back by
+     * {@link #load(String)} much faster than the XML file it may have been loaded from.
+     * The file is replaced atomically if it exists.
+     * @param registry {@link DogRegistry} to write, loaded by a {@link DogRegistryFactory}
+     * @param fileName Name of the snapshot file to write
+     * @throws IOException in case the file can not be written
+     * @throws IllegalArgumentException if the registry was not loaded by this library
+     */
+    public void writeSnapshot(DogRegistry registry, String fileName) throws IOException {
+        if (registry instanceof CachingDogRegistry) {
+            registry = ((CachingDogRegistry) registry).getRegistry();
+        }
+        if (registry instanceof ReloadingDogRegistry) {
+            registry = ((ReloadingDogRegistry) registry).current();
+        }
+        AbstractColumnarDogRegistry columnar;
+        if (registry instanceof AbstractColumnarDogRegistry) {
+            columnar = (AbstractColumnarDogRegistry) registry;
+        } else if (registry instanceof DogRegistryImpl) {
+            columnar = ((DogRegistryImpl) registry).toColumnar();
+        } else if (registry instanceof PersistentDogRegistry) {
+            columnar = ((PersistentDogRegistry) registry).toColumnar();
+        } else {
+            throw new IllegalArgumentException("Registry " + registry.getClass().getName()
+                    + " can not be written as a snapshot");
+        }
+        DogSnapshotWriter.write(columnar, Paths.get(fileName));
+        log.debug("Snapshot of {} dogs written to {}", columnar.size(), fileName);
+    }
+
+    /**
+     * Returns the timings of the last file loaded by this factory, so the time spent setting up the parser
+     * can be told apart from the time spent actually parsing.
+     * @return {@link LoadStatistics} of the last load or null if nothing has been loaded yet
+     */
+    public LoadStatistics getLastLoadStatistics() {
+        return lastLoadStatistics;
+    }
+
+    /**
+     * Unmarshals the whole file into a {@link Dogs} object graph and copies its dogs into the registry.
+     * The JAXB context is shared across loads and the unmarshaller is taken from a pool.
+     * @param xmlFile File to read the Dogs information from.
+     * @return {@link DogRegistry} containing the dogs read from the file
+     * @throws JAXBException in case any exception when dealing with the unmarshal of the XML file.
+     */
+    private DogRegistry loadJaxb(File xmlFile) throws JAXBException {
 
-        jaxbContext = JAXBContext.newInstance(Dogs.class);
-        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
+        long start = System.nanoTime();
+        Unmarshaller jaxbUnmarshaller = DogsUnmarshallerPool.borrow(config.isSchemaValidation());
+        long parseStart = System.nanoTime();
 
-        Dogs dogs = (Dogs) jaxbUnmarshaller.unmarshal(xmlFile);
+        Dogs dogs;
+        try {
+            dogs = (Dogs) jaxbUnmarshaller.unmarshal(xmlFile);
+        } finally {
+            DogsUnmarshallerPool.release(jaxbUnmarshaller);
+        }
+        long buildStart = System.nanoTime();
 
         List<Dog> dogList = dogs.getDogs();
 
-        log.debug("File loaded file with dogs: " + dogList);
+        log.debug("File {} loaded with {}", xmlFile, DogsSummary.of(dogList));
+
+        DogRegistryBuilder builder = DogRegistryBuilder.newBuilder(config);
+        try {
+            dogList.forEach(builder::add);
+        } catch (DateTimeException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+        DogRegistry dogRegistry = build(builder);
+        recordLoad(builder.size(), start, parseStart, buildStart);
+        return dogRegistry;
+    }
+
+    /**
+     * Walks the file with a pull parser adding every dog straight into the registry.
+     * If schema validation is enabled the file is validated in a first pass.
+     * @param xmlFile File to read the Dogs information from.
+     * @return {@link DogRegistry} containing the dogs read from the file
+     * @throws JAXBException in case the file is not a valid dogs XML file.
+     */
+    private DogRegistry loadStreaming(File xmlFile) throws JAXBException {
+
+        long start = System.nanoTime();
+        Schema schema = config.isSchemaValidation() ? DogsUnmarshallerPool.schema() : null;
+        DogRegistryBuilder builder = DogRegistryBuilder.newBuilder(config);
+        long parseStart = System.nanoTime();
+
+        if (schema != null) {
+            try {
+                schema.newValidator().validate(new StreamSource(xmlFile));
+            } catch (SAXException | IOException e) {
+                throw new UnmarshalException("File " + xmlFile + " is not valid: " + e.getMessage(), e);
+            }
+        }
+        try {
+            StaxDogReader.read(xmlFile, builder::add);
+        } catch (DateTimeException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        }
+        long buildStart = System.nanoTime();
+
+        log.debug("File {} streamed into the registry", xmlFile);
+
+        DogRegistry dogRegistry = build(builder);
+        recordLoad(builder.size(), start, parseStart, buildStart);
+        return dogRegistry;
+    }
+
+    /**
+     * @param file Regular file to check
+     * @return true if the file is a binary snapshot rather than an XML file
+     * @throws JAXBException in case the file can not be read
+     */
+    private static boolean isSnapshot(File file) throws JAXBException {
+        try {
+            return DogSnapshotFormat.isSnapshot(file);
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to read file " + file, e);
+        }
+    }
+
+    /**
+     * Reads a binary snapshot file. In {@link StorageMode#MAPPED} mode its columns are only mapped, otherwise
+     * they are copied as they are from the mapped file, and {@link Dog} objects are only built if the configured
+     * storage mode is {@link StorageMode#OBJECTS}.
+     * @param snapshotFile Snapshot file to read the Dogs information from.
+     * @return {@link DogRegistry} containing the dogs read from the file
+     * @throws JAXBException in case the file is not a valid snapshot.
+     */
+    private DogRegistry loadSnapshot(File snapshotFile) throws JAXBException {
+
+        long start = System.nanoTime();
+        try (DogSnapshotReader reader = DogSnapshotReader.open(snapshotFile)) {
+            long parseStart = System.nanoTime();
+            AbstractColumnarDogRegistry columnar = config.getStorageMode() == StorageMode.MAPPED
+                    ? reader.readMapped(config)
+                    : reader.readColumnar(config);
+            long buildStart = System.nanoTime();
+
+            DogRegistry dogRegistry = columnar;
+            if (config.getStorageMode() == StorageMode.OBJECTS) {
+                DogRegistryBuilder builder = DogRegistryBuilder.newBuilder(config);
+                for (int row = 0; row < columnar.size(); row++) {
+                    builder.add(columnar.dog(row), columnar.birthDay(row));
+                }
+                dogRegistry = builder.build(columnar.aggregates);
+            }
+            log.debug("Snapshot {} loaded with {} dogs", snapshotFile, columnar.size());
+            recordLoad(columnar.size(), start, parseStart, buildStart);
+            return dogRegistry;
+        }
+    }
+
+    /**
+     * Reads several files, or chunks of a large file, concurrently adding their dogs to the registry in order.
+     * @param xmlFiles Files to read the Dogs information from.
+     * @return {@link DogRegistry} containing the dogs read from the files
+     * @throws JAXBException in case any file is not a valid dogs XML file.
+     */
+    private DogRegistry loadParallel(List<File> xmlFiles) throws JAXBException {
+
+        long start = System.nanoTime();
+        DogRegistryBuilder builder = DogRegistryBuilder.newBuilder(config);
+        long parseStart = System.nanoTime();
 
-        return new DogRegistryImpl(dogList);
+        int chunks = ParallelDogReader.read(xmlFiles, config, builder);
+        long buildStart = System.nanoTime();
+
+        log.debug("{} files read in {} chunks", xmlFiles.size(), chunks);
+
+        DogRegistry dogRegistry = build(builder);
+        recordLoad(builder.size(), start, parseStart, buildStart);
+        return dogRegistry;
+    }
+
+    /**
+     * Lists the shards to load if the file passed as argument is a directory or a glob.
+     * @param file File to load
+     * @return XML files of the directory or matching the glob, sorted by name, or null if the file is neither
+     * a directory nor a glob
+     * @throws JAXBException if there is no file to load
+     */
+    private static List<File> shards(File file) throws JAXBException {
+        File[] shards;
+        if (file.isDirectory()) {
+            shards = file.listFiles(shard -> shard.isFile() && shard.getName().endsWith(".xml"));
+        } else if (!file.exists() && GLOB.matcher(file.getName()).find()) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + file.getName());
+            File directory = file.getAbsoluteFile().getParentFile();
+            shards = directory.listFiles(shard -> shard.isFile() && matcher.matches(shard.toPath().getFileName()));
+        } else {
+            return null;
+        }
+        if (shards == null || shards.length == 0) {
+            throw new JAXBException("No dogs XML files found in " + file);
+        }
+        Arrays.sort(shards, Comparator.comparing(File::getName));
+        return Arrays.asList(shards);
+    }
+
+    /**
+     * Builds the registry out of the dogs added to a builder.
+     * @param builder {@link DogRegistryBuilder} with all the dogs read
+     * @return {@link DogRegistry} built
+     * @throws JAXBException in case the registry needs a file which can not be written, as in
+     * {@link StorageMode#MAPPED} mode
+     */
+    private static DogRegistry build(DogRegistryBuilder builder) throws JAXBException {
+        try {
+            return builder.build();
+        } catch (UncheckedIOException e) {
+            throw new JAXBException("Unable to build the registry: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Keeps the timings of the load that has just finished and passes them to the config listener, if any.
+     * @param dogs Number of dogs loaded
+     * @param start Start of the setup phase as given by {@link System#nanoTime()}
+     * @param parseStart Start of the parse phase as given by {@link System#nanoTime()}
+     * @param buildStart Start of the build phase as given by {@link System#nanoTime()}
+     */
+    private void recordLoad(int dogs, long start, long parseStart, long buildStart) {
+        long end = System.nanoTime();
+        lastLoadStatistics = new LoadStatistics(dogs, parseStart - start, buildStart - parseStart, end - buildStart);
+        log.debug("Load finished: {}", lastLoadStatistics);
+        DogRegistryListener listener = config.getListener();
+        if (listener != null) {
+            listener.onLoad(lastLoadStatistics);
+        }
     }
 }
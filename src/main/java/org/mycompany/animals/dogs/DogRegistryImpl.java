@@ -7,11 +7,17 @@ import org.mycompany.animals.dogs.domain.DogBreed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.DateTimeException;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
-
-import static java.util.stream.Collectors.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * This class is a particular and specific implementation of the interface
@@ -19,10 +25,19 @@ import static java.util.stream.Collectors.*;
  * {@link AnimalType}.
  * Contains a in-memory object with all the information fetched and retrieved from a particular file.
  * All the implementation logic and query will be done against this particular object in memory.
+ * <p>Dogs can be registered, updated and deregistered through the {@link MutableDogRegistry} methods.
+ * The dogs are held in an immutable {@link Snapshot} which is replaced as a whole by every write (copy on write),
+ * so queries never take a lock and always see a consistent registry, while writers are serialized among them.
+ * Snapshots split the dogs by breed, so queries of some breeds only look at the dogs of those breeds, and scans of
+ * large registries run on every breed in parallel.
+ * If a loaded file holds several dogs with the same name, updating or deregistering that name acts on all of them.
+ * Dogs written are copied, so callers can reuse them. Dogs returned by queries are the ones kept by the registry:
+ * changing them changes what later queries return, but never the weight aggregates, the indexes nor which dogs
+ * are updated or deregistered, which only rely on the values the dogs were written with.</p>
  *
  * @author Antonio Fernandez Alhambra
  */
-public class DogRegistryImpl implements DogRegistry<DogBreed> {
+public class DogRegistryImpl implements MutableDogRegistry<DogBreed> {
 
     /**
      * Log instance used for logging purposes.
@@ -30,21 +45,90 @@ public class DogRegistryImpl implements DogRegistry<DogBreed> {
     private static final Logger log = LoggerFactory.getLogger(DogRegistryImpl.class);
 
     /**
-     * A Java List object containing the information read from a file with the dogs information.
+     * Current content of the registry. Never modified, only replaced by writers.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Lock serializing the writers.
      */
-    private List<Dog> dogsList = new ArrayList<>();
+    private final Object writeLock = new Object();
+
+    /**
+     * Index of the dogs by name, built on the first name lookup or write and kept up to date by the writers
+     * afterwards. Null until then, so registries never looked up by name nor written do not pay for it.
+     */
+    private volatile DogNameIndex nameIndex;
 
     /**
      * Config instance used mainly for getting a default date format used in the dateOfBirth field
      * in the {@link org.mycompany.animals.dogs.domain.Dog}.
      */
-    private DogRegistryConfig config = new DogRegistryConfig();
+    private final DogRegistryConfig config;
 
     /**
-     * Constructor only available for the classes in this package to avoid any misused
-     * @param dogs list of Dogs read from the file
+     * Constructor only available for the classes in this package to build an empty registry.
+     * @param config {@link DogRegistryConfig} with the date format used in the dogs date of birth
      */
-    DogRegistryImpl(List<Dog> dogs) { dogsList.addAll(dogs); }
+    DogRegistryImpl(DogRegistryConfig config) {
+        this(config, Snapshot.empty());
+    }
+
+    private DogRegistryImpl(DogRegistryConfig config, Snapshot snapshot) {
+        this.config = config;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return Number of dogs in the registry
+     */
+    int size() { return snapshot.size; }
+
+    /**
+     * @return Object standing for the current content of the registry, replaced by every write
+     */
+    Object version() {
+        return snapshot;
+    }
+
+    /**
+     * Goes back to a previous content of the registry, as returned by {@link #version()}. The name index is dropped
+     * and built again on the next lookup or write.
+     * @param version Previous content of the registry
+     */
+    void restore(Object version) {
+        synchronized (writeLock) {
+            snapshot = (Snapshot) version;
+            nameIndex = null;
+        }
+    }
+
+    /**
+     * @return New registry sharing the current snapshot of this one, which is not changed by later writes to
+     * this registry
+     */
+    DogRegistryImpl copy() {
+        return new DogRegistryImpl(config, snapshot);
+    }
+
+    /**
+     * Parses the date of birth of a dog into a number of days since the epoch.
+     * @param dog {@link org.mycompany.animals.dogs.domain.Dog} whose date of birth is parsed
+     * @param dateFormat {@link DateTimeFormatter} the date of birth is written with
+     * @return Number of days since the epoch
+     * @throws DateTimeException if the date of birth is missing or can not be parsed
+     */
+    static int birthDay(Dog dog, DateTimeFormatter dateFormat) {
+        String dateOfBirth = dog.getDateOfBirth();
+        if (dateOfBirth == null) {
+            throw new DateTimeException("Dog " + dog.getName() + " has no date of birth");
+        }
+        try {
+            return Math.toIntExact(LocalDate.parse(dateOfBirth, dateFormat).toEpochDay());
+        } catch (DateTimeParseException e) {
+            throw new DateTimeException("Invalid date of birth '" + dateOfBirth + "' for dog " + dog.getName(), e);
+        }
+    }
 
     /**
      * Computes an average weight for a particular breed accepting breed as a parameter
@@ -53,12 +137,15 @@ public class DogRegistryImpl implements DogRegistry<DogBreed> {
      */
     @Override
     public double averageWeight(DogBreed breed) {
-        double averageWeight = dogsList.stream()
-                .filter( dog -> dog.getBreed() == breed )
-                .mapToDouble(Dog::getWeight)
-                .average()
-                .orElse(0);
-        log.debug(breed.value() + " average weight is " + averageWeight);
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        double averageWeight = snapshot.aggregates.average(breed.ordinal());
+        if (log.isDebugEnabled()) {
+            log.debug("{} average weight is {}", breed.value(), averageWeight);
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.AVERAGE_WEIGHT, System.nanoTime() - start, 0, 0);
+        }
         return averageWeight;
     }
 
@@ -70,19 +157,49 @@ public class DogRegistryImpl implements DogRegistry<DogBreed> {
      */
     @Override
     public EnumMap<DogBreed, Double> averageWeightPerBreed() {
-        EnumMap<DogBreed, Double> enumMap = dogsList.stream()
-                .collect(groupingBy(
-                        Dog::getBreed,
-                        () -> new EnumMap<>(DogBreed.class),
-                        averagingDouble(Dog::getWeight))
-                );
-        log.debug("Average Weight for all breeds: " + enumMap);
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        EnumMap<DogBreed, Double> enumMap = snapshot.aggregates.averages();
+        log.debug("Average Weight for all breeds: {}", enumMap);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.AVERAGE_WEIGHT_PER_BREED, System.nanoTime() - start, 0, 0);
+        }
+        return enumMap;
+    }
+
+    /**
+     * Returns weight statistics per breed for all breeds. Every partition keeps the sketch of its weights once
+     * worked out, and partitions are shared by the snapshots until they are changed, so after a write only the
+     * sketches of the breeds changed are worked out again, on every breed in parallel if the registry is larger
+     * than {@link DogRegistryConfig#getParallelThreshold()}.
+     * @return {@link java.util.EnumMap} with the {@link WeightStatistics} of every breed with at least one dog
+     */
+    @Override
+    public EnumMap<DogBreed, WeightStatistics> weightStatisticsPerBreed() {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        double accuracy = config.getWeightSketchAccuracy();
+        Snapshot current = snapshot;
+        WeightSketch[] sketches = new WeightSketch[Snapshot.NO_BREED];
+        IntStream stream = IntStream.range(0, sketches.length);
+        if (current.size >= config.getParallelThreshold()) {
+            stream = stream.parallel();
+        }
+        stream.forEach(p -> sketches[p] = current.partitions[p].sketch(accuracy));
+        EnumMap<DogBreed, WeightStatistics> enumMap = WeightSketch.statistics(sketches);
+        log.debug("Weight statistics for all breeds: {}", enumMap);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.WEIGHT_STATISTICS_PER_BREED, System.nanoTime() - start, 0, 0);
+        }
         return enumMap;
     }
 
     /**
      * Returns a list of all dogs based on some predicate, which
-     * is passed as a parameter
+     * is passed as a parameter.
+     * If the predicate is a {@link DogQuery}, only the dogs of the breeds and born within the dates it allows
+     * are looked at. Any other predicate is tested against every dog.
+     * Registries with more dogs than {@link DogRegistryConfig#getParallelThreshold()} scan every breed in parallel.
      * @param predicate {@link java.util.function.Predicate}
      * containing the predicate to be queried against the list of dogs.
      * @return {@link java.util.List} List of dog which satisfy
@@ -90,13 +207,217 @@ public class DogRegistryImpl implements DogRegistry<DogBreed> {
      */
     @Override
     public List<Dog> dogsByCondition(Predicate<Dog> predicate) {
-        List<Dog> dogs = dogsList.stream()
-                .filter(predicate)
-                .collect(toList());
-        log.debug("List of dogs meeting condition: " + dogs);
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Snapshot current = snapshot;
+        Partition[] partitions = partitions(current, predicate);
+        List<Dog> dogs = merge(partitions, scan(current, partitions, partition -> partition.matching(predicate)));
+        log.debug("Dogs meeting condition: {}", DogsSummary.of(dogs));
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BY_CONDITION, System.nanoTime() - start,
+                    candidates(partitions, predicate), dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Returns the dogs satisfying a condition as a lazy stream over the current snapshot, sorted by date of birth
+     * as {@link #dogsByCondition(Predicate)}. Dogs are only tested as the stream is consumed, so later writes are
+     * not seen by the stream and stopping early leaves the rest of the dogs untested. The stream is reported to the
+     * listener once exhausted or closed.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @return {@link java.util.stream.Stream} of the dogs which satisfy the condition
+     */
+    @Override
+    public Stream<Dog> streamByCondition(Predicate<Dog> predicate) {
+        MatchIterator dogs = matches(snapshot, predicate);
+        return ReportingIterator.stream(dogs, config.getListener(), DogRegistryMethod.STREAM_BY_CONDITION,
+                () -> dogs.tested);
+    }
+
+    /**
+     * Counts the dogs satisfying a condition without building any list, on every breed in parallel if the registry
+     * is larger than {@link DogRegistryConfig#getParallelThreshold()}.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @return Number of dogs which satisfy the condition
+     */
+    @Override
+    public long countByCondition(Predicate<Dog> predicate) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Snapshot current = snapshot;
+        Partition[] partitions = partitions(current, predicate);
+        Stream<Partition> stream = Arrays.stream(partitions);
+        if (current.size >= config.getParallelThreshold()) {
+            stream = stream.parallel();
+        }
+        long count = stream.mapToLong(partition -> partition.count(predicate)).sum();
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.COUNT_BY_CONDITION, System.nanoTime() - start,
+                    candidates(partitions, predicate), (int) Math.min(Integer.MAX_VALUE, count));
+        }
+        return count;
+    }
+
+    /**
+     * Passes the dogs satisfying a condition to a visitor, sorted by date of birth, testing them one at a time
+     * until the visitor asks to stop.
+     * @param predicate {@link java.util.function.Predicate} to be queried against the dogs
+     * @param visitor {@link DogVisitor} called for every dog which satisfies the condition
+     * @return Number of dogs passed to the visitor
+     */
+    @Override
+    public long visitByCondition(Predicate<Dog> predicate, DogVisitor visitor) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        MatchIterator dogs = matches(snapshot, predicate);
+        long visited = 0;
+        while (dogs.hasNext()) {
+            visited++;
+            if (!visitor.visit(dogs.next())) {
+                break;
+            }
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.VISIT_BY_CONDITION, System.nanoTime() - start, dogs.tested,
+                    (int) Math.min(Integer.MAX_VALUE, visited));
+        }
+        return visited;
+    }
+
+    /**
+     * Answers all the queries of a batch in a single pass over every breed, on every breed in parallel if the
+     * registry is larger than {@link DogRegistryConfig#getParallelThreshold()}. Every partition is only scanned
+     * between the first and the last dog any query may match, and every dog is only tested against the queries
+     * which may match it, as done by {@link #dogsByCondition(Predicate)} for a single query.
+     * @param batch {@link DogBatch} with the queries to answer
+     * @return {@link DogBatchResult} with the result of every query
+     */
+    @Override
+    public DogBatchResult query(DogBatch batch) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Snapshot current = snapshot;
+        Partition[] partitions = current.partitions;
+        DogBatchScan[] scans = new DogBatchScan[partitions.length];
+        int[][][] rows = new int[partitions.length][][];
+        IntStream stream = IntStream.range(0, partitions.length);
+        if (current.size >= config.getParallelThreshold()) {
+            stream = stream.parallel();
+        }
+        stream.forEach(p -> {
+            scans[p] = new DogBatchScan(batch);
+            rows[p] = partitions[p].scan(scans[p]);
+        });
+        DogBatchScan scan = new DogBatchScan(batch);
+        for (DogBatchScan partitionScan : scans) {
+            scan.add(partitionScan);
+        }
+        for (int q = 0; q < batch.size(); q++) {
+            if (scan.collects(q)) {
+                int[][] queryRows = new int[partitions.length][];
+                for (int p = 0; p < partitions.length; p++) {
+                    queryRows[p] = rows[p][q];
+                }
+                scan.setDogs(q, merge(partitions, queryRows));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Batch of {} queries answered scanning {} dogs", batch.size(), scan.scanned());
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.QUERY_BATCH, System.nanoTime() - start, scan.scanned(),
+                    (int) Math.min(Integer.MAX_VALUE, scan.returned()));
+        }
+        return scan.result();
+    }
+
+    /**
+     * @param current {@link Snapshot} to look at
+     * @param predicate {@link Predicate} to match
+     * @return Partitions of the breeds allowed by a {@link DogQuery}, or every partition for any other predicate
+     */
+    private static Partition[] partitions(Snapshot current, Predicate<Dog> predicate) {
+        return predicate instanceof DogQuery ? current.partitions(((DogQuery) predicate).breeds()) : current.partitions;
+    }
+
+    /**
+     * @param partitions {@link Partition} array to scan
+     * @param predicate {@link Predicate} to match
+     * @return Number of dogs tested against the predicate when the partitions are scanned
+     */
+    private static long candidates(Partition[] partitions, Predicate<Dog> predicate) {
+        long candidates = 0;
+        for (Partition partition : partitions) {
+            candidates += partition.end(predicate) - partition.first(predicate);
+        }
+        return candidates;
+    }
+
+    /**
+     * @param current {@link Snapshot} to look at
+     * @param predicate {@link Predicate} to match
+     * @return {@link MatchIterator} over the dogs of the snapshot matching the predicate
+     */
+    private static MatchIterator matches(Snapshot current, Predicate<Dog> predicate) {
+        return new MatchIterator(partitions(current, predicate), predicate);
+    }
+
+    /**
+     * Scans some partitions of a snapshot, in parallel if the snapshot is large enough.
+     * @param current {@link Snapshot} the partitions belong to
+     * @param partitions {@link Partition} array to scan
+     * @param scan Function returning the matching rows of a partition
+     * @return Matching rows of every partition, at the same positions as the partitions
+     */
+    private int[][] scan(Snapshot current, Partition[] partitions, Function<Partition, int[]> scan) {
+        Stream<Partition> stream = Arrays.stream(partitions);
+        if (current.size >= config.getParallelThreshold()) {
+            stream = stream.parallel();
+        }
+        return stream.map(scan).toArray(int[][]::new);
+    }
+
+    /**
+     * Merges rows of several partitions into a single list sorted by date of birth.
+     * @param partitions {@link Partition} array the rows belong to
+     * @param rows Sorted rows of every partition, at the same positions as the partitions
+     * @return {@link java.util.List} List of the dogs at those rows
+     */
+    private static List<Dog> merge(Partition[] partitions, int[][] rows) {
+        int total = 0;
+        for (int[] partitionRows : rows) {
+            total += partitionRows.length;
+        }
+        List<Dog> dogs = new ArrayList<>(total);
+        merge(partitions, rows, (partition, row) -> dogs.add(partition.dogs[row]));
         return dogs;
     }
 
+    /**
+     * Visits rows of several partitions sorted by date of birth. Dogs born on the same day are visited in the
+     * order they were added to the registry, as if they had never been partitioned.
+     * @param partitions {@link Partition} array the rows belong to
+     * @param rows Sorted rows of every partition, at the same positions as the partitions
+     * @param visitor {@link RowVisitor} called for every row
+     */
+    private static void merge(Partition[] partitions, int[][] rows, RowVisitor visitor) {
+        int[] heads = new int[partitions.length];
+        while (true) {
+            int next = -1;
+            for (int p = 0; p < partitions.length; p++) {
+                if (heads[p] < rows[p].length && (next < 0
+                        || partitions[p].before(rows[p][heads[p]], partitions[next], rows[next][heads[next]]))) {
+                    next = p;
+                }
+            }
+            if (next < 0) {
+                return;
+            }
+            visitor.visit(partitions[next], rows[next][heads[next]++]);
+        }
+    }
+
     /**
      * Returns the oldest dog born after a certain date passed as argument
      * @param date {@link java.time.LocalDate}
@@ -105,18 +426,1192 @@ public class DogRegistryImpl implements DogRegistry<DogBreed> {
      */
     @Override
     public Dog oldestDogAfterDate(LocalDate date) {
-        Dog oldestDog = dogsList.stream()
-                .filter( dog -> {
-                    LocalDate dob = LocalDate.parse(dog.getDateOfBirth(), config.getDateFormat());
-                    return dob.isAfter(date);
-                })
-                .reduce( (dogA, dogB) -> {
-                    LocalDate dobA = LocalDate.parse(dogA.getDateOfBirth(), config.getDateFormat());
-                    LocalDate dobB = LocalDate.parse(dogB.getDateOfBirth(), config.getDateFormat());
-                    return (dobA.isBefore(dobB)) ? dogA : dogB;
-                })
-                .orElse(null);
-        log.debug("Oldest dog born after " + date + " is " + oldestDog);
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Partition oldestPartition = null;
+        int oldestRow = 0;
+        for (Partition partition : snapshot.partitions) {
+            int size = partition.size();
+            int first = BirthDayIndex.upperBound(partition.birthDays, size, date.toEpochDay());
+            if (first < size) {
+                // the last one added among the ones born that day, as returned before dogs were sorted by date of birth
+                int row = BirthDayIndex.upperBound(partition.birthDays, size, partition.birthDays[first]) - 1;
+                if (oldestPartition == null || partition.birthDays[row] < oldestPartition.birthDays[oldestRow]
+                        || (partition.birthDays[row] == oldestPartition.birthDays[oldestRow]
+                        && partition.sequences[row] > oldestPartition.sequences[oldestRow])) {
+                    oldestPartition = partition;
+                    oldestRow = row;
+                }
+            }
+        }
+        Dog oldestDog = oldestPartition == null ? null : oldestPartition.dogs[oldestRow];
+        log.debug("Oldest dog born after {} is {}", date, oldestDog);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.OLDEST_DOG_AFTER_DATE, System.nanoTime() - start, 0,
+                    oldestDog == null ? 0 : 1);
+        }
         return oldestDog;
     }
+
+    /**
+     * Returns all the dogs born between two dates passed as argument, both included
+     * @param from {@link java.time.LocalDate} first date of birth to include
+     * @param to {@link java.time.LocalDate} last date of birth to include
+     * @return {@link java.util.List} List of dogs born between both dates, from the oldest to the youngest
+     */
+    @Override
+    public List<Dog> dogsBornBetween(LocalDate from, LocalDate to) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Partition[] partitions = snapshot.partitions;
+        int[][] rows = new int[partitions.length][];
+        for (int p = 0; p < partitions.length; p++) {
+            Partition partition = partitions[p];
+            int first = BirthDayIndex.lowerBound(partition.birthDays, partition.size(), from.toEpochDay());
+            int last = BirthDayIndex.upperBound(partition.birthDays, partition.size(), to.toEpochDay());
+            rows[p] = IntStream.range(first, Math.max(first, last)).toArray();
+        }
+        List<Dog> dogs = merge(partitions, rows);
+        if (log.isDebugEnabled()) {
+            log.debug("Dogs born between {} and {}: {}", from, to, DogsSummary.of(dogs));
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BORN_BETWEEN, System.nanoTime() - start, 0, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Returns the first dogs satisfying a condition in an order. Every partition keeps its own first dogs in a heap
+     * of the size of the limit, on every breed in parallel if the registry is larger than
+     * {@link DogRegistryConfig#getParallelThreshold()}, and the heaps are merged afterwards. Partitions being sorted
+     * by date of birth, the oldest and youngest dogs are found scanning from either end and stopping as soon as
+     * the heap is full.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return
+     * @return {@link java.util.List} List of at most limit dogs which satisfy the condition, in that order
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    @Override
+    public List<Dog> topDogs(Predicate<Dog> predicate, DogOrder order, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Snapshot current = snapshot;
+        Partition[] partitions = partitions(current, predicate);
+        long[] tested = new long[partitions.length];
+        List<TopK<Integer>> partitionTops = top(current, partitions, predicate, order, limit, tested);
+        TopK<Long> top = new TopK<>(limit, (a, b) -> compare(order, partitions[(int) (a >>> 32)], a.intValue(),
+                partitions[(int) (b >>> 32)], b.intValue()));
+        for (int p = 0; p < partitions.length; p++) {
+            for (int row : partitionTops.get(p).sorted()) {
+                top.offer((long) p << 32 | row);
+            }
+        }
+        List<Dog> dogs = new ArrayList<>();
+        for (long ranked : top.sorted()) {
+            dogs.add(partitions[(int) (ranked >>> 32)].dogs[(int) ranked]);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Top {} {} dogs: {}", limit, order, DogsSummary.of(dogs));
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.TOP_DOGS, System.nanoTime() - start, Arrays.stream(tested).sum(),
+                    dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Returns the first dogs of every breed satisfying a condition in an order, out of a heap of the size of the
+     * limit per partition, on every breed in parallel if the registry is larger than
+     * {@link DogRegistryConfig#getParallelThreshold()}.
+     * @param predicate {@link Predicate} to be queried against the dogs
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of dogs to return per breed
+     * @return {@link java.util.EnumMap} with at most limit dogs in that order for every breed with at least one dog
+     * which satisfies the condition
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    @Override
+    public EnumMap<DogBreed, List<Dog>> topDogsPerBreed(Predicate<Dog> predicate, DogOrder order, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        Snapshot current = snapshot;
+        Partition[] partitions = partitions(current, predicate);
+        long[] tested = new long[partitions.length];
+        List<TopK<Integer>> partitionTops = top(current, partitions, predicate, order, limit, tested);
+        EnumMap<DogBreed, List<Dog>> enumMap = new EnumMap<>(DogBreed.class);
+        int returned = 0;
+        for (int p = 0; p < partitions.length; p++) {
+            List<Integer> rows = partitionTops.get(p).sorted();
+            if (partitions[p].breed != null && !rows.isEmpty()) {
+                List<Dog> dogs = new ArrayList<>(rows.size());
+                for (int row : rows) {
+                    dogs.add(partitions[p].dogs[row]);
+                }
+                enumMap.put(partitions[p].breed, dogs);
+                returned += dogs.size();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Top {} {} dogs per breed: {}", limit, order, enumMap.keySet());
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.TOP_DOGS_PER_BREED, System.nanoTime() - start,
+                    Arrays.stream(tested).sum(), returned);
+        }
+        return enumMap;
+    }
+
+    /**
+     * Picks the first rows of some partitions of a snapshot in an order, in parallel if the snapshot is large
+     * enough.
+     * @param current {@link Snapshot} the partitions belong to
+     * @param partitions {@link Partition} array to scan
+     * @param predicate {@link Predicate} to match
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param limit Maximum number of rows to keep per partition
+     * @param tested Number of dogs tested against the predicate in every partition, filled in by this method
+     * @return {@link TopK} with the first rows of every partition, at the same positions as the partitions
+     */
+    private List<TopK<Integer>> top(Snapshot current, Partition[] partitions, Predicate<Dog> predicate,
+                                    DogOrder order, int limit, long[] tested) {
+        IntStream stream = IntStream.range(0, partitions.length);
+        if (current.size >= config.getParallelThreshold()) {
+            stream = stream.parallel();
+        }
+        return stream.mapToObj(p -> partitions[p].top(predicate, order, limit, tested, p))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Compares two dogs in an order, breaking ties as {@link #merge(Partition[], int[][], RowVisitor)} does.
+     * @param order {@link DogOrder} to rank the dogs in
+     * @param partition {@link Partition} of a dog
+     * @param row Row of the dog
+     * @param other {@link Partition} of another dog
+     * @param otherRow Row of the other dog
+     * @return Negative if the dog goes before the other one, positive if it goes after, 0 if it is the same one
+     */
+    private static int compare(DogOrder order, Partition partition, int row, Partition other, int otherRow) {
+        int comparison = order.compare(partition.weights[row], partition.birthDays[row],
+                other.weights[otherRow], other.birthDays[otherRow]);
+        if (comparison != 0) {
+            return comparison;
+        }
+        return partition.before(row, other, otherRow) ? -1 : other.before(otherRow, partition, row) ? 1 : 0;
+    }
+
+    /**
+     * Copies the current content of the registry into a {@link ColumnarDogRegistry}, keeping the order of the
+     * dogs and the weight aggregates as they are, with the extremes of the breeds changed since worked out again.
+     * @return New {@link ColumnarDogRegistry} with the same dogs
+     */
+    ColumnarDogRegistry toColumnar() {
+        Snapshot current = snapshot;
+        Partition[] partitions = current.partitions;
+        int[][] rows = new int[partitions.length][];
+        for (int p = 0; p < partitions.length; p++) {
+            rows[p] = IntStream.range(0, partitions[p].size()).toArray();
+        }
+        ColumnarDogRegistry.Builder builder = new ColumnarDogRegistry.Builder(config);
+        merge(partitions, rows, (partition, row) -> builder.add(partition.stored(row), partition.birthDays[row]));
+        return builder.build(current.aggregates());
+    }
+
+    /**
+     * Registers a copy of a new dog, so later changes to the dog passed as argument are not seen by the registry.
+     * @param dog {@link Dog} to register, with a name not registered yet
+     * @throws IllegalArgumentException if the dog has no name or breed, its name is already registered or its
+     * date of birth can not be parsed
+     */
+    @Override
+    public void register(Dog dog) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        dog = copy(dog);
+        int birthDay = validate(dog);
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (nameIndex().contains(dog.getName())) {
+                throw new IllegalArgumentException("Dog " + dog.getName() + " is already registered");
+            }
+            publish(current, Collections.emptySet(), new Dog[]{dog}, new int[]{birthDay}, () -> { });
+        }
+        log.debug("Dog {} registered", dog.getName());
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.REGISTER, System.nanoTime() - start, 0, 1);
+        }
+    }
+
+    /**
+     * Replaces the dog registered with the same name as the dog passed as argument by a copy of it.
+     * @param dog {@link Dog} with the new values of the dog
+     * @return true if the dog was registered and has been updated, false otherwise
+     * @throws IllegalArgumentException if the dog has no name or breed or its date of birth can not be parsed
+     */
+    @Override
+    public boolean update(Dog dog) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        dog = copy(dog);
+        int birthDay = validate(dog);
+        boolean updated = false;
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (nameIndex().contains(dog.getName())) {
+                publish(current, Collections.singleton(dog.getName()), new Dog[]{dog}, new int[]{birthDay},
+                        () -> { });
+                updated = true;
+            }
+        }
+        if (updated) {
+            log.debug("Dog {} updated", dog.getName());
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.UPDATE, System.nanoTime() - start, 0, updated ? 1 : 0);
+        }
+        return updated;
+    }
+
+    /**
+     * Deregisters the dog with the name passed as argument.
+     * @param name Name of the dog to deregister
+     * @return true if the dog was registered and has been deregistered, false otherwise
+     */
+    @Override
+    public boolean deregister(String name) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        boolean deregistered = false;
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            if (name != null && nameIndex().contains(name)) {
+                publish(current, Collections.singleton(name), new Dog[0], new int[0], () -> { });
+                deregistered = true;
+            }
+        }
+        if (deregistered) {
+            log.debug("Dog {} deregistered", name);
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DEREGISTER, System.nanoTime() - start, 0, deregistered ? 1 : 0);
+        }
+        return deregistered;
+    }
+
+    /**
+     * Applies a whole change set at once, publishing a single new snapshot. Dogs are copied and their dates of birth
+     * parsed before taking the write lock, the registered names among the ones changed are looked up in the name
+     * index, weight aggregates are updated with the changed dogs only and only the partitions of the breeds changed
+     * are copied.
+     * @param changes {@link DogChanges} to apply
+     * @return Number of changes applied, leaving out the ones skipped
+     * @throws IllegalArgumentException if any dog added or modified has no name or breed or its date of birth can
+     * not be parsed, a dog added is already registered or a dog is modified twice, in which case no change is
+     * applied
+     */
+    @Override
+    public int apply(DogChanges changes) {
+        return apply(changes, copies -> { });
+    }
+
+    /**
+     * Applies a whole change set at once as {@link #apply(DogChanges)} does, passing the copies of the changes kept
+     * by the registry to an action once they have been validated and the new snapshot has been built, right before
+     * it is published, holding the write lock. Nothing is published if the action throws and nothing left to do
+     * after the action can fail, so persistent registries log the changes there.
+     * @param changes {@link DogChanges} to apply
+     * @param beforePublish Action run before publishing the changes, only if any of them is applied
+     * @return Number of changes applied, leaving out the ones skipped
+     * @throws IllegalArgumentException if the changes can not be applied, or thrown by the action
+     */
+    int apply(DogChanges changes, Consumer<DogChanges> beforePublish) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<Dog> modified = copy(changes.getModified());
+        List<Dog> added = copy(changes.getAdded());
+        int[] modifiedBirthDays = modified.stream().mapToInt(this::validate).toArray();
+        int[] addedBirthDays = added.stream().mapToInt(this::validate).toArray();
+        Set<String> removed = new HashSet<>(changes.getRemoved());
+        removed.remove(null);
+        Set<String> names = new HashSet<>(removed);
+        modified.forEach(dog -> names.add(dog.getName()));
+        added.forEach(dog -> names.add(dog.getName()));
+
+        int applied;
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            DogNameIndex index = nameIndex();
+            Set<String> registered = new HashSet<>(names);
+            registered.removeIf(name -> !index.contains(name));
+            Set<String> dropped = new HashSet<>(removed);
+            dropped.retainAll(registered);
+            applied = dropped.size();
+            Dog[] dogs = new Dog[modified.size() + added.size()];
+            int[] birthDays = new int[dogs.length];
+            int count = 0;
+            Set<String> modifiedNames = new HashSet<>();
+            for (int i = 0; i < modified.size(); i++) {
+                String name = modified.get(i).getName();
+                if (!modifiedNames.add(name)) {
+                    throw new IllegalArgumentException("Dog " + name + " is modified twice");
+                }
+                if (registered.contains(name) && !removed.contains(name)) {
+                    dropped.add(name);
+                    dogs[count] = modified.get(i);
+                    birthDays[count++] = modifiedBirthDays[i];
+                }
+            }
+            Set<String> addedNames = new HashSet<>();
+            for (int i = 0; i < added.size(); i++) {
+                String name = added.get(i).getName();
+                if (!addedNames.add(name) || registered.contains(name) && !removed.contains(name)) {
+                    throw new IllegalArgumentException("Dog " + name + " is already registered");
+                }
+                dogs[count] = added.get(i);
+                birthDays[count++] = addedBirthDays[i];
+            }
+            applied += count;
+            if (applied > 0) {
+                DogChanges copies = new DogChanges(added, modified, changes.getRemoved());
+                publish(current, dropped, Arrays.copyOf(dogs, count), Arrays.copyOf(birthDays, count),
+                        () -> beforePublish.accept(copies));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("{} of {} changes applied", applied, changes.size());
+        }
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.APPLY, System.nanoTime() - start, 0, applied);
+        }
+        return applied;
+    }
+
+    /**
+     * Looks up the dogs with a name through the name index, which is built out of the current snapshot on the first
+     * lookup or write and kept up to date by every write afterwards, so lookups take the same time whatever the size
+     * of the registry.
+     * @param name Name of the dogs, case sensitive
+     * @return {@link java.util.List} List of the dogs with that name
+     */
+    @Override
+    public List<Dog> dogsByName(String name) {
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<Dog> dogs = name == null ? new ArrayList<>() : new ArrayList<>(nameIndex().get(name));
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BY_NAME, System.nanoTime() - start, 0, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * Looks up the dogs whose name starts with a prefix ignoring case through the name index, walking the sorted
+     * names from the prefix on until the limit is reached.
+     * @param prefix Start of the names, case insensitive
+     * @param limit Maximum number of dogs to return
+     * @return {@link java.util.List} List of at most limit dogs, sorted by name ignoring case
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    @Override
+    public List<Dog> dogsByNamePrefix(String prefix, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        DogRegistryListener listener = config.getListener();
+        long start = listener == null ? 0 : System.nanoTime();
+        List<Dog> dogs = nameIndex().startingWith(prefix, limit);
+        if (listener != null) {
+            listener.onQuery(DogRegistryMethod.DOGS_BY_NAME_PREFIX, System.nanoTime() - start, 0, dogs.size());
+        }
+        return dogs;
+    }
+
+    /**
+     * @return Name index of the registry, built out of the current snapshot if this is the first lookup or write
+     */
+    private DogNameIndex nameIndex() {
+        DogNameIndex index = nameIndex;
+        if (index == null) {
+            synchronized (writeLock) {
+                index = nameIndex;
+                if (index == null) {
+                    index = new DogNameIndex();
+                    Partition[] partitions = snapshot.partitions;
+                    for (int p = 0; p < partitions.length; p++) {
+                        Partition partition = partitions[p];
+                        for (int row = 0; row < partition.size(); row++) {
+                            index.add(partition.dogs[row], p, partition.birthDays[row], partition.sequences[row]);
+                        }
+                    }
+                    nameIndex = index;
+                    log.debug("Name index built");
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Publishes a copy of the current snapshot with some dogs removed and added, updating the name index right
+     * before. The rows of the dogs removed are found through the name index, so the work done is proportional to the
+     * changes and the partitions they touch rather than to the size of the registry. The dogs of every name changed
+     * are replaced at once in the index, so lookups never miss a dog being updated. Must be called holding the write
+     * lock.
+     * @param current {@link Snapshot} published last
+     * @param dropped Names of the dogs to remove
+     * @param added {@link Dog} array to add
+     * @param addedBirthDays Dates of birth of the dogs to add as days since the epoch, at the same positions
+     * @param beforePublish Action run once the new snapshot has been built, before changing anything. Nothing is
+     * published if it throws.
+     */
+    private void publish(Snapshot current, Set<String> dropped, Dog[] added, int[] addedBirthDays,
+                         Runnable beforePublish) {
+        DogNameIndex index = nameIndex();
+        Snapshot next = current.apply(current.rows(dropped, index), added, addedBirthDays);
+        beforePublish.run();
+        index.update(dropped, added, addedBirthDays, current.nextSequence);
+        snapshot = next;
+    }
+
+    /**
+     * @param dog {@link Dog} passed by a caller
+     * @return New {@link Dog} with the same values, kept by the registry instead of the one of the caller
+     */
+    static Dog copy(Dog dog) {
+        Dog copy = new Dog();
+        copy.setName(dog.getName());
+        copy.setDateOfBirth(dog.getDateOfBirth());
+        copy.setWeight(dog.getWeight());
+        copy.setBreed(dog.getBreed());
+        return copy;
+    }
+
+    private static List<Dog> copy(List<Dog> dogs) {
+        List<Dog> copies = new ArrayList<>(dogs.size());
+        for (Dog dog : dogs) {
+            copies.add(copy(dog));
+        }
+        return copies;
+    }
+
+    /**
+     * Checks a dog can be registered and parses its date of birth.
+     * @param dog {@link Dog} to check
+     * @return Date of birth of the dog as days since the epoch
+     * @throws IllegalArgumentException if the dog has no name or breed or its date of birth can not be parsed
+     */
+    private int validate(Dog dog) {
+        if (dog.getName() == null) {
+            throw new IllegalArgumentException("Dogs must have a name to be registered");
+        }
+        if (dog.getBreed() == null) {
+            throw new IllegalArgumentException("Dog " + dog.getName() + " has no breed");
+        }
+        try {
+            return birthDay(dog, config.getDateFormat());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Immutable content of the registry: the dogs split in one {@link Partition} per breed, plus a last one for
+     * the dogs without breed, and the weight aggregates of all of them. Writers build a new snapshot instead of
+     * modifying it, copying only the partition they change.
+     */
+    static final class Snapshot {
+
+        /**
+         * All the breeds indexed by ordinal.
+         */
+        private static final DogBreed[] BREEDS = DogBreed.values();
+
+        /**
+         * Position of the partition of the dogs without breed.
+         */
+        private static final int NO_BREED = BREEDS.length;
+
+        final Partition[] partitions;
+        final WeightAggregates aggregates;
+        final int size;
+
+        /**
+         * Sequence number of the next dog added, so dogs born on the same day keep the order they were added in.
+         */
+        final long nextSequence;
+
+        Snapshot(Partition[] partitions, WeightAggregates aggregates, long nextSequence) {
+            this.partitions = partitions;
+            this.aggregates = aggregates;
+            this.nextSequence = nextSequence;
+            int size = 0;
+            for (Partition partition : partitions) {
+                size += partition.size();
+            }
+            this.size = size;
+        }
+
+        /**
+         * Returns the weight aggregates with their extremes up to date. Only the breeds whose min or max weight was
+         * removed since are worked out again, out of the weights of their partition, and the aggregates of the
+         * snapshot itself are left as they are, since other threads may be reading it.
+         * @return {@link WeightAggregates} without stale extremes
+         */
+        WeightAggregates aggregates() {
+            WeightAggregates resolved = aggregates;
+            for (int p = 0; p < NO_BREED; p++) {
+                if (aggregates.hasStaleExtremes(p)) {
+                    if (resolved == aggregates) {
+                        resolved = new WeightAggregates(aggregates);
+                    }
+                    DoubleSummaryStatistics statistics = Arrays.stream(partitions[p].weights).summaryStatistics();
+                    resolved.resetExtremes(p, statistics.getMin(), statistics.getMax());
+                }
+            }
+            return resolved;
+        }
+
+        /**
+         * @return Empty {@link Snapshot}
+         */
+        static Snapshot empty() {
+            Partition[] partitions = new Partition[NO_BREED + 1];
+            for (int p = 0; p < partitions.length; p++) {
+                partitions[p] = new Partition(breed(p), new Dog[0], new double[0], new int[0], new long[0]);
+            }
+            return new Snapshot(partitions, new WeightAggregates(), 0);
+        }
+
+        /**
+         * @param breed {@link DogBreed} of the dogs, or null
+         * @return Position of the partition of the dogs of that breed
+         */
+        static int partition(DogBreed breed) {
+            return breed == null ? NO_BREED : breed.ordinal();
+        }
+
+        /**
+         * @param partition Position of a partition
+         * @return {@link DogBreed} of the dogs of that partition, or null for the dogs without breed
+         */
+        static DogBreed breed(int partition) {
+            return partition == NO_BREED ? null : BREEDS[partition];
+        }
+
+        /**
+         * @param breeds {@link DogBreed} set, or null for any breed
+         * @return Partitions of those breeds
+         */
+        Partition[] partitions(Set<DogBreed> breeds) {
+            if (breeds == null) {
+                return partitions;
+            }
+            return breeds.stream()
+                    .map(breed -> partitions[breed.ordinal()])
+                    .toArray(Partition[]::new);
+        }
+
+        /**
+         * Finds the rows of the dogs with some names through a name index in step with this snapshot, by binary
+         * search on their dates of birth and sequence numbers.
+         * @param names Names of dogs
+         * @param index {@link DogNameIndex} of the dogs of this snapshot
+         * @return Rows of the dogs with those names of every partition, in ascending order
+         */
+        int[][] rows(Set<String> names, DogNameIndex index) {
+            int[] sizes = new int[partitions.length];
+            List<String> found = new ArrayList<>(names.size());
+            List<DogNameIndex.Entry> entries = new ArrayList<>(names.size());
+            for (String name : names) {
+                DogNameIndex.Entry entry = index.entry(name);
+                if (entry != null) {
+                    found.add(name);
+                    entries.add(entry);
+                    for (int p : entry.partitions) {
+                        sizes[p]++;
+                    }
+                }
+            }
+            int[][] rows = new int[partitions.length][];
+            for (int p = 0; p < rows.length; p++) {
+                rows[p] = new int[sizes[p]];
+                sizes[p] = 0;
+            }
+            for (int e = 0; e < entries.size(); e++) {
+                DogNameIndex.Entry entry = entries.get(e);
+                for (int i = 0; i < entry.partitions.length; i++) {
+                    int p = entry.partitions[i];
+                    int row = partitions[p].row(entry.birthDays[i], entry.sequences[i]);
+                    if (row < 0) {
+                        throw new IllegalStateException("Dog " + found.get(e) + " is not in its partition");
+                    }
+                    rows[p][sizes[p]++] = row;
+                }
+            }
+            for (int[] partitionRows : rows) {
+                Arrays.sort(partitionRows);
+            }
+            return rows;
+        }
+
+        /**
+         * Returns a copy of this snapshot without the dogs at some rows and with some new dogs, which are given
+         * sequence numbers in the order they are passed. Only the partitions changed are copied and the weight
+         * aggregates are updated with the dogs removed and added only. Removing the min or max weight of a breed
+         * leaves its extremes stale until {@link #aggregates()} is called, so writes never scan a whole partition.
+         * @param droppedRows Rows of the dogs to leave out of every partition, in ascending order
+         * @param added {@link Dog} array to add
+         * @param addedBirthDays Dates of birth of the dogs to add as days since the epoch, at the same positions
+         * @return New {@link Snapshot} with the changes
+         */
+        Snapshot apply(int[][] droppedRows, Dog[] added, int[] addedBirthDays) {
+            int[][] addedRows = rowsByPartition(added);
+            Partition[] newPartitions = partitions.clone();
+            WeightAggregates newAggregates = new WeightAggregates(aggregates);
+            for (int p = 0; p < partitions.length; p++) {
+                if (droppedRows[p].length == 0 && addedRows[p].length == 0) {
+                    continue;
+                }
+                Partition partition = partitions[p];
+                Partition newPartition = partition;
+                if (droppedRows[p].length > 0) {
+                    newPartition = partition.without(droppedRows[p]);
+                    if (p != NO_BREED) {
+                        for (int row : droppedRows[p]) {
+                            newAggregates.remove(p, partition.weights[row]);
+                        }
+                    }
+                }
+                if (addedRows[p].length > 0) {
+                    newPartition = newPartition.with(added, addedBirthDays, addedRows[p], nextSequence);
+                    if (p != NO_BREED) {
+                        for (int row : addedRows[p]) {
+                            newAggregates.add(p, added[row].getWeight());
+                        }
+                    }
+                }
+                newPartitions[p] = newPartition;
+            }
+            return new Snapshot(newPartitions, newAggregates, nextSequence + added.length);
+        }
+
+        /**
+         * @param dogs {@link Dog} array
+         * @return Positions of the dogs of every partition, in ascending order
+         */
+        private static int[][] rowsByPartition(Dog[] dogs) {
+            int[] sizes = new int[NO_BREED + 1];
+            for (Dog dog : dogs) {
+                sizes[partition(dog.getBreed())]++;
+            }
+            int[][] rows = new int[sizes.length][];
+            for (int p = 0; p < rows.length; p++) {
+                rows[p] = new int[sizes[p]];
+                sizes[p] = 0;
+            }
+            for (int i = 0; i < dogs.length; i++) {
+                int p = partition(dogs[i].getBreed());
+                rows[p][sizes[p]++] = i;
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Immutable dogs of a single breed, their weights, their dates of birth as days since the epoch and the sequence
+     * numbers they were added with, all at the same positions. Dogs are sorted by date of birth, which is the index
+     * used by the date queries, and dogs born on the same day by sequence number.
+     * <p>Aggregates, indexes and {@link DogQuery} matches only read the breed and the columns of the partition,
+     * never the {@link Dog} objects, which are handed out to callers and may be changed by them.</p>
+     */
+    static final class Partition {
+
+        final DogBreed breed;
+        final Dog[] dogs;
+        final double[] weights;
+        final int[] birthDays;
+        final long[] sequences;
+
+        /**
+         * Sketch of the weights of the dogs, worked out on the first call to {@link #sketch(double)}. Null until
+         * then. Concurrent first calls may work it out more than once, keeping any of them.
+         */
+        private volatile WeightSketch sketch;
+
+        Partition(DogBreed breed, Dog[] dogs, double[] weights, int[] birthDays, long[] sequences) {
+            this.breed = breed;
+            this.dogs = dogs;
+            this.weights = weights;
+            this.birthDays = birthDays;
+            this.sequences = sequences;
+        }
+
+        int size() {
+            return dogs.length;
+        }
+
+        /**
+         * @param row Row of this partition
+         * @return Copy of the dog at the row with the breed and weight it was written with
+         */
+        Dog stored(int row) {
+            Dog dog = copy(dogs[row]);
+            dog.setBreed(breed);
+            dog.setWeight(weights[row]);
+            return dog;
+        }
+
+        /**
+         * @param row Row of this partition
+         * @param other Another {@link Partition}
+         * @param otherRow Row of the other partition
+         * @return true if the dog at the row of this partition goes before the one at the row of the other
+         */
+        boolean before(int row, Partition other, int otherRow) {
+            return birthDays[row] < other.birthDays[otherRow]
+                    || (birthDays[row] == other.birthDays[otherRow] && sequences[row] < other.sequences[otherRow]);
+        }
+
+        /**
+         * @param accuracy Relative accuracy of the sketch
+         * @return {@link WeightSketch} of the weights of the dogs, which must not be modified
+         */
+        WeightSketch sketch(double accuracy) {
+            WeightSketch current = sketch;
+            if (current == null || current.accuracy() != accuracy) {
+                current = new WeightSketch(accuracy);
+                for (double weight : weights) {
+                    current.add(weight);
+                }
+                sketch = current;
+            }
+            return current;
+        }
+
+        /**
+         * Picks the first rows of this partition matching a predicate in an order, only between
+         * {@link #first(Predicate)} and {@link #end(Predicate)}. Rows are scanned from the youngest to the oldest
+         * for {@link DogOrder#YOUNGEST}, and from the oldest to the youngest for any other order, so scans by date of
+         * birth stop as soon as no row left can make it.
+         * @param predicate {@link Predicate} to match
+         * @param order {@link DogOrder} to rank the dogs in
+         * @param limit Maximum number of rows to keep
+         * @param tested Number of dogs tested against the predicate in every partition
+         * @param position Position of the number of dogs tested in this partition
+         * @return {@link TopK} with the first rows
+         */
+        TopK<Integer> top(Predicate<Dog> predicate, DogOrder order, int limit, long[] tested, int position) {
+            TopK<Integer> top = new TopK<>(limit, (row, other) -> compare(order, this, row, this, other));
+            if (limit == 0) {
+                return top;
+            }
+            int first = first(predicate);
+            int end = end(predicate);
+            boolean backwards = order == DogOrder.YOUNGEST;
+            for (int i = first; i < end; i++) {
+                int row = backwards ? end - 1 - (i - first) : i;
+                if (top.isFull() && (order == DogOrder.OLDEST
+                        || (backwards && birthDays[row] < birthDays[top.worst()]))) {
+                    break;
+                }
+                tested[position]++;
+                if (matches(predicate, row)) {
+                    top.offer(row);
+                }
+            }
+            return top;
+        }
+
+        /**
+         * @param birthDay Date of birth of a dog as days since the epoch
+         * @param sequence Sequence number of the dog
+         * @return Row of the dog, or a negative number if it is not in this partition
+         */
+        int row(int birthDay, long sequence) {
+            int from = BirthDayIndex.lowerBound(birthDays, dogs.length, birthDay);
+            int to = BirthDayIndex.upperBound(birthDays, dogs.length, birthDay);
+            return Arrays.binarySearch(sequences, from, to, sequence);
+        }
+
+        /**
+         * @param predicate {@link Predicate} to match
+         * @return First row which may match: the first dog born within the dates allowed by a {@link DogQuery},
+         * or the first dog for any other predicate
+         */
+        int first(Predicate<Dog> predicate) {
+            return predicate instanceof DogQuery
+                    ? BirthDayIndex.lowerBound(birthDays, dogs.length, ((DogQuery) predicate).minBirthDay())
+                    : 0;
+        }
+
+        /**
+         * @param predicate {@link Predicate} to match
+         * @return Row after the last one which may match, never before {@link #first(Predicate)}
+         */
+        int end(Predicate<Dog> predicate) {
+            return predicate instanceof DogQuery
+                    ? Math.max(first(predicate),
+                            BirthDayIndex.upperBound(birthDays, dogs.length, ((DogQuery) predicate).maxBirthDay()))
+                    : dogs.length;
+        }
+
+        /**
+         * @param predicate {@link Predicate} to match. A {@link DogQuery} is tested against the parsed date of birth.
+         * @param row Row of this partition
+         * @return true if the dog at the row matches
+         */
+        boolean matches(Predicate<Dog> predicate, int row) {
+            if (predicate instanceof DogQuery) {
+                return ((DogQuery) predicate).matches(breed, weights[row], birthDays[row],
+                        dogs[row].getName());
+            }
+            return predicate.test(dogs[row]);
+        }
+
+        /**
+         * @param predicate {@link Predicate} to match, only against the rows between {@link #first(Predicate)} and
+         * {@link #end(Predicate)}
+         * @return Sorted rows of the dogs matching the predicate
+         */
+        int[] matching(Predicate<Dog> predicate) {
+            return IntStream.range(first(predicate), end(predicate))
+                    .filter(row -> matches(predicate, row))
+                    .toArray();
+        }
+
+        /**
+         * @param predicate {@link Predicate} to match, only against the rows between {@link #first(Predicate)} and
+         * {@link #end(Predicate)}
+         * @return Number of dogs matching the predicate
+         */
+        long count(Predicate<Dog> predicate) {
+            long count = 0;
+            for (int row = first(predicate), end = end(predicate); row < end; row++) {
+                if (matches(predicate, row)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Tests the dogs of this partition against the queries of a batch in a single pass, from the first row any
+         * query may match to the last one. Queries of other breeds are left out and every query is only tested
+         * between its own {@link #first(Predicate)} and {@link #end(Predicate)}.
+         * @param scan {@link DogBatchScan} counting the matches of this partition
+         * @return Sorted rows of the dogs matching every query returning dogs, null for the other queries
+         */
+        int[][] scan(DogBatchScan scan) {
+            List<DogBatch.Query<?>> queries = scan.queries();
+            int[] firsts = new int[queries.size()];
+            int[] ends = new int[queries.size()];
+            int[][] rows = new int[queries.size()][];
+            int[] counts = new int[queries.size()];
+            int from = dogs.length;
+            int to = 0;
+            for (int q = 0; q < firsts.length; q++) {
+                Predicate<Dog> predicate = queries.get(q).predicate;
+                Set<DogBreed> breeds = predicate instanceof DogQuery ? ((DogQuery) predicate).breeds() : null;
+                if (breeds == null || (breed != null && breeds.contains(breed))) {
+                    firsts[q] = first(predicate);
+                    ends[q] = end(predicate);
+                    if (firsts[q] < ends[q]) {
+                        from = Math.min(from, firsts[q]);
+                        to = Math.max(to, ends[q]);
+                    }
+                }
+                if (scan.collects(q)) {
+                    rows[q] = new int[Math.min(16, ends[q] - firsts[q])];
+                }
+            }
+            int ordinal = breed == null ? AbstractColumnarDogRegistry.NONE : breed.ordinal();
+            for (int row = from; row < to; row++) {
+                for (int q = 0; q < firsts.length; q++) {
+                    if (row >= firsts[q] && row < ends[q] && matches(queries.get(q).predicate, row)) {
+                        scan.match(q, ordinal, weights[row]);
+                        if (rows[q] != null) {
+                            if (counts[q] == rows[q].length) {
+                                rows[q] = Arrays.copyOf(rows[q], Math.min(ends[q] - firsts[q], counts[q] * 2));
+                            }
+                            rows[q][counts[q]++] = row;
+                        }
+                    }
+                }
+            }
+            scan.scanned(Math.max(0, to - from));
+            for (int q = 0; q < rows.length; q++) {
+                if (rows[q] != null) {
+                    rows[q] = Arrays.copyOf(rows[q], counts[q]);
+                }
+            }
+            return rows;
+        }
+
+        /**
+         * Returns a copy of this partition with some new dogs, each one after the ones born on the same day.
+         * The runs of dogs between two new ones are copied as a whole.
+         * @param added {@link Dog} array holding the dogs to add
+         * @param addedBirthDays Dates of birth of the dogs as days since the epoch, at the same positions
+         * @param rows Positions of the dogs to add, in ascending order
+         * @param firstSequence Sequence number of the dog at position 0, greater than any other in the partition
+         * @return New {@link Partition} with the dogs
+         */
+        Partition with(Dog[] added, int[] addedBirthDays, int[] rows, long firstSequence) {
+            int[] rowBirthDays = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                rowBirthDays[i] = addedBirthDays[rows[i]];
+            }
+            int[] positions = BirthDayIndex.sortedPositions(rowBirthDays, rows.length);
+            int size = dogs.length + rows.length;
+            Dog[] newDogs = new Dog[size];
+            double[] newWeights = new double[size];
+            int[] newBirthDays = new int[size];
+            long[] newSequences = new long[size];
+            int from = 0;
+            int to = 0;
+            for (int position : positions) {
+                int row = rows[position];
+                int next = BirthDayIndex.upperBound(birthDays, dogs.length, addedBirthDays[row]);
+                System.arraycopy(dogs, from, newDogs, to, next - from);
+                System.arraycopy(weights, from, newWeights, to, next - from);
+                System.arraycopy(birthDays, from, newBirthDays, to, next - from);
+                System.arraycopy(sequences, from, newSequences, to, next - from);
+                to += next - from;
+                from = next;
+                newDogs[to] = added[row];
+                newWeights[to] = added[row].getWeight();
+                newBirthDays[to] = addedBirthDays[row];
+                newSequences[to] = firstSequence + row;
+                to++;
+            }
+            System.arraycopy(dogs, from, newDogs, to, dogs.length - from);
+            System.arraycopy(weights, from, newWeights, to, dogs.length - from);
+            System.arraycopy(birthDays, from, newBirthDays, to, dogs.length - from);
+            System.arraycopy(sequences, from, newSequences, to, dogs.length - from);
+            return new Partition(breed, newDogs, newWeights, newBirthDays, newSequences);
+        }
+
+        /**
+         * Returns a copy of this partition without the dogs at some rows. The runs of dogs between two rows left out
+         * are copied as a whole.
+         * @param rows Rows of the dogs to leave out, in ascending order and without repeats
+         * @return New {@link Partition} without those dogs
+         */
+        Partition without(int[] rows) {
+            int size = dogs.length - rows.length;
+            Dog[] newDogs = new Dog[size];
+            double[] newWeights = new double[size];
+            int[] newBirthDays = new int[size];
+            long[] newSequences = new long[size];
+            int from = 0;
+            int to = 0;
+            for (int row : rows) {
+                System.arraycopy(dogs, from, newDogs, to, row - from);
+                System.arraycopy(weights, from, newWeights, to, row - from);
+                System.arraycopy(birthDays, from, newBirthDays, to, row - from);
+                System.arraycopy(sequences, from, newSequences, to, row - from);
+                to += row - from;
+                from = row + 1;
+            }
+            System.arraycopy(dogs, from, newDogs, to, dogs.length - from);
+            System.arraycopy(weights, from, newWeights, to, dogs.length - from);
+            System.arraycopy(birthDays, from, newBirthDays, to, dogs.length - from);
+            System.arraycopy(sequences, from, newSequences, to, dogs.length - from);
+            return new Partition(breed, newDogs, newWeights, newBirthDays, newSequences);
+        }
+    }
+
+    /**
+     * Iterator over the dogs of some partitions matching a predicate, sorted by date of birth as
+     * {@link #merge(Partition[], int[][], RowVisitor)} does. Every partition is only tested up to its next match,
+     * so nothing is kept but the position reached in every partition.
+     */
+    private static final class MatchIterator implements Iterator<Dog> {
+
+        private final Partition[] partitions;
+        private final Predicate<Dog> predicate;
+
+        /**
+         * Next matching row of every partition, or its end if there is none left.
+         */
+        private final int[] heads;
+        private final int[] ends;
+
+        /**
+         * Number of dogs tested against the predicate so far.
+         */
+        private long tested;
+
+        private MatchIterator(Partition[] partitions, Predicate<Dog> predicate) {
+            this.partitions = partitions;
+            this.predicate = predicate;
+            this.heads = new int[partitions.length];
+            this.ends = new int[partitions.length];
+            for (int p = 0; p < partitions.length; p++) {
+                heads[p] = partitions[p].first(predicate);
+                ends[p] = partitions[p].end(predicate);
+                advance(p);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (int p = 0; p < partitions.length; p++) {
+                if (heads[p] < ends[p]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Dog next() {
+            int next = -1;
+            for (int p = 0; p < partitions.length; p++) {
+                if (heads[p] < ends[p]
+                        && (next < 0 || partitions[p].before(heads[p], partitions[next], heads[next]))) {
+                    next = p;
+                }
+            }
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            Dog dog = partitions[next].dogs[heads[next]++];
+            advance(next);
+            return dog;
+        }
+
+        /**
+         * Moves the head of a partition to its next matching row.
+         * @param p Position of the partition
+         */
+        private void advance(int p) {
+            while (heads[p] < ends[p]) {
+                tested++;
+                if (partitions[p].matches(predicate, heads[p])) {
+                    return;
+                }
+                heads[p]++;
+            }
+        }
+    }
+
+    /**
+     * Callback receiving rows of the partitions of a snapshot.
+     */
+    @FunctionalInterface
+    private interface RowVisitor {
+
+        void visit(Partition partition, int row);
+    }
+
+    /**
+     * {@link DogRegistryBuilder} gathering the loaded dogs in growing arrays, split by breed and published as the
+     * first {@link Snapshot} of a new {@link DogRegistryImpl} when the registry is built.
+     */
+    static final class Builder implements DogRegistryBuilder {
+
+        private final DogRegistryConfig config;
+        private final WeightAggregates aggregates = new WeightAggregates();
+        private Dog[] dogs = new Dog[16];
+        private int[] birthDays = new int[16];
+        private int size;
+
+        Builder(DogRegistryConfig config) {
+            this.config = config;
+        }
+
+        /**
+         * {@inheritDoc}
+         * @throws DateTimeException if the date of birth of the dog can not be parsed
+         */
+        @Override
+        public void add(Dog dog) {
+            add(dog, birthDay(dog, config.getDateFormat()));
+        }
+
+        @Override
+        public void add(Dog dog, int birthDay) {
+            if (size == dogs.length) {
+                int capacity = size + (size >> 1);
+                dogs = Arrays.copyOf(dogs, capacity);
+                birthDays = Arrays.copyOf(birthDays, capacity);
+            }
+            dogs[size] = dog;
+            birthDays[size] = birthDay;
+            size++;
+            if (dog.getBreed() != null) {
+                aggregates.add(dog.getBreed().ordinal(), dog.getWeight());
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public DogRegistry<DogBreed> build() {
+            return build(aggregates);
+        }
+
+        @Override
+        public DogRegistryImpl build(WeightAggregates aggregates) {
+            Partition[] partitions = Snapshot.empty().partitions;
+            int[] partitionSizes = new int[partitions.length];
+            for (int i = 0; i < size; i++) {
+                partitionSizes[Snapshot.partition(dogs[i].getBreed())]++;
+            }
+            int[][] partitionRows = new int[partitions.length][];
+            for (int p = 0; p < partitions.length; p++) {
+                partitionRows[p] = new int[partitionSizes[p]];
+                partitionSizes[p] = 0;
+            }
+            for (int i = 0; i < size; i++) {
+                int p = Snapshot.partition(dogs[i].getBreed());
+                partitionRows[p][partitionSizes[p]++] = i;
+            }
+            IntStream partitionStream = IntStream.range(0, partitions.length);
+            if (size >= config.getParallelThreshold()) {
+                partitionStream = partitionStream.parallel();
+            }
+            partitionStream.forEach(p -> partitions[p] = sortedPartition(Snapshot.breed(p), partitionRows[p]));
+            return new DogRegistryImpl(config, new Snapshot(partitions, aggregates, size));
+        }
+
+        /**
+         * Builds a partition out of some of the loaded dogs, using their load positions as sequence numbers.
+         * @param breed {@link DogBreed} of the dogs, or null
+         * @param rows Load positions of the dogs, in ascending order
+         * @return {@link Partition} with the dogs sorted by date of birth
+         */
+        private Partition sortedPartition(DogBreed breed, int[] rows) {
+            int[] rowBirthDays = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                rowBirthDays[i] = birthDays[rows[i]];
+            }
+            int[] positions = BirthDayIndex.sortedPositions(rowBirthDays, rows.length);
+            Dog[] sortedDogs = new Dog[rows.length];
+            double[] sortedWeights = new double[rows.length];
+            int[] sortedBirthDays = new int[rows.length];
+            long[] sortedSequences = new long[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                int row = rows[positions[i]];
+                sortedDogs[i] = dogs[row];
+                sortedWeights[i] = dogs[row].getWeight();
+                sortedBirthDays[i] = birthDays[row];
+                sortedSequences[i] = row;
+            }
+            return new Partition(breed, sortedDogs, sortedWeights, sortedBirthDays, sortedSequences);
+        }
+    }
 }
@@ -0,0 +1,34 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+
+/**
+ * Receives the timings of the calls made to the registries and of the files loaded by {@link DogRegistryFactory},
+ * once set through {@link DogRegistryConfig#setListener(DogRegistryListener)}. Every method does nothing by
+ * default, so listeners only implement the ones they need.
+ * <p>Listeners are called on the thread making the call, right before it returns, so they must be thread-safe
+ * and fast, and must not throw. {@link DogRegistryMetrics} is a ready made listener aggregating everything it
+ * receives.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public interface DogRegistryListener {
+
+    /**
+     * Called after every query or write of a registry.
+     * @param method {@link DogRegistryMethod} called
+     * @param nanos Nanoseconds the call took
+     * @param rowsScanned Number of dogs looked at one by one. Answers out of the weight aggregates or found by
+     * binary search on the dates of birth scan none.
+     * @param rowsReturned Number of dogs returned by a query, or number of changes applied by a write
+     */
+    default void onQuery(DogRegistryMethod method, long nanos, long rowsScanned, int rowsReturned) {
+    }
+
+    /**
+     * Called after every file, directory or snapshot loaded by {@link DogRegistryFactory}.
+     * @param statistics {@link LoadStatistics} with the timings of every phase of the load
+     */
+    default void onLoad(LoadStatistics statistics) {
+    }
+}
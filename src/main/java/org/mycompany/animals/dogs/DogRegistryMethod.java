@@ -0,0 +1,100 @@
+package org.mycompany.animals.dogs;
+
+/**
+ * Methods of the registries reported to a {@link DogRegistryListener}.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public enum DogRegistryMethod {
+
+    /**
+     * {@link DogRegistry#averageWeight(Object)}
+     */
+    AVERAGE_WEIGHT,
+
+    /**
+     * {@link DogRegistry#averageWeightPerBreed()}
+     */
+    AVERAGE_WEIGHT_PER_BREED,
+
+    /**
+     * {@link DogRegistry#weightStatisticsPerBreed()}
+     */
+    WEIGHT_STATISTICS_PER_BREED,
+
+    /**
+     * {@link DogRegistry#dogsByCondition(java.util.function.Predicate)}
+     */
+    DOGS_BY_CONDITION,
+
+    /**
+     * {@link DogRegistry#streamByCondition(java.util.function.Predicate)}, reported once the stream is exhausted or
+     * closed
+     */
+    STREAM_BY_CONDITION,
+
+    /**
+     * {@link DogRegistry#countByCondition(java.util.function.Predicate)}
+     */
+    COUNT_BY_CONDITION,
+
+    /**
+     * {@link DogRegistry#visitByCondition(java.util.function.Predicate, DogVisitor)}
+     */
+    VISIT_BY_CONDITION,
+
+    /**
+     * {@link DogRegistry#query(DogBatch)}
+     */
+    QUERY_BATCH,
+
+    /**
+     * {@link DogRegistry#oldestDogAfterDate(java.time.LocalDate)}
+     */
+    OLDEST_DOG_AFTER_DATE,
+
+    /**
+     * {@link DogRegistry#dogsBornBetween(java.time.LocalDate, java.time.LocalDate)}
+     */
+    DOGS_BORN_BETWEEN,
+
+    /**
+     * {@link DogRegistry#dogsByName(String)}
+     */
+    DOGS_BY_NAME,
+
+    /**
+     * {@link DogRegistry#dogsByNamePrefix(String, int)}
+     */
+    DOGS_BY_NAME_PREFIX,
+
+    /**
+     * {@link DogRegistry#topDogs(java.util.function.Predicate, DogOrder, int)}
+     */
+    TOP_DOGS,
+
+    /**
+     * {@link DogRegistry#topDogsPerBreed(java.util.function.Predicate, DogOrder, int)}
+     */
+    TOP_DOGS_PER_BREED,
+
+    /**
+     * {@link MutableDogRegistry#register(org.mycompany.animals.dogs.domain.Dog)}
+     */
+    REGISTER,
+
+    /**
+     * {@link MutableDogRegistry#update(org.mycompany.animals.dogs.domain.Dog)}
+     */
+    UPDATE,
+
+    /**
+     * {@link MutableDogRegistry#deregister(String)}
+     */
+    DEREGISTER,
+
+    /**
+     * {@link MutableDogRegistry#apply(DogChanges)}
+     */
+    APPLY
+}
@@ -0,0 +1,313 @@
+package org.mycompany.animals.dogs;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link DogRegistryListener} aggregating the calls of the registries and the loads of the factory: calls, dogs
+ * scanned and returned and a latency histogram per {@link DogRegistryMethod}, and the time spent in every phase of
+ * the loads. Counters are {@link LongAdder} instances, so registries queried from many threads do not contend on
+ * them.
+ * <p>Latencies are counted in power of two buckets of nanoseconds, so percentiles are estimated as the upper bound
+ * of the bucket they fall in: never below the real value and less than twice as much.</p>
+ * <pre>
+ * DogRegistryMetrics metrics = new DogRegistryMetrics();
+ * config.setListener(metrics);
+ * metrics.registerMBean("dogs");
+ * </pre>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class DogRegistryMetrics implements DogRegistryListener, DogRegistryMetricsMXBean {
+
+    /**
+     * Domain and type of the names the metrics are registered with in the platform MBean server.
+     */
+    static final String OBJECT_NAME_PREFIX = "org.mycompany.animals.dogs:type=DogRegistryMetrics,name=";
+
+    /**
+     * Number of latency buckets. Bucket b counts the calls taking less than 2^b nanoseconds and at least half that.
+     */
+    private static final int BUCKETS = Long.SIZE;
+
+    private final MethodMetrics[] methods = new MethodMetrics[DogRegistryMethod.values().length];
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder dogsLoaded = new LongAdder();
+    private final LongAdder loadSetupNanos = new LongAdder();
+    private final LongAdder loadParseNanos = new LongAdder();
+    private final LongAdder loadBuildNanos = new LongAdder();
+
+    /**
+     * Name the metrics are registered with, or null if they are not registered.
+     */
+    private ObjectName objectName;
+
+    /**
+     * Creates metrics with every counter at zero.
+     */
+    public DogRegistryMetrics() {
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new MethodMetrics();
+        }
+    }
+
+    @Override
+    public void onQuery(DogRegistryMethod method, long nanos, long rowsScanned, int rowsReturned) {
+        MethodMetrics metrics = methods[method.ordinal()];
+        metrics.calls.increment();
+        metrics.nanos.add(nanos);
+        metrics.rowsScanned.add(rowsScanned);
+        metrics.rowsReturned.add(rowsReturned);
+        metrics.latencies[bucket(nanos)].increment();
+    }
+
+    @Override
+    public void onLoad(LoadStatistics statistics) {
+        loads.increment();
+        dogsLoaded.add(statistics.getDogs());
+        loadSetupNanos.add(statistics.getSetupNanos());
+        loadParseNanos.add(statistics.getParseNanos());
+        loadBuildNanos.add(statistics.getBuildNanos());
+    }
+
+    /**
+     * @param method {@link DogRegistryMethod} to look up
+     * @return Number of calls of the method
+     */
+    public long getCalls(DogRegistryMethod method) {
+        return methods[method.ordinal()].calls.sum();
+    }
+
+    /**
+     * @param method {@link DogRegistryMethod} to look up
+     * @return Number of dogs looked at one by one by the method
+     */
+    public long getRowsScanned(DogRegistryMethod method) {
+        return methods[method.ordinal()].rowsScanned.sum();
+    }
+
+    /**
+     * @param method {@link DogRegistryMethod} to look up
+     * @return Number of dogs returned, or changes applied, by the method
+     */
+    public long getRowsReturned(DogRegistryMethod method) {
+        return methods[method.ordinal()].rowsReturned.sum();
+    }
+
+    /**
+     * @param method {@link DogRegistryMethod} to look up
+     * @return Mean latency of the method in nanoseconds, or 0 if it has not been called
+     */
+    public double getMeanLatencyNanos(DogRegistryMethod method) {
+        MethodMetrics metrics = methods[method.ordinal()];
+        long calls = metrics.calls.sum();
+        return calls == 0 ? 0 : metrics.nanos.sum() / (double) calls;
+    }
+
+    /**
+     * Estimates a percentile of the latency of a method out of its histogram.
+     * @param method {@link DogRegistryMethod} to look up
+     * @param percentile Percentile to estimate, between 0 and 100
+     * @return Upper bound in nanoseconds of the bucket the percentile falls in, or 0 if the method has not been
+     * called
+     * @throws IllegalArgumentException if the percentile is not between 0 and 100
+     */
+    public long getLatencyPercentileNanos(DogRegistryMethod method, double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long[] histogram = getLatencyHistogram(method);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen >= rank) {
+                return b == BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @param method {@link DogRegistryMethod} to look up
+     * @return Number of calls of the method per latency bucket. Bucket b counts the calls taking less than 2^b
+     * nanoseconds and at least 2^(b-1).
+     */
+    public long[] getLatencyHistogram(DogRegistryMethod method) {
+        LongAdder[] latencies = methods[method.ordinal()].latencies;
+        long[] histogram = new long[BUCKETS];
+        for (int b = 0; b < BUCKETS; b++) {
+            histogram[b] = latencies[b].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return perMethod(this::getCalls);
+    }
+
+    @Override
+    public Map<String, Long> getRowsScanned() {
+        return perMethod(this::getRowsScanned);
+    }
+
+    @Override
+    public Map<String, Long> getRowsReturned() {
+        return perMethod(this::getRowsReturned);
+    }
+
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        return perMethodMicros(this::getMeanLatencyNanos);
+    }
+
+    @Override
+    public Map<String, Double> getMedianLatencyMicros() {
+        return perMethodMicros(method -> getLatencyPercentileNanos(method, 50));
+    }
+
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        return perMethodMicros(method -> getLatencyPercentileNanos(method, 99));
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getDogsLoaded() {
+        return dogsLoaded.sum();
+    }
+
+    @Override
+    public double getLoadSetupMillis() {
+        return loadSetupNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public double getLoadParseMillis() {
+        return loadParseNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public double getLoadBuildMillis() {
+        return loadBuildNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public void reset() {
+        for (MethodMetrics metrics : methods) {
+            metrics.reset();
+        }
+        loads.reset();
+        dogsLoaded.reset();
+        loadSetupNanos.reset();
+        loadParseNanos.reset();
+        loadBuildNanos.reset();
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server, as
+     * <code>org.mycompany.animals.dogs:type=DogRegistryMetrics,name=&lt;name&gt;</code>.
+     * @param name Name telling these metrics apart from the ones of other registries
+     * @throws JMException in case the name is not valid or already registered
+     * @throws IllegalStateException if these metrics are already registered
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        if (objectName != null) {
+            throw new IllegalStateException("Metrics already registered as " + objectName);
+        }
+        ObjectName newName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+        objectName = newName;
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server, if they were registered.
+     * @throws JMException in case they can not be unregistered
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * @param nanos Latency of a call
+     * @return Bucket counting that latency
+     */
+    private static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(Math.max(0, nanos)));
+    }
+
+    private Map<String, Long> perMethod(ToLongFunction<DogRegistryMethod> value) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (DogRegistryMethod method : DogRegistryMethod.values()) {
+            if (getCalls(method) != 0) {
+                values.put(method.name(), value.applyAsLong(method));
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    private Map<String, Double> perMethodMicros(ToDoubleFunction<DogRegistryMethod> nanos) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (DogRegistryMethod method : DogRegistryMethod.values()) {
+            if (getCalls(method) != 0) {
+                values.put(method.name(), nanos.applyAsDouble(method) / TimeUnit.MICROSECONDS.toNanos(1));
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Counters of a single {@link DogRegistryMethod}.
+     */
+    private static final class MethodMetrics {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder rowsScanned = new LongAdder();
+        private final LongAdder rowsReturned = new LongAdder();
+        private final LongAdder[] latencies = new LongAdder[BUCKETS];
+
+        private MethodMetrics() {
+            for (int b = 0; b < BUCKETS; b++) {
+                latencies[b] = new LongAdder();
+            }
+        }
+
+        private void reset() {
+            calls.reset();
+            nanos.reset();
+            rowsScanned.reset();
+            rowsReturned.reset();
+            for (LongAdder latency : latencies) {
+                latency.reset();
+            }
+        }
+    }
+}
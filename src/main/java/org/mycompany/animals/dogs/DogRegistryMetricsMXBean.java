@@ -0,0 +1,73 @@
+package org.mycompany.animals.dogs;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link DogRegistryMetrics}, exposed through JMX once registered by
+ * {@link DogRegistryMetrics#registerMBean(String)}. Maps are keyed by the names of the {@link DogRegistryMethod}
+ * values called at least once.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public interface DogRegistryMetricsMXBean {
+
+    /**
+     * @return Number of calls of every method
+     */
+    Map<String, Long> getCalls();
+
+    /**
+     * @return Number of dogs looked at one by one by every method
+     */
+    Map<String, Long> getRowsScanned();
+
+    /**
+     * @return Number of dogs returned, or changes applied, by every method
+     */
+    Map<String, Long> getRowsReturned();
+
+    /**
+     * @return Mean latency of every method in microseconds
+     */
+    Map<String, Double> getMeanLatencyMicros();
+
+    /**
+     * @return Median latency of every method in microseconds
+     */
+    Map<String, Double> getMedianLatencyMicros();
+
+    /**
+     * @return 99th percentile of the latency of every method in microseconds
+     */
+    Map<String, Double> getP99LatencyMicros();
+
+    /**
+     * @return Number of files loaded
+     */
+    long getLoads();
+
+    /**
+     * @return Number of dogs loaded by all the loads
+     */
+    long getDogsLoaded();
+
+    /**
+     * @return Milliseconds spent getting the parsing machinery ready by all the loads
+     */
+    double getLoadSetupMillis();
+
+    /**
+     * @return Milliseconds spent parsing files by all the loads
+     */
+    double getLoadParseMillis();
+
+    /**
+     * @return Milliseconds spent building registries by all the loads
+     */
+    double getLoadBuildMillis();
+
+    /**
+     * Sets every counter back to zero.
+     */
+    void reset();
+}
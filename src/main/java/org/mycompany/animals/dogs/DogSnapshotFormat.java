@@ -0,0 +1,163 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.UnmarshalException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Layout of the binary snapshot files of a registry. All values are little endian and every section starts at
+ * an offset multiple of 8, with zero bytes padding the end of the previous section when needed:
+ * <ol>
+ *     <li>header: magic number, format version, number of dogs, number of breeds, number of distinct names,
+ *     a reserved int and the length of the names section</li>
+ *     <li>weight aggregates of every breed, as written by {@link WeightAggregates#write(ByteBuffer)}</li>
+ *     <li>weights column, one double per dog</li>
+ *     <li>dates of birth column, one int per dog with the days since the epoch</li>
+ *     <li>name ids column, one int per dog with the position of its name in the names table or -1</li>
+ *     <li>breeds column, one byte per dog with the breed ordinal or -1</li>
+ *     <li>names table offsets, one long per distinct name plus a last one with the end of the names section</li>
+ *     <li>names section, with every distinct name encoded in UTF-8, sorted by name ignoring case and then by name
+ *     so names are looked up by binary search</li>
+ * </ol>
+ * Rows are sorted by date of birth, as in {@link ColumnarDogRegistry}.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogSnapshotFormat {
+
+    /**
+     * First bytes of every snapshot file. The first one is not ASCII, so it can not be taken for an XML file.
+     */
+    static final int MAGIC = 0x89444F47;
+
+    /**
+     * Version of the layout, to be increased with every incompatible change.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Byte order of every value in the file.
+     */
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Length of the header.
+     */
+    static final int HEADER_BYTES = 32;
+
+    private DogSnapshotFormat() {
+    }
+
+    /**
+     * @param file File to check
+     * @return true if the file starts with the snapshot magic number
+     * @throws IOException in case the file can not be read
+     */
+    static boolean isSnapshot(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(BYTE_ORDER);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading until the magic number is complete or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Offsets of every section of a snapshot file, worked out from the values in its header.
+     */
+    static final class Layout {
+
+        final int size;
+        final int nameCount;
+        final long nameBytes;
+        final long aggregatesOffset;
+        final long weightsOffset;
+        final long birthDaysOffset;
+        final long nameIdsOffset;
+        final long breedsOffset;
+        final long nameOffsetsOffset;
+        final long namesOffset;
+        final long fileLength;
+
+        /**
+         * @param size Number of dogs
+         * @param nameCount Number of distinct names
+         * @param nameBytes Length of all the distinct names encoded in UTF-8
+         */
+        Layout(int size, int nameCount, long nameBytes) {
+            this.size = size;
+            this.nameCount = nameCount;
+            this.nameBytes = nameBytes;
+            aggregatesOffset = HEADER_BYTES;
+            weightsOffset = aggregatesOffset + (long) DogBreed.values().length * WeightAggregates.BYTES_PER_BREED;
+            birthDaysOffset = weightsOffset + (long) size * Double.BYTES;
+            nameIdsOffset = align(birthDaysOffset + (long) size * Integer.BYTES);
+            breedsOffset = align(nameIdsOffset + (long) size * Integer.BYTES);
+            nameOffsetsOffset = align(breedsOffset + size);
+            namesOffset = nameOffsetsOffset + (nameCount + 1L) * Long.BYTES;
+            fileLength = namesOffset + nameBytes;
+        }
+
+        /**
+         * Writes the header of a file with this layout.
+         * @param buffer {@link ByteBuffer} to write the header to
+         */
+        void writeHeader(ByteBuffer buffer) {
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(size);
+            buffer.putInt(DogBreed.values().length);
+            buffer.putInt(nameCount);
+            buffer.putInt(0);
+            buffer.putLong(nameBytes);
+        }
+
+        /**
+         * Reads the header of a file and checks it can be read by this version of the library.
+         * @param header {@link ByteBuffer} with the {@link #HEADER_BYTES} first bytes of the file
+         * @param fileLength Length of the file
+         * @param fileName Name of the file used in error messages
+         * @return {@link Layout} of the file
+         * @throws UnmarshalException if the file is not a snapshot, its version or breeds are not supported or it
+         * is truncated
+         */
+        static Layout readHeader(ByteBuffer header, long fileLength, String fileName) throws UnmarshalException {
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new UnmarshalException("File " + fileName + " is not a dogs snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new UnmarshalException("Unsupported version " + version + " of dogs snapshot " + fileName);
+            }
+            int size = header.getInt();
+            int breedCount = header.getInt();
+            int nameCount = header.getInt();
+            header.getInt();
+            long nameBytes = header.getLong();
+            if (breedCount != DogBreed.values().length) {
+                throw new UnmarshalException("Dogs snapshot " + fileName + " was written with " + breedCount
+                        + " breeds instead of " + DogBreed.values().length);
+            }
+            if (size < 0 || nameCount < 0 || nameBytes < 0) {
+                throw new UnmarshalException("Dogs snapshot " + fileName + " has a corrupted header");
+            }
+            Layout layout = new Layout(size, nameCount, nameBytes);
+            if (layout.fileLength != fileLength) {
+                throw new UnmarshalException("Dogs snapshot " + fileName + " should be " + layout.fileLength
+                        + " bytes long but it is " + fileLength);
+            }
+            return layout;
+        }
+
+        private static long align(long offset) {
+            return (offset + Long.BYTES - 1) & -Long.BYTES;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of binary snapshot files, laid out as described in {@link DogSnapshotFormat}.
+ * Sections are memory mapped, so columns are copied straight from the page cache with bulk reads and no parsing
+ * at all.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogSnapshotReader implements Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+    private final DogSnapshotFormat.Layout layout;
+
+    private DogSnapshotReader(File file, FileChannel channel, DogSnapshotFormat.Layout layout) {
+        this.file = file;
+        this.channel = channel;
+        this.layout = layout;
+    }
+
+    /**
+     * Opens a snapshot file and reads its header.
+     * @param file Snapshot file
+     * @return {@link DogSnapshotReader} of the file, to be closed by the caller
+     * @throws JAXBException in case the file can not be read or it is not a supported snapshot
+     */
+    static DogSnapshotReader open(File file) throws JAXBException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long fileLength = channel.size();
+            ByteBuffer header = map(channel, 0, Math.min(fileLength, DogSnapshotFormat.HEADER_BYTES));
+            DogSnapshotFormat.Layout layout = DogSnapshotFormat.Layout.readHeader(header, fileLength, file.getPath());
+            return new DogSnapshotReader(file, channel, layout);
+        } catch (IOException e) {
+            close(channel);
+            throw new UnmarshalException("Unable to read dogs snapshot " + file, e);
+        } catch (JAXBException | RuntimeException e) {
+            close(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * @return {@link DogSnapshotFormat.Layout} of the file
+     */
+    DogSnapshotFormat.Layout layout() {
+        return layout;
+    }
+
+    /**
+     * Maps a section of the file. The mapping stays valid once the reader is closed.
+     * @param offset Offset of the section
+     * @param length Length of the section, which must be less than 2GB
+     * @return Read only {@link ByteBuffer} over the section, in the byte order of the format
+     * @throws JAXBException in case the file can not be mapped
+     */
+    ByteBuffer map(long offset, long length) throws JAXBException {
+        if (length > Integer.MAX_VALUE) {
+            throw new UnmarshalException("Dogs snapshot " + file + " has a section over 2GB long");
+        }
+        try {
+            return map(channel, offset, length);
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to map dogs snapshot " + file, e);
+        }
+    }
+
+    /**
+     * @return {@link WeightAggregates} stored in the file
+     * @throws JAXBException in case the file can not be mapped
+     */
+    WeightAggregates readAggregates() throws JAXBException {
+        return WeightAggregates.read(map(layout.aggregatesOffset, layout.weightsOffset - layout.aggregatesOffset));
+    }
+
+    /**
+     * Reads the whole file into a heap registry.
+     * @param config {@link DogRegistryConfig} with the date format used to write the dates of birth of the dogs
+     * returned
+     * @return {@link ColumnarDogRegistry} with all the dogs of the file
+     * @throws JAXBException in case the file can not be read or it is corrupted
+     */
+    ColumnarDogRegistry readColumnar(DogRegistryConfig config) throws JAXBException {
+        int size = layout.size;
+        double[] weights = new double[size];
+        int[] birthDays = new int[size];
+        int[] nameIds = new int[size];
+        byte[] breeds = new byte[size];
+        map(layout.weightsOffset, (long) size * Double.BYTES).asDoubleBuffer().get(weights);
+        map(layout.birthDaysOffset, (long) size * Integer.BYTES).asIntBuffer().get(birthDays);
+        map(layout.nameIdsOffset, (long) size * Integer.BYTES).asIntBuffer().get(nameIds);
+        map(layout.breedsOffset, size).get(breeds);
+        String[] names = readNames();
+        checkRows(size, birthDays, nameIds, breeds);
+        return new ColumnarDogRegistry(size, weights, birthDays, breeds, nameIds, names, config,
+                readAggregates());
+    }
+
+    /**
+     * Maps the columns of the file into a registry reading them in place.
+     * @param config {@link DogRegistryConfig} with the date format used to write the dates of birth of the dogs
+     * returned
+     * @return {@link MappedDogRegistry} over the file
+     * @throws JAXBException in case the file can not be mapped
+     */
+    MappedDogRegistry readMapped(DogRegistryConfig config) throws JAXBException {
+        return new MappedDogRegistry(this, config);
+    }
+
+    /**
+     * @return Every distinct name of the names table
+     * @throws JAXBException in case the file can not be read or it is corrupted
+     */
+    private String[] readNames() throws JAXBException {
+        long[] offsets = new long[layout.nameCount + 1];
+        map(layout.nameOffsetsOffset, offsets.length * (long) Long.BYTES).asLongBuffer().get(offsets);
+        ByteBuffer namesSection = map(layout.namesOffset, layout.nameBytes);
+        byte[] bytes = new byte[(int) layout.nameBytes];
+        namesSection.get(bytes);
+        String[] names = new String[layout.nameCount];
+        for (int i = 0; i < names.length; i++) {
+            if (offsets[i] < 0 || offsets[i] > offsets[i + 1] || offsets[i + 1] > bytes.length) {
+                throw corrupted("names table");
+            }
+            names[i] = new String(bytes, (int) offsets[i], (int) (offsets[i + 1] - offsets[i]),
+                    StandardCharsets.UTF_8);
+        }
+        return names;
+    }
+
+    /**
+     * Checks the columns hold valid breeds and name ids and the rows are sorted by date of birth, so a corrupted
+     * file is reported while loading rather than when querying.
+     */
+    private void checkRows(int size, int[] birthDays, int[] nameIds, byte[] breeds) throws UnmarshalException {
+        int breedCount = DogBreed.values().length;
+        for (int i = 0; i < size; i++) {
+            if (breeds[i] < ColumnarDogRegistry.NONE || breeds[i] >= breedCount) {
+                throw corrupted("breeds column");
+            }
+            if (nameIds[i] < ColumnarDogRegistry.NONE || nameIds[i] >= layout.nameCount) {
+                throw corrupted("name ids column");
+            }
+            if (i > 0 && birthDays[i] < birthDays[i - 1]) {
+                throw corrupted("dates of birth column");
+            }
+        }
+    }
+
+    private UnmarshalException corrupted(String section) {
+        return new UnmarshalException("Dogs snapshot " + file + " has a corrupted " + section);
+    }
+
+    @Override
+    public void close() {
+        close(channel);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(DogSnapshotFormat.BYTE_ORDER);
+    }
+
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing else to do, the mapped sections are still valid
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.mycompany.animals.dogs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer of binary snapshot files, laid out as described in {@link DogSnapshotFormat}.
+ * The file is written to a temporary file next to it, which then replaces it atomically, so readers never see
+ * a half written snapshot.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogSnapshotWriter {
+
+    /**
+     * Size of the buffer the columns are written through.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(DogSnapshotFormat.BYTE_ORDER);
+
+    private DogSnapshotWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes a registry to a snapshot file, replacing it if it exists.
+     * @param registry {@link AbstractColumnarDogRegistry} to write
+     * @param file {@link Path} of the snapshot file
+     * @throws IOException in case the file can not be written
+     */
+    static void write(AbstractColumnarDogRegistry registry, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path tmpFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                new DogSnapshotWriter(channel).write(registry);
+                channel.force(false);
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private void write(AbstractColumnarDogRegistry registry) throws IOException {
+        int size = registry.size;
+        byte[][] names = new byte[registry.nameCount()][];
+        long nameBytes = 0;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = registry.nameOf(i).getBytes(StandardCharsets.UTF_8);
+            nameBytes += names[i].length;
+        }
+        DogSnapshotFormat.Layout layout = new DogSnapshotFormat.Layout(size, names.length, nameBytes);
+
+        layout.writeHeader(buffer);
+        registry.aggregates.write(buffer);
+        for (int i = 0; i < size; i++) {
+            ensureRemaining(Double.BYTES);
+            buffer.putDouble(registry.weight(i));
+        }
+        for (int i = 0; i < size; i++) {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(registry.birthDay(i));
+        }
+        pad(layout.nameIdsOffset - layout.birthDaysOffset - (long) size * Integer.BYTES);
+        for (int i = 0; i < size; i++) {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(registry.nameId(i));
+        }
+        pad(layout.breedsOffset - layout.nameIdsOffset - (long) size * Integer.BYTES);
+        for (int i = 0; i < size; i++) {
+            ensureRemaining(Byte.BYTES);
+            buffer.put((byte) registry.breedOrdinal(i));
+        }
+        pad(layout.nameOffsetsOffset - layout.breedsOffset - size);
+        long offset = 0;
+        for (byte[] name : names) {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(offset);
+            offset += name.length;
+        }
+        ensureRemaining(Long.BYTES);
+        buffer.putLong(offset);
+        for (byte[] name : names) {
+            writeBytes(name);
+        }
+        flush();
+        if (channel.position() != layout.fileLength) {
+            throw new IOException("Snapshot written with " + channel.position() + " bytes instead of "
+                    + layout.fileLength);
+        }
+    }
+
+    private void pad(long bytes) throws IOException {
+        for (long i = 0; i < bytes; i++) {
+            ensureRemaining(Byte.BYTES);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        int written = 0;
+        while (written < bytes.length) {
+            ensureRemaining(1);
+            int length = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, length);
+            written += length;
+        }
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,20 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+
+/**
+ * Callback receiving the dogs matching a condition one at a time through
+ * {@link DogRegistry#visitByCondition(java.util.function.Predicate, DogVisitor)}, which stops as soon as the visitor
+ * asks for it.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+@FunctionalInterface
+public interface DogVisitor {
+
+    /**
+     * @param dog {@link Dog} matching the condition
+     * @return true to go on with the next dog, false to stop
+     */
+    boolean visit(Dog dog);
+}
@@ -0,0 +1,369 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.FsyncPolicy;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the {@link DogChanges} applied to a persistent registry. Every change set is a record made of
+ * its length, the CRC32 of its content and the content itself, so a record half written by a crash is found and
+ * left out when the log is read back.
+ * <p>Records are appended to a buffer in memory and written by {@link #commit(long)}. A writer whose record has
+ * already been written by another one returns at once, and the writer doing the write takes every record appended
+ * since the last one, so concurrent writers are committed in groups and share the cost of forcing the log to
+ * disk.</p>
+ * <p>Records stay in the buffer until they have been written, and forced to disk when asked to, and only then are
+ * they reported as committed. If the file can not be written, the part of the group written is cut off the file
+ * and the log fails for good: the records not committed yet, and any record appended afterwards, are never
+ * reported as committed.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogWriteAheadLog implements Closeable {
+
+    /**
+     * Length of the header of every record: its length and its CRC32.
+     */
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * All the breeds indexed by ordinal.
+     */
+    private static final DogBreed[] BREEDS = DogBreed.values();
+
+    private final FsyncPolicy fsyncPolicy;
+
+    /**
+     * Lock serializing the writes to the file, taken before the monitor of the log.
+     */
+    private final Object writeLock = new Object();
+
+    private FileChannel channel;
+
+    /**
+     * Records appended and not committed yet, in the first {@link #pendingLength} bytes. Guarded by the monitor of
+     * the log, but the records already appended are read by the writer holding the write lock without it, since
+     * appending only writes after them.
+     */
+    private byte[] pending = new byte[8192];
+
+    /**
+     * Length of the records appended and not committed yet, guarded by the monitor of the log.
+     */
+    private int pendingLength;
+
+    /**
+     * Number of records appended, guarded by the monitor of the log.
+     */
+    private long appended;
+
+    /**
+     * Number of records written to the file, or forced to disk in {@link FsyncPolicy#ALWAYS} policy.
+     */
+    private volatile long committed;
+
+    /**
+     * Length of the file, including the records not written yet.
+     */
+    private volatile long length;
+
+    /**
+     * Length of the records written to the current file, guarded by the write lock.
+     */
+    private long written;
+
+    /**
+     * First error writing the file, after which nothing else is written. Null while the log works.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Opens a log file to append records to, creating it if it does not exist.
+     * @param file {@link Path} of the log file
+     * @param validLength Length of the valid records at the start of the file, anything after them is discarded
+     * @param fsyncPolicy {@link FsyncPolicy} of the log
+     * @throws IOException in case the file can not be opened
+     */
+    DogWriteAheadLog(Path file, long validLength, FsyncPolicy fsyncPolicy) throws IOException {
+        this(open(file, validLength), validLength, fsyncPolicy);
+    }
+
+    /**
+     * Appends records to a channel already open.
+     * @param channel {@link FileChannel} positioned at the end of its valid records
+     * @param validLength Length of the valid records of the channel
+     * @param fsyncPolicy {@link FsyncPolicy} of the log
+     */
+    DogWriteAheadLog(FileChannel channel, long validLength, FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+        this.channel = channel;
+        this.length = validLength;
+        this.written = validLength;
+    }
+
+    /**
+     * Appends a record to the buffer of the log.
+     * @param changes {@link DogChanges} to log
+     * @return Number of the record, to be passed to {@link #commit(long)}
+     * @throws IllegalArgumentException if the changes can not be encoded, in which case nothing is appended
+     */
+    synchronized long append(DogChanges changes) {
+        byte[] content = encode(changes);
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(DogSnapshotFormat.BYTE_ORDER);
+        header.putInt(content.length).putInt((int) crc.getValue());
+        int recordLength = RECORD_HEADER_BYTES + content.length;
+        if (pending.length - pendingLength < recordLength) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + recordLength));
+        }
+        System.arraycopy(header.array(), 0, pending, pendingLength, RECORD_HEADER_BYTES);
+        System.arraycopy(content, 0, pending, pendingLength + RECORD_HEADER_BYTES, content.length);
+        pendingLength += recordLength;
+        length += recordLength;
+        return ++appended;
+    }
+
+    /**
+     * Waits for a record to be written to the file, and forced to disk in {@link FsyncPolicy#ALWAYS} policy,
+     * writing it along with every other record appended if no other writer has done it yet.
+     * @param record Number of the record returned by {@link #append(DogChanges)}
+     * @throws IOException in case the log can not be written, now or by a previous commit
+     */
+    void commit(long record) throws IOException {
+        if (committed >= record) {
+            return;
+        }
+        synchronized (writeLock) {
+            if (committed < record) {
+                write(fsyncPolicy == FsyncPolicy.ALWAYS);
+            }
+        }
+    }
+
+    /**
+     * @return Number of the last record committed
+     */
+    long committed() {
+        return committed;
+    }
+
+    /**
+     * Writes the records appended and forces the log to disk.
+     * @throws IOException in case the log can not be written
+     */
+    void sync() throws IOException {
+        synchronized (writeLock) {
+            write(true);
+        }
+    }
+
+    /**
+     * Writes the records appended, forces the log to disk and starts appending to a new file.
+     * @param file {@link Path} of the new log file, which must not exist
+     * @throws IOException in case any of the files can not be written
+     */
+    void rotate(Path file) throws IOException {
+        synchronized (writeLock) {
+            write(true);
+            FileChannel newChannel = open(file, 0);
+            channel.close();
+            channel = newChannel;
+            written = 0;
+            synchronized (this) {
+                length = pendingLength;
+            }
+        }
+    }
+
+    /**
+     * @return Length of the current log file, including the records not written yet
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Writes the records appended and forces the log to disk before closing it. A log which failed is closed
+     * without writing anything else.
+     * @throws IOException in case the log can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            try {
+                if (failure == null) {
+                    write(true);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Writes every record appended so far and drops them from the buffer once written and forced. If the file can
+     * not be written, what was written of them is cut off and the log fails for good. Must be called holding the
+     * write lock.
+     * @param force true to force the file to disk afterwards
+     * @throws IOException in case the log can not be written, now or by a previous write
+     */
+    private void write(boolean force) throws IOException {
+        if (failure != null) {
+            throw new IOException("Write-ahead log failed before", failure);
+        }
+        byte[] records;
+        int recordsLength;
+        long last;
+        synchronized (this) {
+            records = pending;
+            recordsLength = pendingLength;
+            last = appended;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(records, 0, recordsLength);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            failure = e;
+            try {
+                channel.truncate(written);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw e;
+        }
+        written += recordsLength;
+        synchronized (this) {
+            pendingLength -= recordsLength;
+            System.arraycopy(pending, recordsLength, pending, 0, pendingLength);
+        }
+        committed = last;
+    }
+
+    private static FileChannel open(Path file, long validLength) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(validLength);
+            channel.position(validLength);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads back the records of a log file.
+     * @param file {@link Path} of the log file
+     * @param consumer {@link Consumer} receiving the {@link DogChanges} of every valid record, in order
+     * @return Length of the valid records at the start of the file. Anything after them was half written.
+     * @throws JAXBException in case the file can not be read
+     */
+    static long read(Path file, Consumer<DogChanges> consumer) throws JAXBException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long fileLength = Files.size(file);
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(DogSnapshotFormat.BYTE_ORDER);
+            long valid = 0;
+            while (fileLength - valid >= RECORD_HEADER_BYTES) {
+                in.readFully(header.array());
+                int contentLength = header.getInt(0);
+                int checksum = header.getInt(Integer.BYTES);
+                if (contentLength < 0 || contentLength > fileLength - valid - RECORD_HEADER_BYTES) {
+                    break;
+                }
+                byte[] content = new byte[contentLength];
+                in.readFully(content);
+                CRC32 crc = new CRC32();
+                crc.update(content, 0, content.length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                consumer.accept(decode(content));
+                valid += RECORD_HEADER_BYTES + contentLength;
+            }
+            return valid;
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to read write-ahead log " + file, e);
+        }
+    }
+
+    private static byte[] encode(DogChanges changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeDogs(out, changes.getAdded());
+            writeDogs(out, changes.getModified());
+            List<String> removed = new ArrayList<>(changes.getRemoved());
+            removed.removeIf(Objects::isNull);
+            out.writeInt(removed.size());
+            for (String name : removed) {
+                out.writeUTF(name);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to log " + changes + ": " + e.getMessage(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeDogs(DataOutputStream out, List<Dog> dogs) throws IOException {
+        out.writeInt(dogs.size());
+        for (Dog dog : dogs) {
+            out.writeUTF(dog.getName());
+            out.writeUTF(dog.getDateOfBirth());
+            out.writeDouble(dog.getWeight());
+            out.writeByte(dog.getBreed() == null ? -1 : dog.getBreed().ordinal());
+        }
+    }
+
+    private static DogChanges decode(byte[] content) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        List<Dog> added = readDogs(in);
+        List<Dog> modified = readDogs(in);
+        int removedCount = in.readInt();
+        List<String> removed = new ArrayList<>(removedCount);
+        for (int i = 0; i < removedCount; i++) {
+            removed.add(in.readUTF());
+        }
+        return new DogChanges(added, modified, removed);
+    }
+
+    private static List<Dog> readDogs(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Dog> dogs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Dog dog = new Dog();
+            dog.setName(in.readUTF());
+            dog.setDateOfBirth(in.readUTF());
+            dog.setWeight(in.readDouble());
+            int breed = in.readByte();
+            dog.setBreed(breed < 0 ? null : BREEDS[breed]);
+            dogs.add(dog);
+        }
+        return dogs;
+    }
+}
@@ -0,0 +1,49 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+
+import java.util.List;
+
+/**
+ * Log argument standing for a list of dogs, written as its size followed by the first
+ * {@link DogRegistryConfig#getMaxLoggedDogs()} dogs only. The text is built by {@link #toString()}, which the
+ * logger only calls if the message is actually logged, so a disabled level costs a single small object and an
+ * enabled one never writes out a whole registry.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogsSummary {
+
+    private final List<Dog> dogs;
+
+    private DogsSummary(List<Dog> dogs) {
+        this.dogs = dogs;
+    }
+
+    /**
+     * @param dogs {@link List} of dogs to log
+     * @return Log argument summarizing the dogs when written
+     */
+    static Object of(List<Dog> dogs) {
+        return new DogsSummary(dogs);
+    }
+
+    @Override
+    public String toString() {
+        int size = dogs.size();
+        int logged = Math.min(size, DogRegistryConfig.getMaxLoggedDogs());
+        StringBuilder text = new StringBuilder().append(size).append(size == 1 ? " dog" : " dogs");
+        if (logged > 0) {
+            text.append(" [");
+            for (int i = 0; i < logged; i++) {
+                text.append(i == 0 ? "" : ", ").append(dogs.get(i));
+            }
+            if (logged < size) {
+                text.append(", ... and ").append(size - logged).append(" more");
+            }
+            text.append(']');
+        }
+        return text.toString();
+    }
+}
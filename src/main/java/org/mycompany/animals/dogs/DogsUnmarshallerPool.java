@@ -0,0 +1,123 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dogs;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared, thread-safe holder of the JAXB machinery needed to read dogs XML files.
+ * The {@link JAXBContext} and the {@link Schema} compiled from the bundled dogs.xsd are built once per class loader
+ * and reused by every load, while {@link Unmarshaller} instances, which are not thread-safe, are pooled and handed
+ * out to one thread at a time.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class DogsUnmarshallerPool {
+
+    /**
+     * Classpath location of the schema bundled with the library.
+     */
+    static final String SCHEMA_RESOURCE = "/dogs.xsd";
+
+    /**
+     * Maximum number of idle unmarshallers kept in the pool.
+     */
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static volatile JAXBContext context;
+
+    private static volatile Schema schema;
+
+    private static final Queue<Unmarshaller> idle = new ConcurrentLinkedQueue<>();
+
+    private static final AtomicInteger idleCount = new AtomicInteger();
+
+    private DogsUnmarshallerPool() {
+    }
+
+    /**
+     * Returns the shared context for the {@link Dogs} class, creating it on first use.
+     * @return {@link JAXBContext} shared by all the loads
+     * @throws JAXBException in case the context can not be created
+     */
+    static JAXBContext context() throws JAXBException {
+        JAXBContext result = context;
+        if (result == null) {
+            synchronized (DogsUnmarshallerPool.class) {
+                result = context;
+                if (result == null) {
+                    result = JAXBContext.newInstance(Dogs.class);
+                    context = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the schema compiled from the bundled dogs.xsd, compiling it on first use.
+     * @return {@link Schema} shared by all the loads
+     * @throws JAXBException in case the schema can not be found or compiled
+     */
+    static Schema schema() throws JAXBException {
+        Schema result = schema;
+        if (result == null) {
+            synchronized (DogsUnmarshallerPool.class) {
+                result = schema;
+                if (result == null) {
+                    URL xsd = DogsUnmarshallerPool.class.getResource(SCHEMA_RESOURCE);
+                    if (xsd == null) {
+                        throw new JAXBException("Schema " + SCHEMA_RESOURCE + " not found in the classpath");
+                    }
+                    try {
+                        result = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(xsd);
+                    } catch (SAXException e) {
+                        throw new JAXBException("Unable to compile schema " + SCHEMA_RESOURCE, e);
+                    }
+                    schema = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Takes an unmarshaller out of the pool, creating a new one if none is idle.
+     * It must be given back through {@link #release(Unmarshaller)} once it is no longer used.
+     * @param validate If true, the unmarshaller will validate documents against the bundled schema
+     * @return {@link Unmarshaller} to be used by the calling thread only
+     * @throws JAXBException in case the unmarshaller can not be created
+     */
+    static Unmarshaller borrow(boolean validate) throws JAXBException {
+        Unmarshaller unmarshaller = idle.poll();
+        if (unmarshaller == null) {
+            unmarshaller = context().createUnmarshaller();
+        } else {
+            idleCount.decrementAndGet();
+        }
+        unmarshaller.setSchema(validate ? schema() : null);
+        return unmarshaller;
+    }
+
+    /**
+     * Gives an unmarshaller back to the pool. It is discarded if the pool is already full.
+     * @param unmarshaller {@link Unmarshaller} previously taken through {@link #borrow(boolean)}
+     */
+    static void release(Unmarshaller unmarshaller) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(unmarshaller);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.mycompany.animals.dogs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable timings of a single {@link DogRegistryFactory#load(String)} call, split into its phases:
+ * <ul>
+ *     <li>setup: getting hold of the parsing machinery, such as the JAXB context and an unmarshaller</li>
+ *     <li>parse: reading the file into dogs</li>
+ *     <li>build: building the registry out of the dogs read</li>
+ * </ul>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class LoadStatistics {
+
+    private final int dogs;
+    private final long setupNanos;
+    private final long parseNanos;
+    private final long buildNanos;
+
+    /**
+     * Constructor only available for the classes in this package.
+     * @param dogs Number of dogs loaded
+     * @param setupNanos Nanoseconds spent getting the parsing machinery ready
+     * @param parseNanos Nanoseconds spent parsing the file
+     * @param buildNanos Nanoseconds spent building the registry
+     */
+    LoadStatistics(int dogs, long setupNanos, long parseNanos, long buildNanos) {
+        this.dogs = dogs;
+        this.setupNanos = setupNanos;
+        this.parseNanos = parseNanos;
+        this.buildNanos = buildNanos;
+    }
+
+    /**
+     * @return Number of dogs loaded
+     */
+    public int getDogs() {
+        return dogs;
+    }
+
+    /**
+     * @return Nanoseconds spent getting the parsing machinery ready
+     */
+    public long getSetupNanos() {
+        return setupNanos;
+    }
+
+    /**
+     * @return Nanoseconds spent parsing the file
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return Nanoseconds spent building the registry out of the parsed dogs
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * @return Nanoseconds spent in the whole load
+     */
+    public long getTotalNanos() {
+        return setupNanos + parseNanos + buildNanos;
+    }
+
+    /**
+     * @return Load throughput, as the number of dogs loaded per second of the whole load
+     */
+    public double getDogsPerSecond() {
+        long totalNanos = getTotalNanos();
+        return totalNanos > 0 ? dogs * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadStatistics [dogs=" + dogs +
+                ", setup=" + TimeUnit.NANOSECONDS.toMicros(setupNanos) + "us" +
+                ", parse=" + TimeUnit.NANOSECONDS.toMicros(parseNanos) + "us" +
+                ", build=" + TimeUnit.NANOSECONDS.toMicros(buildNanos) + "us" +
+                ", dogsPerSecond=" + Math.round(getDogsPerSecond()) + "]";
+    }
+}
@@ -0,0 +1,185 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Implementation of the interface {@link DogRegistry} answering queries straight from the memory mapped columns
+ * of a snapshot file, as laid out by {@link DogSnapshotFormat}. Weights, dates of birth, breeds and name ids are
+ * fixed width records and names live in a separate variable length section, decoded only for the dogs returned.
+ * <p>Nothing but the weight aggregates is held in the heap, so registries larger than the heap can be queried and
+ * garbage collection pauses do not grow with the size of the registry. The only exception is the name index,
+ * built on the first lookup by name, which takes an int per dog and per name: names are binary searched in the
+ * mapped names table and never copied to the heap. The operating system keeps the pages being used in memory.
+ * Opening a registry takes the same time whatever its size, since rows are not checked until they are read, and
+ * each column must be less than 2GB long.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public class MappedDogRegistry extends AbstractColumnarDogRegistry {
+
+    private final DoubleBuffer weights;
+    private final IntBuffer birthDays;
+    private final IntBuffer nameIds;
+    private final ByteBuffer breeds;
+
+    /**
+     * Offset of every distinct name in the names section, plus a last one with the end of the section.
+     */
+    private final LongBuffer nameOffsets;
+
+    /**
+     * Every distinct name encoded in UTF-8.
+     */
+    private final ByteBuffer names;
+
+    /**
+     * Maps the columns of a snapshot file.
+     * @param reader {@link DogSnapshotReader} of the snapshot file
+     * @param config {@link DogRegistryConfig} with the date format used to write the dates of birth
+     * @throws JAXBException in case the file can not be mapped
+     */
+    MappedDogRegistry(DogSnapshotReader reader, DogRegistryConfig config) throws JAXBException {
+        super(reader.layout().size, config, reader.readAggregates());
+        DogSnapshotFormat.Layout layout = reader.layout();
+        weights = reader.map(layout.weightsOffset, (long) size * Double.BYTES).asDoubleBuffer();
+        birthDays = reader.map(layout.birthDaysOffset, (long) size * Integer.BYTES).asIntBuffer();
+        nameIds = reader.map(layout.nameIdsOffset, (long) size * Integer.BYTES).asIntBuffer();
+        breeds = reader.map(layout.breedsOffset, size);
+        nameOffsets = reader.map(layout.nameOffsetsOffset, (layout.nameCount + 1L) * Long.BYTES).asLongBuffer();
+        names = reader.map(layout.namesOffset, layout.nameBytes);
+    }
+
+    @Override
+    double weight(int row) {
+        return weights.get(row);
+    }
+
+    @Override
+    int birthDay(int row) {
+        return birthDays.get(row);
+    }
+
+    @Override
+    int breedOrdinal(int row) {
+        return breeds.get(row);
+    }
+
+    @Override
+    int nameId(int row) {
+        return nameIds.get(row);
+    }
+
+    @Override
+    int nameCount() {
+        return nameOffsets.limit() - 1;
+    }
+
+    @Override
+    String nameOf(int nameId) {
+        int start = (int) nameOffsets.get(nameId);
+        byte[] bytes = new byte[(int) nameOffsets.get(nameId + 1) - start];
+        ByteBuffer name = names.duplicate();
+        ((Buffer) name).position(start);
+        name.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    int lowerBound(long day) {
+        return BirthDayIndex.lowerBound(birthDays, size, day);
+    }
+
+    @Override
+    int upperBound(long day) {
+        return BirthDayIndex.upperBound(birthDays, size, day);
+    }
+
+    /**
+     * {@link DogRegistryBuilder} for dogs read from an XML file. Dogs are gathered in a
+     * {@link ColumnarDogRegistry}, which is written to a temporary snapshot file mapped when the registry is built.
+     * Imports therefore need the heap of a columnar registry once. Writing a snapshot once and loading it
+     * afterwards avoids it.
+     */
+    static final class Builder implements DogRegistryBuilder {
+
+        private final ColumnarDogRegistry.Builder columns;
+        private final DogRegistryConfig config;
+
+        Builder(DogRegistryConfig config) {
+            this.columns = new ColumnarDogRegistry.Builder(config);
+            this.config = config;
+        }
+
+        @Override
+        public void add(Dog dog) {
+            columns.add(dog);
+        }
+
+        @Override
+        public void add(Dog dog, int birthDay) {
+            columns.add(dog, birthDay);
+        }
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        @Override
+        public DogRegistry<DogBreed> build() {
+            return map(columns.build());
+        }
+
+        @Override
+        public DogRegistry<DogBreed> build(WeightAggregates aggregates) {
+            return map(columns.build(aggregates));
+        }
+
+        /**
+         * @throws UncheckedIOException in case the temporary snapshot file can not be written or mapped
+         */
+        private DogRegistry<DogBreed> map(ColumnarDogRegistry registry) {
+            try {
+                Path file = Files.createTempFile("dogs", ".snapshot");
+                try {
+                    DogSnapshotWriter.write(registry, file);
+                    try (DogSnapshotReader reader = DogSnapshotReader.open(file.toFile())) {
+                        return new MappedDogRegistry(reader, config);
+                    }
+                } finally {
+                    deleteMapped(file);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (JAXBException e) {
+                throw new UncheckedIOException(new IOException(e.getMessage(), e));
+            }
+        }
+
+        /**
+         * Deletes a mapped file. Some systems do not allow it until the mapping is released, in which case
+         * the file is deleted when the JVM exits.
+         */
+        private static void deleteMapped(Path file) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+}
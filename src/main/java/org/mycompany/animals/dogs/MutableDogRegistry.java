@@ -0,0 +1,49 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+
+/**
+ * Public interface extending {@link DogRegistry} with the methods required for registering, updating and
+ * deregistering dogs once the registry has been loaded.
+ * Dogs are identified by their name for these operations. Dogs must not be modified once registered,
+ * {@link #update(Dog)} must be used instead.
+ * @param <T> Enum type to implement depending of the breed type
+ */
+public interface MutableDogRegistry<T extends Enum<T>> extends DogRegistry<T> {
+
+    /**
+     * Registers a new dog.
+     * @param dog {@link Dog} to register, with a name not registered yet
+     * @throws IllegalArgumentException if the dog has no name or breed, its name is already registered or its
+     * date of birth can not be parsed
+     */
+    void register(Dog dog);
+
+    /**
+     * Replaces the dog registered with the same name as the dog passed as argument.
+     * @param dog {@link Dog} with the new values of the dog
+     * @return true if the dog was registered and has been updated, false otherwise
+     * @throws IllegalArgumentException if the dog has no name or breed or its date of birth can not be parsed
+     */
+    boolean update(Dog dog);
+
+    /**
+     * Deregisters the dog with the name passed as argument.
+     * @param name Name of the dog to deregister
+     * @return true if the dog was registered and has been deregistered, false otherwise
+     */
+    boolean deregister(String name);
+
+    /**
+     * Applies a whole change set at once: dogs removed are deregistered first, then dogs modified are updated and
+     * finally dogs added are registered. Queries see either none or all of the changes.
+     * Dogs modified or removed which are not registered are skipped, as done by {@link #update(Dog)} and
+     * {@link #deregister(String)}.
+     * @param changes {@link DogChanges} to apply
+     * @return Number of changes applied, leaving out the ones skipped
+     * @throws IllegalArgumentException if any dog added or modified has no name or breed or its date of birth can
+     * not be parsed, a dog added is already registered or a dog is modified twice, in which case no change is
+     * applied
+     */
+    int apply(DogChanges changes);
+}
@@ -0,0 +1,414 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.xml.sax.SAXException;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reader of dogs XML files using several threads. Files are read concurrently, and large files are split at dog
+ * element boundaries into chunks read concurrently too. Every chunk is read with {@link StaxDogReader} as a small
+ * document of its own, and the dates of birth are parsed by the same thread.
+ * <p>Dogs are added to the registry in the order of the files and of the chunks within every file, so the registry
+ * built is the same whatever the number of threads. Errors are reported for the first file and chunk in that order
+ * too.</p>
+ * <p>Files are split looking for {@code <dog} start tags in the raw bytes, so only encodings compatible with ASCII
+ * are split, such as UTF-8 or ISO-8859-1. Files in any other encoding or without any dog element are read whole.
+ * The raw bytes are not parsed, so a file may be split at a {@code <dog} text inside a comment or a CDATA section,
+ * leaving chunks that are not well-formed. Files with any chunk failing to be read are read again whole by the
+ * calling thread, so the chunks of a file are only added to the registry once all of them have been read.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class ParallelDogReader {
+
+    /**
+     * Minimum size of a chunk. Files smaller than twice this size are not split.
+     */
+    static final int MIN_CHUNK_BYTES = 1 << 20;
+
+    /**
+     * Maximum size of a chunk, so that chunks can always be mapped into memory.
+     */
+    private static final int MAX_CHUNK_BYTES = 1 << 28;
+
+    /**
+     * Number of chunks per thread large files are split into, so threads finishing early can take other chunks.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Size of the blocks read while looking for the boundaries of the chunks.
+     */
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Length of the longest prolog looked at for the encoding of a file.
+     */
+    private static final int PROLOG_BYTES = 4096;
+
+    private static final byte[] DOG_START_TAG = ("<" + StaxDogReader.DOG_ELEMENT).getBytes(StandardCharsets.US_ASCII);
+
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+
+    private final DateTimeFormatter dateFormat;
+    private final int threads;
+    private final Schema schema;
+
+    private ParallelDogReader(DogRegistryConfig config) throws JAXBException {
+        this.dateFormat = config.getDateFormat();
+        this.threads = Math.max(1, config.getLoadThreads());
+        this.schema = config.isSchemaValidation() ? DogsUnmarshallerPool.schema() : null;
+    }
+
+    /**
+     * Reads the dogs of several files into a registry builder.
+     * @param files XML files to read the dogs from, in the order their dogs are added
+     * @param config {@link DogRegistryConfig} with the number of threads, the date format and whether files are
+     * validated
+     * @param builder {@link DogRegistryBuilder} receiving every dog
+     * @return Number of chunks the files were split into
+     * @throws JAXBException in case any file can not be read or it is not a valid dogs XML file
+     */
+    static int read(List<File> files, DogRegistryConfig config, DogRegistryBuilder builder) throws JAXBException {
+        return new ParallelDogReader(config).read(files, builder);
+    }
+
+    private int read(List<File> files, DogRegistryBuilder builder) throws JAXBException {
+        List<Callable<Chunk>> tasks = new ArrayList<>();
+        int[] firstTasks = new int[files.size() + 1];
+        for (int i = 0; i < files.size(); i++) {
+            firstTasks[i] = tasks.size();
+            split(files.get(i), tasks);
+        }
+        firstTasks[files.size()] = tasks.size();
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, tasks.size()));
+        try {
+            List<Future<Chunk>> futures = new ArrayList<>(tasks.size());
+            for (Callable<Chunk> task : tasks) {
+                futures.add(pool.submit(task));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                for (Chunk chunk : chunks(files.get(i), futures.subList(firstTasks[i], firstTasks[i + 1]))) {
+                    for (int j = 0; j < chunk.dogs.size(); j++) {
+                        builder.add(chunk.dogs.get(j), chunk.birthDays[j]);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return tasks.size();
+    }
+
+    /**
+     * Waits for the chunks of a file to be read, reading the file again whole if it was split and any chunk failed.
+     * @param file XML file the chunks belong to
+     * @param futures Chunks of the file, set to null as they are taken
+     * @return Chunks with the dogs of the file, in order
+     * @throws JAXBException the exception the file failed with, as thrown by the other load modes
+     */
+    private List<Chunk> chunks(File file, List<Future<Chunk>> futures) throws JAXBException {
+        List<Chunk> chunks = new ArrayList<>(futures.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                chunks.add(get(futures.get(i)));
+                futures.set(i, null);
+            }
+            return chunks;
+        } catch (JAXBException e) {
+            if (futures.size() == 1 || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            for (Future<Chunk> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+            return Collections.singletonList(readFile(file));
+        }
+    }
+
+    /**
+     * Waits for a chunk to be read.
+     * @throws JAXBException the exception the chunk failed with, as thrown by the other load modes
+     */
+    private static Chunk get(Future<Chunk> future) throws JAXBException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JAXBException("Interrupted while loading dogs", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JAXBException) {
+                throw (JAXBException) cause;
+            }
+            if (cause instanceof DateTimeException) {
+                throw new UnmarshalException(cause.getMessage(), cause);
+            }
+            throw new UnmarshalException("Unable to load dogs: " + cause, cause);
+        }
+    }
+
+    /**
+     * Adds the tasks reading a file, splitting it in chunks if it is large enough.
+     * @param file XML file to read
+     * @param tasks List the tasks are added to
+     * @throws JAXBException in case the file can not be read
+     */
+    private void split(File file, List<Callable<Chunk>> tasks) throws JAXBException {
+        long length = file.length();
+        long chunkBytes = Math.min(MAX_CHUNK_BYTES,
+                Math.max(MIN_CHUNK_BYTES, length / ((long) threads * CHUNKS_PER_THREAD)));
+        if (length < 2 * chunkBytes) {
+            tasks.add(() -> readFile(file));
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long firstDog = find(channel, 0, length);
+            String encoding = firstDog < 0 ? null : splittableEncoding(channel, firstDog);
+            long end = firstDog < 0 ? -1 : rootEndTag(channel, length);
+            if (encoding == null || end <= firstDog) {
+                tasks.add(() -> readFile(file));
+                return;
+            }
+            long start = firstDog;
+            while (start < end) {
+                long next = start + chunkBytes < end ? find(channel, start + chunkBytes, end) : end;
+                if (next < 0) {
+                    next = end;
+                }
+                long chunkStart = start;
+                long chunkEnd = next;
+                tasks.add(() -> readChunk(file, chunkStart, chunkEnd, encoding));
+                start = next;
+            }
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to read file " + file, e);
+        }
+    }
+
+    private Chunk readFile(File file) throws JAXBException {
+        if (schema != null) {
+            try {
+                schema.newValidator().validate(new StreamSource(file));
+            } catch (SAXException | IOException e) {
+                throw new UnmarshalException("File " + file + " is not valid: " + e.getMessage(), e);
+            }
+        }
+        Chunk chunk = new Chunk();
+        StaxDogReader.read(file, chunk::add);
+        return chunk;
+    }
+
+    private Chunk readChunk(File file, long start, long end, String encoding) throws JAXBException {
+        String systemId = file.getPath() + " (bytes " + start + " to " + end + ")";
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to read file " + file, e);
+        }
+        if (schema != null) {
+            try {
+                schema.newValidator().validate(new StreamSource(document(bytes.duplicate(), encoding), systemId));
+            } catch (SAXException | IOException e) {
+                throw new UnmarshalException("File " + systemId + " is not valid: " + e.getMessage(), e);
+            }
+        }
+        Chunk chunk = new Chunk();
+        StaxDogReader.read(document(bytes, encoding), systemId, chunk::add);
+        return chunk;
+    }
+
+    /**
+     * Wraps a chunk of dog elements into a document of its own.
+     * @param bytes {@link ByteBuffer} with the chunk
+     * @param encoding Encoding of the file the chunk belongs to
+     * @return {@link InputStream} with the document
+     */
+    private static InputStream document(ByteBuffer bytes, String encoding) {
+        byte[] prolog = ("<?xml version=\"1.0\" encoding=\"" + encoding + "\"?><dogs>")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] epilog = "</dogs>".getBytes(StandardCharsets.US_ASCII);
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(prolog), new ByteBufferInputStream(bytes), new ByteArrayInputStream(epilog))));
+    }
+
+    /**
+     * Looks for the next dog start tag.
+     * @param channel {@link FileChannel} of the file
+     * @param from Position the search starts at
+     * @param to Position the search ends at
+     * @return Position of the next dog start tag or -1 if there is none
+     * @throws IOException in case the file can not be read
+     */
+    private static long find(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return -1;
+            }
+            byte[] block = buffer.array();
+            // a tag is only matched if its delimiter has been read too, so the last bytes are read again
+            int last = read - DOG_START_TAG.length - 1;
+            for (int i = 0; i <= last; i++) {
+                if (isDogStartTag(block, i, read)) {
+                    return position + i;
+                }
+            }
+            if (position + read >= to) {
+                return -1;
+            }
+            position += Math.max(1, last + 1);
+        }
+        return -1;
+    }
+
+    private static boolean isDogStartTag(byte[] block, int offset, int length) {
+        for (int i = 0; i < DOG_START_TAG.length; i++) {
+            if (block[offset + i] != DOG_START_TAG[i]) {
+                return false;
+            }
+        }
+        int next = offset + DOG_START_TAG.length;
+        if (next == length) {
+            return false;
+        }
+        byte delimiter = block[next];
+        return delimiter == ' ' || delimiter == '\t' || delimiter == '\n' || delimiter == '\r'
+                || delimiter == '>' || delimiter == '/';
+    }
+
+    /**
+     * @param channel {@link FileChannel} of the file
+     * @param length Length of the file
+     * @return Position of the end tag of the root element or -1 if there is none
+     * @throws IOException in case the file can not be read
+     */
+    private static long rootEndTag(FileChannel channel, long length) throws IOException {
+        int tail = (int) Math.min(length, SCAN_BUFFER_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(tail);
+        channel.read(buffer, length - tail);
+        byte[] block = buffer.array();
+        for (int i = buffer.position() - 2; i >= 0; i--) {
+            if (block[i] == '<' && block[i + 1] == '/') {
+                return length - tail + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Works out the encoding of a file out of its prolog.
+     * @param channel {@link FileChannel} of the file
+     * @param prologLength Length of the prolog, before the first dog element
+     * @return Encoding of the file or null if it is not compatible with ASCII, so it can not be split
+     * @throws IOException in case the file can not be read
+     */
+    private static String splittableEncoding(FileChannel channel, long prologLength) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(prologLength, PROLOG_BYTES));
+        channel.read(buffer, 0);
+        byte[] prolog = Arrays.copyOf(buffer.array(), buffer.position());
+        if (prolog.length >= 2 && ((prolog[0] == (byte) 0xFE && prolog[1] == (byte) 0xFF)
+                || (prolog[0] == (byte) 0xFF && prolog[1] == (byte) 0xFE))) {
+            return null;
+        }
+        Matcher matcher = ENCODING.matcher(new String(prolog, StandardCharsets.ISO_8859_1));
+        String encoding = matcher.find() ? matcher.group(1) : StandardCharsets.UTF_8.name();
+        try {
+            String markup = "<dog name=\"'\"/></dogs>";
+            byte[] encoded = markup.getBytes(Charset.forName(encoding));
+            return Arrays.equals(encoded, markup.getBytes(StandardCharsets.US_ASCII)) ? encoding : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Dogs read from a chunk, with their dates of birth already parsed.
+     */
+    private final class Chunk {
+
+        private final List<Dog> dogs = new ArrayList<>();
+        private int[] birthDays = new int[16];
+
+        /**
+         * @throws DateTimeException if the date of birth of the dog can not be parsed
+         */
+        private void add(Dog dog) {
+            int birthDay = DogRegistryImpl.birthDay(dog, dateFormat);
+            if (dogs.size() == birthDays.length) {
+                birthDays = Arrays.copyOf(birthDays, birthDays.length + (birthDays.length >> 1));
+            }
+            birthDays[dogs.size()] = birthDay;
+            dogs.add(dog);
+        }
+    }
+
+    /**
+     * {@link InputStream} over the remaining bytes of a {@link ByteBuffer}.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
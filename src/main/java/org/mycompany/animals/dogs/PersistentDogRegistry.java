@@ -0,0 +1,587 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.FsyncPolicy;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the interface {@link MutableDogRegistry} whose changes survive restarts. Dogs are held in memory
+ * as in {@link DogRegistryImpl}. Every change is validated and applied to a new snapshot first, then appended to a
+ * log in a directory, copied as the registry keeps it, and committed to it before the write returns, as configured
+ * by {@link DogRegistryConfig#getFsyncPolicy()}. Changes are published in memory as soon as they are appended,
+ * without waiting for the log to be committed, so concurrent writers are
+ * committed to the log in groups and share the cost of forcing it to disk. Queries may then see a change shortly
+ * before it is durable.
+ * <p>Checkpoints write the whole registry to a binary snapshot and start a new log, so the log never grows without
+ * bounds. They are taken every {@link DogRegistryConfig#getCheckpointIntervalMillis()}, whenever the log grows over
+ * {@link DogRegistryConfig#getCheckpointLogBytes()} and on demand through {@link #checkpoint()}, without blocking
+ * queries or writers for longer than it takes to switch to the new log.</p>
+ * <p>The directory holds files named {@code dogs-N.snapshot} and {@code dogs-N.wal}, where the log N holds the changes
+ * made after the snapshot N was taken. Opening the directory loads the last snapshot and replays the logs after it.
+ * A record half written by a crash at the end of the last log is discarded. A new directory holding dogs XML files
+ * is loaded out of them, which are written to {@code dogs-0.snapshot} before any log is started, so logs always have a
+ * snapshot to be replayed on. Only one registry may have a directory open at once.</p>
+ * <p>If the log can not be written, the registry goes back to the last change committed, leaving out the ones
+ * queries may have seen meanwhile, and stops accepting changes, since they could not be recovered. The writes whose
+ * changes are left out throw {@link UncheckedIOException}. Opening the directory again brings back the changes
+ * committed until then.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class PersistentDogRegistry implements MutableDogRegistry<DogBreed>, Closeable {
+
+    /**
+     * Log instance used for logging purposes.
+     */
+    private static final Logger log = LoggerFactory.getLogger(PersistentDogRegistry.class);
+
+    /**
+     * Names of the snapshot and log files, with their generation.
+     */
+    private static final Pattern FILE_NAME = Pattern.compile("dogs-(\\d+)\\.(snapshot|wal)");
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String LOCK_FILE = "dogs.lock";
+
+    private final Path directory;
+    private final DogRegistryConfig config;
+    private final DogRegistryImpl registry;
+    private final DogWriteAheadLog writeAheadLog;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Lock serializing the writers, so changes are logged in the same order they are applied.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Lock serializing the checkpoints.
+     */
+    private final Object checkpointLock = new Object();
+
+    /**
+     * Generation of the current log, guarded by the write lock.
+     */
+    private long generation;
+
+    /**
+     * Content of the registry before every record appended and not known to be committed yet, to go back to if the
+     * log can not be written.
+     */
+    private final ConcurrentSkipListMap<Long, Object> uncommitted = new ConcurrentSkipListMap<>();
+
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    private PersistentDogRegistry(Path directory, DogRegistryConfig config, DogRegistryImpl registry,
+                                  DogWriteAheadLog writeAheadLog, long generation, FileChannel lockChannel,
+                                  FileLock lock) {
+        this.directory = directory;
+        this.config = config;
+        this.registry = registry;
+        this.writeAheadLog = writeAheadLog;
+        this.generation = generation;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dogs-checkpoint-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (config.getFsyncPolicy() == FsyncPolicy.INTERVAL) {
+            long interval = config.getFsyncIntervalMillis();
+            scheduler.scheduleWithFixedDelay(this::syncQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        long checkpointInterval = config.getCheckpointIntervalMillis();
+        if (checkpointInterval > 0) {
+            scheduler.scheduleWithFixedDelay(this::checkpointQuietly, checkpointInterval, checkpointInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param directory Directory to check
+     * @return true if the directory holds the snapshots or logs of a persistent registry
+     */
+    static boolean isPersistent(File directory) {
+        File[] files = directory.listFiles(file -> FILE_NAME.matcher(file.getName()).matches());
+        return files != null && files.length > 0;
+    }
+
+    /**
+     * Opens the persistent registry of a directory, recovering the changes written before it was last closed.
+     * @param config {@link DogRegistryConfig} of the registry
+     * @param directory Directory of the registry, created if it does not exist
+     * @return {@link PersistentDogRegistry} open, to be closed once it is no longer needed
+     * @throws JAXBException in case the directory can not be read, its files are corrupted or it is already open
+     */
+    static PersistentDogRegistry open(DogRegistryConfig config, File directory) throws JAXBException {
+        Path path = directory.toPath();
+        FileChannel lockChannel = null;
+        try {
+            Files.createDirectories(path);
+            lockChannel = FileChannel.open(path.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock lock = tryLock(lockChannel);
+            if (lock == null) {
+                throw new JAXBException("Persistent registry " + directory + " is already open");
+            }
+            PersistentDogRegistry persistent = recover(config, path, lockChannel, lock);
+            lockChannel = null;
+            return persistent;
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to open persistent registry " + directory, e);
+        } finally {
+            if (lockChannel != null) {
+                try {
+                    lockChannel.close();
+                } catch (IOException e) {
+                    log.warn("Unable to release the lock of {}", directory, e);
+                }
+            }
+        }
+    }
+
+    private static FileLock tryLock(FileChannel lockChannel) throws IOException {
+        try {
+            return lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads the last snapshot of a directory, or its XML files if there are neither snapshots nor logs, and replays
+     * the logs after it. XML files are written to the first snapshot before the first log is opened.
+     * @throws UnmarshalException if the directory holds logs but no snapshot to replay them on
+     */
+    private static PersistentDogRegistry recover(DogRegistryConfig config, Path directory, FileChannel lockChannel,
+                                                 FileLock lock) throws JAXBException, IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        File[] files = directory.toFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            Matcher matcher = FILE_NAME.matcher(file.getName());
+            if (matcher.matches()) {
+                TreeMap<Long, Path> generations = matcher.group(2).equals("wal") ? logs : snapshots;
+                generations.put(Long.parseLong(matcher.group(1)), file.toPath());
+            }
+        }
+
+        if (snapshots.isEmpty() && !logs.isEmpty()) {
+            throw new UnmarshalException("Persistent registry " + directory + " holds the logs " + logs.values()
+                    + " but no snapshot to replay them on");
+        }
+        long start = System.nanoTime();
+        long base = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        DogRegistryImpl registry;
+        if (snapshots.isEmpty()) {
+            registry = importXml(config, directory);
+            DogSnapshotWriter.write(registry.toColumnar(), file(directory, base, SNAPSHOT_SUFFIX));
+            syncDirectory(directory);
+        } else {
+            registry = readSnapshot(config, snapshots.get(base));
+        }
+
+        long generation = base;
+        long validLength = 0;
+        List<Map.Entry<Long, Path>> replayed = new ArrayList<>(logs.tailMap(base, true).entrySet());
+        for (int i = 0; i < replayed.size(); i++) {
+            Path file = replayed.get(i).getValue();
+            try {
+                validLength = DogWriteAheadLog.read(file, registry::apply);
+            } catch (IllegalArgumentException e) {
+                throw new UnmarshalException("Write-ahead log " + file + " can not be replayed: " + e.getMessage(), e);
+            }
+            if (i < replayed.size() - 1 && validLength < Files.size(file)) {
+                throw new UnmarshalException("Write-ahead log " + file + " is corrupted at byte " + validLength);
+            }
+            generation = replayed.get(i).getKey();
+        }
+        if (replayed.isEmpty()) {
+            validLength = 0;
+        }
+        DogWriteAheadLog writeAheadLog = new DogWriteAheadLog(file(directory, generation, LOG_SUFFIX), validLength,
+                config.getFsyncPolicy());
+        PersistentDogRegistry persistent = new PersistentDogRegistry(directory, config, registry, writeAheadLog,
+                generation, lockChannel, lock);
+        log.debug("Persistent registry {} recovered with {} dogs from snapshot {} and {} logs in {}ms", directory,
+                registry.size(), base, replayed.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        persistent.deleteBefore(base);
+        return persistent;
+    }
+
+    /**
+     * @return Registry with the dogs of the XML files of a directory, empty if there are none
+     */
+    private static DogRegistryImpl importXml(DogRegistryConfig config, Path directory) throws JAXBException {
+        DogRegistryImpl.Builder builder = new DogRegistryImpl.Builder(config);
+        File[] xmlFiles = directory.toFile().listFiles(file -> file.isFile() && file.getName().endsWith(".xml"));
+        if (xmlFiles != null && xmlFiles.length > 0) {
+            List<File> shards = new ArrayList<>();
+            Collections.addAll(shards, xmlFiles);
+            shards.sort(null);
+            ParallelDogReader.read(shards, config, builder);
+        }
+        return (DogRegistryImpl) builder.build();
+    }
+
+    /**
+     * @return Registry with the dogs of a snapshot file, in the same order
+     */
+    private static DogRegistryImpl readSnapshot(DogRegistryConfig config, Path file) throws JAXBException {
+        try (DogSnapshotReader reader = DogSnapshotReader.open(file.toFile())) {
+            ColumnarDogRegistry columnar = reader.readColumnar(config);
+            DogRegistryImpl.Builder builder = new DogRegistryImpl.Builder(config);
+            for (int row = 0; row < columnar.size; row++) {
+                builder.add(columnar.dog(row), columnar.birthDay(row));
+            }
+            return builder.build(columnar.aggregates);
+        }
+    }
+
+    @Override
+    public void register(Dog dog) {
+        write(new DogChanges(Collections.singletonList(dog), Collections.emptyList(), Collections.emptyList()));
+    }
+
+    @Override
+    public boolean update(Dog dog) {
+        return write(new DogChanges(Collections.emptyList(), Collections.singletonList(dog),
+                Collections.emptyList())) > 0;
+    }
+
+    @Override
+    public boolean deregister(String name) {
+        return name != null && write(new DogChanges(Collections.emptyList(), Collections.emptyList(),
+                Collections.singletonList(name))) > 0;
+    }
+
+    @Override
+    public int apply(DogChanges changes) {
+        return write(changes);
+    }
+
+    /**
+     * Validates a change set and builds the snapshot with it, then appends it to the log and publishes it in memory,
+     * returning once the log has been committed as configured by {@link DogRegistryConfig#getFsyncPolicy()}. Change
+     * sets changing nothing or which can not be applied are not logged, and change sets which can not be logged are
+     * not published.
+     * @throws IllegalArgumentException if the changes can not be applied or logged, in which case none is
+     * @throws UncheckedIOException in case the log can not be written, in which case the registry goes back to the
+     * last change committed
+     * @throws IllegalStateException if the registry is closed or a previous write failed
+     */
+    private int write(DogChanges changes) {
+        long[] record = new long[1];
+        int applied;
+        synchronized (writeLock) {
+            checkWritable();
+            applied = registry.apply(changes, copies -> {
+                record[0] = writeAheadLog.append(copies);
+                uncommitted.put(record[0], registry.version());
+            });
+            if (applied == 0) {
+                return 0;
+            }
+        }
+        try {
+            writeAheadLog.commit(record[0]);
+        } catch (IOException e) {
+            fail(e);
+            throw new UncheckedIOException("Unable to write the log of " + directory, e);
+        }
+        uncommitted.headMap(record[0], true).clear();
+        if (writeAheadLog.length() >= config.getCheckpointLogBytes()
+                && checkpointScheduled.compareAndSet(false, true)) {
+            scheduler.execute(this::checkpointQuietly);
+        }
+        return applied;
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException("Persistent registry " + directory + " is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Persistent registry " + directory + " no longer accepts changes as its "
+                    + "log could not be written", failure);
+        }
+    }
+
+    /**
+     * Stops accepting changes after the log could not be written, and goes back to the content of the registry
+     * before the first record not committed, since none of the records after it will ever be.
+     * @param e {@link IOException} thrown by the log
+     */
+    private void fail(IOException e) {
+        synchronized (writeLock) {
+            if (failure == null) {
+                failure = e;
+            }
+            Map.Entry<Long, Object> first = uncommitted.ceilingEntry(writeAheadLog.committed() + 1);
+            if (first != null) {
+                registry.restore(first.getValue());
+                log.error("Log of {} could not be written, {} changes after record {} left out", directory,
+                        uncommitted.tailMap(first.getKey()).size(), first.getKey() - 1, e);
+            }
+            uncommitted.clear();
+        }
+    }
+
+    /**
+     * Writes the whole registry to a new snapshot and deletes the logs and snapshots before it. Writers are only
+     * blocked while switching to a new log, the snapshot is written while they go on.
+     * @throws IOException in case the snapshot can not be written, in which case the logs are kept
+     * @throws IllegalStateException if the registry is closed or a previous write failed
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long start = System.nanoTime();
+            DogRegistryImpl frozen;
+            long newGeneration;
+            synchronized (writeLock) {
+                checkWritable();
+                newGeneration = generation + 1;
+                try {
+                    writeAheadLog.rotate(file(directory, newGeneration, LOG_SUFFIX));
+                } catch (IOException e) {
+                    fail(e);
+                    throw e;
+                }
+                frozen = registry.copy();
+                generation = newGeneration;
+            }
+            DogSnapshotWriter.write(frozen.toColumnar(), file(directory, newGeneration, SNAPSHOT_SUFFIX));
+            syncDirectory(directory);
+            deleteBefore(newGeneration);
+            checkpoints.incrementAndGet();
+            log.debug("Checkpoint {} of {} taken with {} dogs in {}ms", newGeneration, directory, frozen.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * @return Number of checkpoints taken since the registry was opened
+     */
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    /**
+     * @return Length of the current log, which is replayed when the registry is opened
+     */
+    public long getLogBytes() {
+        return writeAheadLog.length();
+    }
+
+    /**
+     * @return Object standing for the current content of the registry, replaced by every write
+     */
+    Object version() {
+        return registry.version();
+    }
+
+    /**
+     * @return Copy of the current content of the registry in a {@link ColumnarDogRegistry}
+     */
+    ColumnarDogRegistry toColumnar() {
+        return registry.toColumnar();
+    }
+
+    @Override
+    public double averageWeight(DogBreed breed) {
+        return registry.averageWeight(breed);
+    }
+
+    @Override
+    public EnumMap<DogBreed, Double> averageWeightPerBreed() {
+        return registry.averageWeightPerBreed();
+    }
+
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate) {
+        return registry.dogsByCondition(predicate);
+    }
+
+    @Override
+    public Dog oldestDogAfterDate(LocalDate date) {
+        return registry.oldestDogAfterDate(date);
+    }
+
+    @Override
+    public List<Dog> dogsBornBetween(LocalDate from, LocalDate to) {
+        return registry.dogsBornBetween(from, to);
+    }
+
+    @Override
+    public Stream<Dog> streamByCondition(Predicate<Dog> predicate) {
+        return registry.streamByCondition(predicate);
+    }
+
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate, int offset, int limit) {
+        return registry.dogsByCondition(predicate, offset, limit);
+    }
+
+    @Override
+    public long countByCondition(Predicate<Dog> predicate) {
+        return registry.countByCondition(predicate);
+    }
+
+    @Override
+    public long visitByCondition(Predicate<Dog> predicate, DogVisitor visitor) {
+        return registry.visitByCondition(predicate, visitor);
+    }
+
+    @Override
+    public List<Dog> dogsByName(String name) {
+        return registry.dogsByName(name);
+    }
+
+    @Override
+    public List<Dog> dogsByNamePrefix(String prefix, int limit) {
+        return registry.dogsByNamePrefix(prefix, limit);
+    }
+
+    @Override
+    public DogBatchResult query(DogBatch batch) {
+        return registry.query(batch);
+    }
+
+    @Override
+    public EnumMap<DogBreed, WeightStatistics> weightStatisticsPerBreed() {
+        return registry.weightStatisticsPerBreed();
+    }
+
+    @Override
+    public List<Dog> topDogs(Predicate<Dog> predicate, DogOrder order, int limit) {
+        return registry.topDogs(predicate, order, limit);
+    }
+
+    @Override
+    public EnumMap<DogBreed, List<Dog>> topDogsPerBreed(Predicate<Dog> predicate, DogOrder order, int limit) {
+        return registry.topDogsPerBreed(predicate, order, limit);
+    }
+
+    /**
+     * Waits for a running checkpoint, forces the log to disk and releases the directory. The registry keeps
+     * answering queries, but it no longer accepts changes.
+     * @throws IOException in case the log can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writeAheadLog.close();
+        } finally {
+            try {
+                lock.release();
+            } finally {
+                lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * @return Snapshot or log file of a generation
+     */
+    private static Path file(Path directory, long generation, String suffix) {
+        return directory.resolve("dogs-" + generation + suffix);
+    }
+
+    /**
+     * Deletes the snapshots and logs older than a generation, no longer needed once its snapshot is written.
+     */
+    private void deleteBefore(long oldestKept) throws IOException {
+        File[] files = directory.toFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            Matcher matcher = FILE_NAME.matcher(file.getName());
+            if (matcher.matches() && Long.parseLong(matcher.group(1)) < oldestKept) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * Forces the directory entries to disk, so the snapshot just renamed survives a crash. Not every system allows
+     * it, in which case it is left to the operating system.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.trace("Directory {} can not be forced to disk: {}", directory, e.getMessage());
+        }
+    }
+
+    private void syncQuietly() {
+        if (failure != null) {
+            return;
+        }
+        try {
+            writeAheadLog.sync();
+        } catch (IOException e) {
+            fail(e);
+            log.warn("Unable to force the log of {} to disk", directory, e);
+        }
+    }
+
+    private void checkpointQuietly() {
+        checkpointScheduled.set(false);
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to take a checkpoint of {}: {}", directory, e.getMessage());
+        }
+    }
+}
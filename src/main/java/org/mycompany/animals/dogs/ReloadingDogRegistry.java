@@ -0,0 +1,291 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXBException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the interface {@link DogRegistry} over a file which is watched for changes and reloaded in the
+ * background, so callers keep a single reference while the file is updated.
+ * <p>Every reload builds a whole new registry, which is then published with a single volatile write. Queries never
+ * block: those already running finish on the registry they started with and the following ones use the new one.
+ * Several queries needing the same registry can run against {@link #current()}. A file which can not be loaded,
+ * such as one being written, leaves the registry loaded before in place until the next change.</p>
+ * <p>The file may be anything {@link DogRegistryFactory#load(String)} accepts. Directories are reloaded when any of
+ * their XML files changes and globs when any file matching them does. Changes are only picked up after the files
+ * have been left alone for {@link DogRegistryConfig#getReloadQuietMillis()}. The watcher thread is stopped by
+ * {@link #close()}.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class ReloadingDogRegistry implements DogRegistry<DogBreed>, Closeable {
+
+    /**
+     * Log instance used for logging purposes.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ReloadingDogRegistry.class);
+
+    private final DogRegistryFactory factory;
+    private final String fileName;
+    private final long quietMillis;
+    private final WatchService watchService;
+
+    /**
+     * Registry loaded out of the last version of the file which could be loaded.
+     */
+    private volatile DogRegistry<DogBreed> registry;
+
+    /**
+     * Timings of the last successful load.
+     */
+    private volatile LoadStatistics lastLoadStatistics;
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+
+    /**
+     * Lock serializing the reloads.
+     */
+    private final Object reloadLock = new Object();
+
+    /**
+     * Loads the file and starts watching it.
+     * @param config {@link DogRegistryConfig} used to load the file
+     * @param fileName Name of the file to load and watch
+     * @throws JAXBException in case the file can not be loaded
+     * @throws IOException in case the file can not be watched
+     */
+    ReloadingDogRegistry(DogRegistryConfig config, String fileName) throws JAXBException, IOException {
+        this.factory = new DogRegistryFactory(config);
+        this.fileName = fileName;
+        this.quietMillis = config.getReloadQuietMillis();
+        reload();
+
+        File file = new File(fileName);
+        Path directory;
+        Predicate<Path> watched;
+        if (file.isDirectory()) {
+            directory = file.toPath();
+            watched = changed -> changed.toString().endsWith(".xml");
+        } else {
+            directory = file.getAbsoluteFile().getParentFile().toPath();
+            Path name = file.toPath().getFileName();
+            PathMatcher glob = file.exists() ? null : FileSystems.getDefault().getPathMatcher("glob:" + name);
+            watched = changed -> changed.equals(name) || glob != null && glob.matches(changed);
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        Thread watcher = new Thread(() -> watch(watched), "dogs-reloader-" + file.getName());
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Loads the file again and publishes the new registry. Called by the watcher thread whenever the file changes,
+     * it can also be called to reload it at once.
+     * @throws JAXBException in case the file can not be loaded, in which case the registry is not replaced
+     */
+    @SuppressWarnings("unchecked")
+    public void reload() throws JAXBException {
+        synchronized (reloadLock) {
+            DogRegistry<DogBreed> loaded;
+            try {
+                loaded = factory.load(fileName);
+            } catch (JAXBException | RuntimeException e) {
+                failedReloads.incrementAndGet();
+                throw e;
+            }
+            lastLoadStatistics = factory.getLastLoadStatistics();
+            registry = loaded;
+            reloads.incrementAndGet();
+            log.debug("Registry reloaded from {}: {}", fileName, lastLoadStatistics);
+        }
+    }
+
+    /**
+     * @return Registry currently published, which is never modified by later reloads
+     */
+    public DogRegistry<DogBreed> current() {
+        return registry;
+    }
+
+    /**
+     * @return Name of the file watched
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return Number of successful loads of the file, including the first one
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * @return Number of loads of the file which failed and left the registry unchanged
+     */
+    public long getFailedReloads() {
+        return failedReloads.get();
+    }
+
+    /**
+     * @return Duration and number of dogs of the last successful load of the file
+     */
+    public LoadStatistics getLastLoadStatistics() {
+        return lastLoadStatistics;
+    }
+
+    @Override
+    public double averageWeight(DogBreed breed) {
+        return registry.averageWeight(breed);
+    }
+
+    @Override
+    public EnumMap<DogBreed, Double> averageWeightPerBreed() {
+        return registry.averageWeightPerBreed();
+    }
+
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate) {
+        return registry.dogsByCondition(predicate);
+    }
+
+    @Override
+    public Dog oldestDogAfterDate(LocalDate date) {
+        return registry.oldestDogAfterDate(date);
+    }
+
+    @Override
+    public List<Dog> dogsBornBetween(LocalDate from, LocalDate to) {
+        return registry.dogsBornBetween(from, to);
+    }
+
+    @Override
+    public Stream<Dog> streamByCondition(Predicate<Dog> predicate) {
+        return registry.streamByCondition(predicate);
+    }
+
+    @Override
+    public List<Dog> dogsByCondition(Predicate<Dog> predicate, int offset, int limit) {
+        return registry.dogsByCondition(predicate, offset, limit);
+    }
+
+    @Override
+    public long countByCondition(Predicate<Dog> predicate) {
+        return registry.countByCondition(predicate);
+    }
+
+    @Override
+    public long visitByCondition(Predicate<Dog> predicate, DogVisitor visitor) {
+        return registry.visitByCondition(predicate, visitor);
+    }
+
+    @Override
+    public List<Dog> dogsByName(String name) {
+        return registry.dogsByName(name);
+    }
+
+    @Override
+    public List<Dog> dogsByNamePrefix(String prefix, int limit) {
+        return registry.dogsByNamePrefix(prefix, limit);
+    }
+
+    @Override
+    public DogBatchResult query(DogBatch batch) {
+        return registry.query(batch);
+    }
+
+    @Override
+    public EnumMap<DogBreed, WeightStatistics> weightStatisticsPerBreed() {
+        return registry.weightStatisticsPerBreed();
+    }
+
+    @Override
+    public List<Dog> topDogs(Predicate<Dog> predicate, DogOrder order, int limit) {
+        return registry.topDogs(predicate, order, limit);
+    }
+
+    @Override
+    public EnumMap<DogBreed, List<Dog>> topDogsPerBreed(Predicate<Dog> predicate, DogOrder order, int limit) {
+        return registry.topDogsPerBreed(predicate, order, limit);
+    }
+
+    /**
+     * Stops watching the file. The registry keeps answering queries with the last version loaded.
+     * @throws IOException in case the watch service can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Body of the watcher thread: waits for a change of the watched files, then for the quiet period to go by
+     * without further events, and reloads the file.
+     * @param watched {@link Predicate} telling whether a changed file of the directory is watched
+     */
+    private void watch(Predicate<Path> watched) {
+        try {
+            while (true) {
+                if (!changed(watchService.take(), watched)) {
+                    continue;
+                }
+                WatchKey key;
+                while ((key = watchService.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed(key, watched);
+                }
+                try {
+                    reload();
+                } catch (JAXBException | RuntimeException e) {
+                    log.warn("Unable to reload {}, keeping the registry loaded before: {}", fileName,
+                            e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", fileName);
+        }
+    }
+
+    /**
+     * Consumes the events of a key and resets it.
+     * @return true if any watched file changed or events were lost
+     */
+    private static boolean changed(WatchKey key, Predicate<Path> watched) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || watched.test((Path) event.context());
+        }
+        key.reset();
+        return changed;
+    }
+}
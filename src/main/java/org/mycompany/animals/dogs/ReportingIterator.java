@@ -0,0 +1,88 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator over the dogs of a lazy stream which reports the stream to a {@link DogRegistryListener} once, as soon
+ * as it is exhausted or closed, whichever comes first. Streams neither exhausted nor closed are never reported, as
+ * there is no point at which the registry can tell they are done with.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class ReportingIterator implements Iterator<Dog>, Runnable {
+
+    private final Iterator<Dog> dogs;
+    private final DogRegistryListener listener;
+    private final DogRegistryMethod method;
+    private final LongSupplier rowsScanned;
+    private final long start = System.nanoTime();
+    private long returned;
+    private boolean reported;
+
+    private ReportingIterator(Iterator<Dog> dogs, DogRegistryListener listener, DogRegistryMethod method,
+                              LongSupplier rowsScanned) {
+        this.dogs = dogs;
+        this.listener = listener;
+        this.method = method;
+        this.rowsScanned = rowsScanned;
+    }
+
+    /**
+     * Builds a lazy stream over the dogs of an iterator, reported to a listener once exhausted or closed. The time
+     * reported runs from the stream being built until then, so it includes the time taken by the caller to consume
+     * the dogs.
+     * @param dogs {@link Iterator} over the dogs of the stream
+     * @param listener {@link DogRegistryListener} to report the stream to, or null to report nothing
+     * @param method {@link DogRegistryMethod} reported
+     * @param rowsScanned Number of dogs the iterator has looked at so far
+     * @return {@link Stream} of the dogs of the iterator
+     */
+    static Stream<Dog> stream(Iterator<Dog> dogs, DogRegistryListener listener, DogRegistryMethod method,
+                              LongSupplier rowsScanned) {
+        if (listener == null) {
+            return stream(dogs);
+        }
+        ReportingIterator reporting = new ReportingIterator(dogs, listener, method, rowsScanned);
+        return stream(reporting).onClose(reporting);
+    }
+
+    private static Stream<Dog> stream(Iterator<Dog> dogs) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(dogs,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (dogs.hasNext()) {
+            return true;
+        }
+        run();
+        return false;
+    }
+
+    @Override
+    public Dog next() {
+        Dog dog = dogs.next();
+        returned++;
+        return dog;
+    }
+
+    /**
+     * Reports the stream to the listener, unless already reported.
+     */
+    @Override
+    public void run() {
+        if (!reported) {
+            reported = true;
+            listener.onQuery(method, System.nanoTime() - start, rowsScanned.getAsLong(),
+                    (int) Math.min(Integer.MAX_VALUE, returned));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Pull parser for dogs XML files based on StAX. Walks the document one dog element at a time and hands every
+ * {@link Dog} over to a consumer as soon as it has been read, so neither the JAXB object graph nor an intermediate
+ * list of dogs is ever built.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class StaxDogReader {
+
+    /**
+     * Name of the element holding a single dog.
+     */
+    static final String DOG_ELEMENT = "dog";
+
+    /**
+     * Names of the sections of a change file holding the dogs added, modified and removed.
+     */
+    static final String ADDED_ELEMENT = "added";
+    static final String MODIFIED_ELEMENT = "modified";
+    static final String REMOVED_ELEMENT = "removed";
+
+    /**
+     * Buffer size used when reading the file from disk.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Shared factory, configured once. External entities and DTDs are not supported for security reasons.
+     */
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private StaxDogReader() {
+    }
+
+    /**
+     * Reads all the dogs contained in the file passed as argument.
+     * @param file XML file to read the dogs from
+     * @param consumer {@link Consumer} receiving every dog in document order
+     * @throws JAXBException in case the file can not be read or it is not a valid dogs XML file
+     */
+    static void read(File file, Consumer<Dog> consumer) throws JAXBException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            read(in, file.getPath(), consumer);
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to read file " + file, e);
+        }
+    }
+
+    /**
+     * Reads all the dogs contained in the stream passed as argument. The stream is not closed.
+     * @param in {@link InputStream} with a dogs XML document
+     * @param systemId Identifier of the document used in error messages
+     * @param consumer {@link Consumer} receiving every dog in document order
+     * @throws JAXBException in case the stream is not a valid dogs XML document
+     */
+    static void read(InputStream in, String systemId, Consumer<Dog> consumer) throws JAXBException {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(systemId, in);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && DOG_ELEMENT.equals(reader.getLocalName())) {
+                    consumer.accept(readDog(reader));
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Reads a change file, as described in {@link DogChanges}. Removed dogs only need a name.
+     * @param file XML file to read the changes from
+     * @return {@link DogChanges} read from the file
+     * @throws JAXBException in case the file can not be read or it is not a valid change file
+     */
+    static DogChanges readChanges(File file) throws JAXBException {
+        List<Dog> added = new ArrayList<>();
+        List<Dog> modified = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            reader = inputFactory.createXMLStreamReader(file.getPath(), in);
+            String section = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals(section)) {
+                    section = null;
+                } else if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = reader.getLocalName();
+                    if (ADDED_ELEMENT.equals(element) || MODIFIED_ELEMENT.equals(element)
+                            || REMOVED_ELEMENT.equals(element)) {
+                        section = element;
+                    } else if (DOG_ELEMENT.equals(element)) {
+                        if (section == null) {
+                            throw new XMLStreamException("Dog " + reader.getAttributeValue(null, "name")
+                                    + " is not in an added, modified or removed section", reader.getLocation());
+                        }
+                        Dog dog = readDog(reader);
+                        if (ADDED_ELEMENT.equals(section)) {
+                            added.add(dog);
+                        } else if (MODIFIED_ELEMENT.equals(section)) {
+                            modified.add(dog);
+                        } else {
+                            removed.add(dog.getName());
+                        }
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new UnmarshalException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to read file " + file, e);
+        } finally {
+            close(reader);
+        }
+        return new DogChanges(added, modified, removed);
+    }
+
+    /**
+     * Reads a single dog element. The reader must be positioned at the start of the dog element and it will be
+     * left positioned at its end.
+     * @param reader {@link XMLStreamReader} positioned at a dog start element
+     * @return {@link Dog} read from the element
+     * @throws XMLStreamException in case the element is not a valid dog
+     */
+    static Dog readDog(XMLStreamReader reader) throws XMLStreamException {
+        Dog dog = new Dog();
+        dog.setName(reader.getAttributeValue(null, "name"));
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            try {
+                switch (element) {
+                    case "dateOfBirth":
+                        dog.setDateOfBirth(reader.getElementText());
+                        break;
+                    case "weight":
+                        dog.setWeight(Double.parseDouble(reader.getElementText().trim()));
+                        break;
+                    case "breed":
+                        dog.setBreed(DogBreed.fromValue(reader.getElementText().trim()));
+                        break;
+                    default:
+                        skipElement(reader);
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new XMLStreamException("Invalid value for element " + element + " of dog "
+                        + dog.getName() + ": " + e.getMessage(), reader.getLocation(), e);
+            }
+        }
+        return dog;
+    }
+
+    /**
+     * Skips the element the reader is positioned at, including all its children.
+     * @param reader {@link XMLStreamReader} positioned at a start element
+     * @throws XMLStreamException in case of any error reading the document
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static void close(XMLStreamReader reader) throws UnmarshalException {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                throw new UnmarshalException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,83 @@
+package org.mycompany.animals.dogs;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded heap keeping the first k elements offered in some order: the worst element kept sits on top of the heap,
+ * so every element offered is compared against it and only kept if it goes before it. Picking the first k out of n
+ * elements takes O(n log k) time and O(k) memory.
+ * <p>Instances are not thread-safe. Elements comparing equal are not told apart, so callers must break ties
+ * themselves to get a stable result.</p>
+ * @param <T> Type of the elements
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class TopK<T> {
+
+    private final int k;
+    private final Comparator<? super T> order;
+    private final PriorityQueue<T> heap;
+
+    /**
+     * @param k Number of elements to keep
+     * @param order {@link Comparator} sorting the elements from the best to the worst
+     * @throws IllegalArgumentException if k is negative
+     */
+    TopK(int k, Comparator<? super T> order) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + k);
+        }
+        this.k = k;
+        this.order = order;
+        this.heap = new PriorityQueue<>(Math.min(k, 16) + 1, order.reversed());
+    }
+
+    /**
+     * @return true if k elements are kept, so the next ones are only kept if they go before {@link #worst()}
+     */
+    boolean isFull() {
+        return heap.size() >= k;
+    }
+
+    /**
+     * @return Worst element kept, or null if there are none
+     */
+    T worst() {
+        return heap.peek();
+    }
+
+    /**
+     * Keeps an element if there are less than k elements kept or it goes before the worst one, which is then
+     * dropped.
+     * @param element Element to offer
+     */
+    void offer(T element) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (k > 0 && order.compare(element, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    /**
+     * @param other {@link TopK} whose elements are offered to this one
+     */
+    void offerAll(TopK<? extends T> other) {
+        for (T element : other.heap) {
+            offer(element);
+        }
+    }
+
+    /**
+     * @return Elements kept, from the best to the worst
+     */
+    List<T> sorted() {
+        List<T> sorted = new ArrayList<>(heap);
+        sorted.sort(order);
+        return sorted;
+    }
+}
@@ -0,0 +1,244 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
+
+/**
+ * Running weight aggregates per {@link DogBreed} ordinal: count, sum, min and max. Registries update them as dogs
+ * are added or removed so weight averages are answered without looking at the dogs at all.
+ * Sums are compensated (Kahan summation) as done by {@link java.util.DoubleSummaryStatistics}, so while weights are
+ * only added averages are the same as the ones computed by a stream over the same weights. Once weights are removed
+ * they may differ from a stream over the remaining weights in the last bits, since removing a weight adds its
+ * negation to the compensated sum.
+ * <p>Removing the current min or max of a breed leaves that breed extremes stale, since they can not be worked out
+ * from the aggregates only. The owner of the aggregates must then reset them through
+ * {@link #resetExtremes(int, double, double)}.</p>
+ * <p>Instances are not thread-safe.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class WeightAggregates {
+
+    /**
+     * All the breeds indexed by ordinal.
+     */
+    private static final DogBreed[] BREEDS = DogBreed.values();
+
+    /**
+     * Number of bytes the aggregates of a single breed take when written to a buffer.
+     */
+    static final int BYTES_PER_BREED = Long.BYTES + 5 * Double.BYTES;
+
+    private final long[] counts;
+    private final double[] sums;
+    private final double[] compensations;
+    private final double[] simpleSums;
+    private final double[] mins;
+    private final double[] maxs;
+    private final boolean[] staleExtremes;
+
+    /**
+     * Creates empty aggregates for all the breeds.
+     */
+    WeightAggregates() {
+        counts = new long[BREEDS.length];
+        sums = new double[BREEDS.length];
+        compensations = new double[BREEDS.length];
+        simpleSums = new double[BREEDS.length];
+        mins = new double[BREEDS.length];
+        maxs = new double[BREEDS.length];
+        staleExtremes = new boolean[BREEDS.length];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Creates a copy of the aggregates passed as argument, so they can be updated without modifying the original.
+     * @param other {@link WeightAggregates} to copy
+     */
+    WeightAggregates(WeightAggregates other) {
+        counts = other.counts.clone();
+        sums = other.sums.clone();
+        compensations = other.compensations.clone();
+        simpleSums = other.simpleSums.clone();
+        mins = other.mins.clone();
+        maxs = other.maxs.clone();
+        staleExtremes = other.staleExtremes.clone();
+    }
+
+    /**
+     * Adds the weight of a dog.
+     * @param ordinal Ordinal of the breed of the dog
+     * @param weight Weight of the dog
+     */
+    void add(int ordinal, double weight) {
+        counts[ordinal]++;
+        sumWithCompensation(ordinal, weight);
+        simpleSums[ordinal] += weight;
+        mins[ordinal] = Math.min(mins[ordinal], weight);
+        maxs[ordinal] = Math.max(maxs[ordinal], weight);
+    }
+
+    /**
+     * Adds the aggregates of other dogs, worked out apart, as done by
+     * {@link java.util.DoubleSummaryStatistics#combine(java.util.DoubleSummaryStatistics)}.
+     * @param other {@link WeightAggregates} of the other dogs, without stale extremes
+     */
+    void add(WeightAggregates other) {
+        for (int ordinal = 0; ordinal < BREEDS.length; ordinal++) {
+            if (other.counts[ordinal] == 0) {
+                continue;
+            }
+            counts[ordinal] += other.counts[ordinal];
+            sumWithCompensation(ordinal, other.sums[ordinal]);
+            sumWithCompensation(ordinal, -other.compensations[ordinal]);
+            simpleSums[ordinal] += other.simpleSums[ordinal];
+            mins[ordinal] = Math.min(mins[ordinal], other.mins[ordinal]);
+            maxs[ordinal] = Math.max(maxs[ordinal], other.maxs[ordinal]);
+        }
+    }
+
+    /**
+     * Removes the weight of a dog previously added.
+     * @param ordinal Ordinal of the breed of the dog
+     * @param weight Weight of the dog
+     */
+    void remove(int ordinal, double weight) {
+        if (--counts[ordinal] == 0) {
+            sums[ordinal] = 0;
+            compensations[ordinal] = 0;
+            simpleSums[ordinal] = 0;
+            resetExtremes(ordinal, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+            return;
+        }
+        sumWithCompensation(ordinal, -weight);
+        simpleSums[ordinal] -= weight;
+        if (weight <= mins[ordinal] || weight >= maxs[ordinal]) {
+            staleExtremes[ordinal] = true;
+        }
+    }
+
+    /**
+     * @param ordinal Ordinal of a breed
+     * @return Number of dogs of that breed
+     */
+    long count(int ordinal) {
+        return counts[ordinal];
+    }
+
+    /**
+     * @param ordinal Ordinal of a breed
+     * @return Sum of the weights of the dogs of that breed
+     */
+    double sum(int ordinal) {
+        double sum = sums[ordinal] - compensations[ordinal];
+        if (Double.isNaN(sum) && Double.isInfinite(simpleSums[ordinal])) {
+            return simpleSums[ordinal];
+        }
+        return sum;
+    }
+
+    /**
+     * @param ordinal Ordinal of a breed
+     * @return Average weight of the dogs of that breed or 0 if there are none
+     */
+    double average(int ordinal) {
+        long count = counts[ordinal];
+        return count > 0 ? sum(ordinal) / count : 0;
+    }
+
+    /**
+     * @param ordinal Ordinal of a breed
+     * @return Min weight of the dogs of that breed or {@link Double#POSITIVE_INFINITY} if there are none
+     */
+    double min(int ordinal) {
+        return mins[ordinal];
+    }
+
+    /**
+     * @param ordinal Ordinal of a breed
+     * @return Max weight of the dogs of that breed or {@link Double#NEGATIVE_INFINITY} if there are none
+     */
+    double max(int ordinal) {
+        return maxs[ordinal];
+    }
+
+    /**
+     * @param ordinal Ordinal of a breed
+     * @return true if the min or the max of that breed has been removed and they must be reset
+     */
+    boolean hasStaleExtremes(int ordinal) {
+        return staleExtremes[ordinal];
+    }
+
+    /**
+     * Sets the min and max weights of a breed, after they have been worked out again from the dogs.
+     * @param ordinal Ordinal of a breed
+     * @param min Min weight of the dogs of that breed
+     * @param max Max weight of the dogs of that breed
+     */
+    void resetExtremes(int ordinal, double min, double max) {
+        mins[ordinal] = min;
+        maxs[ordinal] = max;
+        staleExtremes[ordinal] = false;
+    }
+
+    /**
+     * Returns the average weight of every breed with at least one dog.
+     * @return {@link EnumMap} with the average weight per breed
+     */
+    EnumMap<DogBreed, Double> averages() {
+        EnumMap<DogBreed, Double> enumMap = new EnumMap<>(DogBreed.class);
+        for (int ordinal = 0; ordinal < BREEDS.length; ordinal++) {
+            if (counts[ordinal] > 0) {
+                enumMap.put(BREEDS[ordinal], sum(ordinal) / counts[ordinal]);
+            }
+        }
+        return enumMap;
+    }
+
+    /**
+     * Writes the aggregates of every breed to a buffer, taking {@link #BYTES_PER_BREED} bytes per breed.
+     * Extremes must not be stale.
+     * @param buffer {@link ByteBuffer} to write the aggregates to
+     */
+    void write(ByteBuffer buffer) {
+        for (int ordinal = 0; ordinal < BREEDS.length; ordinal++) {
+            buffer.putLong(counts[ordinal]);
+            buffer.putDouble(sums[ordinal]);
+            buffer.putDouble(compensations[ordinal]);
+            buffer.putDouble(simpleSums[ordinal]);
+            buffer.putDouble(mins[ordinal]);
+            buffer.putDouble(maxs[ordinal]);
+        }
+    }
+
+    /**
+     * Reads the aggregates of every breed as written by {@link #write(ByteBuffer)}.
+     * @param buffer {@link ByteBuffer} to read the aggregates from
+     * @return New {@link WeightAggregates} with the values read
+     */
+    static WeightAggregates read(ByteBuffer buffer) {
+        WeightAggregates aggregates = new WeightAggregates();
+        for (int ordinal = 0; ordinal < BREEDS.length; ordinal++) {
+            aggregates.counts[ordinal] = buffer.getLong();
+            aggregates.sums[ordinal] = buffer.getDouble();
+            aggregates.compensations[ordinal] = buffer.getDouble();
+            aggregates.simpleSums[ordinal] = buffer.getDouble();
+            aggregates.mins[ordinal] = buffer.getDouble();
+            aggregates.maxs[ordinal] = buffer.getDouble();
+        }
+        return aggregates;
+    }
+
+    private void sumWithCompensation(int ordinal, double value) {
+        double tmp = value - compensations[ordinal];
+        double sum = sums[ordinal];
+        double velvel = sum + tmp;
+        compensations[ordinal] = (velvel - sum) - tmp;
+        sums[ordinal] = velvel;
+    }
+}
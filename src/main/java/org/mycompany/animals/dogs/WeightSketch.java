@@ -0,0 +1,296 @@
+package org.mycompany.animals.dogs;
+
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.util.EnumMap;
+
+/**
+ * Mergeable summary of a set of weights: exact count, min, max, mean and variance, plus a quantile sketch with
+ * a bounded relative error (a logarithmic bucket histogram, as in DDSketch).
+ * <p>Weights are counted in buckets whose bounds grow by a factor of (1 + accuracy) / (1 - accuracy), and every
+ * quantile is answered with the middle of its bucket, so it is within the relative accuracy of the actual weight
+ * at its rank: |estimate - weight| &lt;= accuracy * |weight|. Memory only depends on the ratio between the largest
+ * and the smallest weights, about ln(max / min) / (2 * accuracy) buckets, not on the number of weights. Weights
+ * spread over more than {@link #MAX_BUCKETS} buckets, a ratio above 10^17 at 1% accuracy, have their smallest
+ * buckets folded together, which only loosens the bound of the lowest quantiles.</p>
+ * <p>Sketches of different slices of the dogs are merged through {@link #add(WeightSketch)}, giving the same
+ * buckets as a single sketch of all of them. Mean and variance are kept with Welford's algorithm and merged with
+ * the formulas of Chan et al., so they are exact up to rounding.</p>
+ * <p>Instances are not thread-safe.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+final class WeightSketch {
+
+    /**
+     * Maximum number of buckets kept for the positive weights, and for the negative ones.
+     */
+    static final int MAX_BUCKETS = 2048;
+
+    /**
+     * Smallest magnitude counted in a bucket. Weights closer to zero are counted as zero.
+     */
+    private static final double MIN_INDEXABLE = 1e-9;
+
+    private final double accuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final Buckets positives = new Buckets();
+    private final Buckets negatives = new Buckets();
+    private long zeros;
+
+    private long count;
+    private double mean;
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param accuracy Relative accuracy of the quantiles, greater than 0 and less than 1
+     */
+    WeightSketch(double accuracy) {
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * Adds a weight.
+     * @param weight Weight of a dog
+     */
+    void add(double weight) {
+        count++;
+        double delta = weight - mean;
+        mean += delta / count;
+        m2 += delta * (weight - mean);
+        min = Math.min(min, weight);
+        max = Math.max(max, weight);
+        if (weight >= MIN_INDEXABLE) {
+            positives.add(index(weight), 1);
+        } else if (weight <= -MIN_INDEXABLE) {
+            negatives.add(index(-weight), 1);
+        } else {
+            zeros++;
+        }
+    }
+
+    /**
+     * Adds all the weights of another sketch.
+     * @param other {@link WeightSketch} with the same accuracy
+     * @throws IllegalArgumentException if the sketches have different accuracies
+     */
+    void add(WeightSketch other) {
+        if (other.accuracy != accuracy) {
+            throw new IllegalArgumentException("Sketches with different accuracies can not be merged: " + accuracy
+                    + ", " + other.accuracy);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        positives.add(other.positives);
+        negatives.add(other.negatives);
+        zeros += other.zeros;
+    }
+
+    /**
+     * @return Relative accuracy of the quantiles
+     */
+    double accuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return Number of weights added
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * @return Smallest weight or {@link Double#POSITIVE_INFINITY} if there are none
+     */
+    double min() {
+        return min;
+    }
+
+    /**
+     * @return Largest weight or {@link Double#NEGATIVE_INFINITY} if there are none
+     */
+    double max() {
+        return max;
+    }
+
+    /**
+     * @return Mean of the weights or {@link Double#NaN} if there are none
+     */
+    double mean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return Population variance of the weights or {@link Double#NaN} if there are none
+     */
+    double variance() {
+        return count == 0 ? Double.NaN : Math.max(0, m2 / count);
+    }
+
+    /**
+     * Estimates the weight at the rank floor(quantile * (count - 1)) of the sorted weights. Quantiles 0 and 1 are
+     * the exact min and max.
+     * @param quantile Quantile between 0 and 1
+     * @return Estimate within the relative accuracy of the weight at that rank, or {@link Double#NaN} if there are
+     * no weights
+     */
+    double quantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        } else if (quantile <= 0) {
+            return min;
+        } else if (quantile >= 1) {
+            return max;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+        for (int index = negatives.maxIndex; index >= negatives.minIndex; index--) {
+            seen += negatives.count(index);
+            if (seen > rank) {
+                return clamp(-value(index));
+            }
+        }
+        seen += zeros;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        for (int index = positives.minIndex; index <= positives.maxIndex; index++) {
+            seen += positives.count(index);
+            if (seen > rank) {
+                return clamp(value(index));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return Number of buckets in use, which bounds the memory taken by the sketch
+     */
+    int buckets() {
+        return positives.size() + negatives.size();
+    }
+
+    /**
+     * @param sketches {@link WeightSketch} of every breed indexed by ordinal, null for the breeds without dogs
+     * @return {@link EnumMap} with the {@link WeightStatistics} of every breed with at least one dog
+     */
+    static EnumMap<DogBreed, WeightStatistics> statistics(WeightSketch[] sketches) {
+        DogBreed[] breeds = DogBreed.values();
+        EnumMap<DogBreed, WeightStatistics> enumMap = new EnumMap<>(DogBreed.class);
+        for (int ordinal = 0; ordinal < breeds.length; ordinal++) {
+            if (sketches[ordinal] != null && sketches[ordinal].count() > 0) {
+                enumMap.put(breeds[ordinal], new WeightStatistics(sketches[ordinal]));
+            }
+        }
+        return enumMap;
+    }
+
+    /**
+     * @param magnitude Magnitude of a weight, at least {@link #MIN_INDEXABLE}
+     * @return Index of the bucket (gamma^(index - 1), gamma^index] holding the magnitude
+     */
+    private int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    /**
+     * @param index Index of a bucket
+     * @return Magnitude within the relative accuracy of any magnitude in the bucket
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Keeps an estimate within the exact extremes, which only brings it closer to the actual weight.
+     */
+    private double clamp(double estimate) {
+        return Math.max(min, Math.min(max, estimate));
+    }
+
+    /**
+     * Counts of a range of contiguous buckets, kept in an array which grows as weights fall out of it. Once the
+     * range is wider than {@link #MAX_BUCKETS}, the lowest buckets are folded into the lowest one kept.
+     */
+    private static final class Buckets {
+
+        /**
+         * Room left at both ends of the array when it grows.
+         */
+        private static final int GROWTH = 32;
+
+        private long[] counts = new long[0];
+        private int offset;
+        private int minIndex = Integer.MAX_VALUE;
+        private int maxIndex = Integer.MIN_VALUE;
+
+        /**
+         * @param index Index of a bucket
+         * @return Count of the bucket
+         */
+        long count(int index) {
+            return counts[index - offset];
+        }
+
+        /**
+         * @return Number of buckets between the lowest and the highest ones in use
+         */
+        int size() {
+            return minIndex > maxIndex ? 0 : maxIndex - minIndex + 1;
+        }
+
+        /**
+         * @param index Index of a bucket
+         * @param count Count to add to the bucket
+         */
+        void add(int index, long count) {
+            int newMaxIndex = Math.max(maxIndex, index);
+            int newMinIndex = Math.max(Math.min(minIndex, index), newMaxIndex - MAX_BUCKETS + 1);
+            if (newMinIndex > minIndex || newMinIndex < offset || newMaxIndex >= offset + counts.length) {
+                resize(newMinIndex, newMaxIndex);
+            }
+            minIndex = newMinIndex;
+            maxIndex = newMaxIndex;
+            counts[Math.max(index, minIndex) - offset] += count;
+        }
+
+        /**
+         * @param other {@link Buckets} whose counts are added
+         */
+        void add(Buckets other) {
+            for (int index = other.minIndex; index <= other.maxIndex; index++) {
+                long count = other.count(index);
+                if (count > 0) {
+                    add(index, count);
+                }
+            }
+        }
+
+        /**
+         * Moves the buckets to an array covering a new range, folding the ones below it into its lowest bucket.
+         */
+        private void resize(int newMinIndex, int newMaxIndex) {
+            int newOffset = newMinIndex - GROWTH;
+            long[] newCounts = new long[newMaxIndex - newOffset + 1 + GROWTH];
+            for (int index = minIndex; index <= maxIndex; index++) {
+                newCounts[Math.max(index, newMinIndex) - newOffset] += counts[index - offset];
+            }
+            counts = newCounts;
+            offset = newOffset;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.mycompany.animals.dogs;
+
+/**
+ * Weight statistics of the dogs of a breed, as returned by {@link DogRegistry#weightStatisticsPerBreed()}: count,
+ * min, max, mean and variance, exact up to rounding, and any percentile out of a quantile sketch.
+ * <p>Percentiles are within the relative accuracy of the sketch of the actual weight at their rank, so with the
+ * default 1% accuracy a median of 30 kg stands for an actual median between 29.7 and 30.3 kg. The sketch takes
+ * the same memory whatever the number of dogs. See
+ * {@link org.mycompany.animals.dogs.config.DogRegistryConfig#setWeightSketchAccuracy(double)}.</p>
+ * <p>Instances are immutable.</p>
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public final class WeightStatistics {
+
+    /**
+     * Sketch of the weights, never modified once wrapped.
+     */
+    private final WeightSketch sketch;
+
+    /**
+     * Constructor only available for the classes in this package.
+     * @param sketch {@link WeightSketch} of the weights, not modified afterwards
+     */
+    WeightStatistics(WeightSketch sketch) {
+        this.sketch = sketch;
+    }
+
+    /**
+     * @return Number of dogs
+     */
+    public long getCount() {
+        return sketch.count();
+    }
+
+    /**
+     * @return Weight of the lightest dog
+     */
+    public double getMin() {
+        return sketch.min();
+    }
+
+    /**
+     * @return Weight of the heaviest dog
+     */
+    public double getMax() {
+        return sketch.max();
+    }
+
+    /**
+     * @return Mean weight
+     */
+    public double getMean() {
+        return sketch.mean();
+    }
+
+    /**
+     * @return Population variance of the weights
+     */
+    public double getVariance() {
+        return sketch.variance();
+    }
+
+    /**
+     * @return Population standard deviation of the weights
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(sketch.variance());
+    }
+
+    /**
+     * Estimates a percentile of the weights: the weight at the rank floor(percentile / 100 * (count - 1)) of the
+     * weights sorted from the lightest to the heaviest, within {@link #getRelativeAccuracy()} of it. Percentiles 0
+     * and 100 are the exact min and max.
+     * @param percentile Percentile between 0 and 100, such as 50 for the median or 99.9
+     * @return Estimate of the weight at that percentile
+     * @throws IllegalArgumentException if the percentile is not between 0 and 100
+     */
+    public double getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        return sketch.quantile(percentile / 100);
+    }
+
+    /**
+     * @return Median weight, within {@link #getRelativeAccuracy()} of the actual one
+     */
+    public double getMedian() {
+        return getPercentile(50);
+    }
+
+    /**
+     * @return Relative accuracy of the percentiles, such as 0.01 for 1%
+     */
+    public double getRelativeAccuracy() {
+        return sketch.accuracy();
+    }
+
+    @Override
+    public String toString() {
+        return "WeightStatistics [count=" + getCount() + ", min=" + getMin() + ", max=" + getMax() + ", mean="
+                + getMean() + ", standardDeviation=" + getStandardDeviation() + ", median=" + getMedian() + "]";
+    }
+}
@@ -3,6 +3,7 @@ package org.mycompany.animals.dogs.config;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import org.mycompany.animals.dogs.DogRegistryListener;
 import org.slf4j.LoggerFactory;
 
 import java.time.format.DateTimeFormatter;
@@ -21,27 +22,416 @@ public class DogRegistryConfig {
      */
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(DogRegistryConfig.class);
 
+    /**
+     * Maximum number of dogs written out when a list of dogs is logged. The rest are only counted.
+     */
+    private static volatile int maxLoggedDogs = 10;
+
+    /**
+     * Date format used unless another one is set through {@link #setDateFormat(String)}.
+     */
+    public static final String DEFAULT_DATE_FORMAT = "dd-MM-yyyy";
+
     /**
      * The default date format to be use for parsing {@link org.mycompany.animals.dogs.domain.Dog}
      */
-    private String dateFormat = "dd-MM-yyyy";
+    private String dateFormat = DEFAULT_DATE_FORMAT;
+
+    /**
+     * Formatter built out of the dateFormat field. Kept so it is not built again on every call.
+     */
+    private DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(dateFormat);
+
+    /**
+     * Strategy used to read the dogs XML file. Whole document JAXB unmarshalling by default.
+     */
+    private LoadMode loadMode = LoadMode.JAXB;
+
+    /**
+     * If true, dogs XML files are validated against the bundled dogs.xsd schema while loading.
+     */
+    private boolean schemaValidation = false;
+
+    /**
+     * The way loaded registries hold the dogs in memory. Plain objects by default.
+     */
+    private StorageMode storageMode = StorageMode.OBJECTS;
+
+    /**
+     * Minimum number of dogs of a registry for its scans to be split by breed and run in parallel.
+     */
+    private int parallelThreshold = 10_000;
+
+    /**
+     * Number of threads reading files in {@link LoadMode#PARALLEL} mode or shards. One per processor by default.
+     */
+    private int loadThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Milliseconds a watched file must stay unchanged before it is reloaded.
+     */
+    private long reloadQuietMillis = 200;
+
+    /**
+     * How the write-ahead log of persistent registries is forced to disk.
+     */
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.ALWAYS;
+
+    /**
+     * Milliseconds between forces of the write-ahead log in {@link FsyncPolicy#INTERVAL} policy.
+     */
+    private long fsyncIntervalMillis = 1000;
+
+    /**
+     * Milliseconds between checkpoints of persistent registries.
+     */
+    private long checkpointIntervalMillis = 300_000;
+
+    /**
+     * Length the write-ahead log of a persistent registry may grow to before a checkpoint is taken.
+     */
+    private long checkpointLogBytes = 64L << 20;
+
+    /**
+     * Maximum number of query results kept by a query cache.
+     */
+    private int queryCacheMaxEntries = 1024;
+
+    /**
+     * Maximum number of dogs held by all the query results kept by a query cache.
+     */
+    private long queryCacheMaxDogs = 1_000_000;
+
+    /**
+     * Relative accuracy of the weight percentiles worked out by the registries.
+     */
+    private volatile double weightSketchAccuracy = 0.01;
+
+    /**
+     * Listener notified of every query, write and load, or null if instrumentation is disabled.
+     */
+    private volatile DogRegistryListener listener;
 
     /**
      *  <p>Getter method to return dateFormat field</p>
      * @return {@link java.time.format.DateTimeFormatter}
      */
     public DateTimeFormatter getDateFormat() {
-        return DateTimeFormatter.ofPattern(dateFormat);
+        return dateFormatter;
     }
 
     /**
      * <p>Set method to specify dateFormat field to use</p>
      * @param dateFormat String with the date format to be used and set
+     * @throws IllegalArgumentException if the date format is not a valid pattern
      */
     public void setDateFormat(String dateFormat) {
+        this.dateFormatter = DateTimeFormatter.ofPattern(dateFormat);
         this.dateFormat = dateFormat;
     }
 
+    /**
+     * <p>Getter method to return loadMode field</p>
+     * @return {@link LoadMode} used to read dogs XML files
+     */
+    public LoadMode getLoadMode() {
+        return loadMode;
+    }
+
+    /**
+     * <p>Set method to specify the strategy used to read dogs XML files</p>
+     * @param loadMode {@link LoadMode} to be used and set
+     */
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    /**
+     * <p>Getter method to return schemaValidation field</p>
+     * @return true if dogs XML files are validated against the bundled dogs.xsd schema
+     */
+    public boolean isSchemaValidation() {
+        return schemaValidation;
+    }
+
+    /**
+     * <p>Set method to enable or disable the validation of dogs XML files against the bundled dogs.xsd schema.
+     * The schema is compiled only once and shared by all the loads. In {@link LoadMode#STREAMING} mode
+     * validation requires an extra pass over the file.</p>
+     * @param schemaValidation If true, files will be validated when loaded
+     */
+    public void setSchemaValidation(boolean schemaValidation) {
+        this.schemaValidation = schemaValidation;
+    }
+
+    /**
+     * <p>Getter method to return storageMode field</p>
+     * @return {@link StorageMode} used by loaded registries
+     */
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * <p>Set method to specify the way loaded registries hold the dogs in memory</p>
+     * @param storageMode {@link StorageMode} to be used and set
+     */
+    public void setStorageMode(StorageMode storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    /**
+     * <p>Getter method to return parallelThreshold field</p>
+     * @return Minimum number of dogs of a registry for its scans to run in parallel
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * <p>Set method to specify the minimum number of dogs of a {@link StorageMode#OBJECTS} registry for its scans
+     * to be split by breed and run in parallel on the common {@link java.util.concurrent.ForkJoinPool}.
+     * Predicates passed to those registries must then be thread-safe. Use {@link Integer#MAX_VALUE} to never
+     * run them in parallel.</p>
+     * @param parallelThreshold Minimum number of dogs to be used and set
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * <p>Getter method to return loadThreads field</p>
+     * @return Number of threads reading files in {@link LoadMode#PARALLEL} mode or shards
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * <p>Set method to specify the number of threads reading files in {@link LoadMode#PARALLEL} mode, or the shards
+     * of a directory or glob. Registries loaded are the same whatever the number of threads.</p>
+     * @param loadThreads Number of threads to be used and set
+     * @throws IllegalArgumentException if the number of threads is less than 1
+     */
+    public void setLoadThreads(int loadThreads) {
+        if (loadThreads < 1) {
+            throw new IllegalArgumentException("Number of load threads must be at least 1: " + loadThreads);
+        }
+        this.loadThreads = loadThreads;
+    }
+
+    /**
+     * <p>Getter method to return reloadQuietMillis field</p>
+     * @return Milliseconds a file watched by a {@link org.mycompany.animals.dogs.ReloadingDogRegistry} must stay
+     * unchanged before it is reloaded
+     */
+    public long getReloadQuietMillis() {
+        return reloadQuietMillis;
+    }
+
+    /**
+     * <p>Set method to specify the milliseconds a file watched by a
+     * {@link org.mycompany.animals.dogs.ReloadingDogRegistry} must stay unchanged before it is reloaded, so a file
+     * being written in several steps is only reloaded once it is complete.</p>
+     * @param reloadQuietMillis Milliseconds to be used and set
+     * @throws IllegalArgumentException if the milliseconds are negative
+     */
+    public void setReloadQuietMillis(long reloadQuietMillis) {
+        if (reloadQuietMillis < 0) {
+            throw new IllegalArgumentException("Reload quiet period can not be negative: " + reloadQuietMillis);
+        }
+        this.reloadQuietMillis = reloadQuietMillis;
+    }
+
+    /**
+     * <p>Getter method to return fsyncPolicy field</p>
+     * @return {@link FsyncPolicy} of the write-ahead log of persistent registries
+     */
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * <p>Set method to specify how the write-ahead log of persistent registries is forced to disk, trading
+     * durability for write throughput.</p>
+     * @param fsyncPolicy {@link FsyncPolicy} to be used and set
+     */
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * <p>Getter method to return fsyncIntervalMillis field</p>
+     * @return Milliseconds between forces of the write-ahead log in {@link FsyncPolicy#INTERVAL} policy
+     */
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    /**
+     * <p>Set method to specify the milliseconds between forces of the write-ahead log of persistent registries
+     * in {@link FsyncPolicy#INTERVAL} policy, which is the most that can be lost if the machine crashes.</p>
+     * @param fsyncIntervalMillis Milliseconds to be used and set
+     * @throws IllegalArgumentException if the milliseconds are less than 1
+     */
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        if (fsyncIntervalMillis < 1) {
+            throw new IllegalArgumentException("Fsync interval must be at least 1 millisecond: " + fsyncIntervalMillis);
+        }
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    /**
+     * <p>Getter method to return checkpointIntervalMillis field</p>
+     * @return Milliseconds between checkpoints of persistent registries, or 0 if they are not taken periodically
+     */
+    public long getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    /**
+     * <p>Set method to specify the milliseconds between checkpoints of persistent registries, which write the whole
+     * registry to a snapshot and discard the write-ahead log written until then. Use 0 to only take them when the
+     * log grows over {@link #getCheckpointLogBytes()}.</p>
+     * @param checkpointIntervalMillis Milliseconds to be used and set
+     * @throws IllegalArgumentException if the milliseconds are negative
+     */
+    public void setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+        if (checkpointIntervalMillis < 0) {
+            throw new IllegalArgumentException("Checkpoint interval can not be negative: " + checkpointIntervalMillis);
+        }
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * <p>Getter method to return checkpointLogBytes field</p>
+     * @return Length the write-ahead log of a persistent registry may grow to before a checkpoint is taken
+     */
+    public long getCheckpointLogBytes() {
+        return checkpointLogBytes;
+    }
+
+    /**
+     * <p>Set method to specify the length the write-ahead log of a persistent registry may grow to before a
+     * checkpoint is taken, which bounds the time spent replaying it when the registry is opened.</p>
+     * @param checkpointLogBytes Length in bytes to be used and set
+     * @throws IllegalArgumentException if the length is less than 1
+     */
+    public void setCheckpointLogBytes(long checkpointLogBytes) {
+        if (checkpointLogBytes < 1) {
+            throw new IllegalArgumentException("Checkpoint log length must be at least 1 byte: " + checkpointLogBytes);
+        }
+        this.checkpointLogBytes = checkpointLogBytes;
+    }
+
+    /**
+     * <p>Getter method to return queryCacheMaxEntries field</p>
+     * @return Maximum number of query results kept by a query cache
+     */
+    public int getQueryCacheMaxEntries() {
+        return queryCacheMaxEntries;
+    }
+
+    /**
+     * <p>Set method to specify the maximum number of query results kept by the query caches created afterwards.
+     * The least recently used results are evicted first.</p>
+     * @param queryCacheMaxEntries Maximum number of results to be used and set
+     * @throws IllegalArgumentException if the number is less than 1
+     */
+    public void setQueryCacheMaxEntries(int queryCacheMaxEntries) {
+        if (queryCacheMaxEntries < 1) {
+            throw new IllegalArgumentException("Query cache must keep at least 1 entry: " + queryCacheMaxEntries);
+        }
+        this.queryCacheMaxEntries = queryCacheMaxEntries;
+    }
+
+    /**
+     * <p>Getter method to return queryCacheMaxDogs field</p>
+     * @return Maximum number of dogs held by all the query results kept by a query cache
+     */
+    public long getQueryCacheMaxDogs() {
+        return queryCacheMaxDogs;
+    }
+
+    /**
+     * <p>Set method to specify the maximum number of dogs held by all the query results kept by the query caches
+     * created afterwards, which bounds the memory they take. Results with more dogs than this are not cached.</p>
+     * @param queryCacheMaxDogs Maximum number of dogs to be used and set
+     * @throws IllegalArgumentException if the number is less than 1
+     */
+    public void setQueryCacheMaxDogs(long queryCacheMaxDogs) {
+        if (queryCacheMaxDogs < 1) {
+            throw new IllegalArgumentException("Query cache must hold at least 1 dog: " + queryCacheMaxDogs);
+        }
+        this.queryCacheMaxDogs = queryCacheMaxDogs;
+    }
+
+    /**
+     * <p>Getter method to return weightSketchAccuracy field</p>
+     * @return Relative accuracy of the weight percentiles worked out by the registries
+     */
+    public double getWeightSketchAccuracy() {
+        return weightSketchAccuracy;
+    }
+
+    /**
+     * <p>Set method to specify the relative accuracy of the weight percentiles returned by
+     * {@link org.mycompany.animals.dogs.DogRegistry#weightStatisticsPerBreed()}: every percentile is within that
+     * share of the actual weight at its rank. More accurate sketches take more memory, about
+     * ln(max weight / min weight) / (2 * accuracy) counters per breed, whatever the number of dogs.</p>
+     * @param weightSketchAccuracy Relative accuracy to be used and set, such as 0.01 for 1%
+     * @throws IllegalArgumentException if the accuracy is not greater than 0 and less than 1
+     */
+    public void setWeightSketchAccuracy(double weightSketchAccuracy) {
+        if (!(weightSketchAccuracy > 0 && weightSketchAccuracy < 1)) {
+            throw new IllegalArgumentException("Weight sketch accuracy must be between 0 and 1: "
+                    + weightSketchAccuracy);
+        }
+        this.weightSketchAccuracy = weightSketchAccuracy;
+    }
+
+    /**
+     * <p>Getter method to return listener field</p>
+     * @return {@link DogRegistryListener} notified of every query, write and load, or null if instrumentation is
+     * disabled
+     */
+    public DogRegistryListener getListener() {
+        return listener;
+    }
+
+    /**
+     * <p>Set method to specify the listener notified of every query and write of the registries built with this
+     * config, and of every load of the factories using it. Registries look the listener up on every call, so it
+     * can be set or removed at any time. Disabled by default, in which case calls are not even timed.</p>
+     * @param listener {@link DogRegistryListener} to be used and set, such as
+     * {@link org.mycompany.animals.dogs.DogRegistryMetrics}, or null to disable instrumentation
+     */
+    public void setListener(DogRegistryListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * <p>Getter method to return maxLoggedDogs field</p>
+     * @return Maximum number of dogs written out when a list of dogs is logged
+     */
+    public static int getMaxLoggedDogs() {
+        return maxLoggedDogs;
+    }
+
+    /**
+     * <p>Set method to specify the maximum number of dogs written out when a query result or a loaded file is
+     * logged. Only the size of the list and its first dogs are logged, so enabling logging on a large registry does
+     * not write every dog of every query. 10 by default.</p>
+     * @param maxLoggedDogs Maximum number of dogs to be used and set, 0 to log the number of dogs only
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public static void setMaxLoggedDogs(int maxLoggedDogs) {
+        if (maxLoggedDogs < 0) {
+            throw new IllegalArgumentException("Maximum number of logged dogs must not be negative: " + maxLoggedDogs);
+        }
+        DogRegistryConfig.maxLoggedDogs = maxLoggedDogs;
+    }
+
     /**
      * Static method to enable default logging to console. Default log level will be DEBUG.
      *
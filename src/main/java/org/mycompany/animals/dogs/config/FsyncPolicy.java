@@ -0,0 +1,26 @@
+package org.mycompany.animals.dogs.config;
+
+/**
+ * Java Enum Class with the supported ways the write-ahead log of a persistent registry is forced to disk, from the
+ * most durable to the fastest.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public enum FsyncPolicy {
+    /**
+     * Every write returns once it has been forced to disk. Writers arriving while the log is being forced are
+     * committed together by the next force, so concurrent writers share the cost.
+     */
+    ALWAYS,
+    /**
+     * Every write returns once it has been handed over to the operating system, which is forced to disk every
+     * {@link DogRegistryConfig#getFsyncIntervalMillis()}. Writes survive a crash of the process, but the last
+     * interval may be lost if the whole machine crashes.
+     */
+    INTERVAL,
+    /**
+     * Every write returns once it has been handed over to the operating system, which decides when to write it to
+     * disk. The log is only forced by checkpoints and when the registry is closed.
+     */
+    NEVER
+}
@@ -0,0 +1,25 @@
+package org.mycompany.animals.dogs.config;
+
+/**
+ * Java Enum Class with the supported strategies to read a dogs XML file into a registry.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public enum LoadMode {
+    /**
+     * Unmarshals the whole document into a {@link org.mycompany.animals.dogs.domain.Dogs} object graph
+     * before building the registry.
+     */
+    JAXB,
+    /**
+     * Walks the document with a StAX pull parser and feeds every dog element straight into the registry,
+     * so the whole document is never held in memory.
+     */
+    STREAMING,
+    /**
+     * Splits large documents at dog element boundaries and walks the chunks concurrently with StAX pull parsers,
+     * using {@link DogRegistryConfig#getLoadThreads()} threads. Dogs are added in document order, so the registry
+     * is the same whatever the number of threads.
+     */
+    PARALLEL
+}
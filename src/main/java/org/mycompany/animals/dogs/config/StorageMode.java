@@ -0,0 +1,23 @@
+package org.mycompany.animals.dogs.config;
+
+/**
+ * Java Enum Class with the supported ways a registry can hold the dogs in memory.
+ *
+ * @author Antonio Fernandez Alhambra
+ */
+public enum StorageMode {
+    /**
+     * Dogs are kept as {@link org.mycompany.animals.dogs.domain.Dog} objects.
+     */
+    OBJECTS,
+    /**
+     * Dogs are kept in primitive columns, one array per attribute, with names dictionary encoded.
+     * {@link org.mycompany.animals.dogs.domain.Dog} objects are only built when they are returned.
+     */
+    COLUMNAR,
+    /**
+     * Dogs are kept in the columns of a memory mapped snapshot file, out of the heap. Snapshot files are mapped
+     * as they are, while XML files are imported into a temporary snapshot file first.
+     */
+    MAPPED
+}
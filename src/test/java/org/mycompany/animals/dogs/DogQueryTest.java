@@ -0,0 +1,109 @@
+package org.mycompany.animals.dogs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.StorageMode;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.JAXBException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mycompany.animals.dogs.DogQuery.*;
+import static org.mycompany.animals.dogs.DogRegistryTest.dogsFile;
+import static org.mycompany.animals.dogs.DogRegistryTest.names;
+
+/**
+ * This class performs some test cases against the {@link DogQuery} class, checking registries return the same dogs
+ * for a query as for the equivalent opaque {@link Predicate}.
+ */
+class DogQueryTest {
+
+    /**
+     * Loads the test file with the storage mode passed as argument.
+     */
+    private static DogRegistry<DogBreed> load(StorageMode storageMode) throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setStorageMode(storageMode);
+        return new DogRegistryFactory(config).load(dogsFile);
+    }
+
+    /**
+     * Asserts a query returns the same dogs, in the same order, as the predicate passed as argument.
+     */
+    private static void assertSameDogs(DogRegistry<DogBreed> registry, DogQuery query, Predicate<Dog> predicate) {
+        List<Dog> expected = registry.dogsByCondition(predicate);
+        assertFalse(expected.isEmpty(), "Predicate should match some dogs: " + query);
+        assertEquals(names(expected), names(registry.dogsByCondition(query)), query.toString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void queriesMatchOpaquePredicates(StorageMode storageMode) throws JAXBException {
+        DogRegistry<DogBreed> registry = load(storageMode);
+
+        assertSameDogs(registry, breed(DogBreed.SHIBA_INU).and(weightAtMost(10)),
+                dog -> dog.getBreed() == DogBreed.SHIBA_INU && dog.getWeight() <= 10);
+        assertSameDogs(registry, breedIn(DogBreed.SIBERIAN_HUSKY, DogBreed.GERMAN_SHEPHERD),
+                dog -> dog.getBreed() == DogBreed.SIBERIAN_HUSKY || dog.getBreed() == DogBreed.GERMAN_SHEPHERD);
+        assertSameDogs(registry, bornBetween(LocalDate.of(2010, 1, 1), LocalDate.of(2015, 12, 31)),
+                dog -> dog.getDateOfBirth().endsWith("2010") || dog.getDateOfBirth().matches(".*201[1-5]"));
+        assertSameDogs(registry, bornAfter(LocalDate.of(2018, 12, 31)).or(nameStartsWith("R")),
+                dog -> dog.getDateOfBirth().endsWith("2019") || dog.getName().startsWith("R"));
+        assertSameDogs(registry, not(breed(DogBreed.GERMAN_SHEPHERD)).and(weightBetween(30, 40)),
+                dog -> dog.getBreed() != DogBreed.GERMAN_SHEPHERD && dog.getWeight() >= 30 && dog.getWeight() <= 40);
+        assertSameDogs(registry, bornBefore(LocalDate.of(2005, 2, 5)).negate().and(breed(DogBreed.SIBERIAN_HUSKY)),
+                dog -> dog.getBreed() == DogBreed.SIBERIAN_HUSKY && !dog.getName().equals("Snowy"));
+
+        assertTrue(registry.dogsByCondition(breed(DogBreed.GREYHOUND).and(breed(DogBreed.SHIBA_INU))).isEmpty());
+        assertTrue(registry.dogsByCondition(
+                bornAfter(LocalDate.of(2019, 1, 1)).and(bornBefore(LocalDate.of(2000, 1, 1)))).isEmpty());
+    }
+
+    @Test
+    void testAgainstDog() {
+        Dog rex = DogRegistryTest.dog("Rex", "18-12-2017", 40, DogBreed.GERMAN_SHEPHERD);
+        assertTrue(breed(DogBreed.GERMAN_SHEPHERD).and(bornAfter(LocalDate.of(2017, 12, 17))).test(rex));
+        assertFalse(breed(DogBreed.GERMAN_SHEPHERD).and(bornAfter(LocalDate.of(2017, 12, 18))).test(rex));
+        assertTrue(nameStartsWith("Re").or(weightAtLeast(100)).test(rex));
+        assertFalse(not(nameStartsWith("Re")).test(rex));
+        assertEquals(1, Stream.of(rex).filter(weightBetween(40, 40)).count());
+
+        Dog iso = DogRegistryTest.dog("Rex", "2017-12-18", 40, DogBreed.GERMAN_SHEPHERD);
+        assertTrue(bornAfter(LocalDate.of(2017, 12, 17)).test(iso, DateTimeFormatter.ISO_LOCAL_DATE));
+        assertFalse(bornAfter(LocalDate.of(2017, 12, 18)).test(iso, DateTimeFormatter.ISO_LOCAL_DATE));
+        assertTrue(weightAtLeast(40).test(iso));
+    }
+
+    @Test
+    void usedFields() {
+        DogQuery query = breed(DogBreed.SHIBA_INU).and(weightAtMost(10));
+        assertFalse(query.usesName());
+        assertFalse(query.usesBirthDay());
+        assertFalse(query.or(bornAfter(LocalDate.of(2010, 1, 1))).usesName());
+        assertTrue(query.or(bornAfter(LocalDate.of(2010, 1, 1))).usesBirthDay());
+        assertTrue(query.or(not(nameStartsWith("R"))).usesName());
+        assertFalse(query.or(not(nameStartsWith("R"))).usesBirthDay());
+    }
+
+    @Test
+    void equalQueries() {
+        DogQuery query = breedIn(DogBreed.SHIBA_INU, DogBreed.GREYHOUND).and(weightBetween(1, 10))
+                .or(not(nameStartsWith("A")));
+        DogQuery same = breedIn(Arrays.asList(DogBreed.GREYHOUND, DogBreed.SHIBA_INU)).and(weightBetween(1, 10))
+                .or(nameStartsWith("A").negate());
+        assertEquals(query, same);
+        assertEquals(query.hashCode(), same.hashCode());
+        assertNotEquals(query, breed(DogBreed.SHIBA_INU).and(weightBetween(1, 10)).or(not(nameStartsWith("A"))));
+        assertEquals(bornAfter(LocalDate.of(2010, 1, 1)), bornAfter(LocalDate.of(2010, 1, 1)));
+        assertEquals(breed(DogBreed.SHIBA_INU), not(not(breed(DogBreed.SHIBA_INU))));
+    }
+}
@@ -3,24 +3,54 @@ package org.mycompany.animals.dogs;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.mycompany.animals.AnimalFactory;
 import org.mycompany.animals.AnimalType;
 import org.mycompany.animals.FactoryProvider;
+import org.mycompany.animals.RegistryCache;
 import org.mycompany.animals.dogs.config.DogRegistryConfig;
+import org.mycompany.animals.dogs.config.FsyncPolicy;
+import org.mycompany.animals.dogs.config.LoadMode;
+import org.mycompany.animals.dogs.config.StorageMode;
 import org.mycompany.animals.dogs.domain.Dog;
 import org.mycompany.animals.dogs.domain.DogBreed;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.StringContains.containsString;
@@ -39,6 +69,11 @@ class DogRegistryTest {
      * XML file to read and load a list of Dogs from.
      */
     final static String dogsFile =  "src/test/resources/dogs.xml";
+
+    /**
+     * Parallel thresholds the registries are loaded with to be scanned both sequentially and in parallel.
+     */
+    private static final int[] PARALLEL_THRESHOLDS = {Integer.MAX_VALUE, 1};
     /**
      * Animal Factory instance class for getting a concrete DogRegistry class instance.
      */
@@ -144,6 +179,22 @@ class DogRegistryTest {
         assertEquals("Rex", dogList.get(0).getName());
     }
 
+    /**
+     * Tests the {@link DogRegistry#dogsByCondition(Predicate)} dogsByCondition} method returns dogs sorted by date
+     * of birth in every storage mode, as {@link DogRegistry#dogsBornBetween(LocalDate, LocalDate) dogsBornBetween}
+     * does, rather than in the order of the file.
+     * @throws JAXBException
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void dogsByConditionOrder(StorageMode storageMode) throws JAXBException {
+        for (int parallelThreshold : PARALLEL_THRESHOLDS) {
+            DogRegistry<DogBreed> registry = load(storageMode, parallelThreshold, dogsFile);
+            assertEquals(names(registry.dogsBornBetween(LocalDate.MIN, LocalDate.MAX)),
+                    names(registry.dogsByCondition(dog -> true)));
+        }
+    }
+
     /**
      * Tests the {@link DogRegistry#oldestDogAfterDate(LocalDate) oldestDogAfterDate} method.
      * For this particular test, date will be 04-02-2005 so the oldest Dog in the file born after
@@ -159,6 +210,18 @@ class DogRegistryTest {
         assertEquals("Rhodesian Ridgeback", dog.getBreed().value());
     }
 
+    /**
+     * Tests the {@link DogRegistry#dogsBornBetween(LocalDate, LocalDate) dogsBornBetween} method.
+     * Both dates are included and dogs are returned from the oldest to the youngest.
+     */
+    @Test
+    void dogsBornBetween() {
+        List<Dog> dogList = dogRegistry.dogsBornBetween(LocalDate.of(2018, 6, 24), LocalDate.of(2018, 10, 14));
+        assertEquals(Arrays.asList("Nikko", "Fuji", "Kuki"), names(dogList));
+        assertTrue(dogRegistry.dogsBornBetween(LocalDate.of(2018, 10, 14), LocalDate.of(2018, 6, 24)).isEmpty());
+        assertEquals(15, dogRegistry.dogsBornBetween(LocalDate.MIN, LocalDate.MAX).size());
+    }
+
     @Test
     void loadNonValidFile() {
         assertThrows(JAXBException.class, () -> {
@@ -167,6 +230,1137 @@ class DogRegistryTest {
         });
     }
 
+    /**
+     * Tests the {@link LoadMode#STREAMING} load mode returns a registry with the same content as the
+     * default JAXB one.
+     * @throws JAXBException
+     */
+    @Test
+    void loadStreaming() throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        DogRegistry<DogBreed> streamed = new DogRegistryFactory(config).load(dogsFile);
+
+        assertEquals(dogRegistry.averageWeightPerBreed(), streamed.averageWeightPerBreed());
+        List<Dog> dogList = streamed.dogsByCondition(dog -> dog.getName().equals("Dorie"));
+        assertEquals(1, dogList.size());
+        assertEquals("04-10-2019", dogList.get(0).getDateOfBirth());
+        assertEquals(1.2, dogList.get(0).getWeight());
+        assertEquals(DogBreed.GERMAN_SHEPHERD, dogList.get(0).getBreed());
+    }
+
+    @Test
+    void loadStreamingNonValidFile() {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        assertThrows(JAXBException.class, () -> new DogRegistryFactory(config).load("fake.xml"));
+        assertThrows(JAXBException.class, () -> new DogRegistryFactory(config).load("README.md"));
+    }
+
+    /**
+     * Tests the {@link StorageMode#COLUMNAR} and {@link StorageMode#MAPPED} storage modes answer every query as the
+     * default one.
+     * @param loadMode Parameterized {@link LoadMode} so every mode is tested
+     * @throws JAXBException
+     */
+    @ParameterizedTest
+    @EnumSource(LoadMode.class)
+    void columnarStorage(LoadMode loadMode) throws JAXBException {
+        for (StorageMode storageMode : Arrays.asList(StorageMode.COLUMNAR, StorageMode.MAPPED)) {
+            assertColumnarStorage(loadMode, storageMode);
+        }
+    }
+
+    private void assertColumnarStorage(LoadMode loadMode, StorageMode storageMode) throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(loadMode);
+        config.setStorageMode(storageMode);
+        DogRegistry<DogBreed> columnar = new DogRegistryFactory(config).load(dogsFile);
+
+        assertTrue(storageMode == StorageMode.MAPPED
+                ? columnar instanceof MappedDogRegistry : columnar instanceof ColumnarDogRegistry);
+        for (DogBreed breed : DogBreed.values()) {
+            breedEnumDoubleBiConsumer.accept(breed, columnar.averageWeight(breed));
+        }
+        assertEquals(dogRegistry.averageWeightPerBreed(), columnar.averageWeightPerBreed());
+
+        List<Dog> dogList = columnar.dogsByCondition(dog -> dog.getWeight()>38 && dog.getName().equals("Rex"));
+        assertEquals(1, dogList.size());
+        assertEquals("18-12-2017", dogList.get(0).getDateOfBirth());
+
+        assertEquals(names(dogRegistry.dogsBornBetween(LocalDate.of(2010, 1, 1), LocalDate.of(2018, 12, 31))),
+                names(columnar.dogsBornBetween(LocalDate.of(2010, 1, 1), LocalDate.of(2018, 12, 31))));
+
+        Dog dog = columnar.oldestDogAfterDate(LocalDate.of(2005, 2, 4));
+        assertEquals("Riki", dog.getName());
+        assertEquals("05-02-2005", dog.getDateOfBirth());
+        assertEquals(38.0, dog.getWeight());
+        assertEquals(DogBreed.RHODESIAN_RIDGEBACK, dog.getBreed());
+    }
+
+    /**
+     * Tests the query cache answers repeated queries out of its results, is invalidated by writes to the registry
+     * and keeps within its size.
+     * @throws JAXBException
+     */
+    @Test
+    void queryCache() throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setQueryCacheMaxEntries(3);
+        config.setQueryCacheMaxDogs(10);
+        DogRegistryFactory factory = new DogRegistryFactory(config);
+        MutableDogRegistry<DogBreed> registry = (MutableDogRegistry<DogBreed>) factory.load(dogsFile);
+        CachingDogRegistry cache = factory.cache(registry);
+
+        DogQuery query = DogQuery.breed(DogBreed.SHIBA_INU).and(DogQuery.weightAtMost(10));
+        List<Dog> dogs = cache.dogsByCondition(query);
+        assertEquals(names(registry.dogsByCondition(query)), names(dogs));
+        dogs.clear();
+        assertEquals(names(registry.dogsByCondition(query)),
+                names(cache.dogsByCondition(DogQuery.breed(DogBreed.SHIBA_INU).and(DogQuery.weightAtMost(10)))));
+        assertEquals("Riki", cache.oldestDogAfterDate(LocalDate.of(2005, 2, 4)).getName());
+        assertEquals("Riki", cache.oldestDogAfterDate(LocalDate.of(2005, 2, 4)).getName());
+        cache.dogsByCondition(dog -> true);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate());
+
+        registry.register(dog("Hachi", "10-11-2023", 7, DogBreed.SHIBA_INU));
+        assertTrue(names(cache.dogsByCondition(query)).contains("Hachi"));
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(1, cache.getEntries());
+
+        for (int year = 2000; year < 2004; year++) {
+            cache.oldestDogAfterDate(LocalDate.of(year, 1, 1));
+        }
+        assertEquals(3, cache.getEntries());
+        assertEquals(2, cache.getEvictions());
+        cache.dogsBornBetween(LocalDate.of(1900, 1, 1), LocalDate.of(2100, 1, 1));
+        assertEquals(3, cache.getEntries());
+        assertTrue(cache.getDogs() <= 10);
+
+        cache.invalidate();
+        assertEquals(0, cache.getEntries());
+        assertThrows(IllegalArgumentException.class, () -> config.setQueryCacheMaxEntries(0));
+        assertThrows(IllegalArgumentException.class, () -> config.setQueryCacheMaxDogs(0));
+    }
+
+    /**
+     * Tests the lazy stream, page, count and visitor variants of dogsByCondition return the same dogs, in the same
+     * order, as the list.
+     * @param storageMode Parameterized {@link StorageMode} so every registry is tested
+     * @throws JAXBException
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void dogsByConditionVariants(StorageMode storageMode) throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setStorageMode(storageMode);
+        DogRegistry<DogBreed> registry = new DogRegistryFactory(config).load(dogsFile);
+
+        List<Predicate<Dog>> predicates = Arrays.asList(dog -> dog.getWeight() > 20,
+                DogQuery.weightAtLeast(20).and(DogQuery.bornAfter(LocalDate.of(2005, 1, 1))));
+        for (Predicate<Dog> predicate : predicates) {
+            List<String> expected = names(registry.dogsByCondition(predicate));
+            assertEquals(expected,
+                    registry.streamByCondition(predicate).map(Dog::getName).collect(Collectors.toList()));
+            assertEquals(expected.size(), registry.countByCondition(predicate));
+            assertEquals(expected.subList(2, 5), names(registry.dogsByCondition(predicate, 2, 3)));
+            assertEquals(expected.subList(3, expected.size()), names(registry.dogsByCondition(predicate, 3, 100)));
+            assertTrue(registry.dogsByCondition(predicate, expected.size(), 10).isEmpty());
+
+            List<Dog> visited = new ArrayList<>();
+            assertEquals(2, registry.visitByCondition(predicate, dog -> visited.add(dog) && visited.size() < 2));
+            assertEquals(expected.subList(0, 2), names(visited));
+        }
+        assertThrows(IllegalArgumentException.class, () -> registry.dogsByCondition(dog -> true, -1, 10));
+
+        AtomicInteger tested = new AtomicInteger();
+        assertTrue(registry.streamByCondition(dog -> tested.incrementAndGet() > 0).findFirst().isPresent());
+        assertTrue(tested.get() < 15);
+    }
+
+    /**
+     * Tests a batch of queries answered in a single pass returns the same results as the queries run one by one,
+     * both sequentially and in parallel.
+     * @param storageMode Parameterized {@link StorageMode} so every registry is tested
+     * @throws JAXBException
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void queryBatch(StorageMode storageMode) throws JAXBException {
+        for (int parallelThreshold : PARALLEL_THRESHOLDS) {
+            DogRegistry<DogBreed> registry = load(storageMode, parallelThreshold, dogsFile);
+
+            List<Predicate<Dog>> predicates = Arrays.asList(dog -> dog.getWeight() > 20,
+                    DogQuery.weightAtLeast(20).and(DogQuery.bornAfter(LocalDate.of(2005, 1, 1))),
+                    DogQuery.breedIn(DogBreed.SHIBA_INU, DogBreed.GREYHOUND),
+                    DogQuery.bornBefore(LocalDate.of(1900, 1, 1)));
+            DogBatch batch = new DogBatch();
+            List<DogBatch.Query<List<Dog>>> dogQueries = new ArrayList<>();
+            List<DogBatch.Query<Long>> countQueries = new ArrayList<>();
+            for (Predicate<Dog> predicate : predicates) {
+                dogQueries.add(batch.dogsByCondition(predicate));
+                countQueries.add(batch.countByCondition(predicate));
+            }
+            DogBatch.Query<EnumMap<DogBreed, Double>> averages = batch.averageWeightPerBreed(dog -> true);
+            DogBatch.Query<EnumMap<DogBreed, Double>> shibaAverages =
+                    batch.averageWeightPerBreed(DogQuery.breed(DogBreed.SHIBA_INU));
+
+            DogBatchResult result = registry.query(batch);
+            assertEquals(batch.size(), result.size());
+            for (int i = 0; i < predicates.size(); i++) {
+                List<String> expected = names(registry.dogsByCondition(predicates.get(i)));
+                assertEquals(expected, names(result.get(dogQueries.get(i))));
+                assertEquals(expected.size(), (long) result.get(countQueries.get(i)));
+            }
+            assertEquals(registry.averageWeightPerBreed(), result.get(averages));
+            assertEquals(1, result.get(shibaAverages).size());
+            assertEquals(registry.averageWeight(DogBreed.SHIBA_INU), result.get(shibaAverages).get(DogBreed.SHIBA_INU));
+            assertThrows(IllegalArgumentException.class, () -> result.get(new DogBatch().countByCondition(d -> true)));
+        }
+    }
+
+    /**
+     * Tests weight statistics per breed match the ones worked out out of the sorted weights, with percentiles
+     * within the accuracy of the sketch, and follow the writes made afterwards.
+     * @param storageMode Parameterized {@link StorageMode} so every registry is tested
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void weightStatistics(StorageMode storageMode, @TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 5000);
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setWeightSketchAccuracy(0.005);
+        for (int parallelThreshold : PARALLEL_THRESHOLDS) {
+            DogRegistry<DogBreed> registry = load(config, storageMode, parallelThreshold, file.toString());
+
+            EnumMap<DogBreed, WeightStatistics> statistics = registry.weightStatisticsPerBreed();
+            assertEquals(registry.averageWeightPerBreed().keySet(), statistics.keySet());
+            statistics.forEach((breed, breedStatistics) -> assertWeightStatistics(breedStatistics,
+                    registry.dogsByCondition(DogQuery.breed(breed)), 0.005));
+
+            if (registry instanceof MutableDogRegistry) {
+                MutableDogRegistry<DogBreed> mutable = (MutableDogRegistry<DogBreed>) registry;
+                mutable.register(dog("Heavy", "01-01-2015", 500, DogBreed.GREYHOUND));
+                WeightStatistics greyhounds = registry.weightStatisticsPerBreed().get(DogBreed.GREYHOUND);
+                assertEquals(500.0, greyhounds.getMax());
+                assertWeightStatistics(greyhounds, registry.dogsByCondition(DogQuery.breed(DogBreed.GREYHOUND)),
+                        0.005);
+            }
+        }
+
+        DogRegistry<DogBreed> registry = new DogRegistryFactory().load(dogsFile);
+        WeightStatistics riki = registry.weightStatisticsPerBreed().get(DogBreed.RHODESIAN_RIDGEBACK);
+        assertEquals(38.0, riki.getMean());
+        assertEquals(0.0, riki.getVariance());
+        assertThrows(IllegalArgumentException.class, () -> riki.getPercentile(101));
+        assertThrows(IllegalArgumentException.class, () -> new DogRegistryConfig().setWeightSketchAccuracy(1));
+    }
+
+    private static void assertWeightStatistics(WeightStatistics statistics, List<Dog> dogs, double accuracy) {
+        double[] weights = dogs.stream().mapToDouble(Dog::getWeight).sorted().toArray();
+        double mean = Arrays.stream(weights).average().orElse(Double.NaN);
+        assertEquals(weights.length, statistics.getCount());
+        assertEquals(weights[0], statistics.getMin());
+        assertEquals(weights[weights.length - 1], statistics.getMax());
+        assertEquals(mean, statistics.getMean(), 1e-9);
+        assertEquals(Arrays.stream(weights).map(w -> (w - mean) * (w - mean)).sum() / weights.length,
+                statistics.getVariance(), 1e-6);
+        for (double percentile : new double[]{0, 1, 25, 50, 90, 95, 99, 99.9, 100}) {
+            double weight = weights[(int) (percentile / 100 * (weights.length - 1))];
+            assertEquals(weight, statistics.getPercentile(percentile), weight * accuracy + 1e-9);
+        }
+    }
+
+    /**
+     * Tests the first dogs in every order, overall and per breed, are the ones of the matching dogs sorted in that
+     * order, ties kept in the order of dogsByCondition, both sequentially and in parallel.
+     * @param storageMode Parameterized {@link StorageMode} so every registry is tested
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void topDogs(StorageMode storageMode, @TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 2000);
+        DateTimeFormatter dateFormat = new DogRegistryConfig().getDateFormat();
+        List<Predicate<Dog>> predicates = Arrays.asList(dog -> dog.getWeight() % 3 != 0,
+                DogQuery.bornBetween(LocalDate.of(2006, 1, 1), LocalDate.of(2010, 1, 1))
+                        .and(DogQuery.weightBetween(15, 45)),
+                DogQuery.breedIn(DogBreed.SHIBA_INU, DogBreed.GREYHOUND));
+        for (String fileName : new String[]{dogsFile, file.toString()}) {
+            for (int parallelThreshold : PARALLEL_THRESHOLDS) {
+                DogRegistry<DogBreed> registry = load(storageMode, parallelThreshold, fileName);
+                for (Predicate<Dog> predicate : predicates) {
+                    List<Dog> matching = registry.dogsByCondition(predicate);
+                    for (DogOrder order : DogOrder.values()) {
+                        Comparator<Dog> comparator = order == DogOrder.HEAVIEST || order == DogOrder.LIGHTEST
+                                ? Comparator.comparingDouble(Dog::getWeight)
+                                : Comparator.comparing(dog -> LocalDate.parse(dog.getDateOfBirth(), dateFormat));
+                        if (order == DogOrder.HEAVIEST || order == DogOrder.YOUNGEST) {
+                            comparator = comparator.reversed();
+                        }
+                        List<Dog> sorted = new ArrayList<>(matching);
+                        sorted.sort(comparator);
+                        for (int limit : new int[]{0, 1, 7, 50, 5000}) {
+                            assertEquals(names(sorted.subList(0, Math.min(limit, sorted.size()))),
+                                    names(registry.topDogs(predicate, order, limit)), order + " " + limit);
+                            EnumMap<DogBreed, List<Dog>> perBreed = registry.topDogsPerBreed(predicate, order, limit);
+                            for (DogBreed breed : DogBreed.values()) {
+                                List<String> expected = sorted.stream().filter(dog -> dog.getBreed() == breed)
+                                        .limit(limit).map(Dog::getName).collect(Collectors.toList());
+                                assertEquals(expected, names(perBreed.getOrDefault(breed, new ArrayList<>())));
+                            }
+                        }
+                    }
+                }
+                assertThrows(IllegalArgumentException.class, () -> registry.topDogs(dog -> true, DogOrder.OLDEST, -1));
+            }
+        }
+    }
+
+    /**
+     * Tests exact and case-insensitive prefix lookups by name, and that the name index follows the writes made
+     * after it is built.
+     * @param storageMode Parameterized {@link StorageMode} so every registry is tested
+     * @throws JAXBException
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void nameIndex(StorageMode storageMode) throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setStorageMode(storageMode);
+        DogRegistry<DogBreed> registry = new DogRegistryFactory(config).load(dogsFile);
+
+        assertEquals(Arrays.asList("Rex"), names(registry.dogsByName("Rex")));
+        assertEquals(38.0, registry.dogsByName("Riki").get(0).getWeight());
+        assertTrue(registry.dogsByName("rex").isEmpty());
+        assertTrue(registry.dogsByName(null).isEmpty());
+        assertEquals(Arrays.asList("Rex", "Riki"), names(registry.dogsByNamePrefix("r", 10)));
+        assertEquals(Arrays.asList("Rex"), names(registry.dogsByNamePrefix("R", 1)));
+        assertEquals(Arrays.asList("Dorie"), names(registry.dogsByNamePrefix("DOR", 10)));
+        assertEquals(15, registry.dogsByNamePrefix("", 100).size());
+        assertEquals(Arrays.asList("Ace", "Baldi", "Corrie"), names(registry.dogsByNamePrefix("", 3)));
+        assertTrue(registry.dogsByNamePrefix("x", 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> registry.dogsByNamePrefix("r", -1));
+
+        if (registry instanceof MutableDogRegistry) {
+            MutableDogRegistry<DogBreed> mutable = (MutableDogRegistry<DogBreed>) registry;
+            mutable.register(dog("rocky", "01-01-2015", 20, DogBreed.GREYHOUND));
+            assertThrows(IllegalArgumentException.class,
+                    () -> mutable.register(dog("rocky", "01-01-2015", 20, DogBreed.GREYHOUND)));
+            assertTrue(mutable.deregister("Rex"));
+            assertTrue(mutable.update(dog("Riki", "05-02-2005", 40, DogBreed.RHODESIAN_RIDGEBACK)));
+            assertEquals(Arrays.asList("Riki", "rocky"), names(registry.dogsByNamePrefix("R", 10)));
+            assertEquals(40.0, registry.dogsByName("Riki").get(0).getWeight());
+            assertTrue(registry.dogsByName("Rex").isEmpty());
+        }
+    }
+
+    /**
+     * Tests changing the dogs passed to or returned by a registry changes neither its weight averages nor which dogs
+     * are updated or deregistered.
+     * @throws JAXBException
+     */
+    @Test
+    void changedDogsAreDeregistered() throws JAXBException {
+        MutableDogRegistry<DogBreed> registry = (MutableDogRegistry<DogBreed>) new DogRegistryFactory().load(dogsFile);
+        EnumMap<DogBreed, Double> averages = registry.averageWeightPerBreed();
+
+        Dog hachi = dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU);
+        registry.register(hachi);
+        hachi.setWeight(1000);
+        assertEquals((17 + 7.5 + 41) / 3, registry.averageWeight(DogBreed.SHIBA_INU), 1e-9);
+
+        Dog returned = registry.dogsByName("Hachi").get(0);
+        returned.setWeight(1000);
+        returned.setBreed(DogBreed.GREYHOUND);
+        assertEquals((17 + 7.5 + 41) / 3, registry.averageWeight(DogBreed.SHIBA_INU), 1e-9);
+        assertTrue(registry.update(dog("Hachi", "10-11-1923", 40, DogBreed.SHIBA_INU)));
+        assertEquals((17 + 7.5 + 40) / 3, registry.averageWeight(DogBreed.SHIBA_INU), 1e-9);
+
+        returned = registry.dogsByName("Hachi").get(0);
+        returned.setWeight(1000);
+        returned.setBreed(DogBreed.GREYHOUND);
+        assertTrue(registry.deregister("Hachi"));
+        assertTrue(registry.dogsByName("Hachi").isEmpty());
+        assertEquals(averages, registry.averageWeightPerBreed());
+        assertEquals(15, registry.countByCondition(dog -> true));
+    }
+
+    /**
+     * Tests deregistering the heaviest and lightest dogs of a breed leaves the extremes written to snapshots right,
+     * although writes no longer work them out again.
+     * @throws JAXBException
+     */
+    @Test
+    void staleExtremes() throws JAXBException {
+        DogRegistryImpl registry = (DogRegistryImpl) new DogRegistryFactory().load(dogsFile);
+        int ordinal = DogBreed.SHIBA_INU.ordinal();
+        registry.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+        registry.register(dog("Tiny", "10-11-1924", 1, DogBreed.SHIBA_INU));
+        assertEquals(41, registry.toColumnar().aggregates.max(ordinal));
+        assertEquals(1, registry.toColumnar().aggregates.min(ordinal));
+
+        assertTrue(registry.deregister("Hachi"));
+        assertTrue(registry.deregister("Tiny"));
+        WeightAggregates aggregates = registry.toColumnar().aggregates;
+        assertEquals(17, aggregates.max(ordinal));
+        assertEquals(7.5, aggregates.min(ordinal));
+        assertFalse(aggregates.hasStaleExtremes(ordinal));
+        assertEquals((17 + 7.5) / 2, registry.averageWeight(DogBreed.SHIBA_INU), 1e-9);
+    }
+
+    /**
+     * Tests registering, updating and deregistering dogs keeps queries and weight averages up to date.
+     * @throws JAXBException
+     */
+    @Test
+    void registerUpdateAndDeregister() throws JAXBException {
+        MutableDogRegistry<DogBreed> registry = (MutableDogRegistry<DogBreed>) new DogRegistryFactory().load(dogsFile);
+
+        registry.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+        assertEquals(1, registry.dogsByCondition(dog -> dog.getName().equals("Hachi")).size());
+        assertEquals((17 + 7.5 + 41) / 3, registry.averageWeight(DogBreed.SHIBA_INU), 1e-9);
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU)));
+        assertThrows(IllegalArgumentException.class,
+                () -> registry.register(dog("Lassie", "1940", 20, DogBreed.SHIBA_INU)));
+
+        assertTrue(registry.update(dog("Hachi", "10-11-1923", 41, DogBreed.GREYHOUND)));
+        breedEnumDoubleBiConsumer.accept(DogBreed.SHIBA_INU, registry.averageWeight(DogBreed.SHIBA_INU));
+        assertEquals(35.0, registry.averageWeight(DogBreed.GREYHOUND));
+        assertFalse(registry.update(dog("Lassie", "10-11-1940", 20, DogBreed.GREYHOUND)));
+
+        assertTrue(registry.deregister("Hachi"));
+        assertFalse(registry.deregister("Hachi"));
+        assertTrue(registry.dogsByCondition(dog -> dog.getName().equals("Hachi")).isEmpty());
+        assertTrue(registry.deregister("Baldi"));
+        assertFalse(registry.averageWeightPerBreed().containsKey(DogBreed.BERNESE_MOUNTAIN_DOG));
+        assertEquals(0.0, registry.averageWeight(DogBreed.BERNESE_MOUNTAIN_DOG));
+    }
+
+    /**
+     * Tests a change file is applied at once with the same result as registering, updating and deregistering its
+     * dogs one by one, and that a change set which can not be applied leaves the registry untouched.
+     * @param tempDir Temporary directory where the change files are written
+     * @throws Exception
+     */
+    @Test
+    void applyChanges(@TempDir Path tempDir) throws Exception {
+        DogRegistryFactory factory = new DogRegistryFactory();
+        MutableDogRegistry<DogBreed> registry = (MutableDogRegistry<DogBreed>) factory.load(dogsFile);
+        MutableDogRegistry<DogBreed> expected = (MutableDogRegistry<DogBreed>) factory.load(dogsFile);
+        Path changes = tempDir.resolve("changes.xml");
+        Files.write(changes, ("<dogChanges>" +
+                "<removed><dog name=\"Riki\"/><dog name=\"Nobody\"/></removed>" +
+                "<modified><dog name=\"Baldi\"><dateOfBirth>10-03-2010</dateOfBirth><weight>30</weight>" +
+                "<breed>Greyhound</breed></dog><dog name=\"Lassie\"><dateOfBirth>10-11-1940</dateOfBirth>" +
+                "<weight>20</weight><breed>Greyhound</breed></dog></modified>" +
+                "<added><dog name=\"Hachi\"><dateOfBirth>10-11-1923</dateOfBirth><weight>41</weight>" +
+                "<breed>Shiba Inu</breed></dog></added>" +
+                "</dogChanges>").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(3, factory.applyChanges(registry, changes.toString()));
+        expected.deregister("Riki");
+        expected.update(dog("Baldi", "10-03-2010", 30, DogBreed.GREYHOUND));
+        expected.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+        LocalDate from = LocalDate.of(1900, 1, 1);
+        LocalDate to = LocalDate.of(2100, 1, 1);
+        assertEquals(names(expected.dogsBornBetween(from, to)), names(registry.dogsBornBetween(from, to)));
+        assertEquals(expected.averageWeightPerBreed(), registry.averageWeightPerBreed());
+        assertEquals("Hachi", registry.oldestDogAfterDate(from).getName());
+
+        Files.write(changes, ("<dogChanges><removed><dog name=\"Hachi\"/></removed>" +
+                "<added><dog name=\"Corrie\"><dateOfBirth>18-03-2012</dateOfBirth><weight>17</weight>" +
+                "<breed>Shiba Inu</breed></dog></added></dogChanges>").getBytes(StandardCharsets.UTF_8));
+        JAXBException exception = assertThrows(JAXBException.class,
+                () -> factory.applyChanges(registry, changes.toString()));
+        assertThat(exception.getMessage(), containsString("Corrie is already registered"));
+        assertEquals(names(expected.dogsBornBetween(from, to)), names(registry.dogsBornBetween(from, to)));
+
+        Files.write(changes, ("<dogChanges><dog name=\"Rex\"/></dogChanges>").getBytes(StandardCharsets.UTF_8));
+        assertThrows(JAXBException.class, () -> factory.applyChanges(registry, changes.toString()));
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setStorageMode(StorageMode.COLUMNAR);
+        DogRegistry<DogBreed> columnar = new DogRegistryFactory(config).load(dogsFile);
+        assertThrows(IllegalArgumentException.class, () -> factory.applyChanges(columnar, changes.toString()));
+    }
+
+    /**
+     * Tests the changes of a persistent registry are recovered when its directory is opened again, from the logs
+     * and from the snapshots written by checkpoints, and that a record half written at the end of the log is left
+     * out.
+     * @param fsyncPolicy Parameterized {@link FsyncPolicy} so every policy is tested
+     * @param tempDir Temporary directory of the registry
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(FsyncPolicy.class)
+    void persistentRegistry(FsyncPolicy fsyncPolicy, @TempDir Path tempDir) throws Exception {
+        Files.copy(Paths.get(dogsFile), tempDir.resolve("dogs.xml"));
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setFsyncPolicy(fsyncPolicy);
+        DogRegistryFactory factory = new DogRegistryFactory(config);
+        MutableDogRegistry<DogBreed> expected = (MutableDogRegistry<DogBreed>) factory.load(dogsFile);
+        LocalDate from = LocalDate.of(1900, 1, 1);
+        LocalDate to = LocalDate.of(2100, 1, 1);
+
+        try (PersistentDogRegistry registry = factory.openPersistent(tempDir.toString())) {
+            assertTrue(Files.exists(tempDir.resolve("dogs-0.snapshot")));
+            assertEquals(names(expected.dogsBornBetween(from, to)), names(registry.dogsBornBetween(from, to)));
+            assertThrows(JAXBException.class, () -> factory.load(tempDir.toString()));
+            for (MutableDogRegistry<DogBreed> target : Arrays.asList(expected, registry)) {
+                target.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+                target.update(dog("Baldi", "10-03-2010", 30, DogBreed.GREYHOUND));
+                target.deregister("Riki");
+            }
+            char[] longName = new char[70000];
+            Arrays.fill(longName, 'a');
+            assertThrows(IllegalArgumentException.class,
+                    () -> registry.register(dog(new String(longName), "10-11-1923", 41, DogBreed.SHIBA_INU)));
+            assertTrue(registry.dogsByName(new String(longName)).isEmpty());
+            registry.checkpoint();
+            assertTrue(Files.exists(tempDir.resolve("dogs-1.snapshot")));
+            assertFalse(Files.exists(tempDir.resolve("dogs-0.wal")));
+            assertFalse(Files.exists(tempDir.resolve("dogs-0.snapshot")));
+            for (MutableDogRegistry<DogBreed> target : Arrays.asList(expected, registry)) {
+                target.register(dog("Lassie", "10-11-1940", 20, DogBreed.GREYHOUND));
+                target.deregister("Hachi");
+            }
+            assertTrue(registry.getLogBytes() > 0);
+        }
+
+        try (FileChannel log = FileChannel.open(tempDir.resolve("dogs-1.wal"), StandardOpenOption.APPEND)) {
+            log.write(ByteBuffer.wrap(new byte[]{100, 0, 0, 0, 1, 2, 3}));
+        }
+        DogRegistry<DogBreed> recovered = factory.load(tempDir.toString());
+        try {
+            assertTrue(recovered instanceof PersistentDogRegistry);
+            assertEquals(names(expected.dogsBornBetween(from, to)), names(recovered.dogsBornBetween(from, to)));
+            assertEquals(expected.averageWeightPerBreed(), recovered.averageWeightPerBreed());
+            ((PersistentDogRegistry) recovered).register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+        } finally {
+            ((PersistentDogRegistry) recovered).close();
+        }
+        assertThrows(IllegalStateException.class,
+                () -> ((PersistentDogRegistry) recovered).deregister("Hachi"));
+
+        try (PersistentDogRegistry registry = factory.openPersistent(tempDir.toString())) {
+            expected.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+            assertEquals(names(expected.dogsBornBetween(from, to)), names(registry.dogsBornBetween(from, to)));
+        }
+    }
+
+    /**
+     * Tests a directory holding logs but no snapshot to replay them on, as left by a crash right after the first log
+     * was rotated, is reported as corrupted instead of failing to open.
+     * @param tempDir Temporary directory of the registry
+     * @throws Exception
+     */
+    @Test
+    void persistentRegistryWithoutSnapshot(@TempDir Path tempDir) throws Exception {
+        Files.copy(Paths.get(dogsFile), tempDir.resolve("dogs.xml"));
+        DogRegistryFactory factory = new DogRegistryFactory();
+        try (PersistentDogRegistry registry = factory.openPersistent(tempDir.toString())) {
+            registry.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+        }
+        Files.createFile(tempDir.resolve("dogs-1.wal"));
+        Files.delete(tempDir.resolve("dogs-0.snapshot"));
+
+        JAXBException e = assertThrows(UnmarshalException.class, () -> factory.openPersistent(tempDir.toString()));
+        assertThat(e.getMessage(), containsString("no snapshot"));
+        assertThrows(JAXBException.class, () -> factory.load(tempDir.toString()));
+        assertTrue(Files.exists(tempDir.resolve("dogs-0.wal")));
+    }
+
+    /**
+     * Tests random registrations, updates and deregistrations on a large registry leave the same dogs as a map of
+     * the dogs by name, and that deregistering a name loaded more than once removes every dog with that name.
+     * @param tempDir Temporary directory where the dogs files are written
+     * @throws Exception
+     */
+    @Test
+    void randomWrites(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 3000);
+        MutableDogRegistry<DogBreed> registry =
+                (MutableDogRegistry<DogBreed>) new DogRegistryFactory().load(file.toString());
+        Map<String, Dog> expected = new TreeMap<>();
+        for (Dog dog : registry.dogsByCondition(dog -> true)) {
+            expected.put(dog.getName(), dog);
+        }
+        Random random = new Random(3);
+        DateTimeFormatter dateFormat = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+        for (int i = 0; i < 2000; i++) {
+            String name = "Dog-" + random.nextInt(3500);
+            Dog dog = dog(name, LocalDate.of(2005, 1, 1).plusDays(random.nextInt(40)).format(dateFormat),
+                    random.nextInt(60), DogBreed.values()[random.nextInt(DogBreed.values().length)]);
+            switch (random.nextInt(3)) {
+                case 0:
+                    if (expected.putIfAbsent(name, dog) == null) {
+                        registry.register(dog);
+                    }
+                    break;
+                case 1:
+                    assertEquals(expected.replace(name, dog) != null, registry.update(dog));
+                    break;
+                default:
+                    assertEquals(expected.remove(name) != null, registry.deregister(name));
+                    break;
+            }
+        }
+        List<Dog> dogs = new ArrayList<>(registry.dogsByCondition(dog -> true));
+        dogs.sort(Comparator.comparing(Dog::getName));
+        assertEquals(new ArrayList<>(expected.keySet()), names(dogs));
+        for (Dog dog : dogs) {
+            assertEquals(expected.get(dog.getName()).toString(), dog.toString());
+        }
+        assertEquals(expected.size(), registry.dogsBornBetween(LocalDate.MIN, LocalDate.MAX).size());
+
+        Files.write(file, ("<dogs>" +
+                "<dog name=\"Twin\"><dateOfBirth>01-01-2010</dateOfBirth><weight>10</weight>" +
+                "<breed>Greyhound</breed></dog>" +
+                "<dog name=\"Twin\"><dateOfBirth>01-01-2010</dateOfBirth><weight>20</weight>" +
+                "<breed>Greyhound</breed></dog>" +
+                "<dog name=\"Twin\"><dateOfBirth>01-01-2012</dateOfBirth><weight>30</weight>" +
+                "<breed>Shiba Inu</breed></dog>" +
+                "<dog name=\"Solo\"><dateOfBirth>01-01-2010</dateOfBirth><weight>40</weight>" +
+                "<breed>Greyhound</breed></dog>" +
+                "</dogs>").getBytes(StandardCharsets.UTF_8));
+        MutableDogRegistry<DogBreed> twins =
+                (MutableDogRegistry<DogBreed>) new DogRegistryFactory().load(file.toString());
+        assertTrue(twins.deregister("Twin"));
+        assertEquals(Arrays.asList("Solo"), names(twins.dogsByCondition(dog -> true)));
+        assertEquals(40.0, twins.averageWeight(DogBreed.GREYHOUND));
+        assertEquals(0.0, twins.averageWeight(DogBreed.SHIBA_INU));
+    }
+
+    /**
+     * Tests readers never see a dog twice or not at all while it is being moved from a breed to another
+     * by a concurrent writer, neither scanning the dogs nor looking them up by name.
+     * @throws Exception
+     */
+    @Test
+    void concurrentReadersDoNotSeeTornState() throws Exception {
+        MutableDogRegistry<DogBreed> registry = (MutableDogRegistry<DogBreed>) new DogRegistryFactory().load(dogsFile);
+        registry.register(dog("Hachi", "10-11-1923", 41, DogBreed.SHIBA_INU));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger tornReads = new AtomicInteger();
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                registry.update(dog("Hachi", "10-11-1923", 41, DogBreed.values()[i % DogBreed.values().length]));
+            }
+            done.set(true);
+        });
+        writer.start();
+        while (!done.get()) {
+            if (registry.dogsByCondition(dog -> dog.getName().equals("Hachi")).size() != 1) {
+                tornReads.incrementAndGet();
+            }
+            if (registry.dogsByName("Hachi").size() != 1 || registry.dogsByNamePrefix("hach", 10).size() != 1) {
+                tornReads.incrementAndGet();
+            }
+        }
+        writer.join();
+        assertEquals(0, tornReads.get());
+        assertEquals(16, registry.dogsByCondition(dog -> true).size());
+    }
+
+    /**
+     * Tests scanning every breed in parallel returns the same dogs, in the same order, as scanning them one
+     * after another, also after dogs are registered.
+     * @throws JAXBException
+     */
+    @Test
+    void parallelScans() throws JAXBException {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setParallelThreshold(0);
+        MutableDogRegistry<DogBreed> parallel = (MutableDogRegistry<DogBreed>) new DogRegistryFactory(config)
+                .load(dogsFile);
+        parallel.register(dog("Hachi", "05-02-2005", 41, DogBreed.SHIBA_INU));
+        MutableDogRegistry<DogBreed> sequential = (MutableDogRegistry<DogBreed>) new DogRegistryFactory()
+                .load(dogsFile);
+        sequential.register(dog("Hachi", "05-02-2005", 41, DogBreed.SHIBA_INU));
+
+        Predicate<Dog> predicate = dog -> dog.getWeight() > 20;
+        assertEquals(names(sequential.dogsByCondition(predicate)), names(parallel.dogsByCondition(predicate)));
+        DogQuery query = DogQuery.weightAtLeast(20).and(DogQuery.bornAfter(LocalDate.of(2004, 12, 31)));
+        assertEquals(names(sequential.dogsByCondition(query)), names(parallel.dogsByCondition(query)));
+        assertEquals(names(sequential.dogsByCondition(dog -> true)), names(parallel.dogsByCondition(dog -> true)));
+        assertEquals(16, parallel.dogsByCondition(dog -> true).size());
+        assertEquals("Hachi", parallel.oldestDogAfterDate(LocalDate.of(2005, 2, 4)).getName());
+    }
+
+    /**
+     * Tests a registry written as a binary snapshot is loaded back with the same dogs, in the same order, and the
+     * same weight averages for every storage mode, that every section of an odd number of dogs is aligned to 8 bytes
+     * and that truncated snapshots are rejected.
+     * @param storageMode Parameterized {@link StorageMode} of the registry written
+     * @param tempDir Temporary directory where the snapshot is written
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void snapshot(StorageMode storageMode, @TempDir Path tempDir) throws Exception {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setStorageMode(storageMode);
+        DogRegistryFactory factory = new DogRegistryFactory(config);
+        DogRegistry<DogBreed> registry = factory.load(dogsFile);
+        Path snapshotFile = tempDir.resolve("dogs.snapshot");
+        factory.writeSnapshot(registry, snapshotFile.toString());
+
+        for (StorageMode loadedStorageMode : StorageMode.values()) {
+            DogRegistryConfig loadedConfig = new DogRegistryConfig();
+            loadedConfig.setStorageMode(loadedStorageMode);
+            DogRegistry<DogBreed> loaded = new DogRegistryFactory(loadedConfig).load(snapshotFile.toString());
+            assertEquals(loadedStorageMode == StorageMode.MAPPED, loaded instanceof MappedDogRegistry);
+            for (DogBreed breed : DogBreed.values()) {
+                breedEnumDoubleBiConsumer.accept(breed, loaded.averageWeight(breed));
+            }
+            assertEquals(registry.averageWeightPerBreed(), loaded.averageWeightPerBreed());
+            assertEquals(names(registry.dogsByCondition(dog -> true)), names(loaded.dogsByCondition(dog -> true)));
+            assertEquals(datesOfBirth(registry.dogsByCondition(dog -> true)),
+                    datesOfBirth(loaded.dogsByCondition(dog -> true)));
+            assertEquals("Riki", loaded.oldestDogAfterDate(LocalDate.of(2005, 2, 4)).getName());
+            assertEquals(38.0, loaded.dogsByName("Riki").get(0).getWeight());
+            assertTrue(loaded.dogsByName("riki").isEmpty());
+            assertEquals(Arrays.asList("Rex", "Riki"), names(loaded.dogsByNamePrefix("r", 10)));
+            assertEquals(names(registry.dogsByNamePrefix("", 100)), names(loaded.dogsByNamePrefix("", 100)));
+        }
+
+        DogSnapshotFormat.Layout layout = new DogSnapshotFormat.Layout(15, 15, 77);
+        for (long offset : new long[]{layout.aggregatesOffset, layout.weightsOffset, layout.birthDaysOffset,
+                layout.nameIdsOffset, layout.breedsOffset, layout.nameOffsetsOffset, layout.namesOffset}) {
+            assertEquals(0, offset % Long.BYTES);
+        }
+
+        byte[] bytes = Files.readAllBytes(snapshotFile);
+        Path truncatedFile = tempDir.resolve("truncated.snapshot");
+        Files.write(truncatedFile, Arrays.copyOf(bytes, bytes.length - 1));
+        JAXBException e = assertThrows(JAXBException.class,
+                () -> new DogRegistryFactory().load(truncatedFile.toString()));
+        assertThat(e.getMessage(), containsString("bytes long"));
+    }
+
+    /**
+     * Tests the load statistics are recorded and that the shared JAXB context makes a second load skip the
+     * context setup.
+     * @throws JAXBException
+     */
+    @Test
+    void loadStatistics() throws JAXBException {
+        DogRegistryFactory factory = new DogRegistryFactory();
+        assertNull(factory.getLastLoadStatistics());
+        factory.load(dogsFile);
+        LoadStatistics statistics = factory.getLastLoadStatistics();
+        assertEquals(15, statistics.getDogs());
+        assertEquals(statistics.getTotalNanos(),
+                statistics.getSetupNanos() + statistics.getParseNanos() + statistics.getBuildNanos());
+    }
+
+    /**
+     * Tests a {@link DogRegistryMetrics} listener counts the calls, dogs scanned and returned, latencies and loads,
+     * and is exposed through JMX.
+     * @param storageMode Parameterized {@link StorageMode} so every registry is tested
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(StorageMode.class)
+    void metrics(StorageMode storageMode) throws Exception {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setStorageMode(storageMode);
+        DogRegistryMetrics metrics = new DogRegistryMetrics();
+        config.setListener(metrics);
+        DogRegistry<DogBreed> registry = new DogRegistryFactory(config).load(dogsFile);
+        assertEquals(1, metrics.getLoads());
+        assertEquals(15, metrics.getDogsLoaded());
+
+        registry.averageWeight(DogBreed.SHIBA_INU);
+        registry.averageWeight(DogBreed.GREYHOUND);
+        List<Dog> heavy = registry.dogsByCondition(dog -> dog.getWeight() > 38);
+        List<Dog> born = registry.dogsBornBetween(LocalDate.of(2010, 1, 1), LocalDate.of(2018, 12, 31));
+        assertEquals(2, metrics.getCalls(DogRegistryMethod.AVERAGE_WEIGHT));
+        assertEquals(0, metrics.getRowsScanned(DogRegistryMethod.AVERAGE_WEIGHT));
+        assertEquals(15, metrics.getRowsScanned(DogRegistryMethod.DOGS_BY_CONDITION));
+        assertEquals(heavy.size(), metrics.getRowsReturned(DogRegistryMethod.DOGS_BY_CONDITION));
+        assertEquals(born.size(), metrics.getRowsReturned(DogRegistryMethod.DOGS_BORN_BETWEEN));
+        assertEquals(heavy.size(), registry.countByCondition(dog -> dog.getWeight() > 38));
+        assertEquals(heavy.size(), metrics.getRowsReturned(DogRegistryMethod.COUNT_BY_CONDITION));
+        assertEquals(1, registry.dogsByName("Rex").size());
+        assertEquals(1, metrics.getCalls(DogRegistryMethod.DOGS_BY_NAME));
+        assertEquals(1, metrics.getRowsReturned(DogRegistryMethod.DOGS_BY_NAME));
+        List<Dog> prefixed = registry.dogsByNamePrefix("r", 10);
+        assertEquals(1, metrics.getCalls(DogRegistryMethod.DOGS_BY_NAME_PREFIX));
+        assertEquals(prefixed.size(), metrics.getRowsReturned(DogRegistryMethod.DOGS_BY_NAME_PREFIX));
+
+        // Streams are reported once exhausted or closed, not when they are built
+        Stream<Dog> stream = registry.streamByCondition(dog -> dog.getWeight() > 38);
+        assertEquals(0, metrics.getCalls(DogRegistryMethod.STREAM_BY_CONDITION));
+        assertEquals(heavy.size(), stream.count());
+        stream.close();
+        assertEquals(1, metrics.getCalls(DogRegistryMethod.STREAM_BY_CONDITION));
+        assertEquals(15, metrics.getRowsScanned(DogRegistryMethod.STREAM_BY_CONDITION));
+        assertEquals(heavy.size(), metrics.getRowsReturned(DogRegistryMethod.STREAM_BY_CONDITION));
+        try (Stream<Dog> first = registry.streamByCondition(dog -> true)) {
+            assertTrue(first.findFirst().isPresent());
+        }
+        assertEquals(2, metrics.getCalls(DogRegistryMethod.STREAM_BY_CONDITION));
+        assertEquals(heavy.size() + 1, metrics.getRowsReturned(DogRegistryMethod.STREAM_BY_CONDITION));
+        assertEquals(0, metrics.getCalls(DogRegistryMethod.OLDEST_DOG_AFTER_DATE));
+        assertEquals(2, Arrays.stream(metrics.getLatencyHistogram(DogRegistryMethod.AVERAGE_WEIGHT)).sum());
+        long median = metrics.getLatencyPercentileNanos(DogRegistryMethod.AVERAGE_WEIGHT, 50);
+        long max = metrics.getLatencyPercentileNanos(DogRegistryMethod.AVERAGE_WEIGHT, 100);
+        assertTrue(median <= max);
+        assertTrue(max >= metrics.getMeanLatencyNanos(DogRegistryMethod.AVERAGE_WEIGHT));
+        assertEquals(0, metrics.getLatencyPercentileNanos(DogRegistryMethod.REGISTER, 99));
+        assertThrows(IllegalArgumentException.class,
+                () -> metrics.getLatencyPercentileNanos(DogRegistryMethod.AVERAGE_WEIGHT, 101));
+        assertEquals(Long.valueOf(2), metrics.getCalls().get("AVERAGE_WEIGHT"));
+        assertFalse(metrics.getCalls().containsKey("OLDEST_DOG_AFTER_DATE"));
+
+        if (registry instanceof MutableDogRegistry) {
+            MutableDogRegistry<DogBreed> mutable = (MutableDogRegistry<DogBreed>) registry;
+            assertFalse(mutable.deregister("Nobody"));
+            assertEquals(1, metrics.getCalls(DogRegistryMethod.DEREGISTER));
+            assertEquals(0, metrics.getRowsReturned(DogRegistryMethod.DEREGISTER));
+        }
+
+        String name = "metrics-" + storageMode;
+        ObjectName objectName = new ObjectName(DogRegistryMetrics.OBJECT_NAME_PREFIX + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.registerMBean(name);
+        try {
+            assertEquals(1L, server.getAttribute(objectName, "Loads"));
+            assertThrows(IllegalStateException.class, () -> metrics.registerMBean(name));
+            server.invoke(objectName, "reset", null, null);
+            assertEquals(0, metrics.getCalls(DogRegistryMethod.AVERAGE_WEIGHT));
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(server.isRegistered(objectName));
+
+        config.setListener(null);
+        registry.averageWeight(DogBreed.SHIBA_INU);
+        assertEquals(0, metrics.getCalls(DogRegistryMethod.AVERAGE_WEIGHT));
+    }
+
+    /**
+     * Tests the schema validation against the bundled dogs.xsd. The test file is not valid as there are
+     * dogs with a non integer weight.
+     * @param loadMode Parameterized {@link LoadMode} so validation is tested for every mode
+     * @param tempDir Temporary directory where a valid file is written
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(LoadMode.class)
+    void loadWithSchemaValidation(LoadMode loadMode, @TempDir Path tempDir) throws Exception {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(loadMode);
+        config.setSchemaValidation(true);
+        DogRegistryFactory factory = new DogRegistryFactory(config);
+        assertThrows(JAXBException.class, () -> factory.load(dogsFile));
+
+        Path validFile = tempDir.resolve("valid-dogs.xml");
+        Files.write(validFile, ("<dogs><dog name=\"Rex\"><dateOfBirth>18-12-2017</dateOfBirth>" +
+                "<weight>40</weight><breed>German Shepherd</breed></dog></dogs>").getBytes(StandardCharsets.UTF_8));
+        DogRegistry<DogBreed> registry = factory.load(validFile.toString());
+        assertEquals(40.0, registry.averageWeight(DogBreed.GERMAN_SHEPHERD));
+    }
+
+    /**
+     * Tests a date of birth not matching the configured date format is reported when the file is loaded.
+     * @param loadMode Parameterized {@link LoadMode} so every mode is tested
+     * @param tempDir Temporary directory where the file is written
+     * @throws Exception
+     */
+    @ParameterizedTest
+    @EnumSource(LoadMode.class)
+    void loadNonValidDateOfBirth(LoadMode loadMode, @TempDir Path tempDir) throws Exception {
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(loadMode);
+        Path file = tempDir.resolve("dogs.xml");
+        Files.write(file, ("<dogs><dog name=\"Rex\"><dateOfBirth>2017-12-18</dateOfBirth>" +
+                "<weight>40</weight><breed>German Shepherd</breed></dog></dogs>").getBytes(StandardCharsets.UTF_8));
+
+        JAXBException exception = assertThrows(JAXBException.class,
+                () -> new DogRegistryFactory(config).load(file.toString()));
+        assertThat(exception.getMessage(), containsString("2017-12-18"));
+
+        config.setDateFormat("yyyy-MM-dd");
+        DogRegistry<DogBreed> registry = new DogRegistryFactory(config).load(file.toString());
+        assertEquals("Rex", registry.oldestDogAfterDate(LocalDate.of(2017, 12, 17)).getName());
+        assertNull(registry.oldestDogAfterDate(LocalDate.of(2017, 12, 18)));
+    }
+
+    /**
+     * Tests a file large enough to be split in several chunks is loaded in parallel into the same registry as when
+     * it is streamed, whatever the number of threads.
+     * @param tempDir Temporary directory where the file is written
+     * @throws Exception
+     */
+    @Test
+    void loadParallel(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 30_000);
+        assertTrue(Files.size(file) > 3 << 20);
+
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        DogRegistry<DogBreed> expected = new DogRegistryFactory(config).load(file.toString());
+        LocalDate from = LocalDate.of(2000, 1, 1);
+        LocalDate to = LocalDate.of(2030, 1, 1);
+
+        config.setLoadMode(LoadMode.PARALLEL);
+        for (int threads : new int[]{1, 4}) {
+            config.setLoadThreads(threads);
+            DogRegistryFactory factory = new DogRegistryFactory(config);
+            DogRegistry<DogBreed> registry = factory.load(file.toString());
+            assertEquals(names(expected.dogsBornBetween(from, to)), names(registry.dogsBornBetween(from, to)));
+            assertEquals(datesOfBirth(expected.dogsBornBetween(from, to)),
+                    datesOfBirth(registry.dogsBornBetween(from, to)));
+            assertEquals(expected.averageWeightPerBreed(), registry.averageWeightPerBreed());
+            assertEquals(30_000, factory.getLastLoadStatistics().getDogs());
+            assertTrue(factory.getLastLoadStatistics().getDogsPerSecond() > 0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> config.setLoadThreads(0));
+    }
+
+    /**
+     * Tests a file split at dog start tags inside a comment is read again whole, into the same registry as when it
+     * is streamed.
+     * @param tempDir Temporary directory where the file is written
+     * @throws Exception
+     */
+    @Test
+    void loadParallelSplitInComment(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 30_000);
+        String xml = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        int middle = xml.indexOf("<dog name=\"Dog-5000\"");
+        StringBuilder comment = new StringBuilder("<!--\n");
+        while (comment.length() < 2 << 20) {
+            comment.append("  <dog name=\"Ghost\"><weight>1</weight></dog>\n");
+        }
+        comment.append("-->\n  ");
+        Files.write(file, (xml.substring(0, middle) + comment + xml.substring(middle)).getBytes(StandardCharsets.UTF_8));
+
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setLoadMode(LoadMode.STREAMING);
+        DogRegistry<DogBreed> expected = new DogRegistryFactory(config).load(file.toString());
+        LocalDate from = LocalDate.of(2000, 1, 1);
+        LocalDate to = LocalDate.of(2030, 1, 1);
+
+        config.setLoadMode(LoadMode.PARALLEL);
+        config.setLoadThreads(4);
+        DogRegistryFactory factory = new DogRegistryFactory(config);
+        DogRegistry<DogBreed> registry = factory.load(file.toString());
+        assertEquals(names(expected.dogsBornBetween(from, to)), names(registry.dogsBornBetween(from, to)));
+        assertEquals(30_000, factory.getLastLoadStatistics().getDogs());
+    }
+
+    /**
+     * Tests the XML files of a directory, or matching a glob, are loaded into a single registry in the order of
+     * their names.
+     * @param tempDir Temporary directory where the shards are written
+     * @throws Exception
+     */
+    @Test
+    void loadShards(@TempDir Path tempDir) throws Exception {
+        writeDogs(tempDir.resolve("shard-2.xml"), 10, 10);
+        writeDogs(tempDir.resolve("shard-1.xml"), 0, 10);
+        writeDogs(tempDir.resolve("other.xml"), 20, 5);
+        Files.write(tempDir.resolve("notes.txt"), "not dogs".getBytes(StandardCharsets.UTF_8));
+        LocalDate from = LocalDate.of(2000, 1, 1);
+        LocalDate to = LocalDate.of(2030, 1, 1);
+
+        DogRegistryFactory factory = new DogRegistryFactory();
+        DogRegistry<DogBreed> all = factory.load(tempDir.toString());
+        assertEquals(25, all.dogsBornBetween(from, to).size());
+        assertEquals(25, factory.getLastLoadStatistics().getDogs());
+
+        DogRegistry<DogBreed> shards = factory.load(tempDir.resolve("shard-*.xml").toString());
+        List<Dog> dogs = shards.dogsBornBetween(from, to);
+        assertEquals(20, dogs.size());
+        assertTrue(dogs.stream().allMatch(dog -> Integer.parseInt(dog.getName().substring(4)) < 20));
+
+        JAXBException exception = assertThrows(JAXBException.class,
+                () -> factory.load(tempDir.resolve("missing-*.xml").toString()));
+        assertThat(exception.getMessage(), containsString("No dogs XML files found"));
+
+        Files.write(tempDir.resolve("shard-3.xml"), ("<dogs><dog name=\"Rex\"><dateOfBirth>2017-12-18</dateOfBirth>" +
+                "<weight>40</weight><breed>German Shepherd</breed></dog></dogs>").getBytes(StandardCharsets.UTF_8));
+        exception = assertThrows(JAXBException.class, () -> factory.load(tempDir.resolve("shard-*.xml").toString()));
+        assertThat(exception.getMessage(), containsString("2017-12-18"));
+    }
+
+    /**
+     * Tests a reloading registry picks up the changes of its file, keeps the registry loaded before when the file
+     * can not be loaded and leaves the registries already handed out untouched.
+     * @param tempDir Temporary directory where the file is written
+     * @throws Exception
+     */
+    @Test
+    void loadReloading(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 10);
+        DogRegistryConfig config = new DogRegistryConfig();
+        config.setReloadQuietMillis(50);
+        LocalDate from = LocalDate.of(2000, 1, 1);
+        LocalDate to = LocalDate.of(2030, 1, 1);
+
+        try (ReloadingDogRegistry registry = new DogRegistryFactory(config).loadReloading(file.toString())) {
+            DogRegistry<DogBreed> first = registry.current();
+            assertEquals(10, registry.dogsBornBetween(from, to).size());
+            assertEquals(1, registry.getReloads());
+            assertEquals(10, registry.getLastLoadStatistics().getDogs());
+
+            writeDogs(file, 0, 20);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (registry.getReloads() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(20, registry.dogsBornBetween(from, to).size());
+            assertEquals(20, registry.getLastLoadStatistics().getDogs());
+            assertEquals(10, first.dogsBornBetween(from, to).size());
+
+            Files.write(file, "<dogs><dog name=\"Rex\">".getBytes(StandardCharsets.UTF_8));
+            long failures = registry.getFailedReloads();
+            assertThrows(JAXBException.class, registry::reload);
+            assertTrue(registry.getFailedReloads() > failures);
+            assertEquals(20, registry.dogsBornBetween(from, to).size());
+        }
+    }
+
+    @Test
+    void registryCache(@TempDir Path tempDir) throws Exception {
+        RegistryCache cache = FactoryProvider.getRegistryCache();
+        Path file = tempDir.resolve("dogs.xml");
+        writeDogs(file, 0, 10);
+        LocalDate from = LocalDate.of(2000, 1, 1);
+        LocalDate to = LocalDate.of(2030, 1, 1);
+
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+        Object first = FactoryProvider.getFactory(AnimalType.DOG).load(file.toString());
+        assertSame(first, FactoryProvider.getFactory(AnimalType.DOG)
+                .load(tempDir.resolve(".").resolve("dogs.xml").toString()));
+        assertEquals(misses + 1, cache.getMisses());
+        assertEquals(hits + 1, cache.getHits());
+
+        writeDogs(file, 0, 20);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        DogRegistry<DogBreed> second = (DogRegistry<DogBreed>) FactoryProvider.getFactory(AnimalType.DOG)
+                .load(file.toString());
+        assertNotSame(first, second);
+        assertEquals(20, second.dogsBornBetween(from, to).size());
+
+        Path other = tempDir.resolve("other.xml");
+        writeDogs(other, 0, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> loads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                loads.add(executor.submit(() -> FactoryProvider.getFactory(AnimalType.DOG).load(other.toString())));
+            }
+            Object shared = loads.get(0).get();
+            for (Future<Object> load : loads) {
+                assertSame(shared, load.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int maxEntries = cache.getMaxEntries();
+        try {
+            cache.setMaxEntries(1);
+            assertEquals(1, cache.size());
+            assertNotSame(second, FactoryProvider.getFactory(AnimalType.DOG).load(file.toString()));
+        } finally {
+            cache.setMaxEntries(maxEntries);
+        }
+        assertThrows(IllegalArgumentException.class, () -> cache.setMaxEntries(0));
+
+        Path broken = tempDir.resolve("broken.xml");
+        Files.write(broken, "<dogs><dog name=\"Rex\">".getBytes(StandardCharsets.UTF_8));
+        int size = cache.size();
+        assertThrows(JAXBException.class, () -> FactoryProvider.getFactory(AnimalType.DOG).load(broken.toString()));
+        assertEquals(size, cache.size());
+    }
+
+    /**
+     * Loads a file into a registry of a storage mode, scanned in parallel if larger than a threshold.
+     */
+    static DogRegistry<DogBreed> load(StorageMode storageMode, int parallelThreshold, String file)
+            throws JAXBException {
+        return load(new DogRegistryConfig(), storageMode, parallelThreshold, file);
+    }
+
+    /**
+     * Loads a file into a registry of a storage mode, scanned in parallel if larger than a threshold, with the rest
+     * of the settings of a config, which is changed accordingly.
+     */
+    static DogRegistry<DogBreed> load(DogRegistryConfig config, StorageMode storageMode, int parallelThreshold,
+                                      String file) throws JAXBException {
+        config.setStorageMode(storageMode);
+        config.setParallelThreshold(parallelThreshold);
+        return new DogRegistryFactory(config).load(file);
+    }
+
+    /**
+     * Writes a dogs XML file with generated dogs, named after their position.
+     * @param file File to write
+     * @param first Position of the first dog
+     * @param count Number of dogs to write
+     */
+    static void writeDogs(Path file, int first, int count) throws Exception {
+        String[] breeds = {"Rhodesian Ridgeback", "Bernese Mountain Dog", "Shiba Inu", "Siberian Husky",
+                "German Shepherd", "Labrador Retriever", "Greyhound", "Japanese Spitz"};
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<dogs>\n");
+        for (int i = first; i < first + count; i++) {
+            LocalDate dateOfBirth = LocalDate.of(2005, 1, 1).plusDays(i * 7919L % 5000);
+            xml.append("  <dog name=\"Dog-").append(i).append("\">\n")
+                    .append("    <dateOfBirth>").append(dateOfBirth.format(DateTimeFormatter.ofPattern("dd-MM-yyyy")))
+                    .append("</dateOfBirth>\n")
+                    .append("    <weight>").append(10 + i % 50).append("</weight>\n")
+                    .append("    <breed>").append(breeds[i % breeds.length]).append("</breed>\n")
+                    .append("  </dog>\n");
+        }
+        xml.append("</dogs>\n");
+        Files.write(file, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the names of the dogs passed as argument, in the same order.
+     */
+    static List<String> names(List<Dog> dogs) {
+        return dogs.stream().map(Dog::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the dates of birth of the dogs passed as argument, in the same order.
+     */
+    static List<String> datesOfBirth(List<Dog> dogs) {
+        return dogs.stream().map(Dog::getDateOfBirth).collect(Collectors.toList());
+    }
+
+    /**
+     * Builds a new {@link Dog} with the values passed as argument.
+     */
+    static Dog dog(String name, String dateOfBirth, double weight, DogBreed breed) {
+        Dog dog = new Dog();
+        dog.setName(name);
+        dog.setDateOfBirth(dateOfBirth);
+        dog.setWeight(weight);
+        dog.setBreed(breed);
+        return dog;
+    }
+
     @Test
     void nonValidAnimalFactoryType() {
         assertThrows(IllegalArgumentException.class, () ->{
@@ -186,4 +1380,27 @@ class DogRegistryTest {
         assertThat(outContent.toString(), containsString("logging is disabled"));
     }
 
+    /**
+     * Tests query results are logged as a summary with the number of dogs and the first ones only.
+     */
+    @Test
+    void logDogsSummary() {
+        DogRegistryConfig.setEnableLogging(true);
+        DogRegistryConfig.setMaxLoggedDogs(2);
+        try {
+            int logged = outContent.toString().length();
+            List<Dog> dogs = dogRegistry.dogsByCondition(dog -> true);
+            String output = outContent.toString().substring(logged);
+            assertThat(output, containsString("Dogs meeting condition: 15 dogs [" + dogs.get(0) + ", " + dogs.get(1)
+                    + ", ... and 13 more]"));
+            assertFalse(output.contains(dogs.get(2).toString()));
+            DogRegistryConfig.setMaxLoggedDogs(0);
+            dogRegistry.dogsBornBetween(LocalDate.of(2005, 2, 5), LocalDate.of(2005, 2, 5));
+            assertThat(outContent.toString(), containsString("Dogs born between 2005-02-05 and 2005-02-05: 1 dog"));
+            assertThrows(IllegalArgumentException.class, () -> DogRegistryConfig.setMaxLoggedDogs(-1));
+        } finally {
+            DogRegistryConfig.setMaxLoggedDogs(10);
+        }
+    }
+
 }
\ No newline at end of file
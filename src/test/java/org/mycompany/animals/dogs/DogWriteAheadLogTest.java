@@ -0,0 +1,215 @@
+package org.mycompany.animals.dogs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mycompany.animals.dogs.config.FsyncPolicy;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mycompany.animals.dogs.DogRegistryTest.dog;
+
+/**
+ * This class performs some test cases against the {@link DogWriteAheadLog} class, injecting a channel which fails
+ * to check records are never reported as committed unless they have been written and forced to disk.
+ */
+class DogWriteAheadLogTest {
+
+    private static DogChanges register(String name) {
+        return new DogChanges(Collections.singletonList(dog(name, "10-11-1923", 41, DogBreed.SHIBA_INU)),
+                Collections.emptyList(), Collections.emptyList());
+    }
+
+    private static List<String> replay(Path file) throws Exception {
+        List<String> names = new ArrayList<>();
+        long validLength = DogWriteAheadLog.read(file, changes -> names.add(changes.getAdded().get(0).getName()));
+        assertEquals(Files.size(file), validLength, "The log should not end with a torn record");
+        return names;
+    }
+
+    @Test
+    void failedWriteIsNeverCommitted(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs-0.wal");
+        FailingChannel channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE));
+        DogWriteAheadLog log = new DogWriteAheadLog(channel, 0, FsyncPolicy.ALWAYS);
+
+        log.commit(log.append(register("Hachi")));
+        assertEquals(1, log.committed());
+
+        // The second group is only half written
+        channel.writableBytes = 10;
+        long first = log.append(register("Lassie"));
+        long second = log.append(register("Laika"));
+        assertThrows(IOException.class, () -> log.commit(second));
+        assertThrows(IOException.class, () -> log.commit(first));
+        assertEquals(1, log.committed());
+
+        // Nothing is written once the log failed, even if the file could be written again
+        channel.writableBytes = Long.MAX_VALUE;
+        long third = log.append(register("Balto"));
+        assertThrows(IOException.class, () -> log.commit(third));
+        assertThrows(IOException.class, log::sync);
+        log.close();
+        assertEquals(1, log.committed());
+        assertEquals(Arrays.asList("Hachi"), replay(file));
+    }
+
+    @Test
+    void failedForceIsNeverCommitted(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs-0.wal");
+        FailingChannel channel = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE));
+        DogWriteAheadLog log = new DogWriteAheadLog(channel, 0, FsyncPolicy.ALWAYS);
+
+        log.commit(log.append(register("Hachi")));
+        channel.failForce = true;
+        long record = log.append(register("Lassie"));
+        assertThrows(IOException.class, () -> log.commit(record));
+        assertEquals(1, log.committed());
+        channel.failForce = false;
+        assertThrows(IOException.class, () -> log.commit(record));
+        log.close();
+        assertEquals(Arrays.asList("Hachi"), replay(file));
+    }
+
+    @Test
+    void recordsWhichCanNotBeEncodedAreNotAppended(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("dogs-0.wal");
+        try (DogWriteAheadLog log = new DogWriteAheadLog(file, 0, FsyncPolicy.ALWAYS)) {
+            char[] name = new char[70000];
+            Arrays.fill(name, 'a');
+            assertThrows(IllegalArgumentException.class, () -> log.append(register(new String(name))));
+            log.commit(log.append(register("Hachi")));
+            assertEquals(1, log.committed());
+        }
+        assertEquals(Arrays.asList("Hachi"), replay(file));
+    }
+
+    /**
+     * {@link FileChannel} writing to another one until it runs out of writable bytes, and failing to force it to
+     * disk when asked to.
+     */
+    private static final class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private volatile long writableBytes = Long.MAX_VALUE;
+        private volatile boolean failForce;
+
+        private FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (writableBytes <= 0) {
+                throw new IOException("No space left on device");
+            }
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + (int) Math.min(part.remaining(), writableBytes));
+            int written = channel.write(part);
+            src.position(src.position() + written);
+            writableBytes -= written;
+            return written;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failForce) {
+                throw new IOException("Input/output error");
+            }
+            channel.force(metaData);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.mycompany.animals.dogs;
+
+import org.junit.jupiter.api.Test;
+import org.mycompany.animals.dogs.domain.Dog;
+import org.mycompany.animals.dogs.domain.DogBreed;
+
+import javax.xml.bind.JAXBException;
+import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mycompany.animals.dogs.DogRegistryTest.dog;
+import static org.mycompany.animals.dogs.DogRegistryTest.dogsFile;
+
+/**
+ * This class performs some test cases against the {@link WeightAggregates} class, checking averages, mins and
+ * maxs against the ones computed by a stream over the same weights, after adding and removing weights.
+ */
+class WeightAggregatesTest {
+
+    /**
+     * Tolerance of the averages once weights have been removed, since the compensated sum is then no longer the
+     * one a stream would compute over the remaining weights.
+     */
+    private static final double DELTA = 1e-9;
+
+    /**
+     * Returns the weights of every breed as added to the aggregates, indexed by breed ordinal.
+     */
+    private static List<List<Double>> addRandomWeights(WeightAggregates aggregates, Random random) {
+        List<List<Double>> weights = new ArrayList<>();
+        for (DogBreed breed : DogBreed.values()) {
+            List<Double> breedWeights = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                double weight = 1 + random.nextDouble() * 60;
+                breedWeights.add(weight);
+                aggregates.add(breed.ordinal(), weight);
+            }
+            weights.add(breedWeights);
+        }
+        return weights;
+    }
+
+    private static DoubleSummaryStatistics statistics(List<Double> weights) {
+        return weights.stream().mapToDouble(Double::doubleValue).summaryStatistics();
+    }
+
+    @Test
+    void averagesMatchStreamsAfterAdds() {
+        WeightAggregates aggregates = new WeightAggregates();
+        List<List<Double>> weights = addRandomWeights(aggregates, new Random(42));
+
+        EnumMap<DogBreed, Double> averages = aggregates.averages();
+        for (DogBreed breed : DogBreed.values()) {
+            DoubleSummaryStatistics expected = statistics(weights.get(breed.ordinal()));
+            assertEquals(expected.getCount(), aggregates.count(breed.ordinal()));
+            assertEquals(expected.getAverage(), aggregates.average(breed.ordinal()), breed.value());
+            assertEquals(expected.getAverage(), averages.get(breed));
+            assertEquals(expected.getMin(), aggregates.min(breed.ordinal()));
+            assertEquals(expected.getMax(), aggregates.max(breed.ordinal()));
+            assertFalse(aggregates.hasStaleExtremes(breed.ordinal()));
+        }
+    }
+
+    @Test
+    void averagesMatchStreamsAfterMerge() {
+        Random random = new Random(7);
+        WeightAggregates first = new WeightAggregates();
+        WeightAggregates second = new WeightAggregates();
+        List<List<Double>> firstWeights = addRandomWeights(first, random);
+        List<List<Double>> secondWeights = addRandomWeights(second, random);
+        first.add(second);
+
+        for (DogBreed breed : DogBreed.values()) {
+            DoubleSummaryStatistics expected = statistics(firstWeights.get(breed.ordinal()));
+            expected.combine(statistics(secondWeights.get(breed.ordinal())));
+            assertEquals(expected.getCount(), first.count(breed.ordinal()));
+            assertEquals(expected.getAverage(), first.average(breed.ordinal()), breed.value());
+            assertEquals(expected.getMin(), first.min(breed.ordinal()));
+            assertEquals(expected.getMax(), first.max(breed.ordinal()));
+        }
+    }
+
+    @Test
+    void averagesMatchStreamsAfterRemovals() {
+        Random random = new Random(11);
+        WeightAggregates aggregates = new WeightAggregates();
+        List<List<Double>> weights = addRandomWeights(aggregates, random);
+
+        for (DogBreed breed : DogBreed.values()) {
+            int ordinal = breed.ordinal();
+            List<Double> breedWeights = weights.get(ordinal);
+
+            // Removing a weight strictly between the extremes keeps them valid
+            DoubleSummaryStatistics before = statistics(breedWeights);
+            Double middle = breedWeights.stream()
+                    .filter(weight -> weight > before.getMin() && weight < before.getMax()).findFirst().get();
+            breedWeights.remove(middle);
+            aggregates.remove(ordinal, middle);
+            assertFalse(aggregates.hasStaleExtremes(ordinal));
+            assertEquals(statistics(breedWeights).getAverage(), aggregates.average(ordinal), DELTA);
+
+            // Removing the current min and then the current max makes them stale until they are reset
+            for (boolean min : new boolean[]{true, false}) {
+                DoubleSummaryStatistics current = statistics(breedWeights);
+                Double extreme = min ? current.getMin() : current.getMax();
+                breedWeights.remove(extreme);
+                aggregates.remove(ordinal, extreme);
+                assertTrue(aggregates.hasStaleExtremes(ordinal));
+                DoubleSummaryStatistics expected = statistics(breedWeights);
+                assertEquals(expected.getCount(), aggregates.count(ordinal));
+                assertEquals(expected.getAverage(), aggregates.average(ordinal), DELTA);
+                aggregates.resetExtremes(ordinal, expected.getMin(), expected.getMax());
+                assertFalse(aggregates.hasStaleExtremes(ordinal));
+            }
+
+            // Remove half of the weights in random order
+            for (int i = breedWeights.size() / 2; i > 0; i--) {
+                aggregates.remove(ordinal, breedWeights.remove(random.nextInt(breedWeights.size())));
+            }
+            assertEquals(statistics(breedWeights).getAverage(), aggregates.average(ordinal), DELTA);
+            assertEquals(statistics(breedWeights).getAverage(), aggregates.averages().get(breed), DELTA);
+        }
+
+        // Emptying a breed resets it completely
+        int ordinal = DogBreed.GREYHOUND.ordinal();
+        for (Double weight : weights.get(ordinal)) {
+            aggregates.remove(ordinal, weight);
+        }
+        assertEquals(0, aggregates.count(ordinal));
+        assertEquals(0, aggregates.average(ordinal));
+        assertEquals(Double.POSITIVE_INFINITY, aggregates.min(ordinal));
+        assertEquals(Double.NEGATIVE_INFINITY, aggregates.max(ordinal));
+        assertFalse(aggregates.hasStaleExtremes(ordinal));
+        assertFalse(aggregates.averages().containsKey(DogBreed.GREYHOUND));
+        aggregates.add(ordinal, 12.5);
+        assertEquals(12.5, aggregates.average(ordinal));
+    }
+
+    /**
+     * Checks the averages of a mutable registry against the ones computed by a stream over its dogs, after
+     * registering, updating and deregistering dogs, including the lightest and the heaviest dog of a breed.
+     * @throws JAXBException
+     */
+    @Test
+    void registryAveragesMatchStreams() throws JAXBException {
+        MutableDogRegistry<DogBreed> registry = (MutableDogRegistry<DogBreed>) new DogRegistryFactory().load(dogsFile);
+        assertAveragesMatchStreams(registry, 0);
+
+        for (int i = 0; i < 50; i++) {
+            registry.register(dog("Dog" + i, "01-01-2015", 10 + i * 0.37, DogBreed.values()[i % 9]));
+        }
+        assertAveragesMatchStreams(registry, DELTA);
+
+        List<Dog> huskies = registry.dogsByCondition(dog -> dog.getBreed() == DogBreed.SIBERIAN_HUSKY);
+        Dog lightest = huskies.stream().min((a, b) -> Double.compare(a.getWeight(), b.getWeight())).get();
+        Dog heaviest = huskies.stream().max((a, b) -> Double.compare(a.getWeight(), b.getWeight())).get();
+        assertTrue(registry.deregister(lightest.getName()));
+        assertAveragesMatchStreams(registry, DELTA);
+        assertTrue(registry.update(dog(heaviest.getName(), heaviest.getDateOfBirth(), 1.5, DogBreed.SIBERIAN_HUSKY)));
+        assertAveragesMatchStreams(registry, DELTA);
+        assertTrue(registry.update(dog("Dog5", "01-01-2015", 99, DogBreed.GREYHOUND)));
+        assertAveragesMatchStreams(registry, DELTA);
+        for (int i = 0; i < 50; i += 2) {
+            registry.deregister("Dog" + i);
+        }
+        assertAveragesMatchStreams(registry, DELTA);
+    }
+
+    private static void assertAveragesMatchStreams(DogRegistry<DogBreed> registry, double delta) {
+        EnumMap<DogBreed, Double> expected = registry.dogsByCondition(dog -> true).stream()
+                .collect(Collectors.groupingBy(Dog::getBreed, () -> new EnumMap<>(DogBreed.class),
+                        Collectors.averagingDouble(Dog::getWeight)));
+        EnumMap<DogBreed, Double> averages = registry.averageWeightPerBreed();
+        assertEquals(expected.keySet(), averages.keySet());
+        for (DogBreed breed : DogBreed.values()) {
+            double average = expected.getOrDefault(breed, 0.0);
+            assertEquals(average, registry.averageWeight(breed), delta, breed.value());
+            if (expected.containsKey(breed)) {
+                assertEquals(average, averages.get(breed), delta, breed.value());
+            }
+        }
+    }
+}